@@ -29,102 +29,261 @@
 #include <jni.h>
 #include <android/log.h>
 
+#include "yuv_convert.h"
+#include "yuv_matrix.h"
+#include "yuv_mirror.h"
+#include "yuv_scale.h"
+#include "yuv_session.h"
+#include "yuv_workers.h"
+
 #define LOGI(...) \
   ((void)__android_log_print(ANDROID_LOG_INFO, "RgbYuvEncoder::", __VA_ARGS__))
 
-JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_yuv2rgba(
-        JNIEnv *env, jobject obj, jint width, jint height, jbyteArray yuvIn, jbyteArray rgbaOut) {
-    int R, G, B;
-    int Y, Cb = 0, Cr = 0;
-    int cOffset, pixelIndex, rOffset;
+#define MAX_RENDITIONS 8
 
-    jbyte *yuv = (jbyte *) (*env)->GetPrimitiveArrayCritical(env, yuvIn, 0);
-    jbyte *rgba = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, rgbaOut, 0));
+static const YuvKernels *sKernels = &kYuvKernelsC;
+// kernels of every colour matrix at every accuracy, built on the detected kernels
+static YuvKernels sMatrixKernels[YUV_MATRIX_COUNT][YUV_ACCURACY_COUNT];
+static volatile int sColorMatrix = YUV_MATRIX_LEGACY;
 
-    int y = 0, size = width * height;
-    for (; y < height; y++) {
-        int x = 0;
-        int y_div_2 = y >> 1;
-        pixelIndex = y * width;
-        for (; x < width; x++) {
-            Y = yuv[pixelIndex];
-            if (Y < 0) {
-                Y += 255;
-            }
-            if ((x & 0x1) == 0) {
-                cOffset = size + y_div_2 * width + x;
-                Cr = yuv[cOffset];
-                Cr = Cr < 0 ? Cr + 127 : Cr - 128;
-                Cb = yuv[cOffset + 1];
-                Cb = Cb < 0 ? Cb + 127 : Cb - 128;
-            }
-            Y = Y + (Y >> 3) + (Y >> 5);
-            R = Y + Cr + (Cr >> 1) + (Cr >> 4) + (Cr >> 5);
-            G = Y - (Cb >> 1) + (Cb >> 3) - Cr + (Cr >> 3) + (Cr >> 4);
-            B = Y + (Cb << 1);
-            rOffset = pixelIndex << 2;
-            rgba[rOffset] = (jbyte) (R < 0 ? 0 : (R > 255 ? 255 : R));
-            rgba[rOffset + 1] = (jbyte) (G < 0 ? 0 : (G > 255 ? 255 : G));
-            rgba[rOffset + 2] = (jbyte) (B < 0 ? 0 : (B > 255 ? 255 : B));
-            rgba[rOffset + 3] = (jbyte) 0xFF;
-            pixelIndex++;
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved) {
+    const YuvKernels *detected = yuv_kernels_detect();
+    int i, j;
+    for (i = 0; i < YUV_MATRIX_COUNT; i++) {
+        for (j = 0; j < YUV_ACCURACY_COUNT; j++) {
+            yuv_matrix_accuracy_kernels(detected, i, j, &sMatrixKernels[i][j]);
         }
     }
+    sKernels = &sMatrixKernels[YUV_MATRIX_LEGACY][YUV_ACCURACY_DEFAULT];
+    LOGI("use %s kernels", sKernels->name);
+    return JNI_VERSION_1_6;
+}
+
+/**
+ * Kernels of the current colour matrix at the accuracy, the default ones if it's unknown.
+ */
+static const YuvKernels *kernelsOf(jint accuracy) {
+    if (accuracy <= YUV_ACCURACY_DEFAULT || accuracy >= YUV_ACCURACY_COUNT) {
+        return sKernels;
+    }
+    return &sMatrixKernels[sColorMatrix][accuracy];
+}
+
+JNIEXPORT jstring JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeKernelName(
+        JNIEnv *env, jclass type) {
+    return (*env)->NewStringUTF(env, sKernels->name);
+}
+
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeSetThreadCount(
+        JNIEnv *env, jclass type, jint threadCount) {
+    return yuv_workers_set_threads(threadCount);
+}
+
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeSetColorMatrix(
+        JNIEnv *env, jclass type, jint colorMatrix) {
+    if (colorMatrix < 0 || colorMatrix >= YUV_MATRIX_COUNT) {
+        return -1;
+    }
+    sColorMatrix = colorMatrix;
+    sKernels = &sMatrixKernels[colorMatrix][YUV_ACCURACY_DEFAULT];
+    return 0;
+}
+
+/**
+ * @return address of the direct buffer, or NULL if it's not a direct buffer, or its capacity is
+ * less than {@code size}
+ */
+static uint8_t *directAddress(JNIEnv *env, jobject buffer, jlong size) {
+    uint8_t *address = (uint8_t *) (*env)->GetDirectBufferAddress(env, buffer);
+    if (address == NULL || (*env)->GetDirectBufferCapacity(env, buffer) < size) {
+        return NULL;
+    }
+    return address;
+}
+
+/**
+ * Planes of a YUV_420_888 image, Cb and Cr must have the same strides, as the format guarantees.
+ */
+static int imagePlanes(JNIEnv *env, YuvPlanes *planes, jint width, jint height, jobject YIn,
+                       jobject CrIn, jobject CbIn, jint YRowStride, jint CRowStride,
+                       jint CrPixelStride, jint CbPixelStride) {
+    // the last row of a plane could be shorter than its row stride
+    jlong cSize = (jlong) ((height >> 1) - 1) * CRowStride
+                  + (jlong) ((width >> 1) - 1) * CrPixelStride + 1;
+    if (CrPixelStride != CbPixelStride || YRowStride < width
+        || CRowStride < (width >> 1) * CrPixelStride) {
+        return -1;
+    }
+    planes->y = directAddress(env, YIn, (jlong) (height - 1) * YRowStride + width);
+    planes->cr = directAddress(env, CrIn, cSize);
+    planes->cb = directAddress(env, CbIn, cSize);
+    if (planes->y == NULL || planes->cr == NULL || planes->cb == NULL) {
+        return -1;
+    }
+    planes->y_row_stride = YRowStride;
+    planes->c_row_stride = CRowStride;
+    planes->c_pixel_stride = CrPixelStride;
+    return 0;
+}
+
+/**
+ * @return output size of the transform in bytes, or -1 if it's invalid
+ */
+static jlong outputSize(const YuvTransform *transform, jint width, jint height) {
+    int outputWidth, outputHeight;
+    if (yuv_transform_output_size(transform, width, height, &outputWidth, &outputHeight) != 0) {
+        return -1;
+    }
+    return transform->output_format == YUV_FORMAT_RGBA
+           ? (jlong) outputWidth * outputHeight * 4
+           : (jlong) outputWidth * outputHeight * 3 / 2;
+}
+
+/**
+ * Planes of a destination buffer of the caller for an output of the size, every plane must fit
+ * in its buffer after its offset, the last row of a plane could be shorter than its row stride.
+ */
+static int planesOutput(JNIEnv *env, YuvOutput *output, int format, int outputWidth,
+                        int outputHeight, jobject YOut, jobject CrOut, jobject CbOut,
+                        jint YOffset, jint CrOffset, jint CbOffset, jint YRowStride,
+                        jint CRowStride, jint CPixelStride) {
+    if (YOffset < 0 || YRowStride <= 0) {
+        return -1;
+    }
+    jlong rowBytes = format == YUV_FORMAT_RGBA ? (jlong) outputWidth * 4 : outputWidth;
+    uint8_t *y = directAddress(env, YOut,
+                               YOffset + (jlong) (outputHeight - 1) * YRowStride + rowBytes);
+    if (y == NULL) {
+        return -1;
+    }
+    output->y = y + YOffset;
+    output->y_row_stride = YRowStride;
+    output->cr = NULL;
+    output->cb = NULL;
+    output->c_row_stride = 0;
+    output->c_pixel_stride = 0;
+    if (format == YUV_FORMAT_RGBA) {
+        return 0;
+    }
+
+    jlong cSize = (jlong) ((outputHeight >> 1) - 1) * CRowStride
+                  + (jlong) ((outputWidth >> 1) - 1) * CPixelStride + 1;
+    if (CrOffset < 0 || CbOffset < 0 || CRowStride <= 0 || CPixelStride <= 0) {
+        return -1;
+    }
+    uint8_t *cr = directAddress(env, CrOut, CrOffset + cSize);
+    uint8_t *cb = directAddress(env, CbOut, CbOffset + cSize);
+    if (cr == NULL || cb == NULL) {
+        return -1;
+    }
+    output->cr = cr + CrOffset;
+    output->cb = cb + CbOffset;
+    output->c_row_stride = CRowStride;
+    output->c_pixel_stride = CPixelStride;
+    return 0;
+}
+
+/**
+ * Planes of a destination buffer of the caller for the output of the transform.
+ */
+static int bufferOutput(JNIEnv *env, YuvOutput *output, const YuvTransform *transform,
+                        jint width, jint height, jobject YOut, jobject CrOut, jobject CbOut,
+                        jint YOffset, jint CrOffset, jint CbOffset, jint YRowStride,
+                        jint CRowStride, jint CPixelStride) {
+    int outputWidth, outputHeight;
+    if (yuv_transform_output_size(transform, width, height, &outputWidth, &outputHeight) != 0) {
+        return -1;
+    }
+    return planesOutput(env, output, transform->output_format, outputWidth, outputHeight, YOut,
+                        CrOut, CbOut, YOffset, CrOffset, CbOffset, YRowStride, CRowStride,
+                        CPixelStride);
+}
+
+/**
+ * Planes of a destination buffer of the caller for the output of the session.
+ */
+static int sessionOutput(JNIEnv *env, YuvOutput *output, const YuvTransformPlan *plan,
+                         jobject YOut, jobject CrOut, jobject CbOut, jint YOffset,
+                         jint CrOffset, jint CbOffset, jint YRowStride, jint CRowStride,
+                         jint CPixelStride) {
+    return planesOutput(env, output, plan->output_format, plan->output_width,
+                        plan->output_height, YOut, CrOut, CbOut, YOffset, CrOffset, CbOffset,
+                        YRowStride, CRowStride, CPixelStride);
+}
+
+JNIEXPORT jobject JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_interleavedChroma(
+        JNIEnv *env, jclass type, jobject firstIn, jobject secondIn, jint size) {
+    // each plane misses the last byte of the other one
+    uint8_t *first = directAddress(env, firstIn, size - 1);
+    uint8_t *second = directAddress(env, secondIn, size - 1);
+    if (size < 2 || first == NULL || second != first + 1) {
+        return NULL;
+    }
+    return (*env)->NewDirectByteBuffer(env, first, size);
+}
+
+JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeYuv2rgba(
+        JNIEnv *env, jobject obj, jint width, jint height, jbyteArray yuvIn, jbyteArray rgbaOut) {
+    jbyte *yuv = (jbyte *) (*env)->GetPrimitiveArrayCritical(env, yuvIn, 0);
+    jbyte *rgba = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, rgbaOut, 0));
+
+    YuvPlanes planes;
+    yuv_planes_nv21(&planes, (const uint8_t *) yuv, width, height);
+    yuv_to_rgba(sKernels, &planes, width, height, (uint8_t *) rgba);
 
     (*env)->ReleasePrimitiveArrayCritical(env, yuvIn, yuv, 0);
     (*env)->ReleasePrimitiveArrayCritical(env, rgbaOut, rgba, 0);
     return 0;
 }
 
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_yuv2rgbaDirect(
+        JNIEnv *env, jclass type, jint width, jint height, jobject yuvIn, jobject rgbaOut) {
+    uint8_t *yuv = directAddress(env, yuvIn, (jlong) width * height * 3 / 2);
+    uint8_t *rgba = directAddress(env, rgbaOut, (jlong) width * height * 4);
+    if (yuv == NULL || rgba == NULL) {
+        return -1;
+    }
+
+    YuvPlanes planes;
+    yuv_planes_nv21(&planes, yuv, width, height);
+    yuv_to_rgba(sKernels, &planes, width, height, rgba);
+    return 0;
+}
+
 JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_image2rgba(
         JNIEnv *env, jobject obj, jint width, jint height, jobject YIn, jobject CrIn, jobject CbIn,
-        int CrPixelStride, int CbPixelStride, jbyteArray rgbaOut) {
-    int R, G, B;
-    int Y, Cb = 0, Cr = 0;
-    int cIndex, pixelIndex, rOffset;
-
-    jbyte *YArray = (jbyte *) (*env)->GetDirectBufferAddress(env, YIn);
-    jbyte *CrArray = (jbyte *) (*env)->GetDirectBufferAddress(env, CrIn);
-    jbyte *CbArray = (jbyte *) (*env)->GetDirectBufferAddress(env, CbIn);
-    if (YArray == 0 || CrArray == 0 || CbArray == 0) {
+        jint YRowStride, jint CRowStride, int CrPixelStride, int CbPixelStride,
+        jbyteArray rgbaOut) {
+    YuvPlanes planes;
+    if (imagePlanes(env, &planes, width, height, YIn, CrIn, CbIn, YRowStride, CRowStride,
+                    CrPixelStride, CbPixelStride) != 0) {
         return -1;
     }
     jbyte *rgba = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, rgbaOut, 0));
 
-    int y = 0;
-    for (; y < height; y++) {
-        int x = 0;
-        int y_div_2 = y >> 1;
-        pixelIndex = y * width;
-        for (; x < width; x++) {
-            Y = YArray[pixelIndex];
-            if (Y < 0) {
-                Y += 255;
-            }
-            if ((x & 0x1) == 0) {
-                cIndex = (y_div_2 * width + x) >> 1;
-                Cr = CrArray[cIndex * CrPixelStride];
-                Cr = Cr < 0 ? Cr + 127 : Cr - 128;
-                Cb = CbArray[cIndex * CbPixelStride];
-                Cb = Cb < 0 ? Cb + 127 : Cb - 128;
-            }
-            Y = Y + (Y >> 3) + (Y >> 5);
-            R = Y + Cr + (Cr >> 1) + (Cr >> 4) + (Cr >> 5);
-            G = Y - (Cb >> 1) + (Cb >> 3) - Cr + (Cr >> 3) + (Cr >> 4);
-            B = Y + (Cb << 1);
-            rOffset = pixelIndex << 2;
-            rgba[rOffset] = (jbyte) (R < 0 ? 0 : (R > 255 ? 255 : R));
-            rgba[rOffset + 1] = (jbyte) (G < 0 ? 0 : (G > 255 ? 255 : G));
-            rgba[rOffset + 2] = (jbyte) (B < 0 ? 0 : (B > 255 ? 255 : B));
-            rgba[rOffset + 3] = (jbyte) 0xFF;
-            pixelIndex++;
-        }
-    }
+    yuv_to_rgba(sKernels, &planes, width, height, (uint8_t *) rgba);
+
     (*env)->ReleasePrimitiveArrayCritical(env, rgbaOut, rgba, 0);
     return 0;
 }
 
-JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_rgba2yuv(
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_image2rgbaDirect(
+        JNIEnv *env, jclass type, jint width, jint height, jobject YIn, jobject CrIn, jobject CbIn,
+        jint YRowStride, jint CRowStride, jint CrPixelStride, jint CbPixelStride,
+        jobject rgbaOut) {
+    YuvPlanes planes;
+    uint8_t *rgba = directAddress(env, rgbaOut, (jlong) width * height * 4);
+    if (rgba == NULL
+        || imagePlanes(env, &planes, width, height, YIn, CrIn, CbIn, YRowStride, CRowStride,
+                       CrPixelStride, CbPixelStride) != 0) {
+        return -1;
+    }
+
+    yuv_to_rgba(sKernels, &planes, width, height, rgba);
+    return 0;
+}
+
+JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeRgba2yuv(
         JNIEnv *env, jobject obj, jint width, jint height, jintArray rgbaIn, jbyteArray yuvOut) {
     int R, G, B;
     int Y, Cb = 0, Cr = 0;
@@ -173,358 +332,360 @@ JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConvert
     return 0;
 }
 
-JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_rgba2yuvRotateC90(
-        JNIEnv *env, jobject obj, jint width, jint height, jbyteArray rgbaIn, jbyteArray yuvOut) {
-    int R, G, B;
-    int Y, Cb = 0, Cr = 0;
-    int cOffset;
-    int outputWidth = height, outputHeight = width;
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_yuvTransform(
+        JNIEnv *env, jclass type, jint width, jint height, jbyteArray yuvIn_, jint cropX,
+        jint cropY, jint cropWidth, jint cropHeight, jint rotation, jboolean flipHorizontal,
+        jboolean flipVertical, jint outputFormat, jint accuracy, jbyteArray out_) {
+    YuvTransform transform = {
+            cropX, cropY, cropWidth, cropHeight, rotation, flipHorizontal, flipVertical,
+            outputFormat
+    };
+    jlong size = outputSize(&transform, width, height);
+    if (size < 0 || (*env)->GetArrayLength(env, out_) < size
+        || (*env)->GetArrayLength(env, yuvIn_) < width * height * 3 / 2) {
+        return -1;
+    }
+    jbyte *yuvIn = (*env)->GetPrimitiveArrayCritical(env, yuvIn_, 0);
+    jbyte *out = (*env)->GetPrimitiveArrayCritical(env, out_, 0);
 
-    jbyte *rgba = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, rgbaIn, 0));
-    jbyte *yuv = (jbyte *) (*env)->GetPrimitiveArrayCritical(env, yuvOut, 0);
+    YuvPlanes planes;
+    yuv_planes_nv21(&planes, (const uint8_t *) yuvIn, width, height);
+    int ret = yuv_transform(kernelsOf(accuracy), &planes, width, height, &transform,
+                            (uint8_t *) out);
 
-    int y = 0, x, size = outputWidth * outputHeight;
-    for (; y < outputHeight; y++) {
-        x = 0;
-        int y_M_width = y * outputWidth;
-        int y_div2_M_width = (y >> 1) * outputWidth;
-        for (; x < outputWidth; x++) {
-            int rgbaIndex = (outputHeight * (outputWidth - 1 - x) + y) << 2;
-            R = rgba[rgbaIndex];
-            if (R < 0) {
-                R += 256;
-            }
-            G = rgba[rgbaIndex + 1];
-            if (G < 0) {
-                G += 256;
-            }
-            B = rgba[rgbaIndex + 2];
-            if (B < 0) {
-                B += 256;
-            }
-            Y = (R >> 2) + (R >> 7) + (G >> 1) + (G >> 8) + (B >> 4) + (B >> 5) + (B >> 8) + 16;
-            yuv[y_M_width + x] = (jbyte) Y;
-            if ((y & 0x1) == 0 && (x & 0x1) == 0) {
-                cOffset = size + y_div2_M_width + x;
-                Cr = (R >> 1) - (R >> 4) - (G >> 2) - (G >> 3) + (G >> 7) - (B >> 4) - (B >> 7) +
-                     128;
-                yuv[cOffset] = (jbyte) Cr;
-                Cb = -(R >> 3) - (R >> 6) - (R >> 7) - (G >> 2) - (G >> 5) - (G >> 7) + (B >> 1) -
-                     (B >> 4) + 128;
-                yuv[cOffset + 1] = (jbyte) Cb;
-            }
-        }
+    (*env)->ReleasePrimitiveArrayCritical(env, yuvIn_, yuvIn, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, out_, out, 0);
+    return ret;
+}
+
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_yuvTransformDirect(
+        JNIEnv *env, jclass type, jint width, jint height, jobject yuvIn, jint cropX,
+        jint cropY, jint cropWidth, jint cropHeight, jint rotation, jboolean flipHorizontal,
+        jboolean flipVertical, jint outputFormat, jint accuracy, jobject out_) {
+    YuvTransform transform = {
+            cropX, cropY, cropWidth, cropHeight, rotation, flipHorizontal, flipVertical,
+            outputFormat
+    };
+    jlong size = outputSize(&transform, width, height);
+    uint8_t *yuv = directAddress(env, yuvIn, (jlong) width * height * 3 / 2);
+    uint8_t *out = directAddress(env, out_, size);
+    if (size < 0 || yuv == NULL || out == NULL) {
+        return -1;
     }
 
-    (*env)->ReleasePrimitiveArrayCritical(env, rgbaIn, rgba, 0);
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut, yuv, 0);
-    return 0;
+    YuvPlanes planes;
+    yuv_planes_nv21(&planes, yuv, width, height);
+    return yuv_transform(kernelsOf(accuracy), &planes, width, height, &transform, out);
 }
 
-JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_rgba2yuvRotateC90Flip(
-        JNIEnv *env, jobject obj, jint width, jint height, jbyteArray rgbaIn, jbyteArray yuvOut) {
-    int R, G, B;
-    int Y, Cb = 0, Cr = 0;
-    int cOffset;
-    int outputWidth = height, outputHeight = width;
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_imageTransform(
+        JNIEnv *env, jclass type, jint width, jint height, jobject YIn, jobject CrIn, jobject CbIn,
+        jint YRowStride, jint CRowStride, jint CrPixelStride, jint CbPixelStride, jint cropX,
+        jint cropY, jint cropWidth, jint cropHeight, jint rotation, jboolean flipHorizontal,
+        jboolean flipVertical, jint outputFormat, jint accuracy, jbyteArray out_) {
+    YuvTransform transform = {
+            cropX, cropY, cropWidth, cropHeight, rotation, flipHorizontal, flipVertical,
+            outputFormat
+    };
+    jlong size = outputSize(&transform, width, height);
+    YuvPlanes planes;
+    if (size < 0 || (*env)->GetArrayLength(env, out_) < size
+        || imagePlanes(env, &planes, width, height, YIn, CrIn, CbIn, YRowStride, CRowStride,
+                       CrPixelStride, CbPixelStride) != 0) {
+        return -1;
+    }
+    jbyte *out = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, out_, 0));
 
-    jbyte *rgba = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, rgbaIn, 0));
-    jbyte *yuv = (jbyte *) (*env)->GetPrimitiveArrayCritical(env, yuvOut, 0);
+    int ret = yuv_transform(kernelsOf(accuracy), &planes, width, height, &transform,
+                            (uint8_t *) out);
 
-    int y = 0, x, size = outputWidth * outputHeight;
-    for (; y < outputHeight; y++) {
-        x = 0;
-        int y_M_width = y * outputWidth;
-        int y_div2_M_width = (y >> 1) * outputWidth;
-        for (; x < outputWidth; x++) {
-            int rgbaIndex = (outputHeight * (outputWidth - x) - y) << 2;
-            R = rgba[rgbaIndex];
-            if (R < 0) {
-                R += 256;
-            }
-            G = rgba[rgbaIndex + 1];
-            if (G < 0) {
-                G += 256;
-            }
-            B = rgba[rgbaIndex + 2];
-            if (B < 0) {
-                B += 256;
-            }
-            Y = (R >> 2) + (R >> 7) + (G >> 1) + (G >> 8) + (B >> 4) + (B >> 5) + (B >> 8) + 16;
-            yuv[y_M_width + x] = (jbyte) Y;
-            if ((y & 0x1) == 0 && (x & 0x1) == 0) {
-                cOffset = size + y_div2_M_width + x;
-                Cr = (R >> 1) - (R >> 4) - (G >> 2) - (G >> 3) + (G >> 7) - (B >> 4) - (B >> 7) +
-                     128;
-                yuv[cOffset] = (jbyte) Cr;
-                Cb = -(R >> 3) - (R >> 6) - (R >> 7) - (G >> 2) - (G >> 5) - (G >> 7) + (B >> 1) -
-                     (B >> 4) + 128;
-                yuv[cOffset + 1] = (jbyte) Cb;
-            }
-        }
+    (*env)->ReleasePrimitiveArrayCritical(env, out_, out, 0);
+    return ret;
+}
+
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_imageTransformDirect(
+        JNIEnv *env, jclass type, jint width, jint height, jobject YIn, jobject CrIn, jobject CbIn,
+        jint YRowStride, jint CRowStride, jint CrPixelStride, jint CbPixelStride, jint cropX,
+        jint cropY, jint cropWidth, jint cropHeight, jint rotation, jboolean flipHorizontal,
+        jboolean flipVertical, jint outputFormat, jint accuracy, jobject out_) {
+    YuvTransform transform = {
+            cropX, cropY, cropWidth, cropHeight, rotation, flipHorizontal, flipVertical,
+            outputFormat
+    };
+    jlong size = outputSize(&transform, width, height);
+    uint8_t *out = directAddress(env, out_, size);
+    YuvPlanes planes;
+    if (size < 0 || out == NULL
+        || imagePlanes(env, &planes, width, height, YIn, CrIn, CbIn, YRowStride, CRowStride,
+                       CrPixelStride, CbPixelStride) != 0) {
+        return -1;
     }
 
-    (*env)->ReleasePrimitiveArrayCritical(env, rgbaIn, rgba, 0);
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut, yuv, 0);
-    return 0;
+    return yuv_transform(kernelsOf(accuracy), &planes, width, height, &transform, out);
 }
 
-JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_yuvCropRotateC180(
-        JNIEnv *env, jobject obj, jint width, jint height, jbyteArray yuvIn_,
-        jint outputHeight_, jbyteArray yuvOut_) {
-    jbyte *yuvIn = (*env)->GetPrimitiveArrayCritical(env, yuvIn_, 0);
-    jbyte *yuvOut = (*env)->GetPrimitiveArrayCritical(env, yuvOut_, 0);
-
-    int delta = (height - outputHeight_) >> 1;
-    int org_size = width * height, crop_size_minus_1 = width * outputHeight_ - 1;
-    int crop_len_minus_1 = (width * outputHeight_ * 3) >> 1;
-    int y_M_width, y_div_2_M_width, y_minus_delta_M_width, y_minus_delta_div_2_M_width;
-    int x, y = delta;
-    for (; y < height - delta; y++) {
-        y_M_width = y * width;
-        y_div_2_M_width = y_M_width >> 1;
-        y_minus_delta_M_width = (y - delta) * width;
-        y_minus_delta_div_2_M_width = y_minus_delta_M_width >> 1;
-        x = 0;
-        for (; x < width; x++) {
-            yuvOut[crop_size_minus_1 - y_minus_delta_M_width - x] = yuvIn[y_M_width + x];
-            if ((y & 0x1) == 0 && (x & 0x1) == 0) {
-                yuvOut[crop_len_minus_1 - y_minus_delta_div_2_M_width - x] = yuvIn[org_size + y_div_2_M_width + x];
-                yuvOut[crop_len_minus_1 - y_minus_delta_div_2_M_width - x - 1] = yuvIn[org_size + y_div_2_M_width + x + 1];
-            }
-        }
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_rgbaTransform(
+        JNIEnv *env, jclass type, jint width, jint height, jbyteArray rgbaIn_, jint cropX,
+        jint cropY, jint cropWidth, jint cropHeight, jint rotation, jboolean flipHorizontal,
+        jboolean flipVertical, jint outputFormat, jint accuracy, jbyteArray yuvOut_) {
+    YuvTransform transform = {
+            cropX, cropY, cropWidth, cropHeight, rotation, flipHorizontal, flipVertical,
+            outputFormat
+    };
+    jlong size = outputSize(&transform, width, height);
+    if (size < 0 || (*env)->GetArrayLength(env, yuvOut_) < size
+        || (*env)->GetArrayLength(env, rgbaIn_) < width * height * 4) {
+        return -1;
     }
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvIn_, yuvIn, 0);
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut_, yuvOut, 0);
+    jbyte *rgba = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, rgbaIn_, 0));
+    jbyte *yuv = (jbyte *) (*env)->GetPrimitiveArrayCritical(env, yuvOut_, 0);
 
-    return 0;
+    int ret = rgba_transform(kernelsOf(accuracy), (const uint8_t *) rgba, width, height,
+                             &transform, (uint8_t *) yuv);
+
+    (*env)->ReleasePrimitiveArrayCritical(env, rgbaIn_, rgba, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut_, yuv, 0);
+    return ret;
 }
 
-JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_yuvCrop(
-        JNIEnv *env, jobject obj, jint width, jint height, jbyteArray yuvIn_,
-        jint outputHeight_, jbyteArray yuvOut_) {
-    jbyte *yuvIn = (*env)->GetPrimitiveArrayCritical(env, yuvIn_, 0);
-    jbyte *yuvOut = (*env)->GetPrimitiveArrayCritical(env, yuvOut_, 0);
-
-    int delta = (height - outputHeight_) / 2;
-    int org_size = width * height, crop_size = width * outputHeight_;
-    int y_M_width, y_div_2_M_width, y_minus_delta_M_width, y_minus_delta_div_2_M_width;
-    int x, y = delta;
-    for (; y < height - delta; y++) {
-        y_M_width = y * width;
-        y_div_2_M_width = y_M_width >> 1;
-        y_minus_delta_M_width = (y - delta) * width;
-        y_minus_delta_div_2_M_width = y_minus_delta_M_width >> 1;
-        x = 0;
-        for (; x < width; x++) {
-            yuvOut[y_minus_delta_M_width + x] = yuvIn[y_M_width + x];
-            if ((y & 0x1) == 0 && (x & 0x1) == 0) {
-                yuvOut[crop_size + y_minus_delta_div_2_M_width + x] = yuvIn[org_size + y_div_2_M_width + x];
-                yuvOut[crop_size + y_minus_delta_div_2_M_width + x + 1] = yuvIn[org_size + y_div_2_M_width + x + 1];
-            }
-        }
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_rgbaTransformDirect(
+        JNIEnv *env, jclass type, jint width, jint height, jobject rgbaIn, jint cropX,
+        jint cropY, jint cropWidth, jint cropHeight, jint rotation, jboolean flipHorizontal,
+        jboolean flipVertical, jint outputFormat, jint accuracy, jobject yuvOut) {
+    YuvTransform transform = {
+            cropX, cropY, cropWidth, cropHeight, rotation, flipHorizontal, flipVertical,
+            outputFormat
+    };
+    jlong size = outputSize(&transform, width, height);
+    uint8_t *rgba = directAddress(env, rgbaIn, (jlong) width * height * 4);
+    uint8_t *yuv = directAddress(env, yuvOut, size);
+    if (size < 0 || rgba == NULL || yuv == NULL) {
+        return -1;
     }
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvIn_, yuvIn, 0);
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut_, yuvOut, 0);
 
-    return 0;
+    return rgba_transform(kernelsOf(accuracy), rgba, width, height, &transform, yuv);
 }
 
-JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_yuvCropRotateC180Flip(
-        JNIEnv *env, jobject obj, jint width, jint height, jbyteArray yuvIn_,
-        jint outputHeight_, jbyteArray yuvOut_) {
-    jbyte *yuvIn = (*env)->GetPrimitiveArrayCritical(env, yuvIn_, 0);
-    jbyte *yuvOut = (*env)->GetPrimitiveArrayCritical(env, yuvOut_, 0);
-
-    int delta = (height - outputHeight_) >> 1;
-    int org_size = width * height, crop_size_minus = width * outputHeight_;
-    int y_M_width, y_div_2_M_width, h_minus_1_M_w, h_minus_1_div2_M_w;
-    int x, y = delta, y_end = height - delta;
-    for (; y < y_end; y++) {
-        y_M_width = y * width;
-        y_div_2_M_width = y_M_width >> 1;
-        h_minus_1_M_w = (height - 1 - y - delta) * width;
-        h_minus_1_div2_M_w = ((height - 1 - y - delta) >> 1) * width;
-        x = 0;
-        for (; x < width; x++) {
-            yuvOut[h_minus_1_M_w + x] = yuvIn[y_M_width + x];
-            if ((y & 0x1) == 0 && (x & 0x1) == 0) {
-                yuvOut[crop_size_minus + h_minus_1_div2_M_w + x] = yuvIn[org_size + y_div_2_M_width + x];
-                yuvOut[crop_size_minus + h_minus_1_div2_M_w + x + 1] = yuvIn[org_size + y_div_2_M_width + x + 1];
-            }
-        }
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_yuvTransformInto(
+        JNIEnv *env, jclass type, jint width, jint height, jobject yuvIn, jint cropX,
+        jint cropY, jint cropWidth, jint cropHeight, jint rotation, jboolean flipHorizontal,
+        jboolean flipVertical, jint outputFormat, jint accuracy, jobject YOut, jobject CrOut,
+        jobject CbOut, jint YOffset, jint CrOffset, jint CbOffset, jint YRowStride,
+        jint CRowStride, jint CPixelStride) {
+    YuvTransform transform = {
+            cropX, cropY, cropWidth, cropHeight, rotation, flipHorizontal, flipVertical,
+            outputFormat
+    };
+    uint8_t *yuv = directAddress(env, yuvIn, (jlong) width * height * 3 / 2);
+    YuvOutput output;
+    if (yuv == NULL
+        || bufferOutput(env, &output, &transform, width, height, YOut, CrOut, CbOut, YOffset,
+                        CrOffset, CbOffset, YRowStride, CRowStride, CPixelStride) != 0) {
+        return -1;
     }
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvIn_, yuvIn, 0);
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut_, yuvOut, 0);
 
-    return 0;
+    YuvPlanes planes;
+    yuv_planes_nv21(&planes, yuv, width, height);
+    return yuv_transform_to(kernelsOf(accuracy), &planes, width, height, &transform, &output);
 }
 
-JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_yuvCropFlip(
-        JNIEnv *env, jobject obj, jint width, jint height, jbyteArray yuvIn_,
-        jint outputHeight_, jbyteArray yuvOut_) {
-    jbyte *yuvIn = (*env)->GetPrimitiveArrayCritical(env, yuvIn_, 0);
-    jbyte *yuvOut = (*env)->GetPrimitiveArrayCritical(env, yuvOut_, 0);
-
-    int delta = (height - outputHeight_) >> 1;
-    int org_size = width * height, crop_size = width * outputHeight_;
-    int y_M_width, y_div_2_M_width, y_minus_delta_M_width, y_minus_delta_div_2_M_width;
-    int x, y = delta;
-    for (; y < height - delta; y++) {
-        y_M_width = y * width;
-        y_div_2_M_width = y_M_width >> 1;
-        y_minus_delta_M_width = (y - delta) * width;
-        y_minus_delta_div_2_M_width = y_minus_delta_M_width >> 1;
-        x = 0;
-        for (; x < width; x++) {
-            yuvOut[y_minus_delta_M_width + width - 1 - x] = yuvIn[y_M_width + x];
-            if ((y & 0x1) == 0 && (x & 0x1) == 0) {
-                yuvOut[crop_size + y_minus_delta_div_2_M_width + width - 1 - x] = yuvIn[org_size + y_div_2_M_width + x];
-                yuvOut[crop_size + y_minus_delta_div_2_M_width + width - 1 - x + 1] = yuvIn[org_size + y_div_2_M_width + x + 1];
-            }
-        }
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_imageTransformInto(
+        JNIEnv *env, jclass type, jint width, jint height, jobject YIn, jobject CrIn, jobject CbIn,
+        jint YRowStride, jint CRowStride, jint CrPixelStride, jint CbPixelStride, jint cropX,
+        jint cropY, jint cropWidth, jint cropHeight, jint rotation, jboolean flipHorizontal,
+        jboolean flipVertical, jint outputFormat, jint accuracy, jobject YOut, jobject CrOut,
+        jobject CbOut, jint YOffset, jint CrOffset, jint CbOffset, jint YOutRowStride,
+        jint COutRowStride, jint COutPixelStride) {
+    YuvTransform transform = {
+            cropX, cropY, cropWidth, cropHeight, rotation, flipHorizontal, flipVertical,
+            outputFormat
+    };
+    YuvPlanes planes;
+    YuvOutput output;
+    if (imagePlanes(env, &planes, width, height, YIn, CrIn, CbIn, YRowStride, CRowStride,
+                    CrPixelStride, CbPixelStride) != 0
+        || bufferOutput(env, &output, &transform, width, height, YOut, CrOut, CbOut, YOffset,
+                        CrOffset, CbOffset, YOutRowStride, COutRowStride, COutPixelStride) != 0) {
+        return -1;
     }
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvIn_, yuvIn, 0);
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut_, yuvOut, 0);
 
-    return 0;
+    return yuv_transform_to(kernelsOf(accuracy), &planes, width, height, &transform, &output);
 }
 
-JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_image2yuvCropRotateC180(
-        JNIEnv *env, jobject obj, jint width, jint height, jobject YIn, jobject CrIn, jobject CbIn,
-        jint CrPixelStride, jint CbPixelStride, jint outputHeight_, jbyteArray yuvOut_) {
-    jbyte *Y = (jbyte *) (*env)->GetDirectBufferAddress(env, YIn);
-    jbyte *Cr = (jbyte *) (*env)->GetDirectBufferAddress(env, CrIn);
-    jbyte *Cb = (jbyte *) (*env)->GetDirectBufferAddress(env, CbIn);
-    if (Y == 0 || Cr == 0 || Cb == 0) {
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_rgbaTransformInto(
+        JNIEnv *env, jclass type, jint width, jint height, jobject rgbaIn, jint cropX,
+        jint cropY, jint cropWidth, jint cropHeight, jint rotation, jboolean flipHorizontal,
+        jboolean flipVertical, jint outputFormat, jint accuracy, jobject YOut, jobject CrOut,
+        jobject CbOut, jint YOffset, jint CrOffset, jint CbOffset, jint YRowStride,
+        jint CRowStride, jint CPixelStride) {
+    YuvTransform transform = {
+            cropX, cropY, cropWidth, cropHeight, rotation, flipHorizontal, flipVertical,
+            outputFormat
+    };
+    uint8_t *rgba = directAddress(env, rgbaIn, (jlong) width * height * 4);
+    YuvOutput output;
+    if (rgba == NULL
+        || bufferOutput(env, &output, &transform, width, height, YOut, CrOut, CbOut, YOffset,
+                        CrOffset, CbOffset, YRowStride, CRowStride, CPixelStride) != 0) {
         return -1;
     }
-    jbyte *yuvOut = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, yuvOut_, 0));
-
-    int delta = (height - outputHeight_) >> 1;
-    int crop_size_minus_1 = outputHeight_ * width - 1;
-    int i_index_div_2, i_div_4;
-    int crop_len_minus_1 = ((width * outputHeight_ * 3) >> 1) - 1;
-    int i, i_start = delta * width, i_end = (height - delta) * width;
-    for (i = i_start; i < i_end; i++) {
-        yuvOut[crop_size_minus_1 - i + i_start] = Y[i];
-        if ((i & 0x3) == 0) {
-            i_index_div_2 = (i - i_start) >> 1;
-            i_div_4 = i >> 2;
-            yuvOut[crop_len_minus_1 - i_index_div_2 - 1] = Cr[i_div_4 * CrPixelStride];
-            yuvOut[crop_len_minus_1 - i_index_div_2] = Cb[i_div_4 * CbPixelStride];
-        }
-    }
-
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut_, yuvOut, 0);
 
-    return 0;
+    return rgba_transform_to(kernelsOf(accuracy), rgba, width, height, &transform, &output);
 }
 
-JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_image2yuvCrop(
-        JNIEnv *env, jobject obj, jint width, jint height, jobject YIn, jobject CrIn, jobject CbIn,
-        jint CrPixelStride, jint CbPixelStride, jint outputHeight_, jbyteArray yuvOut_) {
-    jbyte *Y = (jbyte *) (*env)->GetDirectBufferAddress(env, YIn);
-    jbyte *Cr = (jbyte *) (*env)->GetDirectBufferAddress(env, CrIn);
-    jbyte *Cb = (jbyte *) (*env)->GetDirectBufferAddress(env, CbIn);
-    if (Y == 0 || Cr == 0 || Cb == 0) {
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeYuvScale(
+        JNIEnv *env, jclass type, jint width, jint height, jint format, jobject yuvIn,
+        jintArray sizes_, jobjectArray outs) {
+    YuvRendition renditions[MAX_RENDITIONS];
+    jint sizes[MAX_RENDITIONS * 2];
+    jsize count = (*env)->GetArrayLength(env, outs);
+    uint8_t *yuv = directAddress(env, yuvIn, (jlong) width * height * 3 / 2);
+    int i;
+    if (yuv == NULL || count <= 0 || count > MAX_RENDITIONS
+        || (*env)->GetArrayLength(env, sizes_) != count * 2) {
         return -1;
     }
-    jbyte *yuvOut = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, yuvOut_, 0));
-
-    int delta = (height - outputHeight_) >> 1;
-    int crop_size = outputHeight_ * width;
-    int Cr_position, i_div_4;
-    int i, i_start = delta * width, i_end = (height - delta) * width;
-    for (i = i_start; i < i_end; i++) {
-        yuvOut[i - i_start] = Y[i];
-        if ((i & 0x3) == 0) {
-            Cr_position = (i - i_start) >> 1;
-            i_div_4 = i >> 2;
-            yuvOut[crop_size + Cr_position] = Cr[i_div_4 * CrPixelStride];
-            yuvOut[crop_size + Cr_position + 1] = Cb[i_div_4 * CbPixelStride];
+    (*env)->GetIntArrayRegion(env, sizes_, 0, count * 2, sizes);
+    for (i = 0; i < count; i++) {
+        jobject out = (*env)->GetObjectArrayElement(env, outs, i);
+        renditions[i].width = sizes[i * 2];
+        renditions[i].height = sizes[i * 2 + 1];
+        renditions[i].out = out == NULL ? NULL : directAddress(
+                env, out, (jlong) renditions[i].width * renditions[i].height * 3 / 2);
+        (*env)->DeleteLocalRef(env, out);
+        if (renditions[i].out == NULL) {
+            return -1;
         }
     }
+    return yuv_scale(yuv, format, width, height, renditions, count);
+}
 
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut_, yuvOut, 0);
+/**
+ * @return bytes of a frame stored continuously in the format
+ */
+static jlong frameSize(jint format, jint width, jint height) {
+    return format == YUV_FORMAT_RGBA ? (jlong) width * height * 4 : (jlong) width * height * 3 / 2;
+}
 
-    return 0;
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeMirror(
+        JNIEnv *env, jclass type, jint width, jint height, jint format, jbyteArray frame_,
+        jboolean horizontal, jboolean vertical) {
+    jint ret;
+    if ((*env)->GetArrayLength(env, frame_) < frameSize(format, width, height)) {
+        return -1;
+    }
+    // the mirror is a single pass, so the array is pinned only for a short time
+    jbyte *frame = (jbyte *) (*env)->GetPrimitiveArrayCritical(env, frame_, 0);
+    ret = yuv_mirror(sKernels, (uint8_t *) frame, format, width, height, horizontal, vertical);
+    (*env)->ReleasePrimitiveArrayCritical(env, frame_, frame, 0);
+    return ret;
 }
 
-JNIEXPORT int JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_image2yuvCropRotateC180Flip(
-        JNIEnv *env, jobject obj, jint width, jint height, jobject YIn, jobject CrIn, jobject CbIn,
-        jint CrPixelStride, jint CbPixelStride, jint outputHeight_, jbyteArray yuvOut_) {
-    jbyte *Y = (jbyte *) (*env)->GetDirectBufferAddress(env, YIn);
-    jbyte *Cr = (jbyte *) (*env)->GetDirectBufferAddress(env, CrIn);
-    jbyte *Cb = (jbyte *) (*env)->GetDirectBufferAddress(env, CbIn);
-    if (Y == 0 || Cr == 0 || Cb == 0) {
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_mirrorDirect(
+        JNIEnv *env, jclass type, jint width, jint height, jint format, jobject frame_,
+        jboolean horizontal, jboolean vertical) {
+    uint8_t *frame = directAddress(env, frame_, frameSize(format, width, height));
+    if (frame == NULL) {
         return -1;
     }
-    jbyte *yuvOut = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, yuvOut_, 0));
-
-    int delta = (height - outputHeight_) >> 1;
-    int crop_size = outputHeight_ * width;
-    int Cr_out, C_in;
-    int x, y = delta, y_end = height - delta;
-    int index_in, index_out, y_M_w, y_div_2_M_w, h_minus_1_M_w, h_minus_1_div2_M_w;
-    for (; y < y_end; y++) {
-        y_M_w = y * width;
-        y_div_2_M_w = (y >> 1) * width;
-        h_minus_1_M_w = (height - 1 - y - delta) * width;
-        h_minus_1_div2_M_w = ((height - 1 - y - delta) >> 1) * width;
-        for (x = 0; x < width; x++) {
-            index_in = y_M_w + x;
-            index_out = h_minus_1_M_w + x;
-            yuvOut[index_out] = Y[index_in];
-            if ((y & 0x1) == 0 && (x & 0x1) == 0) {
-                Cr_out = h_minus_1_div2_M_w + x;
-                C_in = (y_div_2_M_w + x) >> 1;
-                yuvOut[crop_size + Cr_out] = Cr[C_in * CrPixelStride];
-                yuvOut[crop_size + Cr_out + 1] = Cb[C_in * CbPixelStride];
-            }
-        }
+    return yuv_mirror(sKernels, frame, format, width, height, horizontal, vertical);
+}
+
+/**
+ * Copy the stats of a converted frame into {@code histogram}, if it's not null.
+ *
+ * @return {@code ret} of the conversion, or -1 if the histogram is too short
+ */
+static jint storeStats(JNIEnv *env, jintArray histogram, const YuvStats *stats, jint ret) {
+    if (ret != 0 || histogram == NULL) {
+        return ret;
     }
+    if ((*env)->GetArrayLength(env, histogram) < YUV_STATS_BINS) {
+        return -1;
+    }
+    (*env)->SetIntArrayRegion(env, histogram, 0, YUV_STATS_BINS,
+                              (const jint *) stats->histogram);
+    return 0;
+}
 
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut_, yuvOut, 0);
+JNIEXPORT jlong JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeSessionCreate(
+        JNIEnv *env, jclass type, jint width, jint height, jint cropX, jint cropY,
+        jint cropWidth, jint cropHeight, jint rotation, jboolean flipHorizontal,
+        jboolean flipVertical, jint outputFormat, jint accuracy) {
+    YuvTransform transform = {
+            cropX, cropY, cropWidth, cropHeight, rotation, flipHorizontal, flipVertical,
+            outputFormat
+    };
+    // kernels of the current colour matrix, and a pool as large as the shared one
+    return (jlong) (intptr_t) yuv_session_create(kernelsOf(accuracy), width, height, &transform,
+                                                 yuv_workers_get_threads(NULL));
+}
 
-    return 0;
+JNIEXPORT void JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeSessionRelease(
+        JNIEnv *env, jclass type, jlong session) {
+    yuv_session_destroy((YuvSession *) (intptr_t) session);
 }
 
-JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_image2yuvCropFlip(
-        JNIEnv *env, jobject obj, jint width, jint height, jobject YIn, jobject CrIn, jobject CbIn,
-        jint CrPixelStride, jint CbPixelStride, jint outputHeight_, jbyteArray yuvOut_) {
-    jbyte *Y = (jbyte *) (*env)->GetDirectBufferAddress(env, YIn);
-    jbyte *Cr = (jbyte *) (*env)->GetDirectBufferAddress(env, CrIn);
-    jbyte *Cb = (jbyte *) (*env)->GetDirectBufferAddress(env, CbIn);
-    if (Y == 0 || Cr == 0 || Cb == 0) {
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeSessionYuvTransform(
+        JNIEnv *env, jclass type, jlong session_, jobject yuvIn, jobject YOut, jobject CrOut,
+        jobject CbOut, jint YOffset, jint CrOffset, jint CbOffset, jint YRowStride,
+        jint CRowStride, jint CPixelStride, jintArray histogram) {
+    YuvSession *session = (YuvSession *) (intptr_t) session_;
+    const YuvTransformPlan *plan = yuv_session_plan(session);
+    YuvStats stats;
+    uint8_t *yuv = directAddress(env, yuvIn, (jlong) plan->width * plan->height * 3 / 2);
+    YuvOutput output;
+    if (yuv == NULL
+        || sessionOutput(env, &output, plan, YOut, CrOut, CbOut, YOffset, CrOffset, CbOffset,
+                         YRowStride, CRowStride, CPixelStride) != 0) {
         return -1;
     }
-    jbyte *yuvOut = (jbyte *) ((*env)->GetPrimitiveArrayCritical(env, yuvOut_, 0));
-
-    int delta = (height - outputHeight_) >> 1;
-    int crop_size = outputHeight_ * width;
-    int Cr_out, C_in;
-    int x, y = delta, y_end = height - delta;
-    int index_in, index_out, y_M_w, y_div_2_M_w, y_minus_delta_M_w, y_minus_delta_div_2_M_w;
-    for (; y < y_end; y++) {
-        y_M_w = y * width;
-        y_div_2_M_w = (y >> 1) * width;
-        y_minus_delta_M_w = (y - delta) * width;
-        y_minus_delta_div_2_M_w = ((y - delta) >> 1) * width;
-        for (x = 0; x < width; x++) {
-            index_in = y_M_w + x;
-            index_out = y_minus_delta_M_w + width - 1 - x;
-            yuvOut[index_out] = Y[index_in];
-            if ((y & 0x1) == 0 && (x & 0x1) == 0) {
-                Cr_out = y_minus_delta_div_2_M_w + width - 1 - x;
-                C_in = (y_div_2_M_w + x) >> 1;
-                yuvOut[crop_size + Cr_out + 1] = Cr[C_in * CrPixelStride];
-                yuvOut[crop_size + Cr_out] = Cb[C_in * CbPixelStride];
-            }
-        }
+
+    YuvPlanes planes;
+    yuv_planes_nv21(&planes, yuv, plan->width, plan->height);
+    return storeStats(env, histogram, &stats,
+                      yuv_session_transform(session, &planes, &output,
+                                            histogram != NULL ? &stats : NULL));
+}
+
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeSessionImageTransform(
+        JNIEnv *env, jclass type, jlong session_, jobject YIn, jobject CrIn, jobject CbIn,
+        jint YRowStride, jint CRowStride, jint CrPixelStride, jint CbPixelStride, jobject YOut,
+        jobject CrOut, jobject CbOut, jint YOffset, jint CrOffset, jint CbOffset,
+        jint YOutRowStride, jint COutRowStride, jint COutPixelStride, jintArray histogram) {
+    YuvSession *session = (YuvSession *) (intptr_t) session_;
+    const YuvTransformPlan *plan = yuv_session_plan(session);
+    YuvPlanes planes;
+    YuvOutput output;
+    YuvStats stats;
+    if (imagePlanes(env, &planes, plan->width, plan->height, YIn, CrIn, CbIn, YRowStride,
+                    CRowStride, CrPixelStride, CbPixelStride) != 0
+        || sessionOutput(env, &output, plan, YOut, CrOut, CbOut, YOffset, CrOffset, CbOffset,
+                         YOutRowStride, COutRowStride, COutPixelStride) != 0) {
+        return -1;
     }
 
-    (*env)->ReleasePrimitiveArrayCritical(env, yuvOut_, yuvOut, 0);
+    return storeStats(env, histogram, &stats,
+                      yuv_session_transform(session, &planes, &output,
+                                            histogram != NULL ? &stats : NULL));
+}
 
-    return 0;
+JNIEXPORT jint JNICALL Java_com_github_piasy_cameracompat_processor_RgbYuvConverter_nativeSessionRgbaTransform(
+        JNIEnv *env, jclass type, jlong session_, jobject rgbaIn, jobject YOut, jobject CrOut,
+        jobject CbOut, jint YOffset, jint CrOffset, jint CbOffset, jint YRowStride,
+        jint CRowStride, jint CPixelStride, jintArray histogram) {
+    YuvSession *session = (YuvSession *) (intptr_t) session_;
+    const YuvTransformPlan *plan = yuv_session_plan(session);
+    uint8_t *rgba = directAddress(env, rgbaIn, (jlong) plan->width * plan->height * 4);
+    YuvOutput output;
+    YuvStats stats;
+    if (rgba == NULL
+        || sessionOutput(env, &output, plan, YOut, CrOut, CbOut, YOffset, CrOffset, CbOffset,
+                         YRowStride, CRowStride, CPixelStride) != 0) {
+        return -1;
+    }
+
+    return storeStats(env, histogram, &stats,
+                      yuv_session_rgba_transform(session, rgba, &output,
+                                                 histogram != NULL ? &stats : NULL));
 }
@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Host benchmark of the tiled rgba2yuv 90 degree rotation, against converting the input column
+// by column directly. Build it with the host target of CMakeLists.txt, then run:
+//
+//   ./rotate_tiling_bench [iterations]
+//
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include "yuv_convert.h"
+
+static double now_ms(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+/**
+ * The untiled loop: output row y is input column y, read from bottom to top.
+ */
+static void rotate_c90_by_column(const YuvKernels *kernels, const uint8_t *rgba, int width,
+                                 int height, uint8_t *yuv) {
+    const uint8_t *bottom_row = rgba + (((height - 1) * width) << 2);
+    int size = width * height;
+    int y;
+    for (y = 0; y < width; y++) {
+        kernels->rgba_to_yuv_row(bottom_row + (y << 2), -((ptrdiff_t) width << 2),
+                                 yuv + y * height,
+                                 (y & 0x1) == 0 ? yuv + size + (y >> 1) * height : NULL,
+                                 height);
+    }
+}
+
+int main(int argc, char **argv) {
+    static const int sizes[][2] = { { 640, 480 }, { 1280, 720 }, { 1920, 1080 } };
+    int iterations = argc > 1 ? atoi(argv[1]) : 50;
+    const YuvKernels *kernels = yuv_kernels_detect();
+    YuvTransform rotate_c90 = { 0, 0, 0, 0, 90, 0, 0, YUV_FORMAT_NV21 };
+    int s, i, width, height;
+    double start, column_ms, tiled_ms;
+    uint8_t *rgba, *expected, *yuv;
+
+    printf("kernels: %s, iterations: %d\n", kernels->name, iterations);
+    printf("%-10s %12s %12s %8s\n", "size", "column(ms)", "tiled(ms)", "speedup");
+    for (s = 0; s < (int) (sizeof(sizes) / sizeof(sizes[0])); s++) {
+        width = sizes[s][0];
+        height = sizes[s][1];
+        rgba = malloc((size_t) width * height * 4);
+        expected = malloc((size_t) width * height * 3 / 2);
+        yuv = malloc((size_t) width * height * 3 / 2);
+        for (i = 0; i < width * height * 4; i++) {
+            rgba[i] = (uint8_t) rand();
+        }
+
+        rotate_c90_by_column(kernels, rgba, width, height, expected);
+        rgba_transform(kernels, rgba, width, height, &rotate_c90, yuv);
+        if (memcmp(expected, yuv, (size_t) width * height * 3 / 2) != 0) {
+            printf("%4dx%-5d output mismatch!\n", width, height);
+            return 1;
+        }
+
+        start = now_ms();
+        for (i = 0; i < iterations; i++) {
+            rotate_c90_by_column(kernels, rgba, width, height, yuv);
+        }
+        column_ms = (now_ms() - start) / iterations;
+
+        start = now_ms();
+        for (i = 0; i < iterations; i++) {
+            rgba_transform(kernels, rgba, width, height, &rotate_c90, yuv);
+        }
+        tiled_ms = (now_ms() - start) / iterations;
+
+        printf("%4dx%-5d %12.3f %12.3f %7.2fx\n", width, height, column_ms, tiled_ms,
+               column_ms / tiled_ms);
+
+        free(rgba);
+        free(expected);
+        free(yuv);
+    }
+    return 0;
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Host benchmark of the band worker pool, reports per frame latency of yuv2rgba and
+// rgba to NV21 with 90 degree rotation for 1 ~ n threads. Build it with the host target of
+// CMakeLists.txt, then run:
+//
+//   ./thread_scaling_bench [max threads] [iterations]
+//
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
+
+#include "yuv_convert.h"
+#include "yuv_workers.h"
+
+static double now_ms(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+int main(int argc, char **argv) {
+    static const int sizes[][2] = { { 640, 480 }, { 1280, 720 }, { 1920, 1080 } };
+    int max_threads = argc > 1 ? atoi(argv[1]) : 4;
+    int iterations = argc > 2 ? atoi(argv[2]) : 50;
+    const YuvKernels *kernels = yuv_kernels_detect();
+    int s, threads, i, width, height;
+    double start, yuv2rgba_ms, rgba2yuv_ms, yuv2rgba_base = 0, rgba2yuv_base = 0;
+    uint8_t *yuv, *rgba;
+    YuvPlanes planes;
+    YuvTransform rotate_c90 = { 0, 0, 0, 0, 90, 0, 0, YUV_FORMAT_NV21 };
+
+    printf("kernels: %s, iterations: %d\n", kernels->name, iterations);
+    printf("%-10s %8s %14s %8s %14s %8s\n", "size", "threads", "yuv2rgba(ms)", "speedup",
+           "rgba2yuv(ms)", "speedup");
+    for (s = 0; s < (int) (sizeof(sizes) / sizeof(sizes[0])); s++) {
+        width = sizes[s][0];
+        height = sizes[s][1];
+        yuv = malloc((size_t) width * height * 3 / 2);
+        rgba = malloc((size_t) width * height * 4);
+        for (i = 0; i < width * height * 3 / 2; i++) {
+            yuv[i] = (uint8_t) rand();
+        }
+        yuv_planes_nv21(&planes, yuv, width, height);
+
+        for (threads = 1; threads <= max_threads; threads++) {
+            yuv_workers_set_threads(threads);
+            // warm up
+            yuv_to_rgba(kernels, &planes, width, height, rgba);
+            rgba_transform(kernels, rgba, width, height, &rotate_c90, yuv);
+
+            start = now_ms();
+            for (i = 0; i < iterations; i++) {
+                yuv_to_rgba(kernels, &planes, width, height, rgba);
+            }
+            yuv2rgba_ms = (now_ms() - start) / iterations;
+
+            start = now_ms();
+            for (i = 0; i < iterations; i++) {
+                rgba_transform(kernels, rgba, width, height, &rotate_c90, yuv);
+            }
+            rgba2yuv_ms = (now_ms() - start) / iterations;
+
+            if (threads == 1) {
+                yuv2rgba_base = yuv2rgba_ms;
+                rgba2yuv_base = rgba2yuv_ms;
+            }
+            printf("%4dx%-5d %8d %14.3f %7.2fx %14.3f %7.2fx\n", width, height, threads,
+                   yuv2rgba_ms, yuv2rgba_base / yuv2rgba_ms, rgba2yuv_ms,
+                   rgba2yuv_base / rgba2yuv_ms);
+        }
+
+        free(yuv);
+        free(rgba);
+    }
+    yuv_workers_set_threads(1);
+    return 0;
+}
@@ -0,0 +1,404 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Host benchmark of every kernels the cpu supports, in the spirit of Google Benchmark: each case
+// runs until it takes at least the minimum time, then reports ns per frame, and the PSNR of its
+// output against the float reference in yuv_reference.c. The copy only rotation and flip are
+// compared with the scalar kernels, and the in-place mirror with the flip, they should be exact. Build it with the host target of CMakeLists.txt, then
+// run:
+//
+//   ./yuv_bench [--filter=<substring>] [--min_time=<seconds>] [--threads=<n>]
+//       [--format=console|json]
+//
+
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include "yuv_convert.h"
+#include "yuv_matrix.h"
+#include "yuv_mirror.h"
+#include "yuv_reference.h"
+#include "yuv_scale.h"
+#include "yuv_workers.h"
+
+#define MAX_KERNELS 4
+
+#define OP_YUV2RGBA 0
+#define OP_RGBA2YUV 1
+#define OP_ROTATE 2
+#define OP_RGBA2YUV_ROTATE 3
+#define OP_SCALE 4
+#define OP_FLIP 5
+#define OP_MIRROR 6
+
+typedef struct Frame {
+    int width;
+    int height;
+    uint8_t *rgba;
+    // input of the YUV cases, converted from rgba by the reference of each matrix
+    uint8_t *nv21[YUV_MATRIX_COUNT];
+    float *ref_rgb[YUV_MATRIX_COUNT];
+    float *ref_nv21[YUV_MATRIX_COUNT];
+    uint8_t *rgba_out;
+    uint8_t *yuv_out;
+    uint8_t *expected;
+} Frame;
+
+typedef struct Case {
+    char name[64];
+    YuvKernels kernels;
+    int op;
+    int matrix;
+} Case;
+
+typedef struct Options {
+    const char *filter;
+    double min_time;
+    int threads;
+    int json;
+} Options;
+
+static const YuvTransform kIdentity = { 0, 0, 0, 0, 0, 0, 0, YUV_FORMAT_NV21 };
+static const YuvTransform kRotate90 = { 0, 0, 0, 0, 90, 0, 0, YUV_FORMAT_NV21 };
+static const YuvTransform kFlip = { 0, 0, 0, 0, 0, 1, 0, YUV_FORMAT_NV21 };
+
+static double now_ns(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1e9 + ts.tv_nsec;
+}
+
+static void frame_init(Frame *frame, int width, int height) {
+    size_t pixels = (size_t) width * height;
+    int m;
+    frame->width = width;
+    frame->height = height;
+    frame->rgba = malloc(pixels * 4);
+    frame->rgba_out = malloc(pixels * 4);
+    frame->yuv_out = malloc(pixels * 3 / 2);
+    frame->expected = malloc(pixels * 3 / 2);
+    yuv_reference_pattern(YUV_PATTERN_NATURAL, frame->rgba, width, height);
+    for (m = 0; m < YUV_MATRIX_COUNT; m++) {
+        frame->ref_nv21[m] = malloc(pixels * 3 / 2 * sizeof(float));
+        frame->ref_rgb[m] = malloc(pixels * 3 * sizeof(float));
+        frame->nv21[m] = malloc(pixels * 3 / 2);
+        yuv_reference_rgba_to_nv21(m, frame->rgba, width, height, frame->ref_nv21[m]);
+        yuv_reference_round(frame->ref_nv21[m], frame->nv21[m], pixels * 3 / 2);
+        yuv_reference_nv21_to_rgb(m, frame->nv21[m], width, height, frame->ref_rgb[m]);
+    }
+}
+
+static void frame_release(Frame *frame) {
+    int m;
+    for (m = 0; m < YUV_MATRIX_COUNT; m++) {
+        free(frame->ref_nv21[m]);
+        free(frame->ref_rgb[m]);
+        free(frame->nv21[m]);
+    }
+    free(frame->rgba);
+    free(frame->rgba_out);
+    free(frame->yuv_out);
+    free(frame->expected);
+}
+
+static void run_case(const Case *c, Frame *frame) {
+    YuvPlanes planes;
+    YuvRendition half;
+    yuv_planes_nv21(&planes, frame->nv21[c->matrix], frame->width, frame->height);
+    switch (c->op) {
+        case OP_YUV2RGBA:
+            yuv_to_rgba(&c->kernels, &planes, frame->width, frame->height, frame->rgba_out);
+            break;
+        case OP_RGBA2YUV:
+            rgba_transform(&c->kernels, frame->rgba, frame->width, frame->height, &kIdentity,
+                           frame->yuv_out);
+            break;
+        case OP_ROTATE:
+            yuv_transform(&c->kernels, &planes, frame->width, frame->height, &kRotate90,
+                          frame->yuv_out);
+            break;
+        case OP_RGBA2YUV_ROTATE:
+            rgba_transform(&c->kernels, frame->rgba, frame->width, frame->height, &kRotate90,
+                           frame->yuv_out);
+            break;
+        case OP_FLIP:
+            yuv_transform(&c->kernels, &planes, frame->width, frame->height, &kFlip,
+                          frame->yuv_out);
+            break;
+        case OP_MIRROR:
+            // mirrors the previous output back and forth, without a second frame
+            yuv_mirror(&c->kernels, frame->yuv_out, YUV_FORMAT_NV21, frame->width,
+                       frame->height, 1, 0);
+            break;
+        default:
+            half.width = frame->width >> 1;
+            half.height = frame->height >> 1;
+            half.out = frame->yuv_out;
+            yuv_scale(frame->nv21[c->matrix], YUV_FORMAT_NV21, frame->width, frame->height,
+                      &half, 1);
+            break;
+    }
+}
+
+/**
+ * Box filtered half size of a NV21 frame, in float.
+ */
+static void reference_half(const uint8_t *nv21, int width, int height, float *out) {
+    const uint8_t *crcb = nv21 + (size_t) width * height;
+    float *out_crcb = out + (size_t) (width >> 1) * (height >> 1);
+    int x, y, c;
+    for (y = 0; y < (height >> 1); y++) {
+        for (x = 0; x < (width >> 1); x++) {
+            const uint8_t *p = nv21 + (size_t) (y << 1) * width + (x << 1);
+            out[(size_t) y * (width >> 1) + x] = (p[0] + p[1] + p[width] + p[width + 1]) / 4.0f;
+        }
+    }
+    for (y = 0; y < (height >> 2); y++) {
+        for (x = 0; x < (width >> 2); x++) {
+            for (c = 0; c < 2; c++) {
+                const uint8_t *p = crcb + (size_t) (y << 1) * width + (x << 2) + c;
+                out_crcb[(size_t) y * (width >> 1) + (x << 1) + c] =
+                        (p[0] + p[2] + p[width] + p[width + 2]) / 4.0f;
+            }
+        }
+    }
+}
+
+/**
+ * PSNR of the case's output, the copy only rotation and flip are compared with the output of the
+ * scalar kernels, and the in-place mirror with the output of the scalar flip.
+ */
+static double case_psnr(const Case *c, Frame *frame) {
+    int width = frame->width, height = frame->height;
+    size_t pixels = (size_t) width * height, i;
+    float *expected;
+    uint8_t *rotated;
+    double psnr;
+    int x, y;
+    Case scalar;
+    switch (c->op) {
+        case OP_YUV2RGBA:
+            run_case(c, frame);
+            return yuv_psnr(frame->rgba_out, 4, frame->ref_rgb[c->matrix], 3, 3, pixels);
+        case OP_RGBA2YUV:
+            run_case(c, frame);
+            return yuv_psnr(frame->yuv_out, 1, frame->ref_nv21[c->matrix], 1, 1,
+                            pixels * 3 / 2);
+        case OP_RGBA2YUV_ROTATE:
+            // output pixel (x, y) is input pixel (y, height - 1 - x)
+            rotated = malloc(pixels * 4);
+            expected = malloc(pixels * 3 / 2 * sizeof(float));
+            for (y = 0; y < width; y++) {
+                for (x = 0; x < height; x++) {
+                    memcpy(rotated + ((size_t) y * height + x) * 4,
+                           frame->rgba + ((size_t) (height - 1 - x) * width + y) * 4, 4);
+                }
+            }
+            yuv_reference_rgba_to_nv21(c->matrix, rotated, height, width, expected);
+            run_case(c, frame);
+            psnr = yuv_psnr(frame->yuv_out, 1, expected, 1, 1, pixels * 3 / 2);
+            free(rotated);
+            free(expected);
+            return psnr;
+        case OP_SCALE:
+            expected = malloc(pixels * 3 / 8 * sizeof(float));
+            reference_half(frame->nv21[c->matrix], width, height, expected);
+            run_case(c, frame);
+            psnr = yuv_psnr(frame->yuv_out, 1, expected, 1, 1, pixels * 3 / 8);
+            free(expected);
+            return psnr;
+        case OP_MIRROR:
+            expected = malloc(pixels * 3 / 2 * sizeof(float));
+            scalar = *c;
+            scalar.op = OP_FLIP;
+            yuv_matrix_kernels(&kYuvKernelsC, c->matrix, &scalar.kernels);
+            run_case(&scalar, frame);
+            for (i = 0; i < pixels * 3 / 2; i++) {
+                expected[i] = frame->yuv_out[i];
+            }
+            memcpy(frame->yuv_out, frame->nv21[c->matrix], pixels * 3 / 2);
+            run_case(c, frame);
+            psnr = yuv_psnr(frame->yuv_out, 1, expected, 1, 1, pixels * 3 / 2);
+            free(expected);
+            return psnr;
+        default:
+            expected = malloc(pixels * 3 / 2 * sizeof(float));
+            scalar = *c;
+            yuv_matrix_kernels(&kYuvKernelsC, c->matrix, &scalar.kernels);
+            run_case(&scalar, frame);
+            for (i = 0; i < pixels * 3 / 2; i++) {
+                expected[i] = frame->yuv_out[i];
+            }
+            run_case(c, frame);
+            psnr = yuv_psnr(frame->yuv_out, 1, expected, 1, 1, pixels * 3 / 2);
+            free(expected);
+            return psnr;
+    }
+}
+
+/**
+ * Run the case until it takes at least min_time, growing the iterations like Google Benchmark.
+ */
+static double case_ns_per_frame(const Case *c, Frame *frame, double min_time, long *iterations) {
+    long iters = 1, i;
+    double start, elapsed, multiplier;
+    run_case(c, frame);
+    for (;;) {
+        start = now_ns();
+        for (i = 0; i < iters; i++) {
+            run_case(c, frame);
+        }
+        elapsed = now_ns() - start;
+        if (elapsed >= min_time * 1e9 || iters >= 1000000000L) {
+            break;
+        }
+        multiplier = elapsed > 0 ? min_time * 1e9 * 1.4 / elapsed : 10;
+        multiplier = multiplier < 2 ? 2 : (multiplier > 10 ? 10 : multiplier);
+        iters = (long) (iters * multiplier);
+    }
+    *iterations = iters;
+    return elapsed / iters;
+}
+
+static int build_cases(Case *cases, int max) {
+    static const char *const op_names[] = {
+            "yuv2rgba", "rgba2yuv", "rotate90", "rgba2yuv_rotate90", "scale_half", "flip",
+            "mirror_in_place",
+    };
+    const YuvKernels *kernels[MAX_KERNELS];
+    int kernel_count = yuv_kernels_supported(kernels, MAX_KERNELS);
+    int count = 0, k, m, op;
+    for (op = OP_YUV2RGBA; op <= OP_MIRROR; op++) {
+        for (k = 0; k < kernel_count; k++) {
+            // scaling doesn't use the kernels
+            if (op == OP_SCALE && k > 0) {
+                break;
+            }
+            for (m = 0; m < YUV_MATRIX_COUNT && count < max; m++) {
+                // LUT matrices share one scalar implementation, copies don't use the matrix
+                if ((m != YUV_MATRIX_LEGACY && k > 0)
+                    || (m != YUV_MATRIX_LEGACY && op >= OP_SCALE)
+                    || (m != YUV_MATRIX_LEGACY && op == OP_ROTATE)) {
+                    continue;
+                }
+                yuv_matrix_kernels(kernels[k], m, &cases[count].kernels);
+                cases[count].op = op;
+                cases[count].matrix = m;
+                if (op == OP_ROTATE || op >= OP_SCALE) {
+                    snprintf(cases[count].name, sizeof(cases[count].name), "%s/%s",
+                             op_names[op], op == OP_SCALE ? "c" : kernels[k]->name);
+                } else if (m == YUV_MATRIX_LEGACY) {
+                    snprintf(cases[count].name, sizeof(cases[count].name), "%s/%s/%s",
+                             op_names[op], kernels[k]->name, kYuvMatrixNames[m]);
+                } else {
+                    snprintf(cases[count].name, sizeof(cases[count].name), "%s/lut/%s",
+                             op_names[op], kYuvMatrixNames[m]);
+                }
+                count++;
+            }
+        }
+    }
+    return count;
+}
+
+static void parse_options(int argc, char **argv, Options *options) {
+    int i;
+    options->filter = NULL;
+    options->min_time = 0.5;
+    options->threads = 1;
+    options->json = 0;
+    for (i = 1; i < argc; i++) {
+        if (strncmp(argv[i], "--filter=", 9) == 0) {
+            options->filter = argv[i] + 9;
+        } else if (strncmp(argv[i], "--min_time=", 11) == 0) {
+            options->min_time = atof(argv[i] + 11);
+        } else if (strncmp(argv[i], "--threads=", 10) == 0) {
+            options->threads = atoi(argv[i] + 10);
+        } else if (strcmp(argv[i], "--format=json") == 0) {
+            options->json = 1;
+        } else if (strcmp(argv[i], "--format=console") != 0) {
+            fprintf(stderr, "unknown option %s\n", argv[i]);
+            exit(1);
+        }
+    }
+}
+
+int main(int argc, char **argv) {
+    static const int sizes[][2] = { { 640, 480 }, { 1280, 720 }, { 1920, 1080 } };
+    Case cases[64];
+    Options options;
+    Frame frame;
+    char name[96];
+    int case_count, s, i, first = 1;
+    long iterations;
+    double ns, psnr;
+
+    parse_options(argc, argv, &options);
+    yuv_workers_set_threads(options.threads);
+    case_count = build_cases(cases, (int) (sizeof(cases) / sizeof(cases[0])));
+
+    if (options.json) {
+        printf("{\n  \"context\": {\"kernels\": \"%s\", \"threads\": %d},\n  \"benchmarks\": [",
+               yuv_kernels_detect()->name, yuv_workers_get_threads(NULL));
+    } else {
+        printf("kernels: %s, threads: %d\n", yuv_kernels_detect()->name,
+               yuv_workers_get_threads(NULL));
+        printf("%-44s %16s %12s %10s\n", "Benchmark", "Time(ns/frame)", "Iterations",
+               "PSNR(dB)");
+    }
+    for (s = 0; s < (int) (sizeof(sizes) / sizeof(sizes[0])); s++) {
+        frame_init(&frame, sizes[s][0], sizes[s][1]);
+        for (i = 0; i < case_count; i++) {
+            snprintf(name, sizeof(name), "%.63s/%dx%d", cases[i].name, frame.width, frame.height);
+            if (options.filter != NULL && strstr(name, options.filter) == NULL) {
+                continue;
+            }
+            psnr = case_psnr(&cases[i], &frame);
+            ns = case_ns_per_frame(&cases[i], &frame, options.min_time, &iterations);
+            if (options.json) {
+                // JSON has no infinity, exact outputs get a null PSNR
+                printf("%s\n    {\"name\": \"%s\", \"ns_per_frame\": %.0f, \"iterations\": %ld, "
+                       "\"psnr_db\": ", first ? "" : ",", name, ns, iterations);
+                if (isinf(psnr)) {
+                    printf("null}");
+                } else {
+                    printf("%.3f}", psnr);
+                }
+                first = 0;
+            } else {
+                printf("%-44s %16.0f %12ld %10.3f\n", name, ns, iterations, psnr);
+            }
+            fflush(stdout);
+        }
+        frame_release(&frame);
+    }
+    if (options.json) {
+        printf("\n  ]\n}\n");
+    }
+    yuv_workers_set_threads(1);
+    return 0;
+}
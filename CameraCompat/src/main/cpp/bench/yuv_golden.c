@@ -0,0 +1,409 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Golden frame suite: converts the synthetic frames of yuv_reference.c through every transform
+// with every kernels the cpu supports, on 1 and 3 threads, and checks that
+//
+//   - each output is bit-exact the scalar kernels' output on 1 thread, so is each transform
+//     through a session with a pool of its own,
+//   - the in-place mirror of every format is bit-exact the flip transform of the converter,
+//   - the scalar output hashes to the golden value recorded in yuv_golden.inc,
+//   - colour conversions stay above the PSNR floor of their matrix against the float reference.
+//
+// Build it with the host target of CMakeLists.txt and run it with ctest, or directly:
+//
+//   ./yuv_golden [--verbose]
+//
+// After an intended output change, regenerate the golden values and review the diff:
+//
+//   ./yuv_golden --update > ../CameraCompat/src/main/cpp/bench/yuv_golden.inc
+//
+
+#include <inttypes.h>
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "yuv_convert.h"
+#include "yuv_matrix.h"
+#include "yuv_mirror.h"
+#include "yuv_reference.h"
+#include "yuv_scale.h"
+#include "yuv_session.h"
+#include "yuv_workers.h"
+
+#define MAX_KERNELS 4
+
+// PSNR floors in dB, a few tenths below the measured values: the legacy bit operations don't
+// remove the luma offset when converting to RGBA, so they are far from BT.601
+#define LEGACY_YUV2RGBA_MIN_PSNR 24.0
+#define LEGACY_RGBA2YUV_MIN_PSNR 38.5
+#define LUT_MIN_PSNR 58.5
+
+typedef struct GoldenHash {
+    const char *name;
+    uint64_t hash;
+} GoldenHash;
+
+static const GoldenHash kGoldenHashes[] = {
+#include "yuv_golden.inc"
+};
+
+typedef struct TransformCase {
+    const char *name;
+    int rgba_input;
+    YuvTransform transform;
+} TransformCase;
+
+// crop size of 0 is replaced by the frame size minus 6 x 8, offset by 2 x 4
+static const TransformCase kTransformCases[] = {
+        { "rgba_rot90_fliph_i420", 1, { 0, 0, 0, 0, 90, 1, 0, YUV_FORMAT_I420 } },
+        { "rgba_rot270_crop_yv12", 1, { 2, 4, 0, 0, 270, 0, 0, YUV_FORMAT_YV12 } },
+        { "rgba_rot180_flipv_nv12", 1, { 0, 0, 0, 0, 180, 0, 1, YUV_FORMAT_NV12 } },
+        { "yuv_rot90_nv12", 0, { 0, 0, 0, 0, 90, 0, 0, YUV_FORMAT_NV12 } },
+        { "yuv_rot180_flipv_crop_i420", 0, { 2, 4, 0, 0, 180, 0, 1, YUV_FORMAT_I420 } },
+        { "yuv_fliph_yv12", 0, { 0, 0, 0, 0, 0, 1, 0, YUV_FORMAT_YV12 } },
+        { "yuv_rot270_crop_rgba", 0, { 2, 4, 0, 0, 270, 0, 0, YUV_FORMAT_RGBA } },
+};
+
+#define TRANSFORM_CASES ((int) (sizeof(kTransformCases) / sizeof(kTransformCases[0])))
+
+typedef struct Suite {
+    int update;
+    int verbose;
+    int checks;
+    int failures;
+} Suite;
+
+static uint64_t fnv1a(const uint8_t *data, size_t size) {
+    uint64_t hash = 0xcbf29ce484222325ULL;
+    size_t i;
+    for (i = 0; i < size; i++) {
+        hash = (hash ^ data[i]) * 0x100000001b3ULL;
+    }
+    return hash;
+}
+
+static const GoldenHash *find_golden(const char *name) {
+    size_t i;
+    for (i = 0; i < sizeof(kGoldenHashes) / sizeof(kGoldenHashes[0]); i++) {
+        if (kGoldenHashes[i].name != NULL && strcmp(kGoldenHashes[i].name, name) == 0) {
+            return &kGoldenHashes[i];
+        }
+    }
+    return NULL;
+}
+
+static void fail(Suite *suite, const char *format, const char *name, const char *detail) {
+    suite->failures++;
+    printf(format, name, detail);
+    printf("\n");
+}
+
+/**
+ * Check one output: {@code k} is the index of the kernels, 0 is the scalar one, whose output on
+ * 1 thread is the expected one of the others.
+ */
+static void check_output(Suite *suite, const char *name, int k, const char *kernels_name,
+                         int threads, const uint8_t *out, size_t size, uint64_t *expected) {
+    uint64_t hash = fnv1a(out, size);
+    const GoldenHash *golden;
+    char detail[64];
+    suite->checks++;
+    if (k == 0 && threads == 1) {
+        *expected = hash;
+        if (suite->update) {
+            printf("        { \"%s\", 0x%016" PRIx64 "ULL },\n", name, hash);
+            return;
+        }
+        golden = find_golden(name);
+        if (golden == NULL) {
+            fail(suite, "%s: %s", name, "no golden value, run --update");
+        } else if (golden->hash != hash) {
+            snprintf(detail, sizeof(detail), "hash 0x%016" PRIx64 ", golden 0x%016" PRIx64,
+                     hash, golden->hash);
+            fail(suite, "%s: %s", name, detail);
+        }
+    } else if (hash != *expected) {
+        snprintf(detail, sizeof(detail), "%s kernels on %d threads differ from c", kernels_name,
+                 threads);
+        fail(suite, "%s: %s", name, detail);
+    }
+}
+
+static void check_psnr(Suite *suite, const char *name, double psnr, double min_psnr) {
+    char detail[64];
+    if (suite->update) {
+        return;
+    }
+    suite->checks++;
+    if (suite->verbose) {
+        printf("%-48s %8.3f dB\n", name, psnr);
+    }
+    if (psnr < min_psnr) {
+        snprintf(detail, sizeof(detail), "PSNR %.3f dB below %.1f dB", psnr, min_psnr);
+        fail(suite, "%s: %s", name, detail);
+    }
+}
+
+/**
+ * Stats of a session frame should count exactly the even pixels of the output luma.
+ */
+static void check_stats(Suite *suite, const char *name, const char *kernels_name, int threads,
+                        const YuvStats *stats, const uint8_t *luma, int width, int height) {
+    uint32_t expected[YUV_STATS_BINS];
+    char detail[64];
+    int x, y;
+    memset(expected, 0, sizeof(expected));
+    for (y = 0; y < height; y += 2) {
+        for (x = 0; x < width; x += 2) {
+            expected[luma[(size_t) y * width + x]]++;
+        }
+    }
+    suite->checks++;
+    if (memcmp(expected, stats->histogram, sizeof(expected)) != 0) {
+        snprintf(detail, sizeof(detail), "%s kernels on %d threads count other stats",
+                 kernels_name, threads);
+        fail(suite, "%s: %s", name, detail);
+    }
+}
+
+/**
+ * Mirror the unflipped output of every format in place, and compare it with the flipped output.
+ */
+static void check_mirror(Suite *suite, const char *frame_name, const YuvKernels *kernels,
+                         int threads, const YuvPlanes *planes, int width, int height,
+                         uint8_t *expected, uint8_t *mirrored) {
+    static const int formats[] = {
+            YUV_FORMAT_NV21, YUV_FORMAT_NV12, YUV_FORMAT_I420, YUV_FORMAT_YV12, YUV_FORMAT_RGBA
+    };
+    // bit 0 mirrors horizontally, bit 1 vertically
+    static const char *flips[] = { "", "h", "v", "hv" };
+    YuvTransform transform;
+    size_t size;
+    char name[96];
+    char detail[64];
+    int f, flip;
+    for (f = 0; f < (int) (sizeof(formats) / sizeof(formats[0])); f++) {
+        size = (size_t) width * height;
+        size = formats[f] == YUV_FORMAT_RGBA ? size * 4 : size * 3 / 2;
+        for (flip = 1; flip <= 3; flip++) {
+            snprintf(name, sizeof(name), "%s/mirror_%s_%d", frame_name, flips[flip], formats[f]);
+            transform = (YuvTransform) { 0, 0, 0, 0, 0, 0, 0, formats[f] };
+            yuv_transform(kernels, planes, width, height, &transform, mirrored);
+            transform.flip_horizontal = flip & 0x1;
+            transform.flip_vertical = flip >> 1;
+            yuv_transform(kernels, planes, width, height, &transform, expected);
+            suite->checks++;
+            if (yuv_mirror(kernels, mirrored, formats[f], width, height, flip & 0x1, flip >> 1)
+                != 0) {
+                fail(suite, "%s: %s", name, "mirror failed");
+            } else if (memcmp(mirrored, expected, size) != 0) {
+                snprintf(detail, sizeof(detail), "%s kernels on %d threads differ from flip",
+                         kernels->name, threads);
+                fail(suite, "%s: %s", name, detail);
+            }
+        }
+    }
+}
+
+static void run_frame(Suite *suite, int pattern, int width, int height) {
+    static const int thread_counts[] = { 1, 3 };
+    const YuvKernels *supported[MAX_KERNELS];
+    int kernel_count = yuv_kernels_supported(supported, MAX_KERNELS);
+    size_t pixels = (size_t) width * height;
+    uint8_t *rgba = malloc(pixels * 4);
+    uint8_t *nv21[YUV_MATRIX_COUNT];
+    float *ref_nv21 = malloc(pixels * 3 / 2 * sizeof(float));
+    float *ref_rgb = malloc(pixels * 3 * sizeof(float));
+    uint8_t *out = malloc(pixels * 4);
+    uint8_t *mirrored = malloc(pixels * 4);
+    // expected hash of every case: yuv2rgba and rgba2yuv of each matrix, then transforms
+    uint64_t expected[YUV_MATRIX_COUNT * 2 + TRANSFORM_CASES];
+    uint64_t scale_expected[2];
+    size_t size;
+    YuvKernels kernels;
+    YuvPlanes planes;
+    YuvTransform transform;
+    YuvRendition rendition;
+    YuvSession *session;
+    YuvStats stats;
+    YuvOutput output;
+    char name[96];
+    char session_name[32];
+    char frame_name[48];
+    int m, k, t, c, out_width, out_height, threads;
+
+    yuv_reference_pattern(pattern, rgba, width, height);
+    for (m = 0; m < YUV_MATRIX_COUNT; m++) {
+        nv21[m] = malloc(pixels * 3 / 2);
+        yuv_reference_rgba_to_nv21(m, rgba, width, height, ref_nv21);
+        yuv_reference_round(ref_nv21, nv21[m], pixels * 3 / 2);
+    }
+
+    for (t = 0; t < (int) (sizeof(thread_counts) / sizeof(thread_counts[0])); t++) {
+        threads = thread_counts[t];
+        yuv_workers_set_threads(threads);
+        for (k = 0; k < kernel_count; k++) {
+            for (m = 0; m < YUV_MATRIX_COUNT; m++) {
+                yuv_matrix_kernels(supported[k], m, &kernels);
+                yuv_planes_nv21(&planes, nv21[m], width, height);
+
+                snprintf(name, sizeof(name), "%s/%dx%d/yuv2rgba/%s", kYuvPatternNames[pattern],
+                         width, height, kYuvMatrixNames[m]);
+                yuv_to_rgba(&kernels, &planes, width, height, out);
+                check_output(suite, name, k, supported[k]->name, threads, out, pixels * 4,
+                             &expected[m * 2]);
+                if (k == 0 && threads == 1) {
+                    yuv_reference_nv21_to_rgb(m, nv21[m], width, height, ref_rgb);
+                    check_psnr(suite, name, yuv_psnr(out, 4, ref_rgb, 3, 3, pixels),
+                               m == YUV_MATRIX_LEGACY ? LEGACY_YUV2RGBA_MIN_PSNR
+                                                      : LUT_MIN_PSNR);
+                }
+
+                snprintf(name, sizeof(name), "%s/%dx%d/rgba2yuv/%s", kYuvPatternNames[pattern],
+                         width, height, kYuvMatrixNames[m]);
+                transform = (YuvTransform) { 0, 0, 0, 0, 0, 0, 0, YUV_FORMAT_NV21 };
+                rgba_transform(&kernels, rgba, width, height, &transform, out);
+                check_output(suite, name, k, supported[k]->name, threads, out, pixels * 3 / 2,
+                             &expected[m * 2 + 1]);
+                if (k == 0 && threads == 1) {
+                    yuv_reference_rgba_to_nv21(m, rgba, width, height, ref_nv21);
+                    check_psnr(suite, name, yuv_psnr(out, 1, ref_nv21, 1, 1, pixels * 3 / 2),
+                               m == YUV_MATRIX_LEGACY ? LEGACY_RGBA2YUV_MIN_PSNR
+                                                      : LUT_MIN_PSNR);
+                }
+            }
+
+            yuv_planes_nv21(&planes, nv21[YUV_MATRIX_LEGACY], width, height);
+            for (c = 0; c < TRANSFORM_CASES; c++) {
+                transform = kTransformCases[c].transform;
+                if (transform.crop_x != 0) {
+                    transform.crop_width = width - 6;
+                    transform.crop_height = height - 8;
+                }
+                snprintf(name, sizeof(name), "%s/%dx%d/%s", kYuvPatternNames[pattern], width,
+                         height, kTransformCases[c].name);
+                yuv_transform_output_size(&transform, width, height, &out_width, &out_height);
+                if (kTransformCases[c].rgba_input) {
+                    rgba_transform(supported[k], rgba, width, height, &transform, out);
+                } else {
+                    yuv_transform(supported[k], &planes, width, height, &transform, out);
+                }
+                size = (size_t) out_width * out_height;
+                size = transform.output_format == YUV_FORMAT_RGBA ? size * 4 : size * 3 / 2;
+                check_output(suite, name, k, supported[k]->name, threads, out, size,
+                             &expected[YUV_MATRIX_COUNT * 2 + c]);
+
+                // the second frame of a session reuses its scratch
+                session = yuv_session_create(supported[k], width, height, &transform, threads);
+                if (session == NULL) {
+                    fail(suite, "%s: %s", name, "session not created");
+                    continue;
+                }
+                yuv_output_of(&output, transform.output_format, out, out_width, out_height);
+                for (m = 0; m < 2; m++) {
+                    memset(out, 0, size);
+                    if (kTransformCases[c].rgba_input) {
+                        yuv_session_rgba_transform(session, rgba, &output, &stats);
+                    } else {
+                        yuv_session_transform(session, &planes, &output, &stats);
+                    }
+                }
+                yuv_session_destroy(session);
+                snprintf(session_name, sizeof(session_name), "%s session", supported[k]->name);
+                check_output(suite, name, MAX_KERNELS, session_name, threads, out, size,
+                             &expected[YUV_MATRIX_COUNT * 2 + c]);
+                if (transform.output_format == YUV_FORMAT_RGBA) {
+                    // stats of RGBA output count the luma of the same frame in YUV
+                    transform.output_format = YUV_FORMAT_NV21;
+                    yuv_transform(supported[k], &planes, width, height, &transform, mirrored);
+                    check_stats(suite, name, session_name, threads, &stats, mirrored, out_width,
+                                out_height);
+                } else {
+                    check_stats(suite, name, session_name, threads, &stats, out, out_width,
+                                out_height);
+                }
+            }
+
+            snprintf(frame_name, sizeof(frame_name), "%s/%dx%d", kYuvPatternNames[pattern], width,
+                     height);
+            check_mirror(suite, frame_name, supported[k], threads, &planes, width, height, out,
+                         mirrored);
+        }
+
+        // scaling doesn't use the kernels, only check it against the golden values and threads
+        rendition.out = out;
+        for (c = 2; c <= 3; c++) {
+            rendition.width = (width / c) & ~0x1;
+            rendition.height = (height / c) & ~0x1;
+            snprintf(name, sizeof(name), "%s/%dx%d/scale_%d", kYuvPatternNames[pattern], width,
+                     height, c);
+            yuv_scale(nv21[YUV_MATRIX_LEGACY], YUV_FORMAT_NV21, width, height, &rendition, 1);
+            size = (size_t) rendition.width * rendition.height * 3 / 2;
+            check_output(suite, name, 0, "c", threads, out, size, &scale_expected[c - 2]);
+        }
+    }
+    yuv_workers_set_threads(1);
+
+    for (m = 0; m < YUV_MATRIX_COUNT; m++) {
+        free(nv21[m]);
+    }
+    free(rgba);
+    free(ref_nv21);
+    free(ref_rgb);
+    free(out);
+    free(mirrored);
+}
+
+int main(int argc, char **argv) {
+    // 70 x 38 leaves odd chroma widths and partial SIMD blocks at the end of every row
+    static const int sizes[][2] = { { 176, 144 }, { 70, 38 } };
+    Suite suite = { 0, 0, 0, 0 };
+    int i, p, s;
+    for (i = 1; i < argc; i++) {
+        if (strcmp(argv[i], "--update") == 0) {
+            suite.update = 1;
+        } else if (strcmp(argv[i], "--verbose") == 0) {
+            suite.verbose = 1;
+        } else {
+            fprintf(stderr, "unknown option %s\n", argv[i]);
+            return 1;
+        }
+    }
+
+    if (suite.update) {
+        printf("// golden hashes of the scalar output, generated by yuv_golden --update\n");
+    }
+    for (p = 0; p < YUV_PATTERN_COUNT; p++) {
+        for (s = 0; s < (int) (sizeof(sizes) / sizeof(sizes[0])); s++) {
+            run_frame(&suite, p, sizes[s][0], sizes[s][1]);
+        }
+    }
+    if (!suite.update) {
+        printf("%d checks, %d failures\n", suite.checks, suite.failures);
+    }
+    return suite.failures == 0 ? 0 : 1;
+}
@@ -0,0 +1,301 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Parity suite of JavaConverter.java, the pure Java fallback of the converter: hashes the scalar
+// output of every colour matrix at every accuracy, through every rotation, flip, crop and output
+// format, of a NV21 frame, a planar image with padded rows and a RGBA frame, then renditions and
+// in-place mirrors, and checks them against yuv_parity.txt. JavaConverterParityTest checks the
+// Java output against the same file, so both converters match byte for byte as long as both
+// suites pass.
+//
+// Build it with the host target of CMakeLists.txt and run it with ctest, or directly:
+//
+//   ./yuv_parity ../CameraCompat/src/test/resources/yuv_parity.txt
+//
+// After an intended output change of both converters, regenerate the file and review the diff:
+//
+//   ./yuv_parity --update > ../CameraCompat/src/test/resources/yuv_parity.txt
+
+#include <inttypes.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "yuv_convert.h"
+#include "yuv_matrix.h"
+#include "yuv_mirror.h"
+#include "yuv_reference.h"
+#include "yuv_scale.h"
+
+// odd chroma width, so every loop has a tail, keep it in sync with JavaConverterParityTest
+#define WIDTH 70
+#define HEIGHT 38
+#define Y_ROW_STRIDE (WIDTH + 8)
+#define C_ROW_STRIDE (WIDTH / 2 + 4)
+// renditions of it are exactly 2x and 4x smaller, which are box filtered
+#define SCALE_WIDTH 72
+#define SCALE_HEIGHT 40
+#define FORMAT_COUNT 5
+#define MAX_GOLDEN 128
+
+static const char *const kInputNames[] = { "nv21", "image", "rgba" };
+static const char *const kAccuracyNames[YUV_ACCURACY_COUNT] = {
+        "default", "fast", "exact", "reference",
+};
+
+typedef struct Golden {
+    char name[64];
+    uint64_t hash;
+} Golden;
+
+typedef struct Suite {
+    int update;
+    int checks;
+    int failures;
+    int golden_count;
+    Golden golden[MAX_GOLDEN];
+} Suite;
+
+static uint64_t fnv1a(uint64_t hash, const uint8_t *data, size_t size) {
+    size_t i;
+    for (i = 0; i < size; i++) {
+        hash = (hash ^ data[i]) * 0x100000001b3ULL;
+    }
+    return hash;
+}
+
+/**
+ * Bytes of a linear congruential generator, integer only so Java generates the same.
+ */
+static void fill(uint8_t *data, size_t size, uint32_t seed) {
+    size_t i;
+    for (i = 0; i < size; i++) {
+        seed = seed * 1664525u + 1013904223u;
+        data[i] = (uint8_t) (seed >> 24);
+    }
+}
+
+static int load(Suite *suite, const char *path) {
+    FILE *file = fopen(path, "r");
+    char line[128];
+    Golden *golden;
+    if (file == NULL) {
+        return -1;
+    }
+    while (fgets(line, sizeof(line), file) != NULL && suite->golden_count < MAX_GOLDEN) {
+        if (line[0] == '#' || line[0] == '\n') {
+            continue;
+        }
+        golden = &suite->golden[suite->golden_count];
+        if (sscanf(line, "%63s %" SCNx64, golden->name, &golden->hash) == 2) {
+            suite->golden_count++;
+        }
+    }
+    fclose(file);
+    return 0;
+}
+
+static void fail(Suite *suite, const char *name, const char *detail) {
+    suite->failures++;
+    printf("%s: %s\n", name, detail);
+}
+
+static void check(Suite *suite, const char *name, uint64_t hash) {
+    char detail[64];
+    int i;
+    if (suite->update) {
+        printf("%s %016" PRIx64 "\n", name, hash);
+        return;
+    }
+    suite->checks++;
+    for (i = 0; i < suite->golden_count; i++) {
+        if (strcmp(suite->golden[i].name, name) == 0) {
+            if (suite->golden[i].hash != hash) {
+                snprintf(detail, sizeof(detail), "hash %016" PRIx64 ", golden %016" PRIx64, hash,
+                         suite->golden[i].hash);
+                fail(suite, name, detail);
+            }
+            return;
+        }
+    }
+    fail(suite, name, "no golden value, run --update");
+}
+
+/**
+ * Hash the output of every transform of one input with the kernels, in the same order as
+ * JavaConverterParityTest.
+ */
+static uint64_t hash_transforms(const YuvKernels *kernels, int input, const YuvPlanes *planes,
+                                const uint8_t *rgba, uint8_t *out) {
+    uint64_t hash = 0xcbf29ce484222325ULL;
+    YuvTransform transform;
+    size_t size;
+    int rotation, flip, crop, format, out_width, out_height, ret;
+    for (rotation = 0; rotation < 360; rotation += 90) {
+        for (flip = 0; flip < 4; flip++) {
+            for (crop = 0; crop < 2; crop++) {
+                for (format = 0; format < FORMAT_COUNT; format++) {
+                    if (input == 2 && format == YUV_FORMAT_RGBA) {
+                        continue;
+                    }
+                    transform = (YuvTransform) {
+                            crop ? 2 : 0, crop ? 4 : 0, crop ? WIDTH - 6 : 0,
+                            crop ? HEIGHT - 8 : 0, rotation, flip & 0x1, flip >> 1, format
+                    };
+                    yuv_transform_output_size(&transform, WIDTH, HEIGHT, &out_width,
+                                              &out_height);
+                    size = (size_t) out_width * out_height;
+                    size = format == YUV_FORMAT_RGBA ? size * 4 : size * 3 / 2;
+                    memset(out, 0, size);
+                    ret = input == 2
+                          ? rgba_transform(kernels, rgba, WIDTH, HEIGHT, &transform, out)
+                          : yuv_transform(kernels, planes, WIDTH, HEIGHT, &transform, out);
+                    if (ret != 0) {
+                        // hashed as an empty output, Java must fail on the same transforms
+                        continue;
+                    }
+                    hash = fnv1a(hash, out, size);
+                }
+            }
+        }
+    }
+    return hash;
+}
+
+int main(int argc, char **argv) {
+    size_t pixels = (size_t) WIDTH * HEIGHT;
+    uint8_t *nv21 = malloc(pixels * 3 / 2);
+    uint8_t *scale_in = malloc((size_t) SCALE_WIDTH * SCALE_HEIGHT * 3 / 2);
+    uint8_t *rgba = malloc(pixels * 4);
+    uint8_t *image_y = malloc((size_t) Y_ROW_STRIDE * HEIGHT);
+    uint8_t *image_cr = malloc((size_t) C_ROW_STRIDE * HEIGHT / 2);
+    uint8_t *image_cb = malloc((size_t) C_ROW_STRIDE * HEIGHT / 2);
+    uint8_t *out = malloc(pixels * 4);
+    const char *path = NULL;
+    Suite suite;
+    YuvKernels kernels;
+    YuvPlanes planes[2];
+    YuvRendition renditions[3];
+    uint64_t hash;
+    char name[64];
+    int i, x, y, m, a, format, flip;
+
+    memset(&suite, 0, sizeof(suite));
+    for (i = 1; i < argc; i++) {
+        if (strcmp(argv[i], "--update") == 0) {
+            suite.update = 1;
+        } else {
+            path = argv[i];
+        }
+    }
+    if (!suite.update && (path == NULL || load(&suite, path) != 0)) {
+        fprintf(stderr, "usage: yuv_parity yuv_parity.txt | --update\n");
+        return 1;
+    }
+
+    fill(nv21, pixels * 3 / 2, 0x12345678u);
+    fill(rgba, pixels * 4, 0x9e3779b9u);
+    fill(scale_in, (size_t) SCALE_WIDTH * SCALE_HEIGHT * 3 / 2, 0x2545f491u);
+    // the planes of the NV21 frame as a planar image, padding bytes are never read
+    memset(image_y, 0xEE, (size_t) Y_ROW_STRIDE * HEIGHT);
+    memset(image_cr, 0xEE, (size_t) C_ROW_STRIDE * HEIGHT / 2);
+    memset(image_cb, 0xEE, (size_t) C_ROW_STRIDE * HEIGHT / 2);
+    for (y = 0; y < HEIGHT; y++) {
+        memcpy(image_y + y * Y_ROW_STRIDE, nv21 + y * WIDTH, WIDTH);
+    }
+    for (y = 0; y < HEIGHT / 2; y++) {
+        for (x = 0; x < WIDTH / 2; x++) {
+            image_cr[y * C_ROW_STRIDE + x] = nv21[pixels + y * WIDTH + x * 2];
+            image_cb[y * C_ROW_STRIDE + x] = nv21[pixels + y * WIDTH + x * 2 + 1];
+        }
+    }
+    yuv_planes_nv21(&planes[0], nv21, WIDTH, HEIGHT);
+    planes[1] = (YuvPlanes) { image_y, image_cr, image_cb, Y_ROW_STRIDE, C_ROW_STRIDE, 1 };
+
+    if (suite.update) {
+        printf("# hashes of the scalar native output, checked by bench/yuv_parity.c and\n"
+               "# JavaConverterParityTest, generated by yuv_parity --update\n");
+    }
+    for (i = 0; i < 3; i++) {
+        for (m = 0; m < YUV_MATRIX_COUNT; m++) {
+            for (a = 0; a < YUV_ACCURACY_COUNT; a++) {
+                yuv_matrix_accuracy_kernels(&kYuvKernelsC, m, a, &kernels);
+                snprintf(name, sizeof(name), "%s/%s/%s", kInputNames[i], kYuvMatrixNames[m],
+                         kAccuracyNames[a]);
+                check(&suite, name, hash_transforms(&kernels, i, &planes[i & 0x1], rgba, out));
+            }
+        }
+    }
+
+    // halved, quartered and a bilinear ratio, in every YUV 420 format
+    hash = 0xcbf29ce484222325ULL;
+    renditions[0] = (YuvRendition) { SCALE_WIDTH / 2, SCALE_HEIGHT / 2, out };
+    renditions[1] = (YuvRendition) { SCALE_WIDTH / 4, SCALE_HEIGHT / 4, out + pixels };
+    renditions[2] = (YuvRendition) { 46, 26, out + pixels * 2 };
+    for (format = 0; format < FORMAT_COUNT; format++) {
+        if (format == YUV_FORMAT_RGBA) {
+            continue;
+        }
+        if (yuv_scale(scale_in, format, SCALE_WIDTH, SCALE_HEIGHT, renditions, 3) != 0) {
+            fail(&suite, "scale", "scale failed");
+            continue;
+        }
+        for (i = 0; i < 3; i++) {
+            hash = fnv1a(hash, renditions[i].out,
+                         (size_t) renditions[i].width * renditions[i].height * 3 / 2);
+        }
+    }
+    check(&suite, "scale", hash);
+
+    // bit 0 mirrors horizontally, bit 1 vertically
+    hash = 0xcbf29ce484222325ULL;
+    for (format = 0; format < FORMAT_COUNT; format++) {
+        for (flip = 1; flip < 4; flip++) {
+            if (format == YUV_FORMAT_RGBA) {
+                memcpy(out, rgba, pixels * 4);
+            } else {
+                memcpy(out, nv21, pixels * 3 / 2);
+            }
+            if (yuv_mirror(&kYuvKernelsC, out, format, WIDTH, HEIGHT, flip & 0x1, flip >> 1)
+                != 0) {
+                fail(&suite, "mirror", "mirror failed");
+                continue;
+            }
+            hash = fnv1a(hash, out, format == YUV_FORMAT_RGBA ? pixels * 4 : pixels * 3 / 2);
+        }
+    }
+    check(&suite, "mirror", hash);
+
+    if (!suite.update) {
+        printf("%d checks, %d failures\n", suite.checks, suite.failures);
+    }
+    free(nv21);
+    free(scale_in);
+    free(rgba);
+    free(image_y);
+    free(image_cr);
+    free(image_cb);
+    free(out);
+    return suite.failures == 0 ? 0 : 1;
+}
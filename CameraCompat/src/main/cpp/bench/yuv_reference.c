@@ -0,0 +1,177 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+#include <math.h>
+
+#include "yuv_reference.h"
+
+const char *const kYuvPatternNames[YUV_PATTERN_COUNT] = { "bars", "ramp", "natural" };
+
+const char *const kYuvMatrixNames[YUV_MATRIX_COUNT] = {
+        "legacy", "bt601_limited", "bt601_full", "bt709_limited", "bt709_full",
+};
+
+typedef struct Coefficients {
+    double kr;
+    double kb;
+    double kg;
+    double y_scale;
+    double c_scale;
+    double y_offset;
+} Coefficients;
+
+static void coefficients_of(int matrix, Coefficients *c) {
+    int bt709 = matrix == YUV_MATRIX_BT709_LIMITED || matrix == YUV_MATRIX_BT709_FULL;
+    int full = matrix == YUV_MATRIX_BT601_FULL || matrix == YUV_MATRIX_BT709_FULL;
+    c->kr = bt709 ? 0.2126 : 0.299;
+    c->kb = bt709 ? 0.0722 : 0.114;
+    c->kg = 1 - c->kr - c->kb;
+    c->y_scale = full ? 1 : 219.0 / 255;
+    c->c_scale = full ? 1 : 224.0 / 255;
+    c->y_offset = full ? 0 : 16;
+}
+
+static inline float clamp_f(double v) {
+    return (float) (v < 0 ? 0 : (v > 255 ? 255 : v));
+}
+
+static inline uint8_t clamp_u8(int v) {
+    return (uint8_t) (v < 0 ? 0 : (v > 255 ? 255 : v));
+}
+
+/**
+ * 0 ~ 256 ~ 0 over every 512 steps of t.
+ */
+static inline int triangle(int t) {
+    t &= 511;
+    return t < 256 ? t : 512 - t;
+}
+
+void yuv_reference_pattern(int pattern, uint8_t *rgba, int width, int height) {
+    // 75% colour bars: white, yellow, cyan, green, magenta, red, blue, black
+    static const uint8_t bars[8][3] = {
+            { 191, 191, 191 }, { 191, 191, 0 }, { 0, 191, 191 }, { 0, 191, 0 },
+            { 191, 0, 191 }, { 191, 0, 0 }, { 0, 0, 191 }, { 0, 0, 0 },
+    };
+    uint32_t seed = 0x12345678u;
+    int x, y, u, v, i;
+    for (y = 0; y < height; y++) {
+        for (x = 0; x < width; x++) {
+            uint8_t *p = rgba + ((size_t) y * width + x) * 4;
+            switch (pattern) {
+                case YUV_PATTERN_BARS:
+                    if (y < height * 3 / 4) {
+                        i = x * 8 / width;
+                        p[0] = bars[i][0];
+                        p[1] = bars[i][1];
+                        p[2] = bars[i][2];
+                    } else {
+                        p[0] = p[1] = p[2] = (uint8_t) (x * 255 / (width - 1));
+                    }
+                    break;
+                case YUV_PATTERN_RAMP:
+                    p[0] = (uint8_t) (x * 255 / (width - 1));
+                    p[1] = (uint8_t) (y * 255 / (height - 1));
+                    p[2] = (uint8_t) ((x + y) * 255 / (width + height - 2));
+                    break;
+                default:
+                    // integer only, so golden outputs don't depend on the libm
+                    seed = seed * 1664525u + 1013904223u;
+                    i = (int) (seed >> 29) - 4;
+                    u = x * 256 / width;
+                    v = y * 256 / height;
+                    p[0] = clamp_u8(40 + triangle(u * 4 + v) * 3 / 4 + i);
+                    p[1] = clamp_u8(30 + triangle(v * 3 - u * 3 / 2) * 3 / 4 + i);
+                    p[2] = clamp_u8(50 + triangle(u * v / 32) * 5 / 8 + i);
+                    break;
+            }
+            p[3] = 0xFF;
+        }
+    }
+}
+
+void yuv_reference_rgba_to_nv21(int matrix, const uint8_t *rgba, int width, int height,
+                                float *nv21) {
+    Coefficients c;
+    float *crcb = nv21 + (size_t) width * height;
+    int x, y;
+    coefficients_of(matrix, &c);
+    for (y = 0; y < height; y++) {
+        for (x = 0; x < width; x++) {
+            const uint8_t *p = rgba + ((size_t) y * width + x) * 4;
+            double luma = c.kr * p[0] + c.kg * p[1] + c.kb * p[2];
+            nv21[(size_t) y * width + x] = clamp_f(luma * c.y_scale + c.y_offset);
+            if ((y & 0x1) == 0 && (x & 0x1) == 0) {
+                float *pair = crcb + (size_t) (y >> 1) * width + x;
+                pair[0] = clamp_f((p[0] - luma) / (2 * (1 - c.kr)) * c.c_scale + 128);
+                pair[1] = clamp_f((p[2] - luma) / (2 * (1 - c.kb)) * c.c_scale + 128);
+            }
+        }
+    }
+}
+
+void yuv_reference_nv21_to_rgb(int matrix, const uint8_t *nv21, int width, int height,
+                               float *rgb) {
+    Coefficients c;
+    const uint8_t *crcb = nv21 + (size_t) width * height;
+    int x, y;
+    coefficients_of(matrix, &c);
+    for (y = 0; y < height; y++) {
+        for (x = 0; x < width; x++) {
+            const uint8_t *pair = crcb + (size_t) (y >> 1) * width + (x & ~0x1);
+            double luma = (nv21[(size_t) y * width + x] - c.y_offset) / c.y_scale;
+            double cr = (pair[0] - 128) / c.c_scale;
+            double cb = (pair[1] - 128) / c.c_scale;
+            float *p = rgb + ((size_t) y * width + x) * 3;
+            p[0] = clamp_f(luma + 2 * (1 - c.kr) * cr);
+            p[1] = clamp_f(luma - 2 * c.kb * (1 - c.kb) / c.kg * cb
+                           - 2 * c.kr * (1 - c.kr) / c.kg * cr);
+            p[2] = clamp_f(luma + 2 * (1 - c.kb) * cb);
+        }
+    }
+}
+
+void yuv_reference_round(const float *in, uint8_t *out, size_t count) {
+    size_t i;
+    for (i = 0; i < count; i++) {
+        out[i] = (uint8_t) lrintf(in[i]);
+    }
+}
+
+double yuv_psnr(const uint8_t *out, int out_step, const float *ref, int ref_step, int channels,
+                size_t pixels) {
+    double sum = 0, diff;
+    size_t i;
+    int ch;
+    for (i = 0; i < pixels; i++) {
+        for (ch = 0; ch < channels; ch++) {
+            diff = out[i * out_step + ch] - ref[i * ref_step + ch];
+            sum += diff * diff;
+        }
+    }
+    if (sum == 0) {
+        return INFINITY;
+    }
+    return 10 * log10(255.0 * 255.0 * channels * pixels / sum);
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Float reference of the colour conversions, and synthetic test frames, used by the host
+// benchmark and the golden frame suite to measure the PSNR of the fixed point kernels.
+
+#ifndef RGB_YUV_REFERENCE_H
+#define RGB_YUV_REFERENCE_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+#include "yuv_matrix.h"
+
+#define YUV_PATTERN_BARS 0
+#define YUV_PATTERN_RAMP 1
+#define YUV_PATTERN_NATURAL 2
+#define YUV_PATTERN_COUNT 3
+
+extern const char *const kYuvPatternNames[YUV_PATTERN_COUNT];
+
+extern const char *const kYuvMatrixNames[YUV_MATRIX_COUNT];
+
+/**
+ * Draw a deterministic RGBA test frame: colour bars over a grey ramp, RGB ramps, or smooth
+ * shapes with a little noise which looks like a camera frame to the converter.
+ */
+void yuv_reference_pattern(int pattern, uint8_t *rgba, int width, int height);
+
+/**
+ * Exact conversion of the YUV_MATRIX_* from RGBA into NV21 layout, chroma is taken from the even
+ * pixels of the even rows like the kernels do. The legacy matrix approximates BT.601 limited
+ * range, so that's its reference.
+ */
+void yuv_reference_rgba_to_nv21(int matrix, const uint8_t *rgba, int width, int height,
+                                float *nv21);
+
+/**
+ * Exact conversion of the YUV_MATRIX_* from NV21 into RGB, 3 floats per pixel.
+ */
+void yuv_reference_nv21_to_rgb(int matrix, const uint8_t *nv21, int width, int height,
+                               float *rgb);
+
+/**
+ * Round the reference into bytes, e.g. to make the YUV input of a frame.
+ */
+void yuv_reference_round(const float *in, uint8_t *out, size_t count);
+
+/**
+ * PSNR of {@code pixels} pixels against the reference, the first {@code channels} bytes of
+ * every {@code out_step} bytes are compared with the first {@code channels} values of every
+ * {@code ref_step} values.
+ *
+ * @return PSNR in dB, INFINITY if they are the same
+ */
+double yuv_psnr(const uint8_t *out, int out_step, const float *ref, int ref_step, int channels,
+                size_t pixels);
+
+#endif // RGB_YUV_REFERENCE_H
@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Report of the accuracy tiers: ns per frame and PSNR against the float reference in
+// yuv_reference.c of each tier of every standard matrix, at 480p, 720p and 1080p, printed as a
+// markdown table. Build it with the host target of CMakeLists.txt, then regenerate the report
+// with:
+//
+//   ./yuv_tier_report [--min_time=<seconds>] > ../wiki/Accuracy.md
+//
+
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include "yuv_convert.h"
+#include "yuv_matrix.h"
+#include "yuv_reference.h"
+
+static const char *const kTierNames[YUV_ACCURACY_COUNT] = {
+        "default", "fast", "exact", "reference",
+};
+
+static const YuvTransform kIdentity = { 0, 0, 0, 0, 0, 0, 0, YUV_FORMAT_NV21 };
+
+static double now_ns(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1e9 + ts.tv_nsec;
+}
+
+static void run(const YuvKernels *kernels, int to_rgba, const uint8_t *nv21, const uint8_t *rgba,
+                int width, int height, uint8_t *out) {
+    YuvPlanes planes;
+    if (to_rgba) {
+        yuv_planes_nv21(&planes, nv21, width, height);
+        yuv_to_rgba(kernels, &planes, width, height, out);
+    } else {
+        rgba_transform(kernels, rgba, width, height, &kIdentity, out);
+    }
+}
+
+/**
+ * Run the conversion until it takes at least min_time, like yuv_bench does.
+ */
+static double ns_per_frame(const YuvKernels *kernels, int to_rgba, const uint8_t *nv21,
+                           const uint8_t *rgba, int width, int height, uint8_t *out,
+                           double min_time) {
+    long iters = 1, i;
+    double start, elapsed, multiplier;
+    run(kernels, to_rgba, nv21, rgba, width, height, out);
+    for (;;) {
+        start = now_ns();
+        for (i = 0; i < iters; i++) {
+            run(kernels, to_rgba, nv21, rgba, width, height, out);
+        }
+        elapsed = now_ns() - start;
+        if (elapsed >= min_time * 1e9) {
+            break;
+        }
+        multiplier = elapsed > 0 ? min_time * 1e9 * 1.4 / elapsed : 10;
+        multiplier = multiplier < 2 ? 2 : (multiplier > 10 ? 10 : multiplier);
+        iters = (long) (iters * multiplier);
+    }
+    return elapsed / iters;
+}
+
+int main(int argc, char **argv) {
+    static const int sizes[][2] = { { 640, 480 }, { 1280, 720 }, { 1920, 1080 } };
+    double min_time = 0.3;
+    int i, s, m, tier;
+
+    for (i = 1; i < argc; i++) {
+        if (strncmp(argv[i], "--min_time=", 11) == 0) {
+            min_time = atof(argv[i] + 11);
+        } else {
+            fprintf(stderr, "unknown option %s\n", argv[i]);
+            return 1;
+        }
+    }
+
+    printf("# Accuracy tiers\n\n");
+    printf("Generated by `yuv_tier_report` of the host target in "
+           "`CameraCompat/src/main/cpp/CMakeLists.txt`,\n"
+           "with the `%s` kernels on one thread. PSNR is measured against double precision math "
+           "on\n"
+           "the synthetic natural frame of `yuv_reference.c`, time is ns per frame.\n\n",
+           yuv_kernels_detect()->name);
+    printf("- fast: bit operation approximation of BT.601 limited range, with SIMD kernels\n");
+    printf("- exact: 16.16 fixed point lookup tables of the matrix\n");
+    printf("- reference: double precision math of the matrix\n");
+
+    for (m = YUV_MATRIX_BT601_LIMITED; m < YUV_MATRIX_COUNT; m++) {
+        printf("\n## %s\n\n", kYuvMatrixNames[m]);
+        printf("| size | tier | yuv2rgba ns | yuv2rgba PSNR | rgba2yuv ns | rgba2yuv PSNR |\n");
+        printf("|---|---|---:|---:|---:|---:|\n");
+        for (s = 0; s < (int) (sizeof(sizes) / sizeof(sizes[0])); s++) {
+            int width = sizes[s][0], height = sizes[s][1];
+            size_t pixels = (size_t) width * height;
+            uint8_t *rgba = malloc(pixels * 4);
+            uint8_t *nv21 = malloc(pixels * 3 / 2);
+            uint8_t *out = malloc(pixels * 4);
+            float *ref_nv21 = malloc(pixels * 3 / 2 * sizeof(float));
+            float *ref_rgb = malloc(pixels * 3 * sizeof(float));
+
+            yuv_reference_pattern(YUV_PATTERN_NATURAL, rgba, width, height);
+            yuv_reference_rgba_to_nv21(m, rgba, width, height, ref_nv21);
+            yuv_reference_round(ref_nv21, nv21, pixels * 3 / 2);
+            yuv_reference_nv21_to_rgb(m, nv21, width, height, ref_rgb);
+            for (tier = YUV_ACCURACY_FAST; tier < YUV_ACCURACY_COUNT; tier++) {
+                YuvKernels kernels;
+                double to_rgba_ns, to_rgba_psnr, to_yuv_ns, to_yuv_psnr;
+                yuv_matrix_accuracy_kernels(yuv_kernels_detect(), m, tier, &kernels);
+                run(&kernels, 1, nv21, rgba, width, height, out);
+                to_rgba_psnr = yuv_psnr(out, 4, ref_rgb, 3, 3, pixels);
+                to_rgba_ns = ns_per_frame(&kernels, 1, nv21, rgba, width, height, out,
+                                          min_time);
+                run(&kernels, 0, nv21, rgba, width, height, out);
+                to_yuv_psnr = yuv_psnr(out, 1, ref_nv21, 1, 1, pixels * 3 / 2);
+                to_yuv_ns = ns_per_frame(&kernels, 0, nv21, rgba, width, height, out,
+                                         min_time);
+                printf("| %dx%d | %s | %.0f | %.2f | %.0f | %.2f |\n", width, height,
+                       kTierNames[tier], to_rgba_ns, to_rgba_psnr, to_yuv_ns, to_yuv_psnr);
+                fflush(stdout);
+            }
+            free(rgba);
+            free(nv21);
+            free(out);
+            free(ref_nv21);
+            free(ref_rgb);
+        }
+    }
+    return 0;
+}
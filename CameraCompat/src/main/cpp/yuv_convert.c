@@ -0,0 +1,643 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+#include <stdlib.h>
+#include <string.h>
+
+#include "yuv_convert.h"
+#include "yuv_workers.h"
+
+void yuv_planes_nv21(YuvPlanes *planes, const uint8_t *nv21, int width, int height) {
+    planes->y = nv21;
+    planes->cr = nv21 + width * height;
+    planes->cb = planes->cr + 1;
+    planes->y_row_stride = width;
+    planes->c_row_stride = width;
+    planes->c_pixel_stride = 2;
+}
+
+int yuv_planes_of(YuvPlanes *planes, int format, const uint8_t *frame, int width, int height) {
+    const uint8_t *first = frame + width * height;
+    const uint8_t *second = first + (width >> 1) * (height >> 1);
+    planes->y = frame;
+    planes->y_row_stride = width;
+    switch (format) {
+        case YUV_FORMAT_NV21:
+        case YUV_FORMAT_NV12:
+            planes->cr = format == YUV_FORMAT_NV21 ? first : first + 1;
+            planes->cb = format == YUV_FORMAT_NV21 ? first + 1 : first;
+            planes->c_row_stride = width;
+            planes->c_pixel_stride = 2;
+            return 0;
+        case YUV_FORMAT_I420:
+        case YUV_FORMAT_YV12:
+            planes->cr = format == YUV_FORMAT_YV12 ? first : second;
+            planes->cb = format == YUV_FORMAT_YV12 ? second : first;
+            planes->c_row_stride = width >> 1;
+            planes->c_pixel_stride = 1;
+            return 0;
+        default:
+            return -1;
+    }
+}
+
+typedef struct YuvToRgbaJob {
+    const YuvKernels *kernels;
+    const YuvPlanes *in;
+    int width;
+    uint8_t *rgba;
+} YuvToRgbaJob;
+
+static void yuv_to_rgba_band(void *arg, int band, int begin, int end) {
+    const YuvToRgbaJob *job = (const YuvToRgbaJob *) arg;
+    const YuvPlanes *in = job->in;
+    int y, c_offset;
+    // no scratch is needed
+    (void) band;
+    for (y = begin; y < end; y++) {
+        c_offset = (y >> 1) * in->c_row_stride;
+        job->kernels->yuv_to_rgba_row(in->y + y * in->y_row_stride, in->cr + c_offset,
+                                      in->cb + c_offset, in->c_pixel_stride,
+                                      job->rgba + ((y * job->width) << 2), job->width);
+    }
+}
+
+void yuv_to_rgba(const YuvKernels *kernels, const YuvPlanes *in, int width, int height,
+                 uint8_t *rgba) {
+    YuvToRgbaJob job = { kernels, in, width, rgba };
+    yuv_workers_run(NULL, yuv_to_rgba_band, &job, height, 2);
+}
+
+static void map_pixel(const YuvTransform *transform, int output_width, int output_height, int x,
+                      int y, int *col, int *row) {
+    if (transform->flip_horizontal) {
+        x = output_width - 1 - x;
+    }
+    if (transform->flip_vertical) {
+        y = output_height - 1 - y;
+    }
+    switch (transform->rotation) {
+        case 90:
+            *col = y;
+            *row = transform->crop_height - 1 - x;
+            break;
+        case 180:
+            *col = transform->crop_width - 1 - x;
+            *row = transform->crop_height - 1 - y;
+            break;
+        case 270:
+            *col = transform->crop_width - 1 - y;
+            *row = x;
+            break;
+        default:
+            *col = x;
+            *row = y;
+            break;
+    }
+    *col += transform->crop_x;
+    *row += transform->crop_y;
+}
+
+static void fill_default_crop(const YuvTransform *transform, int width, int height,
+                              YuvTransform *resolved) {
+    *resolved = *transform;
+    if (resolved->crop_width == 0 && resolved->crop_height == 0) {
+        resolved->crop_width = width - resolved->crop_x;
+        resolved->crop_height = height - resolved->crop_y;
+    }
+}
+
+static int check_transform(const YuvTransform *transform, int width, int height,
+                           int *output_width, int *output_height) {
+    if (transform->crop_x < 0 || transform->crop_y < 0 || transform->crop_width <= 0
+        || transform->crop_height <= 0 || transform->crop_x + transform->crop_width > width
+        || transform->crop_y + transform->crop_height > height
+        || ((transform->crop_x | transform->crop_y | transform->crop_width
+             | transform->crop_height) & 0x1) != 0) {
+        return -1;
+    }
+    switch (transform->rotation) {
+        case 0:
+        case 180:
+            *output_width = transform->crop_width;
+            *output_height = transform->crop_height;
+            return 0;
+        case 90:
+        case 270:
+            *output_width = transform->crop_height;
+            *output_height = transform->crop_width;
+            return 0;
+        default:
+            return -1;
+    }
+}
+
+int yuv_transform_output_size(const YuvTransform *transform, int width, int height,
+                              int *output_width, int *output_height) {
+    YuvTransform resolved;
+    fill_default_crop(transform, width, height, &resolved);
+    return check_transform(&resolved, width, height, output_width, output_height);
+}
+
+/**
+ * Fill the default crop, check it, and get the mapping from output to input.
+ */
+static int resolve_transform(const YuvTransform *transform, int width, int height,
+                             int *output_width, int *output_height, TransformMapping *mapping) {
+    YuvTransform resolved;
+    int col, row;
+    fill_default_crop(transform, width, height, &resolved);
+    if (check_transform(&resolved, width, height, output_width, output_height) != 0) {
+        return -1;
+    }
+    map_pixel(&resolved, *output_width, *output_height, 0, 0, &mapping->col, &mapping->row);
+    map_pixel(&resolved, *output_width, *output_height, 1, 0, &col, &row);
+    mapping->u_col = col - mapping->col;
+    mapping->u_row = row - mapping->row;
+    map_pixel(&resolved, *output_width, *output_height, 0, 1, &col, &row);
+    mapping->v_col = col - mapping->col;
+    mapping->v_row = row - mapping->row;
+    return 0;
+}
+
+int yuv_output_of(YuvOutput *output, int format, uint8_t *frame, int width, int height) {
+    YuvPlanes planes;
+    if (format == YUV_FORMAT_RGBA) {
+        output->y = frame;
+        output->cr = NULL;
+        output->cb = NULL;
+        output->y_row_stride = width << 2;
+        output->c_row_stride = 0;
+        output->c_pixel_stride = 0;
+        return 0;
+    }
+    if (yuv_planes_of(&planes, format, frame, width, height) != 0) {
+        return -1;
+    }
+    // the planes are in the writable output
+    output->y = (uint8_t *) planes.y;
+    output->cr = (uint8_t *) planes.cr;
+    output->cb = (uint8_t *) planes.cb;
+    output->y_row_stride = planes.y_row_stride;
+    output->c_row_stride = planes.c_row_stride;
+    output->c_pixel_stride = planes.c_pixel_stride;
+    return 0;
+}
+
+/**
+ * @return 0 if the rows of the output fit in its strides, and interleaved chroma is in adjacent
+ * bytes, as the kernels write pairs of them, otherwise -1
+ */
+static int check_output(const YuvOutput *output, int format, int width) {
+    if (format == YUV_FORMAT_RGBA) {
+        return output->y_row_stride >= (width << 2) ? 0 : -1;
+    }
+    if (output->y_row_stride < width) {
+        return -1;
+    }
+    switch (output->c_pixel_stride) {
+        case 1:
+            return output->c_row_stride >= (width >> 1) ? 0 : -1;
+        case 2:
+            return output->c_row_stride >= width
+                   && (output->cb == output->cr + 1 || output->cr == output->cb + 1) ? 0 : -1;
+        default:
+            return -1;
+    }
+}
+
+/**
+ * Move one row of CrCb pairs produced by the kernels into the output chroma.
+ */
+static void store_chroma(const uint8_t *crcb, uint8_t *cr, uint8_t *cb, int pixel_stride,
+                         int pairs) {
+    int x;
+    for (x = 0; x < pairs; x++) {
+        cr[x * pixel_stride] = crcb[x << 1];
+        cb[x * pixel_stride] = crcb[(x << 1) + 1];
+    }
+}
+
+// every band counts into 4 histograms in turn, so runs of the same luma, e.g. of a dark frame,
+// don't wait on the store to one bin, they are merged after the frame
+#define BAND_HISTOGRAMS 4
+#define BAND_BINS (BAND_HISTOGRAMS * YUV_STATS_BINS)
+typedef uint32_t BandHistograms[YUV_WORKERS_MAX_THREADS][BAND_BINS];
+
+typedef struct YuvTransformJob {
+    const YuvTransformPlan *plan;
+    const YuvPlanes *in;
+    YuvOutput out;
+    // NULL if the stats are skipped
+    uint32_t (*histograms)[BAND_BINS];
+} YuvTransformJob;
+
+/**
+ * Count the even pixels of a row just written, while it's still in cache.
+ */
+static void sample_luma(uint32_t *histograms, const uint8_t *luma, int width) {
+    int x;
+    for (x = 0; x + 8 <= width; x += 8) {
+        histograms[luma[x]]++;
+        histograms[YUV_STATS_BINS + luma[x + 2]]++;
+        histograms[YUV_STATS_BINS * 2 + luma[x + 4]]++;
+        histograms[YUV_STATS_BINS * 3 + luma[x + 6]]++;
+    }
+    for (; x < width; x += 2) {
+        histograms[luma[x]]++;
+    }
+}
+
+static void begin_stats(BandHistograms histograms, YuvStats *stats) {
+    if (stats != NULL) {
+        memset(histograms, 0, sizeof(BandHistograms));
+    }
+}
+
+static void end_stats(BandHistograms histograms, YuvStats *stats) {
+    int band, bin;
+    if (stats == NULL) {
+        return;
+    }
+    memset(stats->histogram, 0, sizeof(stats->histogram));
+    for (band = 0; band < YUV_WORKERS_MAX_THREADS; band++) {
+        for (bin = 0; bin < BAND_BINS; bin++) {
+            stats->histogram[bin & (YUV_STATS_BINS - 1)] += histograms[band][bin];
+        }
+    }
+}
+
+/**
+ * @return scratch of the band kept by the plan, or allocated for this frame if the plan has no
+ * scratch, which should be freed by {@link release_scratch}
+ */
+static uint8_t *band_scratch(const YuvTransformPlan *plan, int band) {
+    if (plan->scratch != NULL) {
+        return plan->scratch + (size_t) band * plan->scratch_stride;
+    }
+    return (uint8_t *) malloc(yuv_transform_plan_scratch(plan));
+}
+
+static void release_scratch(const YuvTransformPlan *plan, uint8_t *scratch) {
+    if (plan->scratch == NULL) {
+        free(scratch);
+    }
+}
+
+static void gather_luma(const uint8_t *src, ptrdiff_t step, uint8_t *dst, int width) {
+    int x;
+    for (x = 0; x < width; x++) {
+        dst[x] = src[x * step];
+    }
+}
+
+static void gather_chroma(const uint8_t *cr, const uint8_t *cb, ptrdiff_t step, uint8_t *crcb,
+                          int pairs) {
+    int x;
+    for (x = 0; x < pairs; x++) {
+        crcb[x << 1] = cr[x * step];
+        crcb[(x << 1) + 1] = cb[x * step];
+    }
+}
+
+static void yuv_transform_band(void *arg, int band, int begin, int end) {
+    const YuvTransformJob *job = (const YuvTransformJob *) arg;
+    const YuvTransformPlan *plan = job->plan;
+    const YuvKernels *kernels = plan->kernels;
+    const YuvPlanes *in = job->in;
+    const TransformMapping *m = &plan->mapping;
+    const YuvOutput *out_c = &job->out;
+    uint32_t *histogram = job->histograms != NULL ? job->histograms[band] : NULL;
+    int width = plan->output_width;
+    int pairs = width >> 1;
+    // step between two adjacent output pixels, and two adjacent output chroma samples
+    ptrdiff_t y_step = m->u_col + (ptrdiff_t) m->u_row * in->y_row_stride;
+    ptrdiff_t c_step = m->u_col * in->c_pixel_stride + (ptrdiff_t) m->u_row * in->c_row_stride;
+    uint8_t *gathered = NULL;
+    const uint8_t *y_src, *cr_src, *cb_src, *first_src, *second_src;
+    uint8_t *out_cr, *out_cb, *out_pairs;
+    int y, col, row, cr_first;
+    ptrdiff_t c_offset;
+
+    if (plan->output_format == YUV_FORMAT_RGBA && y_step != 1) {
+        // Y, then Cr, then Cb of one row
+        gathered = band_scratch(plan, band);
+        if (gathered == NULL) {
+            return;
+        }
+    }
+    for (y = begin; y < end; y++) {
+        col = m->col + y * m->v_col;
+        row = m->row + y * m->v_row;
+        y_src = in->y + (ptrdiff_t) row * in->y_row_stride + col;
+        // output rows 2n and 2n + 1 share the chroma of the same input 2x2 blocks
+        c_offset = (ptrdiff_t) (row >> 1) * in->c_row_stride
+                   + (ptrdiff_t) (col >> 1) * in->c_pixel_stride;
+        cr_src = in->cr + c_offset;
+        cb_src = in->cb + c_offset;
+
+        if (plan->output_format == YUV_FORMAT_RGBA) {
+            uint8_t *rgba = out_c->y + (ptrdiff_t) y * out_c->y_row_stride;
+            if (y_step == 1) {
+                kernels->yuv_to_rgba_row(y_src, cr_src, cb_src, in->c_pixel_stride, rgba,
+                                         width);
+            } else {
+                gather_luma(y_src, y_step, gathered, width);
+                gather_luma(cr_src, c_step, gathered + width, pairs);
+                gather_luma(cb_src, c_step, gathered + width + pairs, pairs);
+                kernels->yuv_to_rgba_row(gathered, gathered + width,
+                                         gathered + width + pairs, 1, rgba, width);
+            }
+            if (histogram != NULL && (y & 0x1) == 0) {
+                // luma of the output pixels, it's read already
+                sample_luma(histogram, y_step == 1 ? y_src : gathered, width);
+            }
+            continue;
+        }
+
+        if (y_step == 1 || y_step == -1) {
+            kernels->copy_luma_row(y_step == 1 ? y_src : y_src - (width - 1),
+                                   out_c->y + (ptrdiff_t) y * out_c->y_row_stride, width,
+                                   y_step == -1);
+        } else {
+            gather_luma(y_src, y_step, out_c->y + (ptrdiff_t) y * out_c->y_row_stride, width);
+        }
+        if ((y & 0x1) != 0) {
+            continue;
+        }
+        if (histogram != NULL) {
+            sample_luma(histogram, out_c->y + (ptrdiff_t) y * out_c->y_row_stride, width);
+        }
+        out_cr = out_c->cr + (ptrdiff_t) (y >> 1) * out_c->c_row_stride;
+        out_cb = out_c->cb + (ptrdiff_t) (y >> 1) * out_c->c_row_stride;
+        if (out_c->c_pixel_stride == 1) {
+            // planar output, chroma of one row is a run of samples in each plane
+            if (c_step == 1) {
+                memcpy(out_cr, cr_src, (size_t) pairs);
+                memcpy(out_cb, cb_src, (size_t) pairs);
+            } else {
+                gather_luma(cr_src, c_step, out_cr, pairs);
+                gather_luma(cb_src, c_step, out_cb, pairs);
+            }
+            continue;
+        }
+        // interleaved output, the kernels write pairs in the output order
+        cr_first = out_c->cr < out_c->cb;
+        first_src = cr_first ? cr_src : cb_src;
+        second_src = cr_first ? cb_src : cr_src;
+        out_pairs = cr_first ? out_cr : out_cb;
+        if (y_step == 1 && in->c_pixel_stride == 2 && second_src == first_src + 1) {
+            // input chroma is interleaved in the output order already, e.g. NV21 to NV21
+            memcpy(out_pairs, first_src, (size_t) pairs << 1);
+        } else if (y_step == 1 || y_step == -1) {
+            c_offset = y_step == 1 ? 0 : -(ptrdiff_t) (pairs - 1) * in->c_pixel_stride;
+            kernels->copy_chroma_row(first_src + c_offset, second_src + c_offset,
+                                     in->c_pixel_stride, out_pairs, pairs, y_step == -1);
+        } else {
+            gather_chroma(first_src, second_src, c_step, out_pairs, pairs);
+        }
+    }
+    if (gathered != NULL) {
+        release_scratch(plan, gathered);
+    }
+}
+
+int yuv_transform_plan(YuvTransformPlan *plan, const YuvKernels *kernels, YuvWorkers *workers,
+                       int width, int height, const YuvTransform *transform) {
+    if (resolve_transform(transform, width, height, &plan->output_width, &plan->output_height,
+                          &plan->mapping) != 0) {
+        return -1;
+    }
+    plan->kernels = kernels;
+    plan->workers = workers;
+    plan->width = width;
+    plan->height = height;
+    plan->output_format = transform->output_format;
+    plan->scratch = NULL;
+    plan->scratch_stride = 0;
+    return 0;
+}
+
+size_t yuv_transform_plan_scratch(const YuvTransformPlan *plan) {
+    // a row of Y, Cr and Cb gathered from rotated YUV, or a row of CrCb pairs
+    return (size_t) plan->output_width << 1;
+}
+
+int yuv_transform_run(const YuvTransformPlan *plan, const YuvPlanes *in, const YuvOutput *out,
+                      YuvStats *stats) {
+    YuvTransformJob job;
+    BandHistograms histograms;
+    if (check_output(out, plan->output_format, plan->output_width) != 0) {
+        return -1;
+    }
+    job.plan = plan;
+    job.in = in;
+    job.out = *out;
+    job.histograms = stats != NULL ? histograms : NULL;
+    begin_stats(histograms, stats);
+    yuv_workers_run(plan->workers, yuv_transform_band, &job, plan->output_height, 2);
+    end_stats(histograms, stats);
+    return 0;
+}
+
+int yuv_transform_to(const YuvKernels *kernels, const YuvPlanes *in, int width, int height,
+                     const YuvTransform *transform, const YuvOutput *out) {
+    YuvTransformPlan plan;
+    if (yuv_transform_plan(&plan, kernels, NULL, width, height, transform) != 0) {
+        return -1;
+    }
+    return yuv_transform_run(&plan, in, out, NULL);
+}
+
+int yuv_transform(const YuvKernels *kernels, const YuvPlanes *in, int width, int height,
+                  const YuvTransform *transform, uint8_t *out) {
+    YuvOutput output;
+    int output_width, output_height;
+    if (yuv_transform_output_size(transform, width, height, &output_width, &output_height) != 0
+        || yuv_output_of(&output, transform->output_format, out, output_width,
+                         output_height) != 0) {
+        return -1;
+    }
+    return yuv_transform_to(kernels, in, width, height, transform, &output);
+}
+
+typedef struct RgbaTransformJob {
+    const YuvTransformPlan *plan;
+    const uint8_t *rgba;
+    YuvOutput out;
+    // NULL if the stats are skipped
+    uint32_t (*histograms)[BAND_BINS];
+} RgbaTransformJob;
+
+/**
+ * @return where the kernels should write the CrCb pairs of output row {@code y} from pixel
+ * {@code x}: NULL for odd rows, the output itself for NV21, otherwise {@code scratch}, which is
+ * moved into the output by {@link store_chroma_row} later.
+ */
+static uint8_t *chroma_row(const YuvOutput *out, int y, int x, uint8_t *scratch) {
+    if ((y & 0x1) != 0) {
+        return NULL;
+    }
+    if (out->c_pixel_stride == 2 && out->cr < out->cb) {
+        return out->cr + (ptrdiff_t) (y >> 1) * out->c_row_stride + x;
+    }
+    return scratch;
+}
+
+static void store_chroma_row(const YuvOutput *out, int y, int x, const uint8_t *crcb,
+                             const uint8_t *scratch, int width) {
+    ptrdiff_t offset;
+    if (crcb != scratch) {
+        return;
+    }
+    offset = (ptrdiff_t) (y >> 1) * out->c_row_stride + (x >> 1) * out->c_pixel_stride;
+    store_chroma(crcb, out->cr + offset, out->cb + offset, out->c_pixel_stride, width >> 1);
+}
+
+// output rows that come from input columns are converted tile by tile, each tile is transposed
+// into a contiguous buffer first, so the input is read row by row and the kernels always see
+// continuous pixels. 64 x 32 RGBA pixels is 8KB, it stays in L1 with the input rows it reads.
+#define RGBA_TILE_WIDTH 64
+#define RGBA_TILE_HEIGHT 32
+
+static void rgba_transform_tile(const RgbaTransformJob *job, const uint8_t *src,
+                                ptrdiff_t pixel_step, ptrdiff_t row_step, int tile_x, int tile_y,
+                                int tile_width, int tile_height, uint8_t *tile,
+                                uint32_t *histogram) {
+    uint8_t scratch[RGBA_TILE_WIDTH];
+    uint8_t *crcb, *out_row;
+    int x, y;
+    for (x = 0; x < tile_width; x++) {
+        const uint8_t *s = src + x * pixel_step;
+        uint8_t *d = tile + (x << 2);
+        for (y = 0; y < tile_height; y++) {
+            memcpy(d, s, 4);
+            s += row_step;
+            d += RGBA_TILE_WIDTH << 2;
+        }
+    }
+    for (y = 0; y < tile_height; y++) {
+        int out_y = tile_y + y;
+        crcb = chroma_row(&job->out, out_y, tile_x, scratch);
+        out_row = job->out.y + (ptrdiff_t) out_y * job->out.y_row_stride + tile_x;
+        job->plan->kernels->rgba_to_yuv_row(tile + y * (RGBA_TILE_WIDTH << 2), 4, out_row, crcb,
+                                            tile_width);
+        store_chroma_row(&job->out, out_y, tile_x, crcb, scratch, tile_width);
+        // tiles start at even columns, so even pixels of the tile are even pixels of the frame
+        if (histogram != NULL && crcb != NULL) {
+            sample_luma(histogram, out_row, tile_width);
+        }
+    }
+}
+
+static void rgba_transform_band(void *arg, int band, int begin, int end) {
+    const RgbaTransformJob *job = (const RgbaTransformJob *) arg;
+    const YuvTransformPlan *plan = job->plan;
+    const TransformMapping *m = &plan->mapping;
+    uint32_t *histogram = job->histograms != NULL ? job->histograms[band] : NULL;
+    int width = plan->output_width;
+    int input_width = plan->width;
+    ptrdiff_t pixel_step = (m->u_col + (ptrdiff_t) m->u_row * input_width) * 4;
+    ptrdiff_t row_step = (m->v_col + (ptrdiff_t) m->v_row * input_width) * 4;
+    uint8_t *crcb;
+    int x, y, col, row;
+
+    if (pixel_step == 4 || pixel_step == -4) {
+        uint8_t *scratch = band_scratch(plan, band);
+        if (scratch == NULL) {
+            return;
+        }
+        for (y = begin; y < end; y++) {
+            col = m->col + y * m->v_col;
+            row = m->row + y * m->v_row;
+            crcb = chroma_row(&job->out, y, 0, scratch);
+            plan->kernels->rgba_to_yuv_row(
+                    job->rgba + (((ptrdiff_t) row * input_width + col) * 4), pixel_step,
+                    job->out.y + (ptrdiff_t) y * job->out.y_row_stride, crcb, width);
+            store_chroma_row(&job->out, y, 0, crcb, scratch, width);
+            if (histogram != NULL && crcb != NULL) {
+                sample_luma(histogram, job->out.y + (ptrdiff_t) y * job->out.y_row_stride,
+                            width);
+            }
+        }
+        release_scratch(plan, scratch);
+        return;
+    }
+
+    uint8_t tile[RGBA_TILE_WIDTH * RGBA_TILE_HEIGHT * 4];
+    int tile_height;
+    // tile height is even, so every tile starts at an even row, and owns whole chroma rows
+    for (y = begin; y < end; y += RGBA_TILE_HEIGHT) {
+        tile_height = end - y < RGBA_TILE_HEIGHT ? end - y : RGBA_TILE_HEIGHT;
+        for (x = 0; x < width; x += RGBA_TILE_WIDTH) {
+            col = m->col + x * m->u_col + y * m->v_col;
+            row = m->row + x * m->u_row + y * m->v_row;
+            rgba_transform_tile(job, job->rgba + (((ptrdiff_t) row * input_width + col) * 4),
+                                pixel_step, row_step, x, y,
+                                width - x < RGBA_TILE_WIDTH ? width - x : RGBA_TILE_WIDTH,
+                                tile_height, tile, histogram);
+        }
+    }
+}
+
+int rgba_transform_run(const YuvTransformPlan *plan, const uint8_t *rgba, const YuvOutput *out,
+                       YuvStats *stats) {
+    RgbaTransformJob job;
+    BandHistograms histograms;
+    if (plan->output_format == YUV_FORMAT_RGBA
+        || check_output(out, plan->output_format, plan->output_width) != 0) {
+        return -1;
+    }
+    job.plan = plan;
+    job.rgba = rgba;
+    job.out = *out;
+    job.histograms = stats != NULL ? histograms : NULL;
+    begin_stats(histograms, stats);
+    yuv_workers_run(plan->workers, rgba_transform_band, &job, plan->output_height, 2);
+    end_stats(histograms, stats);
+    return 0;
+}
+
+int rgba_transform_to(const YuvKernels *kernels, const uint8_t *rgba, int width, int height,
+                      const YuvTransform *transform, const YuvOutput *out) {
+    YuvTransformPlan plan;
+    if (yuv_transform_plan(&plan, kernels, NULL, width, height, transform) != 0) {
+        return -1;
+    }
+    return rgba_transform_run(&plan, rgba, out, NULL);
+}
+
+int rgba_transform(const YuvKernels *kernels, const uint8_t *rgba, int width, int height,
+                   const YuvTransform *transform, uint8_t *yuv) {
+    YuvOutput output;
+    int output_width, output_height;
+    if (transform->output_format == YUV_FORMAT_RGBA
+        || yuv_transform_output_size(transform, width, height, &output_width,
+                                     &output_height) != 0
+        || yuv_output_of(&output, transform->output_format, yuv, output_width,
+                         output_height) != 0) {
+        return -1;
+    }
+    return rgba_transform_to(kernels, rgba, width, height, transform, &output);
+}
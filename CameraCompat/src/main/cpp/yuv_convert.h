@@ -0,0 +1,224 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Frame level conversions, built on top of the row kernels, free of JNI so they could be
+// compiled and checked on host.
+
+#ifndef RGB_YUV_CONVERT_H
+#define RGB_YUV_CONVERT_H
+
+#include "yuv_kernels.h"
+#include "yuv_workers.h"
+
+/**
+ * Describe where the pixels of a YUV 420 frame are, chroma row n holds the chroma of pixel rows
+ * 2n and 2n + 1.
+ */
+typedef struct YuvPlanes {
+    const uint8_t *y;
+    const uint8_t *cr;
+    const uint8_t *cb;
+    int y_row_stride;
+    int c_row_stride;
+    int c_pixel_stride;
+} YuvPlanes;
+
+/**
+ * Planes of a NV21 frame stored continuously, e.g. the data of Camera1 preview callback.
+ */
+void yuv_planes_nv21(YuvPlanes *planes, const uint8_t *nv21, int width, int height);
+
+void yuv_to_rgba(const YuvKernels *kernels, const YuvPlanes *in, int width, int height,
+                 uint8_t *rgba);
+
+// YUV 420 outputs store the full Y plane first, then the chroma: NV21 interleaves CrCb pairs,
+// NV12 interleaves CbCr pairs, I420 has a Cb plane followed by a Cr plane, YV12 has Cr first
+#define YUV_FORMAT_NV21 0
+#define YUV_FORMAT_RGBA 1
+#define YUV_FORMAT_NV12 2
+#define YUV_FORMAT_I420 3
+#define YUV_FORMAT_YV12 4
+
+/**
+ * Planes of a frame stored continuously in one of the YUV 420 formats above.
+ *
+ * @return 0 on success, -1 if the format is not a YUV 420 one
+ */
+int yuv_planes_of(YuvPlanes *planes, int format, const uint8_t *frame, int width, int height);
+
+/**
+ * Crop, rotate, flip and convert in one pass: crop the rectangle out of the input, rotate it
+ * clockwise by {@code rotation} degree (0, 90, 180 or 270), then mirror the rotated result
+ * horizontally and/or vertically. Crop offset and size must be even, a crop size of 0 means the
+ * whole input.
+ */
+typedef struct YuvTransform {
+    int crop_x;
+    int crop_y;
+    int crop_width;
+    int crop_height;
+    int rotation;
+    int flip_horizontal;
+    int flip_vertical;
+    int output_format;
+} YuvTransform;
+
+/**
+ * Check the transform against the input size, and get the output size.
+ *
+ * @return 0 if the transform is valid, otherwise -1
+ */
+int yuv_transform_output_size(const YuvTransform *transform, int width, int height,
+                              int *output_width, int *output_height);
+
+/**
+ * Transform a YUV 420 frame into any of the YUV_FORMAT_*, stored continuously.
+ *
+ * @return 0 on success, -1 if the transform is invalid
+ */
+int yuv_transform(const YuvKernels *kernels, const YuvPlanes *in, int width, int height,
+                  const YuvTransform *transform, uint8_t *out);
+
+/**
+ * Transform a RGBA frame into YUV 420, output format of the transform must not be RGBA.
+ *
+ * @return 0 on success, -1 if the transform is invalid
+ */
+int rgba_transform(const YuvKernels *kernels, const uint8_t *rgba, int width, int height,
+                   const YuvTransform *transform, uint8_t *yuv);
+
+/**
+ * Where the output of a transform is written, e.g. the input buffer of an encoder: row n of the
+ * Y plane, or of the RGBA pixels, starts at {@code y + n * y_row_stride}, chroma row n holds the
+ * chroma of output rows 2n and 2n + 1. Chroma is planar with pixel stride 1, or interleaved with
+ * pixel stride 2, where Cr and Cb must be adjacent. Bytes between the rows are left untouched.
+ */
+typedef struct YuvOutput {
+    uint8_t *y;
+    uint8_t *cr;
+    uint8_t *cb;
+    int y_row_stride;
+    int c_row_stride;
+    int c_pixel_stride;
+} YuvOutput;
+
+/**
+ * Output of a frame stored continuously in one of the YUV_FORMAT_*.
+ *
+ * @return 0 on success, -1 if the format is unknown
+ */
+int yuv_output_of(YuvOutput *output, int format, uint8_t *frame, int width, int height);
+
+/**
+ * Same as yuv_transform, but write into the planes of {@code out}.
+ *
+ * @return 0 on success, -1 if the transform is invalid, or the rows don't fit in the strides
+ */
+int yuv_transform_to(const YuvKernels *kernels, const YuvPlanes *in, int width, int height,
+                     const YuvTransform *transform, const YuvOutput *out);
+
+/**
+ * Same as rgba_transform, but write into the planes of {@code out}.
+ *
+ * @return 0 on success, -1 if the transform is invalid, or the rows don't fit in the strides
+ */
+int rgba_transform_to(const YuvKernels *kernels, const uint8_t *rgba, int width, int height,
+                      const YuvTransform *transform, const YuvOutput *out);
+
+/**
+ * Output pixel (x, y) comes from input pixel (col + x * u_col + y * v_col,
+ * row + x * u_row + y * v_row).
+ */
+typedef struct TransformMapping {
+    int col;
+    int row;
+    int u_col;
+    int u_row;
+    int v_col;
+    int v_row;
+} TransformMapping;
+
+/**
+ * A transform resolved against the input size, so frames of that size could be converted
+ * without checking and resolving it again, see yuv_session.h.
+ */
+typedef struct YuvTransformPlan {
+    const YuvKernels *kernels;
+    // NULL for the shared pool
+    YuvWorkers *workers;
+    int width;
+    int height;
+    int output_width;
+    int output_height;
+    int output_format;
+    TransformMapping mapping;
+    // yuv_transform_plan_scratch bytes for each band, every {@code scratch_stride} bytes, or
+    // NULL to allocate it for every frame
+    uint8_t *scratch;
+    size_t scratch_stride;
+} YuvTransformPlan;
+
+#define YUV_STATS_BINS 256
+
+/**
+ * Luma histogram of a converted frame, e.g. for exposure or scene hints, collected while the rows
+ * are written, so the frame isn't read again: the output pixels (x, y) with both x and y even are
+ * counted, one sample for each 2x2 block, which is what the chroma is sampled at too.
+ */
+typedef struct YuvStats {
+    uint32_t histogram[YUV_STATS_BINS];
+} YuvStats;
+
+/**
+ * Resolve the transform for frames of {@code width} x {@code height}, the plan has no scratch.
+ *
+ * @return 0 on success, -1 if the transform is invalid
+ */
+int yuv_transform_plan(YuvTransformPlan *plan, const YuvKernels *kernels, YuvWorkers *workers,
+                       int width, int height, const YuvTransform *transform);
+
+/**
+ * @return bytes of scratch a band of the plan needs
+ */
+size_t yuv_transform_plan_scratch(const YuvTransformPlan *plan);
+
+/**
+ * Same as yuv_transform_to, with the transform and size of the plan.
+ *
+ * @param stats filled with the luma histogram of the frame, or NULL to skip it
+ * @return 0 on success, -1 if the rows don't fit in the strides
+ */
+int yuv_transform_run(const YuvTransformPlan *plan, const YuvPlanes *in, const YuvOutput *out,
+                      YuvStats *stats);
+
+/**
+ * Same as rgba_transform_to, with the transform and size of the plan.
+ *
+ * @param stats filled with the luma histogram of the frame, or NULL to skip it
+ * @return 0 on success, -1 if the output format is RGBA, or the rows don't fit in the strides
+ */
+int rgba_transform_run(const YuvTransformPlan *plan, const uint8_t *rgba, const YuvOutput *out,
+                       YuvStats *stats);
+
+#endif // RGB_YUV_CONVERT_H
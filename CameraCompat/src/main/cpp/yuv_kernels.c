@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Pick the fastest kernels at runtime, on ARM the NEON support is queried by cpufeatures,
+// on x86 by cpuid.
+
+#include "yuv_kernels.h"
+
+#if defined(__arm__) && defined(YUV_KERNELS_HAS_NEON)
+#include <cpu-features.h>
+#endif
+
+#if defined(YUV_KERNELS_HAS_X86)
+#include <cpuid.h>
+
+static int x86_has_sse2(void) {
+#if defined(__x86_64__)
+    return 1;
+#else
+    unsigned int eax, ebx, ecx, edx;
+    if (!__get_cpuid(1, &eax, &ebx, &ecx, &edx)) {
+        return 0;
+    }
+    return (edx & bit_SSE2) != 0;
+#endif
+}
+
+static int x86_has_avx2(void) {
+    unsigned int eax, ebx, ecx, edx, xcr0;
+    if (!__get_cpuid(1, &eax, &ebx, &ecx, &edx)) {
+        return 0;
+    }
+    // the cpu supports AVX, and the OS saves the YMM registers
+    if ((ecx & bit_OSXSAVE) == 0 || (ecx & bit_AVX) == 0) {
+        return 0;
+    }
+    __asm__ ("xgetbv" : "=a" (xcr0) : "c" (0) : "%edx");
+    if ((xcr0 & 0x6) != 0x6) {
+        return 0;
+    }
+    if (__get_cpuid_max(0, 0) < 7) {
+        return 0;
+    }
+    __cpuid_count(7, 0, eax, ebx, ecx, edx);
+    return (ebx & bit_AVX2) != 0;
+}
+#endif
+
+const YuvKernels *yuv_kernels_detect(void) {
+#if defined(YUV_KERNELS_HAS_NEON)
+#if defined(__arm__)
+    if (android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM
+        && (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON) != 0) {
+        return &kYuvKernelsNeon;
+    }
+#else
+    return &kYuvKernelsNeon;
+#endif
+#endif
+
+#if defined(YUV_KERNELS_HAS_X86)
+    if (x86_has_avx2()) {
+        return &kYuvKernelsAvx2;
+    }
+    if (x86_has_sse2()) {
+        return &kYuvKernelsSse2;
+    }
+#endif
+
+    return &kYuvKernelsC;
+}
+
+int yuv_kernels_supported(const YuvKernels **kernels, int max) {
+    const YuvKernels *supported[3];
+    int count = 0, i;
+    supported[count++] = &kYuvKernelsC;
+#if defined(YUV_KERNELS_HAS_NEON)
+#if defined(__arm__)
+    if (android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM
+        && (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON) != 0) {
+        supported[count++] = &kYuvKernelsNeon;
+    }
+#else
+    supported[count++] = &kYuvKernelsNeon;
+#endif
+#endif
+
+#if defined(YUV_KERNELS_HAS_X86)
+    if (x86_has_sse2()) {
+        supported[count++] = &kYuvKernelsSse2;
+    }
+    if (x86_has_avx2()) {
+        supported[count++] = &kYuvKernelsAvx2;
+    }
+#endif
+
+    for (i = 0; i < count && i < max; i++) {
+        kernels[i] = supported[i];
+    }
+    return i;
+}
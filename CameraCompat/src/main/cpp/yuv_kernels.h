@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Row kernels of the converter. Every variant (scalar reference, NEON, SSE2, AVX2) produces
+// bit-exact the same output as the scalar one, so the scalar kernels are the reference when
+// checking a SIMD path.
+//
+// Output YUV layout is NV21: full Y plane, followed by interleaved chroma with Cr comes first.
+//
+
+#ifndef RGB_YUV_KERNELS_H
+#define RGB_YUV_KERNELS_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+typedef struct YuvKernels {
+    const char *name;
+
+    /**
+     * Convert one row of YUV to RGBA, chroma is horizontally subsampled by 2, the n-th chroma
+     * sample is at {@code cr[n * c_pixel_stride]} and {@code cb[n * c_pixel_stride]}.
+     */
+    void (*yuv_to_rgba_row)(const uint8_t *y, const uint8_t *cr, const uint8_t *cb,
+                            int c_pixel_stride, uint8_t *rgba, int width);
+
+    /**
+     * Convert {@code width} RGBA pixels, each one {@code pixel_step} bytes after the previous one
+     * (could be negative), into one row of Y, and one row of CrCb if {@code crcb} is not NULL.
+     * Chroma is taken from the even pixels.
+     */
+    void (*rgba_to_yuv_row)(const uint8_t *rgba, ptrdiff_t pixel_step, uint8_t *y,
+                            uint8_t *crcb, int width);
+
+    /**
+     * Copy one row of Y, mirrored if {@code reverse} is not 0.
+     */
+    void (*copy_luma_row)(const uint8_t *src, uint8_t *dst, int width, int reverse);
+
+    /**
+     * Interleave {@code pairs} chroma samples into CrCb pairs, pair order is mirrored if
+     * {@code reverse} is not 0, while Cr still comes first inside each pair.
+     */
+    void (*copy_chroma_row)(const uint8_t *cr, const uint8_t *cb, int c_pixel_stride,
+                            uint8_t *crcb, int pairs, int reverse);
+} YuvKernels;
+
+extern const YuvKernels kYuvKernelsC;
+
+// armeabi-v7a only get NEON kernels when the build enables them, see CMakeLists.txt
+#if defined(__aarch64__) || (defined(__arm__) && defined(YUV_KERNELS_ARMV7_NEON))
+#define YUV_KERNELS_HAS_NEON 1
+extern const YuvKernels kYuvKernelsNeon;
+#endif
+
+#if defined(__i386__) || defined(__x86_64__)
+#define YUV_KERNELS_HAS_X86 1
+extern const YuvKernels kYuvKernelsSse2;
+extern const YuvKernels kYuvKernelsAvx2;
+#endif
+
+// scalar kernels, SIMD variants use them for the remaining pixels of a row
+void yuv_to_rgba_row_c(const uint8_t *y, const uint8_t *cr, const uint8_t *cb, int c_pixel_stride,
+                       uint8_t *rgba, int width);
+
+void rgba_to_yuv_row_c(const uint8_t *rgba, ptrdiff_t pixel_step, uint8_t *y, uint8_t *crcb,
+                       int width);
+
+void copy_luma_row_c(const uint8_t *src, uint8_t *dst, int width, int reverse);
+
+void copy_chroma_row_c(const uint8_t *cr, const uint8_t *cb, int c_pixel_stride, uint8_t *crcb,
+                       int pairs, int reverse);
+
+/**
+ * Detect the cpu and return the fastest kernels it supports.
+ */
+const YuvKernels *yuv_kernels_detect(void);
+
+/**
+ * Every kernels the cpu supports, the scalar ones come first, e.g. to check or benchmark SIMD
+ * paths against them.
+ *
+ * @return count of kernels filled, at most {@code max}
+ */
+int yuv_kernels_supported(const YuvKernels **kernels, int max);
+
+#endif // RGB_YUV_KERNELS_H
@@ -0,0 +1,239 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// AVX2 kernels, 16 pixels per iteration. Compiled with target attributes, so this file doesn't
+// need any extra compiler flags, and these kernels are only used after cpu detection.
+
+#include "yuv_kernels.h"
+
+#if defined(YUV_KERNELS_HAS_X86)
+
+#include <immintrin.h>
+#include <string.h>
+
+#define AVX2 __attribute__((target("avx2")))
+
+AVX2 static inline __m256i expand_chroma(__m128i c) {
+    __m256i v = _mm256_inserti128_si256(_mm256_castsi128_si256(_mm_unpacklo_epi16(c, c)),
+                                        _mm_unpackhi_epi16(c, c), 1);
+    return _mm256_sub_epi16(_mm256_sub_epi16(v, _mm256_set1_epi16(128)),
+                            _mm256_srli_epi16(v, 7));
+}
+
+AVX2 static inline __m256i clamp_u8(__m256i v) {
+    return _mm256_min_epi16(_mm256_max_epi16(v, _mm256_setzero_si256()),
+                            _mm256_set1_epi16(255));
+}
+
+AVX2 static inline __m128i pack_u8(__m256i v) {
+    return _mm_packus_epi16(_mm256_castsi256_si128(v), _mm256_extracti128_si256(v, 1));
+}
+
+AVX2 static void yuv_to_rgba_row_avx2(const uint8_t *y, const uint8_t *cr, const uint8_t *cb,
+                                      int c_pixel_stride, uint8_t *rgba, int width) {
+    const __m128i low_byte = _mm_set1_epi16(0xFF);
+    __m256i Y, Cr, Cb, R, G, B, rg, ba, lo, hi;
+    int x = 0;
+    int end = width - 16 - (c_pixel_stride == 2 ? 1 : 0);
+    if (c_pixel_stride == 1 || c_pixel_stride == 2) {
+        for (; x <= end; x += 16) {
+            Y = _mm256_cvtepu8_epi16(_mm_loadu_si128((const __m128i *) (y + x)));
+            if (c_pixel_stride == 2) {
+                Cr = expand_chroma(
+                        _mm_and_si128(_mm_loadu_si128((const __m128i *) (cr + x)), low_byte));
+                Cb = expand_chroma(
+                        _mm_and_si128(_mm_loadu_si128((const __m128i *) (cb + x)), low_byte));
+            } else {
+                Cr = expand_chroma(_mm_cvtepu8_epi16(
+                        _mm_loadl_epi64((const __m128i *) (cr + (x >> 1)))));
+                Cb = expand_chroma(_mm_cvtepu8_epi16(
+                        _mm_loadl_epi64((const __m128i *) (cb + (x >> 1)))));
+            }
+
+            Y = _mm256_sub_epi16(Y, _mm256_srli_epi16(Y, 7));
+            Y = _mm256_add_epi16(_mm256_add_epi16(Y, _mm256_srli_epi16(Y, 3)),
+                                 _mm256_srli_epi16(Y, 5));
+            R = _mm256_add_epi16(_mm256_add_epi16(Y, Cr), _mm256_srai_epi16(Cr, 1));
+            R = _mm256_add_epi16(_mm256_add_epi16(R, _mm256_srai_epi16(Cr, 4)),
+                                 _mm256_srai_epi16(Cr, 5));
+            G = _mm256_add_epi16(_mm256_sub_epi16(Y, _mm256_srai_epi16(Cb, 1)),
+                                 _mm256_srai_epi16(Cb, 3));
+            G = _mm256_add_epi16(_mm256_sub_epi16(G, Cr), _mm256_srai_epi16(Cr, 3));
+            G = _mm256_add_epi16(G, _mm256_srai_epi16(Cr, 4));
+            B = _mm256_add_epi16(Y, _mm256_slli_epi16(Cb, 1));
+
+            rg = _mm256_or_si256(clamp_u8(R), _mm256_slli_epi16(clamp_u8(G), 8));
+            ba = _mm256_or_si256(clamp_u8(B), _mm256_set1_epi16((short) 0xFF00));
+            // unpack works inside 128 bits lanes: lo is pixel 0~3 and 8~11, hi is 4~7 and 12~15
+            lo = _mm256_unpacklo_epi16(rg, ba);
+            hi = _mm256_unpackhi_epi16(rg, ba);
+            _mm256_storeu_si256((__m256i *) (rgba + (x << 2)),
+                                _mm256_permute2x128_si256(lo, hi, 0x20));
+            _mm256_storeu_si256((__m256i *) (rgba + (x << 2) + 32),
+                                _mm256_permute2x128_si256(lo, hi, 0x31));
+        }
+    }
+    if (x < width) {
+        yuv_to_rgba_row_c(y + x, cr + (x >> 1) * c_pixel_stride, cb + (x >> 1) * c_pixel_stride,
+                          c_pixel_stride, rgba + (x << 2), width - x);
+    }
+}
+
+AVX2 static void rgba_to_yuv_row_avx2(const uint8_t *rgba, ptrdiff_t pixel_step, uint8_t *y,
+                                      uint8_t *crcb, int width) {
+    const __m256i mask = _mm256_set1_epi32(0xFF);
+    const __m256i even_words = _mm256_setr_epi8(
+            0, 1, 4, 5, 8, 9, 12, 13, -1, -1, -1, -1, -1, -1, -1, -1,
+            0, 1, 4, 5, 8, 9, 12, 13, -1, -1, -1, -1, -1, -1, -1, -1);
+    const int step = (int) pixel_step;
+    const __m256i index = _mm256_setr_epi32(0, step, 2 * step, 3 * step, 4 * step, 5 * step,
+                                            6 * step, 7 * step);
+    __m256i p0, p1, R, G, B, Y, Cr, Cb, c;
+    const uint8_t *s;
+    int x;
+    for (x = 0; x + 16 <= width; x += 16) {
+        s = rgba + x * pixel_step;
+        if (pixel_step == 4) {
+            p0 = _mm256_loadu_si256((const __m256i *) s);
+            p1 = _mm256_loadu_si256((const __m256i *) (s + 32));
+        } else {
+            p0 = _mm256_i32gather_epi32((const int *) s, index, 1);
+            p1 = _mm256_i32gather_epi32((const int *) (s + 8 * pixel_step), index, 1);
+        }
+        // pack works inside 128 bits lanes, permute the 64 bits groups back to pixel order
+        R = _mm256_packs_epi32(_mm256_and_si256(p0, mask), _mm256_and_si256(p1, mask));
+        G = _mm256_packs_epi32(_mm256_and_si256(_mm256_srli_epi32(p0, 8), mask),
+                               _mm256_and_si256(_mm256_srli_epi32(p1, 8), mask));
+        B = _mm256_packs_epi32(_mm256_and_si256(_mm256_srli_epi32(p0, 16), mask),
+                               _mm256_and_si256(_mm256_srli_epi32(p1, 16), mask));
+        R = _mm256_permute4x64_epi64(R, _MM_SHUFFLE(3, 1, 2, 0));
+        G = _mm256_permute4x64_epi64(G, _MM_SHUFFLE(3, 1, 2, 0));
+        B = _mm256_permute4x64_epi64(B, _MM_SHUFFLE(3, 1, 2, 0));
+
+        Y = _mm256_add_epi16(_mm256_srli_epi16(R, 2), _mm256_srli_epi16(R, 7));
+        Y = _mm256_add_epi16(Y, _mm256_add_epi16(_mm256_srli_epi16(G, 1),
+                                                 _mm256_srli_epi16(G, 8)));
+        Y = _mm256_add_epi16(Y, _mm256_add_epi16(_mm256_srli_epi16(B, 4),
+                                                 _mm256_srli_epi16(B, 5)));
+        Y = _mm256_add_epi16(Y, _mm256_add_epi16(_mm256_srli_epi16(B, 8),
+                                                 _mm256_set1_epi16(16)));
+        _mm_storeu_si128((__m128i *) (y + x), pack_u8(Y));
+
+        if (crcb != NULL) {
+            Cr = _mm256_sub_epi16(_mm256_srli_epi16(R, 1), _mm256_srli_epi16(R, 4));
+            Cr = _mm256_sub_epi16(Cr, _mm256_add_epi16(_mm256_srli_epi16(G, 2),
+                                                       _mm256_srli_epi16(G, 3)));
+            Cr = _mm256_add_epi16(Cr, _mm256_srli_epi16(G, 7));
+            Cr = _mm256_sub_epi16(Cr, _mm256_add_epi16(_mm256_srli_epi16(B, 4),
+                                                       _mm256_srli_epi16(B, 7)));
+            Cr = _mm256_add_epi16(Cr, _mm256_set1_epi16(128));
+            Cb = _mm256_add_epi16(_mm256_srli_epi16(R, 3), _mm256_srli_epi16(R, 6));
+            Cb = _mm256_add_epi16(Cb, _mm256_add_epi16(_mm256_srli_epi16(R, 7),
+                                                       _mm256_srli_epi16(G, 2)));
+            Cb = _mm256_add_epi16(Cb, _mm256_add_epi16(_mm256_srli_epi16(G, 5),
+                                                       _mm256_srli_epi16(G, 7)));
+            Cb = _mm256_sub_epi16(_mm256_sub_epi16(_mm256_srli_epi16(B, 1),
+                                                   _mm256_srli_epi16(B, 4)), Cb);
+            Cb = _mm256_add_epi16(Cb, _mm256_set1_epi16(128));
+            // each word is a CrCb pair now, keep the ones of even pixels
+            c = _mm256_or_si256(Cr, _mm256_slli_epi16(Cb, 8));
+            c = _mm256_shuffle_epi8(c, even_words);
+            c = _mm256_permute4x64_epi64(c, _MM_SHUFFLE(3, 1, 2, 0));
+            _mm_storeu_si128((__m128i *) (crcb + x), _mm256_castsi256_si128(c));
+        }
+    }
+    if (x < width) {
+        rgba_to_yuv_row_c(rgba + x * pixel_step, pixel_step, y + x,
+                          crcb != NULL ? crcb + x : NULL, width - x);
+    }
+}
+
+AVX2 static void copy_luma_row_avx2(const uint8_t *src, uint8_t *dst, int width, int reverse) {
+    const __m256i reverse_bytes = _mm256_setr_epi8(
+            15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0,
+            15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0);
+    __m256i v;
+    int x;
+    if (!reverse) {
+        memcpy(dst, src, (size_t) width);
+        return;
+    }
+    for (x = 0; x + 32 <= width; x += 32) {
+        v = _mm256_shuffle_epi8(_mm256_loadu_si256((const __m256i *) (src + x)), reverse_bytes);
+        _mm256_storeu_si256((__m256i *) (dst + width - 32 - x),
+                            _mm256_permute4x64_epi64(v, _MM_SHUFFLE(1, 0, 3, 2)));
+    }
+    if (x < width) {
+        copy_luma_row_c(src + x, dst, width - x, reverse);
+    }
+}
+
+AVX2 static void copy_chroma_row_avx2(const uint8_t *cr, const uint8_t *cb, int c_pixel_stride,
+                                      uint8_t *crcb, int pairs, int reverse) {
+    const __m256i low_byte = _mm256_set1_epi16(0xFF);
+    const __m256i reverse_words = _mm256_setr_epi8(
+            14, 15, 12, 13, 10, 11, 8, 9, 6, 7, 4, 5, 2, 3, 0, 1,
+            14, 15, 12, 13, 10, 11, 8, 9, 6, 7, 4, 5, 2, 3, 0, 1);
+    __m256i v;
+    __m128i a, b;
+    int i = 0;
+    int end = pairs - 16 - (c_pixel_stride == 2 ? 1 : 0);
+    if (c_pixel_stride == 1 || c_pixel_stride == 2) {
+        for (; i <= end; i += 16) {
+            if (c_pixel_stride == 2) {
+                v = _mm256_or_si256(
+                        _mm256_and_si256(_mm256_loadu_si256((const __m256i *) (cr + (i << 1))),
+                                         low_byte),
+                        _mm256_slli_epi16(
+                                _mm256_loadu_si256((const __m256i *) (cb + (i << 1))), 8));
+            } else {
+                a = _mm_loadu_si128((const __m128i *) (cr + i));
+                b = _mm_loadu_si128((const __m128i *) (cb + i));
+                v = _mm256_inserti128_si256(_mm256_castsi128_si256(_mm_unpacklo_epi8(a, b)),
+                                            _mm_unpackhi_epi8(a, b), 1);
+            }
+            if (reverse) {
+                v = _mm256_shuffle_epi8(v, reverse_words);
+                _mm256_storeu_si256((__m256i *) (crcb + ((pairs - 16 - i) << 1)),
+                                    _mm256_permute4x64_epi64(v, _MM_SHUFFLE(1, 0, 3, 2)));
+            } else {
+                _mm256_storeu_si256((__m256i *) (crcb + (i << 1)), v);
+            }
+        }
+    }
+    if (i < pairs) {
+        copy_chroma_row_c(cr + i * c_pixel_stride, cb + i * c_pixel_stride, c_pixel_stride,
+                          reverse ? crcb : crcb + (i << 1), pairs - i, reverse);
+    }
+}
+
+const YuvKernels kYuvKernelsAvx2 = {
+        "avx2",
+        yuv_to_rgba_row_avx2,
+        rgba_to_yuv_row_avx2,
+        copy_luma_row_avx2,
+        copy_chroma_row_avx2,
+};
+
+#endif // YUV_KERNELS_HAS_X86
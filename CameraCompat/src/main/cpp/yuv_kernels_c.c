@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Scalar reference kernels, the math is the same bit operation approximation as documented in
+// RgbYuvConverter.java.
+
+#include <string.h>
+
+#include "yuv_kernels.h"
+
+static inline uint8_t clamp_u8(int v) {
+    return (uint8_t) (v < 0 ? 0 : (v > 255 ? 255 : v));
+}
+
+void yuv_to_rgba_row_c(const uint8_t *y, const uint8_t *cr, const uint8_t *cb, int c_pixel_stride,
+                       uint8_t *rgba, int width) {
+    int R, G, B;
+    int Y, Cb = 0, Cr = 0;
+    int x;
+    for (x = 0; x < width; x++) {
+        Y = (int8_t) y[x];
+        if (Y < 0) {
+            Y += 255;
+        }
+        if ((x & 0x1) == 0) {
+            Cr = (int8_t) cr[(x >> 1) * c_pixel_stride];
+            Cr = Cr < 0 ? Cr + 127 : Cr - 128;
+            Cb = (int8_t) cb[(x >> 1) * c_pixel_stride];
+            Cb = Cb < 0 ? Cb + 127 : Cb - 128;
+        }
+        Y = Y + (Y >> 3) + (Y >> 5);
+        R = Y + Cr + (Cr >> 1) + (Cr >> 4) + (Cr >> 5);
+        G = Y - (Cb >> 1) + (Cb >> 3) - Cr + (Cr >> 3) + (Cr >> 4);
+        B = Y + (Cb << 1);
+        rgba[0] = clamp_u8(R);
+        rgba[1] = clamp_u8(G);
+        rgba[2] = clamp_u8(B);
+        rgba[3] = 0xFF;
+        rgba += 4;
+    }
+}
+
+void rgba_to_yuv_row_c(const uint8_t *rgba, ptrdiff_t pixel_step, uint8_t *y, uint8_t *crcb,
+                       int width) {
+    int R, G, B;
+    int x;
+    for (x = 0; x < width; x++) {
+        R = rgba[0];
+        G = rgba[1];
+        B = rgba[2];
+        y[x] = (uint8_t) ((R >> 2) + (R >> 7) + (G >> 1) + (G >> 8) + (B >> 4) + (B >> 5) +
+                          (B >> 8) + 16);
+        if (crcb != NULL && (x & 0x1) == 0) {
+            crcb[x] = (uint8_t) ((R >> 1) - (R >> 4) - (G >> 2) - (G >> 3) + (G >> 7) - (B >> 4) -
+                                 (B >> 7) + 128);
+            crcb[x + 1] = (uint8_t) (-(R >> 3) - (R >> 6) - (R >> 7) - (G >> 2) - (G >> 5) -
+                                     (G >> 7) + (B >> 1) - (B >> 4) + 128);
+        }
+        rgba += pixel_step;
+    }
+}
+
+void copy_luma_row_c(const uint8_t *src, uint8_t *dst, int width, int reverse) {
+    int x;
+    if (!reverse) {
+        memcpy(dst, src, (size_t) width);
+        return;
+    }
+    for (x = 0; x < width; x++) {
+        dst[width - 1 - x] = src[x];
+    }
+}
+
+void copy_chroma_row_c(const uint8_t *cr, const uint8_t *cb, int c_pixel_stride, uint8_t *crcb,
+                       int pairs, int reverse) {
+    int i, out;
+    for (i = 0; i < pairs; i++) {
+        out = (reverse ? pairs - 1 - i : i) << 1;
+        crcb[out] = cr[i * c_pixel_stride];
+        crcb[out + 1] = cb[i * c_pixel_stride];
+    }
+}
+
+const YuvKernels kYuvKernelsC = {
+        "c",
+        yuv_to_rgba_row_c,
+        rgba_to_yuv_row_c,
+        copy_luma_row_c,
+        copy_chroma_row_c,
+};
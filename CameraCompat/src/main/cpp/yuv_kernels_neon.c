@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// NEON kernels, for arm64-v8a, and armeabi-v7a devices which support NEON.
+
+#include "yuv_kernels.h"
+
+#if defined(YUV_KERNELS_HAS_NEON)
+
+#include <arm_neon.h>
+#include <string.h>
+
+/**
+ * widen and map chroma from [0, 255] to the signed range the same way as the scalar kernel does.
+ */
+static inline int16x8_t expand_chroma(uint8x8_t c) {
+    uint16x8_t v = vmovl_u8(c);
+    return vreinterpretq_s16_u16(vsubq_u16(vsubq_u16(v, vdupq_n_u16(128)), vshrq_n_u16(v, 7)));
+}
+
+static inline void yuv_to_rgba_8(uint8x8_t y, int16x8_t Cr, int16x8_t Cb, uint8_t *rgba) {
+    uint16x8_t Yu = vmovl_u8(y);
+    int16x8_t Y, R, G, B;
+    uint8x8x4_t pixels;
+    Yu = vsubq_u16(Yu, vshrq_n_u16(Yu, 7));
+    Yu = vaddq_u16(vaddq_u16(Yu, vshrq_n_u16(Yu, 3)), vshrq_n_u16(Yu, 5));
+    Y = vreinterpretq_s16_u16(Yu);
+    R = vaddq_s16(vaddq_s16(Y, Cr), vshrq_n_s16(Cr, 1));
+    R = vaddq_s16(vaddq_s16(R, vshrq_n_s16(Cr, 4)), vshrq_n_s16(Cr, 5));
+    G = vaddq_s16(vsubq_s16(Y, vshrq_n_s16(Cb, 1)), vshrq_n_s16(Cb, 3));
+    G = vaddq_s16(vsubq_s16(G, Cr), vshrq_n_s16(Cr, 3));
+    G = vaddq_s16(G, vshrq_n_s16(Cr, 4));
+    B = vaddq_s16(Y, vshlq_n_s16(Cb, 1));
+    pixels.val[0] = vqmovun_s16(R);
+    pixels.val[1] = vqmovun_s16(G);
+    pixels.val[2] = vqmovun_s16(B);
+    pixels.val[3] = vdup_n_u8(0xFF);
+    vst4_u8(rgba, pixels);
+}
+
+static void yuv_to_rgba_row_neon(const uint8_t *y, const uint8_t *cr, const uint8_t *cb,
+                                 int c_pixel_stride, uint8_t *rgba, int width) {
+    uint8x16_t Y;
+    uint8x8_t Cr, Cb;
+    uint8x8x2_t Crs, Cbs;
+    int x = 0;
+    int end = width - 16 - (c_pixel_stride == 2 ? 1 : 0);
+    if (c_pixel_stride == 1 || c_pixel_stride == 2) {
+        for (; x <= end; x += 16) {
+            Y = vld1q_u8(y + x);
+            if (c_pixel_stride == 2) {
+                Cr = vld2_u8(cr + x).val[0];
+                Cb = vld2_u8(cb + x).val[0];
+            } else {
+                Cr = vld1_u8(cr + (x >> 1));
+                Cb = vld1_u8(cb + (x >> 1));
+            }
+            // duplicate each chroma sample for two pixels
+            Crs = vzip_u8(Cr, Cr);
+            Cbs = vzip_u8(Cb, Cb);
+            yuv_to_rgba_8(vget_low_u8(Y), expand_chroma(Crs.val[0]), expand_chroma(Cbs.val[0]),
+                          rgba + (x << 2));
+            yuv_to_rgba_8(vget_high_u8(Y), expand_chroma(Crs.val[1]), expand_chroma(Cbs.val[1]),
+                          rgba + (x << 2) + 32);
+        }
+    }
+    if (x < width) {
+        yuv_to_rgba_row_c(y + x, cr + (x >> 1) * c_pixel_stride, cb + (x >> 1) * c_pixel_stride,
+                          c_pixel_stride, rgba + (x << 2), width - x);
+    }
+}
+
+static void rgba_to_yuv_row_neon(const uint8_t *rgba, ptrdiff_t pixel_step, uint8_t *y,
+                                 uint8_t *crcb, int width) {
+    uint8x8x4_t p;
+    uint16x8_t R, G, B, Yu;
+    int16x8_t Rs, Gs, Bs, Cr, Cb;
+    const uint8_t *s;
+    int x;
+    p.val[0] = p.val[1] = p.val[2] = p.val[3] = vdup_n_u8(0);
+    for (x = 0; x + 8 <= width; x += 8) {
+        s = rgba + x * pixel_step;
+        if (pixel_step == 4) {
+            p = vld4_u8(s);
+        } else {
+            p = vld4_lane_u8(s, p, 0);
+            p = vld4_lane_u8(s + pixel_step, p, 1);
+            p = vld4_lane_u8(s + 2 * pixel_step, p, 2);
+            p = vld4_lane_u8(s + 3 * pixel_step, p, 3);
+            p = vld4_lane_u8(s + 4 * pixel_step, p, 4);
+            p = vld4_lane_u8(s + 5 * pixel_step, p, 5);
+            p = vld4_lane_u8(s + 6 * pixel_step, p, 6);
+            p = vld4_lane_u8(s + 7 * pixel_step, p, 7);
+        }
+        R = vmovl_u8(p.val[0]);
+        G = vmovl_u8(p.val[1]);
+        B = vmovl_u8(p.val[2]);
+
+        Yu = vaddq_u16(vshrq_n_u16(R, 2), vshrq_n_u16(R, 7));
+        Yu = vaddq_u16(Yu, vaddq_u16(vshrq_n_u16(G, 1), vshrq_n_u16(G, 8)));
+        Yu = vaddq_u16(Yu, vaddq_u16(vshrq_n_u16(B, 4), vshrq_n_u16(B, 5)));
+        Yu = vaddq_u16(Yu, vaddq_u16(vshrq_n_u16(B, 8), vdupq_n_u16(16)));
+        vst1_u8(y + x, vmovn_u16(Yu));
+
+        if (crcb != NULL) {
+            Rs = vreinterpretq_s16_u16(R);
+            Gs = vreinterpretq_s16_u16(G);
+            Bs = vreinterpretq_s16_u16(B);
+            Cr = vsubq_s16(vshrq_n_s16(Rs, 1), vshrq_n_s16(Rs, 4));
+            Cr = vsubq_s16(Cr, vaddq_s16(vshrq_n_s16(Gs, 2), vshrq_n_s16(Gs, 3)));
+            Cr = vaddq_s16(Cr, vshrq_n_s16(Gs, 7));
+            Cr = vsubq_s16(Cr, vaddq_s16(vshrq_n_s16(Bs, 4), vshrq_n_s16(Bs, 7)));
+            Cr = vaddq_s16(Cr, vdupq_n_s16(128));
+            Cb = vaddq_s16(vshrq_n_s16(Rs, 3), vshrq_n_s16(Rs, 6));
+            Cb = vaddq_s16(Cb, vaddq_s16(vshrq_n_s16(Rs, 7), vshrq_n_s16(Gs, 2)));
+            Cb = vaddq_s16(Cb, vaddq_s16(vshrq_n_s16(Gs, 5), vshrq_n_s16(Gs, 7)));
+            Cb = vsubq_s16(vsubq_s16(vshrq_n_s16(Bs, 1), vshrq_n_s16(Bs, 4)), Cb);
+            Cb = vaddq_s16(Cb, vdupq_n_s16(128));
+            // transpose keeps the CrCb pairs of even pixels
+            vst1_u8(crcb + x, vtrn_u8(vmovn_u16(vreinterpretq_u16_s16(Cr)),
+                                      vmovn_u16(vreinterpretq_u16_s16(Cb))).val[0]);
+        }
+    }
+    if (x < width) {
+        rgba_to_yuv_row_c(rgba + x * pixel_step, pixel_step, y + x,
+                          crcb != NULL ? crcb + x : NULL, width - x);
+    }
+}
+
+static void copy_luma_row_neon(const uint8_t *src, uint8_t *dst, int width, int reverse) {
+    uint8x16_t v;
+    int x;
+    if (!reverse) {
+        memcpy(dst, src, (size_t) width);
+        return;
+    }
+    for (x = 0; x + 16 <= width; x += 16) {
+        v = vrev64q_u8(vld1q_u8(src + x));
+        vst1q_u8(dst + width - 16 - x, vcombine_u8(vget_high_u8(v), vget_low_u8(v)));
+    }
+    if (x < width) {
+        copy_luma_row_c(src + x, dst, width - x, reverse);
+    }
+}
+
+static void copy_chroma_row_neon(const uint8_t *cr, const uint8_t *cb, int c_pixel_stride,
+                                 uint8_t *crcb, int pairs, int reverse) {
+    uint8x8x2_t v;
+    int i = 0;
+    int end = pairs - 8 - (c_pixel_stride == 2 ? 1 : 0);
+    if (c_pixel_stride == 1 || c_pixel_stride == 2) {
+        for (; i <= end; i += 8) {
+            if (c_pixel_stride == 2) {
+                v.val[0] = vld2_u8(cr + (i << 1)).val[0];
+                v.val[1] = vld2_u8(cb + (i << 1)).val[0];
+            } else {
+                v.val[0] = vld1_u8(cr + i);
+                v.val[1] = vld1_u8(cb + i);
+            }
+            if (reverse) {
+                v.val[0] = vrev64_u8(v.val[0]);
+                v.val[1] = vrev64_u8(v.val[1]);
+                vst2_u8(crcb + ((pairs - 8 - i) << 1), v);
+            } else {
+                vst2_u8(crcb + (i << 1), v);
+            }
+        }
+    }
+    if (i < pairs) {
+        copy_chroma_row_c(cr + i * c_pixel_stride, cb + i * c_pixel_stride, c_pixel_stride,
+                          reverse ? crcb : crcb + (i << 1), pairs - i, reverse);
+    }
+}
+
+const YuvKernels kYuvKernelsNeon = {
+        "neon",
+        yuv_to_rgba_row_neon,
+        rgba_to_yuv_row_neon,
+        copy_luma_row_neon,
+        copy_chroma_row_neon,
+};
+
+#endif // YUV_KERNELS_HAS_NEON
@@ -0,0 +1,220 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// SSE2 kernels, 8 pixels per iteration, all the math is done in 16 bits lanes.
+
+#include "yuv_kernels.h"
+
+#if defined(YUV_KERNELS_HAS_X86)
+
+#include <emmintrin.h>
+#include <string.h>
+
+static inline __m128i load_u32(const uint8_t *p) {
+    int32_t v;
+    memcpy(&v, p, sizeof(v));
+    return _mm_cvtsi32_si128(v);
+}
+
+static inline int32_t read_u32(const uint8_t *p) {
+    int32_t v;
+    memcpy(&v, p, sizeof(v));
+    return v;
+}
+
+/**
+ * reverse the order of 8 16-bits words
+ */
+static inline __m128i reverse_epi16(__m128i v) {
+    v = _mm_shufflelo_epi16(v, _MM_SHUFFLE(0, 1, 2, 3));
+    v = _mm_shufflehi_epi16(v, _MM_SHUFFLE(0, 1, 2, 3));
+    return _mm_shuffle_epi32(v, _MM_SHUFFLE(1, 0, 3, 2));
+}
+
+/**
+ * 4 chroma samples in the low 4 words to 8 words, each sample duplicated, and mapped from
+ * [0, 255] to the signed range the same way as the scalar kernel does.
+ */
+static inline __m128i expand_chroma(__m128i c) {
+    c = _mm_unpacklo_epi16(c, c);
+    return _mm_sub_epi16(_mm_sub_epi16(c, _mm_set1_epi16(128)), _mm_srli_epi16(c, 7));
+}
+
+static void yuv_to_rgba_row_sse2(const uint8_t *y, const uint8_t *cr, const uint8_t *cb,
+                                 int c_pixel_stride, uint8_t *rgba, int width) {
+    const __m128i zero = _mm_setzero_si128();
+    const __m128i low_byte = _mm_set1_epi16(0xFF);
+    const __m128i alpha = _mm_set1_epi8((char) 0xFF);
+    __m128i Y, Cr, Cb, R, G, B, rg, ba;
+    int x = 0;
+    // chroma of 8 pixels is read by 8 bytes, whose last byte isn't used for semi-planar
+    int end = width - 8 - (c_pixel_stride == 2 ? 1 : 0);
+    if (c_pixel_stride == 1 || c_pixel_stride == 2) {
+        for (; x <= end; x += 8) {
+            Y = _mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i *) (y + x)), zero);
+            if (c_pixel_stride == 2) {
+                Cr = _mm_and_si128(_mm_loadl_epi64((const __m128i *) (cr + x)), low_byte);
+                Cb = _mm_and_si128(_mm_loadl_epi64((const __m128i *) (cb + x)), low_byte);
+            } else {
+                Cr = _mm_unpacklo_epi8(load_u32(cr + (x >> 1)), zero);
+                Cb = _mm_unpacklo_epi8(load_u32(cb + (x >> 1)), zero);
+            }
+            Cr = expand_chroma(Cr);
+            Cb = expand_chroma(Cb);
+
+            Y = _mm_sub_epi16(Y, _mm_srli_epi16(Y, 7));
+            Y = _mm_add_epi16(_mm_add_epi16(Y, _mm_srli_epi16(Y, 3)), _mm_srli_epi16(Y, 5));
+            R = _mm_add_epi16(_mm_add_epi16(Y, Cr), _mm_srai_epi16(Cr, 1));
+            R = _mm_add_epi16(_mm_add_epi16(R, _mm_srai_epi16(Cr, 4)), _mm_srai_epi16(Cr, 5));
+            G = _mm_add_epi16(_mm_sub_epi16(Y, _mm_srai_epi16(Cb, 1)), _mm_srai_epi16(Cb, 3));
+            G = _mm_add_epi16(_mm_sub_epi16(G, Cr), _mm_srai_epi16(Cr, 3));
+            G = _mm_add_epi16(G, _mm_srai_epi16(Cr, 4));
+            B = _mm_add_epi16(Y, _mm_slli_epi16(Cb, 1));
+
+            R = _mm_packus_epi16(R, R);
+            G = _mm_packus_epi16(G, G);
+            B = _mm_packus_epi16(B, B);
+            rg = _mm_unpacklo_epi8(R, G);
+            ba = _mm_unpacklo_epi8(B, alpha);
+            _mm_storeu_si128((__m128i *) (rgba + (x << 2)), _mm_unpacklo_epi16(rg, ba));
+            _mm_storeu_si128((__m128i *) (rgba + (x << 2) + 16), _mm_unpackhi_epi16(rg, ba));
+        }
+    }
+    if (x < width) {
+        yuv_to_rgba_row_c(y + x, cr + (x >> 1) * c_pixel_stride, cb + (x >> 1) * c_pixel_stride,
+                          c_pixel_stride, rgba + (x << 2), width - x);
+    }
+}
+
+static void rgba_to_yuv_row_sse2(const uint8_t *rgba, ptrdiff_t pixel_step, uint8_t *y,
+                                 uint8_t *crcb, int width) {
+    const __m128i mask = _mm_set1_epi32(0xFF);
+    __m128i p0, p1, R, G, B, Y, Cr, Cb, c;
+    const uint8_t *s;
+    int x;
+    for (x = 0; x + 8 <= width; x += 8) {
+        s = rgba + x * pixel_step;
+        if (pixel_step == 4) {
+            p0 = _mm_loadu_si128((const __m128i *) s);
+            p1 = _mm_loadu_si128((const __m128i *) (s + 16));
+        } else {
+            p0 = _mm_setr_epi32(read_u32(s), read_u32(s + pixel_step),
+                                read_u32(s + 2 * pixel_step), read_u32(s + 3 * pixel_step));
+            s += 4 * pixel_step;
+            p1 = _mm_setr_epi32(read_u32(s), read_u32(s + pixel_step),
+                                read_u32(s + 2 * pixel_step), read_u32(s + 3 * pixel_step));
+        }
+        R = _mm_packs_epi32(_mm_and_si128(p0, mask), _mm_and_si128(p1, mask));
+        G = _mm_packs_epi32(_mm_and_si128(_mm_srli_epi32(p0, 8), mask),
+                            _mm_and_si128(_mm_srli_epi32(p1, 8), mask));
+        B = _mm_packs_epi32(_mm_and_si128(_mm_srli_epi32(p0, 16), mask),
+                            _mm_and_si128(_mm_srli_epi32(p1, 16), mask));
+
+        Y = _mm_add_epi16(_mm_srli_epi16(R, 2), _mm_srli_epi16(R, 7));
+        Y = _mm_add_epi16(Y, _mm_add_epi16(_mm_srli_epi16(G, 1), _mm_srli_epi16(G, 8)));
+        Y = _mm_add_epi16(Y, _mm_add_epi16(_mm_srli_epi16(B, 4), _mm_srli_epi16(B, 5)));
+        Y = _mm_add_epi16(Y, _mm_add_epi16(_mm_srli_epi16(B, 8), _mm_set1_epi16(16)));
+        _mm_storel_epi64((__m128i *) (y + x), _mm_packus_epi16(Y, Y));
+
+        if (crcb != NULL) {
+            Cr = _mm_sub_epi16(_mm_srli_epi16(R, 1), _mm_srli_epi16(R, 4));
+            Cr = _mm_sub_epi16(Cr, _mm_add_epi16(_mm_srli_epi16(G, 2), _mm_srli_epi16(G, 3)));
+            Cr = _mm_add_epi16(Cr, _mm_srli_epi16(G, 7));
+            Cr = _mm_sub_epi16(Cr, _mm_add_epi16(_mm_srli_epi16(B, 4), _mm_srli_epi16(B, 7)));
+            Cr = _mm_add_epi16(Cr, _mm_set1_epi16(128));
+            Cb = _mm_add_epi16(_mm_srli_epi16(R, 3), _mm_srli_epi16(R, 6));
+            Cb = _mm_add_epi16(Cb, _mm_add_epi16(_mm_srli_epi16(R, 7), _mm_srli_epi16(G, 2)));
+            Cb = _mm_add_epi16(Cb, _mm_add_epi16(_mm_srli_epi16(G, 5), _mm_srli_epi16(G, 7)));
+            Cb = _mm_sub_epi16(_mm_sub_epi16(_mm_srli_epi16(B, 1), _mm_srli_epi16(B, 4)), Cb);
+            Cb = _mm_add_epi16(Cb, _mm_set1_epi16(128));
+            // each word is a CrCb pair now, keep the ones of even pixels
+            c = _mm_or_si128(Cr, _mm_slli_epi16(Cb, 8));
+            c = _mm_shufflelo_epi16(c, _MM_SHUFFLE(3, 3, 2, 0));
+            c = _mm_shufflehi_epi16(c, _MM_SHUFFLE(3, 3, 2, 0));
+            c = _mm_shuffle_epi32(c, _MM_SHUFFLE(3, 3, 2, 0));
+            _mm_storel_epi64((__m128i *) (crcb + x), c);
+        }
+    }
+    if (x < width) {
+        rgba_to_yuv_row_c(rgba + x * pixel_step, pixel_step, y + x,
+                          crcb != NULL ? crcb + x : NULL, width - x);
+    }
+}
+
+static void copy_luma_row_sse2(const uint8_t *src, uint8_t *dst, int width, int reverse) {
+    __m128i v;
+    int x;
+    if (!reverse) {
+        memcpy(dst, src, (size_t) width);
+        return;
+    }
+    for (x = 0; x + 16 <= width; x += 16) {
+        v = _mm_loadu_si128((const __m128i *) (src + x));
+        v = _mm_or_si128(_mm_slli_epi16(v, 8), _mm_srli_epi16(v, 8));
+        _mm_storeu_si128((__m128i *) (dst + width - 16 - x), reverse_epi16(v));
+    }
+    if (x < width) {
+        copy_luma_row_c(src + x, dst, width - x, reverse);
+    }
+}
+
+static void copy_chroma_row_sse2(const uint8_t *cr, const uint8_t *cb, int c_pixel_stride,
+                                 uint8_t *crcb, int pairs, int reverse) {
+    const __m128i low_byte = _mm_set1_epi16(0xFF);
+    __m128i v;
+    int i = 0;
+    int end = pairs - 8 - (c_pixel_stride == 2 ? 1 : 0);
+    if (c_pixel_stride == 1 || c_pixel_stride == 2) {
+        for (; i <= end; i += 8) {
+            if (c_pixel_stride == 2) {
+                v = _mm_or_si128(
+                        _mm_and_si128(_mm_loadu_si128((const __m128i *) (cr + (i << 1))),
+                                      low_byte),
+                        _mm_slli_epi16(_mm_loadu_si128((const __m128i *) (cb + (i << 1))), 8));
+            } else {
+                v = _mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i *) (cr + i)),
+                                      _mm_loadl_epi64((const __m128i *) (cb + i)));
+            }
+            if (reverse) {
+                _mm_storeu_si128((__m128i *) (crcb + ((pairs - 8 - i) << 1)), reverse_epi16(v));
+            } else {
+                _mm_storeu_si128((__m128i *) (crcb + (i << 1)), v);
+            }
+        }
+    }
+    if (i < pairs) {
+        copy_chroma_row_c(cr + i * c_pixel_stride, cb + i * c_pixel_stride, c_pixel_stride,
+                          reverse ? crcb : crcb + (i << 1), pairs - i, reverse);
+    }
+}
+
+const YuvKernels kYuvKernelsSse2 = {
+        "sse2",
+        yuv_to_rgba_row_sse2,
+        rgba_to_yuv_row_sse2,
+        copy_luma_row_sse2,
+        copy_chroma_row_sse2,
+};
+
+#endif // YUV_KERNELS_HAS_X86
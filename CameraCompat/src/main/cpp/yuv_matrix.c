@@ -0,0 +1,321 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+#include "yuv_matrix.h"
+
+static YuvMatrix sMatrices[YUV_MATRIX_COUNT];
+static int sMatricesReady;
+
+/**
+ * Coefficients of the reference tier: R = y + r_cr * cr, where y = (Y - y_offset) * y_inv and
+ * cr = (Cr - 128) * c_inv; Y = y_r * R + y_g * G + y_b * B + y_offset.
+ */
+typedef struct YuvFloatMatrix {
+    double y_offset;
+    double y_inv;
+    double c_inv;
+    double r_cr;
+    double g_cb;
+    double g_cr;
+    double b_cb;
+    double y_r;
+    double y_g;
+    double y_b;
+    double cb_r;
+    double cb_g;
+    double cb_b;
+    double cr_r;
+    double cr_g;
+    double cr_b;
+} YuvFloatMatrix;
+
+static YuvFloatMatrix sFloatMatrices[YUV_MATRIX_COUNT];
+
+static inline uint8_t clamp_u8(int v) {
+    return (uint8_t) (v < 0 ? 0 : (v > 255 ? 255 : v));
+}
+
+static inline int32_t fixed(double v) {
+    v *= 65536;
+    return (int32_t) (v >= 0 ? v + 0.5 : v - 0.5);
+}
+
+int yuv_matrix_init(YuvMatrix *matrix, int type) {
+    double kr, kb, kg;
+    // scale of luma and chroma from full range to the encoded range
+    double y_scale, c_scale;
+    int y_offset, i;
+    switch (type) {
+        case YUV_MATRIX_BT601_LIMITED:
+        case YUV_MATRIX_BT601_FULL:
+            kr = 0.299;
+            kb = 0.114;
+            break;
+        case YUV_MATRIX_BT709_LIMITED:
+        case YUV_MATRIX_BT709_FULL:
+            kr = 0.2126;
+            kb = 0.0722;
+            break;
+        default:
+            return -1;
+    }
+    kg = 1 - kr - kb;
+    if (type == YUV_MATRIX_BT601_LIMITED || type == YUV_MATRIX_BT709_LIMITED) {
+        y_scale = 219.0 / 255;
+        c_scale = 224.0 / 255;
+        y_offset = 16;
+    } else {
+        y_scale = 1;
+        c_scale = 1;
+        y_offset = 0;
+    }
+    for (i = 0; i < 256; i++) {
+        double y = (i - y_offset) / y_scale;
+        double c = (i - 128) / c_scale;
+        matrix->y[i] = fixed(y) + (1 << 15);
+        matrix->r_cr[i] = fixed(2 * (1 - kr) * c);
+        matrix->g_cb[i] = fixed(-2 * kb * (1 - kb) / kg * c);
+        matrix->g_cr[i] = fixed(-2 * kr * (1 - kr) / kg * c);
+        matrix->b_cb[i] = fixed(2 * (1 - kb) * c);
+
+        matrix->y_r[i] = fixed(kr * y_scale * i) + ((y_offset << 16) + (1 << 15));
+        matrix->y_g[i] = fixed(kg * y_scale * i);
+        matrix->y_b[i] = fixed(kb * y_scale * i);
+        matrix->cb_r[i] = fixed(-kr / (2 * (1 - kb)) * c_scale * i) + ((128 << 16) + (1 << 15));
+        matrix->cb_g[i] = fixed(-kg / (2 * (1 - kb)) * c_scale * i);
+        matrix->cb_b[i] = fixed(0.5 * c_scale * i);
+        matrix->cr_r[i] = fixed(0.5 * c_scale * i) + ((128 << 16) + (1 << 15));
+        matrix->cr_g[i] = fixed(-kg / (2 * (1 - kr)) * c_scale * i);
+        matrix->cr_b[i] = fixed(-kb / (2 * (1 - kr)) * c_scale * i);
+    }
+    return 0;
+}
+
+static void float_matrix_init(YuvFloatMatrix *matrix, int type) {
+    int bt709 = type == YUV_MATRIX_BT709_LIMITED || type == YUV_MATRIX_BT709_FULL;
+    int full = type == YUV_MATRIX_BT601_FULL || type == YUV_MATRIX_BT709_FULL;
+    double kr = bt709 ? 0.2126 : 0.299;
+    double kb = bt709 ? 0.0722 : 0.114;
+    double kg = 1 - kr - kb;
+    double y_scale = full ? 1 : 219.0 / 255;
+    double c_scale = full ? 1 : 224.0 / 255;
+    matrix->y_offset = full ? 0 : 16;
+    matrix->y_inv = 1 / y_scale;
+    matrix->c_inv = 1 / c_scale;
+    matrix->r_cr = 2 * (1 - kr);
+    matrix->g_cb = -2 * kb * (1 - kb) / kg;
+    matrix->g_cr = -2 * kr * (1 - kr) / kg;
+    matrix->b_cb = 2 * (1 - kb);
+    matrix->y_r = kr * y_scale;
+    matrix->y_g = kg * y_scale;
+    matrix->y_b = kb * y_scale;
+    matrix->cb_r = -kr / (2 * (1 - kb)) * c_scale;
+    matrix->cb_g = -kg / (2 * (1 - kb)) * c_scale;
+    matrix->cb_b = 0.5 * c_scale;
+    matrix->cr_r = 0.5 * c_scale;
+    matrix->cr_g = -kg / (2 * (1 - kr)) * c_scale;
+    matrix->cr_b = -kb / (2 * (1 - kr)) * c_scale;
+}
+
+static inline uint8_t round_u8(double v) {
+    return (uint8_t) (v <= 0 ? 0 : (v >= 255 ? 255 : (int) (v + 0.5)));
+}
+
+static void yuv_to_rgba_row_float(const YuvFloatMatrix *matrix, const uint8_t *y,
+                                  const uint8_t *cr, const uint8_t *cb, int c_pixel_stride,
+                                  uint8_t *rgba, int width) {
+    double Y, R = 0, G = 0, B = 0;
+    int x;
+    for (x = 0; x < width; x++) {
+        if ((x & 0x1) == 0) {
+            double Cr = (cr[(x >> 1) * c_pixel_stride] - 128) * matrix->c_inv;
+            double Cb = (cb[(x >> 1) * c_pixel_stride] - 128) * matrix->c_inv;
+            R = matrix->r_cr * Cr;
+            G = matrix->g_cb * Cb + matrix->g_cr * Cr;
+            B = matrix->b_cb * Cb;
+        }
+        Y = (y[x] - matrix->y_offset) * matrix->y_inv;
+        rgba[0] = round_u8(Y + R);
+        rgba[1] = round_u8(Y + G);
+        rgba[2] = round_u8(Y + B);
+        rgba[3] = 0xFF;
+        rgba += 4;
+    }
+}
+
+static void rgba_to_yuv_row_float(const YuvFloatMatrix *matrix, const uint8_t *rgba,
+                                  ptrdiff_t pixel_step, uint8_t *y, uint8_t *crcb, int width) {
+    int R, G, B;
+    int x;
+    for (x = 0; x < width; x++) {
+        R = rgba[0];
+        G = rgba[1];
+        B = rgba[2];
+        y[x] = round_u8(matrix->y_r * R + matrix->y_g * G + matrix->y_b * B + matrix->y_offset);
+        if (crcb != NULL && (x & 0x1) == 0) {
+            crcb[x] = round_u8(matrix->cr_r * R + matrix->cr_g * G + matrix->cr_b * B + 128);
+            crcb[x + 1] = round_u8(matrix->cb_r * R + matrix->cb_g * G + matrix->cb_b * B + 128);
+        }
+        rgba += pixel_step;
+    }
+}
+
+void yuv_to_rgba_row_lut(const YuvMatrix *matrix, const uint8_t *y, const uint8_t *cr,
+                         const uint8_t *cb, int c_pixel_stride, uint8_t *rgba, int width) {
+    int32_t Y, R = 0, G = 0, B = 0;
+    int x;
+    for (x = 0; x < width; x++) {
+        if ((x & 0x1) == 0) {
+            uint8_t Cr = cr[(x >> 1) * c_pixel_stride];
+            uint8_t Cb = cb[(x >> 1) * c_pixel_stride];
+            R = matrix->r_cr[Cr];
+            G = matrix->g_cb[Cb] + matrix->g_cr[Cr];
+            B = matrix->b_cb[Cb];
+        }
+        Y = matrix->y[y[x]];
+        rgba[0] = clamp_u8((Y + R) >> 16);
+        rgba[1] = clamp_u8((Y + G) >> 16);
+        rgba[2] = clamp_u8((Y + B) >> 16);
+        rgba[3] = 0xFF;
+        rgba += 4;
+    }
+}
+
+void rgba_to_yuv_row_lut(const YuvMatrix *matrix, const uint8_t *rgba, ptrdiff_t pixel_step,
+                         uint8_t *y, uint8_t *crcb, int width) {
+    uint8_t R, G, B;
+    int x;
+    for (x = 0; x < width; x++) {
+        R = rgba[0];
+        G = rgba[1];
+        B = rgba[2];
+        y[x] = clamp_u8((matrix->y_r[R] + matrix->y_g[G] + matrix->y_b[B]) >> 16);
+        if (crcb != NULL && (x & 0x1) == 0) {
+            crcb[x] = clamp_u8((matrix->cr_r[R] + matrix->cr_g[G] + matrix->cr_b[B]) >> 16);
+            crcb[x + 1] = clamp_u8((matrix->cb_r[R] + matrix->cb_g[G] + matrix->cb_b[B]) >> 16);
+        }
+        rgba += pixel_step;
+    }
+}
+
+// the row kernels take no context, so every LUT matrix gets its own entries, of both the exact
+// and the reference tier
+#define LUT_ROWS(name, type) \
+static void yuv_to_rgba_row_##name(const uint8_t *y, const uint8_t *cr, const uint8_t *cb, \
+                                   int c_pixel_stride, uint8_t *rgba, int width) { \
+    yuv_to_rgba_row_lut(&sMatrices[type], y, cr, cb, c_pixel_stride, rgba, width); \
+} \
+static void rgba_to_yuv_row_##name(const uint8_t *rgba, ptrdiff_t pixel_step, uint8_t *y, \
+                                   uint8_t *crcb, int width) { \
+    rgba_to_yuv_row_lut(&sMatrices[type], rgba, pixel_step, y, crcb, width); \
+} \
+static void yuv_to_rgba_row_##name##_float(const uint8_t *y, const uint8_t *cr, \
+                                           const uint8_t *cb, int c_pixel_stride, uint8_t *rgba, \
+                                           int width) { \
+    yuv_to_rgba_row_float(&sFloatMatrices[type], y, cr, cb, c_pixel_stride, rgba, width); \
+} \
+static void rgba_to_yuv_row_##name##_float(const uint8_t *rgba, ptrdiff_t pixel_step, \
+                                           uint8_t *y, uint8_t *crcb, int width) { \
+    rgba_to_yuv_row_float(&sFloatMatrices[type], rgba, pixel_step, y, crcb, width); \
+}
+
+LUT_ROWS(bt601_limited, YUV_MATRIX_BT601_LIMITED)
+LUT_ROWS(bt601_full, YUV_MATRIX_BT601_FULL)
+LUT_ROWS(bt709_limited, YUV_MATRIX_BT709_LIMITED)
+LUT_ROWS(bt709_full, YUV_MATRIX_BT709_FULL)
+
+int yuv_matrix_kernels(const YuvKernels *base, int type, YuvKernels *kernels) {
+    int i;
+    if (type < 0 || type >= YUV_MATRIX_COUNT) {
+        return -1;
+    }
+    if (!sMatricesReady) {
+        for (i = 1; i < YUV_MATRIX_COUNT; i++) {
+            yuv_matrix_init(&sMatrices[i], i);
+            float_matrix_init(&sFloatMatrices[i], i);
+        }
+        sMatricesReady = 1;
+    }
+    *kernels = *base;
+    switch (type) {
+        case YUV_MATRIX_BT601_LIMITED:
+            kernels->yuv_to_rgba_row = yuv_to_rgba_row_bt601_limited;
+            kernels->rgba_to_yuv_row = rgba_to_yuv_row_bt601_limited;
+            break;
+        case YUV_MATRIX_BT601_FULL:
+            kernels->yuv_to_rgba_row = yuv_to_rgba_row_bt601_full;
+            kernels->rgba_to_yuv_row = rgba_to_yuv_row_bt601_full;
+            break;
+        case YUV_MATRIX_BT709_LIMITED:
+            kernels->yuv_to_rgba_row = yuv_to_rgba_row_bt709_limited;
+            kernels->rgba_to_yuv_row = rgba_to_yuv_row_bt709_limited;
+            break;
+        case YUV_MATRIX_BT709_FULL:
+            kernels->yuv_to_rgba_row = yuv_to_rgba_row_bt709_full;
+            kernels->rgba_to_yuv_row = rgba_to_yuv_row_bt709_full;
+            break;
+        default:
+            break;
+    }
+    return 0;
+}
+
+int yuv_matrix_accuracy_kernels(const YuvKernels *base, int type, int accuracy,
+                                YuvKernels *kernels) {
+    int exact_type = type == YUV_MATRIX_LEGACY ? YUV_MATRIX_BT601_LIMITED : type;
+    switch (accuracy) {
+        case YUV_ACCURACY_DEFAULT:
+            return yuv_matrix_kernels(base, type, kernels);
+        case YUV_ACCURACY_FAST:
+            return type < 0 || type >= YUV_MATRIX_COUNT
+                   ? -1 : yuv_matrix_kernels(base, YUV_MATRIX_LEGACY, kernels);
+        case YUV_ACCURACY_EXACT:
+            return yuv_matrix_kernels(base, exact_type, kernels);
+        case YUV_ACCURACY_REFERENCE:
+            if (yuv_matrix_kernels(base, exact_type, kernels) != 0) {
+                return -1;
+            }
+            switch (exact_type) {
+                case YUV_MATRIX_BT601_LIMITED:
+                    kernels->yuv_to_rgba_row = yuv_to_rgba_row_bt601_limited_float;
+                    kernels->rgba_to_yuv_row = rgba_to_yuv_row_bt601_limited_float;
+                    break;
+                case YUV_MATRIX_BT601_FULL:
+                    kernels->yuv_to_rgba_row = yuv_to_rgba_row_bt601_full_float;
+                    kernels->rgba_to_yuv_row = rgba_to_yuv_row_bt601_full_float;
+                    break;
+                case YUV_MATRIX_BT709_LIMITED:
+                    kernels->yuv_to_rgba_row = yuv_to_rgba_row_bt709_limited_float;
+                    kernels->rgba_to_yuv_row = rgba_to_yuv_row_bt709_limited_float;
+                    break;
+                default:
+                    kernels->yuv_to_rgba_row = yuv_to_rgba_row_bt709_full_float;
+                    kernels->rgba_to_yuv_row = rgba_to_yuv_row_bt709_full_float;
+                    break;
+            }
+            return 0;
+        default:
+            return -1;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Colour matrices backed by fixed point lookup tables. The legacy matrix is the bit operation
+// approximation documented in RgbYuvConverter.java, and has SIMD kernels; the others are
+// standard BT.601 / BT.709 conversions, in limited (16 ~ 235) or full (0 ~ 255) range.
+
+#ifndef RGB_YUV_MATRIX_H
+#define RGB_YUV_MATRIX_H
+
+#include "yuv_kernels.h"
+
+#define YUV_MATRIX_LEGACY 0
+#define YUV_MATRIX_BT601_LIMITED 1
+#define YUV_MATRIX_BT601_FULL 2
+#define YUV_MATRIX_BT709_LIMITED 3
+#define YUV_MATRIX_BT709_FULL 4
+#define YUV_MATRIX_COUNT 5
+
+// accuracy tiers of the colour conversions: the default one of the matrix (fast for legacy,
+// exact for the others), the fast bit operations of legacy whatever the matrix is, the fixed
+// point tables, or double precision math; legacy is BT.601 limited range for exact and reference
+#define YUV_ACCURACY_DEFAULT 0
+#define YUV_ACCURACY_FAST 1
+#define YUV_ACCURACY_EXACT 2
+#define YUV_ACCURACY_REFERENCE 3
+#define YUV_ACCURACY_COUNT 4
+
+/**
+ * Per channel lookup tables in 16.16 fixed point, a channel is the sum of its table entries
+ * shifted right by 16, offset and rounding are folded into the first table of each sum.
+ */
+typedef struct YuvMatrix {
+    // R = y + r_cr, G = y + g_cb + g_cr, B = y + b_cb
+    int32_t y[256];
+    int32_t r_cr[256];
+    int32_t g_cb[256];
+    int32_t g_cr[256];
+    int32_t b_cb[256];
+    // Y = y_r + y_g + y_b, Cb = cb_r + cb_g + cb_b, Cr = cr_r + cr_g + cr_b
+    int32_t y_r[256];
+    int32_t y_g[256];
+    int32_t y_b[256];
+    int32_t cb_r[256];
+    int32_t cb_g[256];
+    int32_t cb_b[256];
+    int32_t cr_r[256];
+    int32_t cr_g[256];
+    int32_t cr_b[256];
+} YuvMatrix;
+
+/**
+ * Fill the tables of the matrix, it's not one of the LUT matrices if -1 is returned.
+ */
+int yuv_matrix_init(YuvMatrix *matrix, int type);
+
+void yuv_to_rgba_row_lut(const YuvMatrix *matrix, const uint8_t *y, const uint8_t *cr,
+                         const uint8_t *cb, int c_pixel_stride, uint8_t *rgba, int width);
+
+void rgba_to_yuv_row_lut(const YuvMatrix *matrix, const uint8_t *rgba, ptrdiff_t pixel_step,
+                         uint8_t *y, uint8_t *crcb, int width);
+
+/**
+ * Build the kernels of a colour matrix: conversions of the legacy matrix come from
+ * {@code base}, others from the lookup tables, copy kernels always come from {@code base}.
+ * Tables are filled on the first call, which is not thread safe, call it from JNI_OnLoad.
+ *
+ * @return 0 on success, -1 if the type is unknown
+ */
+int yuv_matrix_kernels(const YuvKernels *base, int type, YuvKernels *kernels);
+
+/**
+ * Same as yuv_matrix_kernels, at one of the YUV_ACCURACY_* tiers.
+ *
+ * @return 0 on success, -1 if the type or accuracy is unknown
+ */
+int yuv_matrix_accuracy_kernels(const YuvKernels *base, int type, int accuracy,
+                                YuvKernels *kernels);
+
+#endif // RGB_YUV_MATRIX_H
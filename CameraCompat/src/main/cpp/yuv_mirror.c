@@ -0,0 +1,203 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+#include <string.h>
+
+#include "yuv_convert.h"
+#include "yuv_mirror.h"
+#include "yuv_workers.h"
+
+// bytes swapped at a time, half of a 720p row, the two stack chunks stay in L1
+#define MIRROR_CHUNK 1024
+
+typedef struct MirrorPlane {
+    uint8_t *data;
+    int row_bytes;
+    int rows;
+    // bytes of one pixel: 1 for Y and planar chroma, 2 for interleaved chroma, 4 for RGBA
+    int pixel_bytes;
+    // frame rows of one plane row, 1 for Y and RGBA, 2 for chroma
+    int row_scale;
+} MirrorPlane;
+
+typedef struct MirrorJob {
+    const YuvKernels *kernels;
+    MirrorPlane planes[3];
+    int count;
+    int horizontal;
+    int vertical;
+    // pairs of frame rows, the middle row of an odd height counts as a pair
+    int pairs;
+} MirrorJob;
+
+/**
+ * Copy {@code bytes} bytes of pixels, with the pixel order reversed.
+ */
+static void reverse_copy(const YuvKernels *kernels, const uint8_t *src, uint8_t *dst, int bytes,
+                         int pixel_bytes) {
+    int i;
+    switch (pixel_bytes) {
+        case 1:
+            kernels->copy_luma_row(src, dst, bytes, 1);
+            break;
+        case 2:
+            kernels->copy_chroma_row(src, src + 1, 2, dst, bytes >> 1, 1);
+            break;
+        default:
+            for (i = 0; i < bytes; i += pixel_bytes) {
+                memcpy(dst + bytes - pixel_bytes - i, src + i, (size_t) pixel_bytes);
+            }
+            break;
+    }
+}
+
+/**
+ * Row {@code a} becomes row {@code b} reversed, and row {@code b} becomes row {@code a}
+ * reversed, they could be the same row. Chunks from both ends of the rows are swapped at a
+ * time, chunks of {@code a} go through the stack, and chunks of {@code b} are reversed into
+ * {@code a} directly. For the same row, only the left chunk goes through the stack.
+ */
+static void reverse_rows(const YuvKernels *kernels, uint8_t *a, uint8_t *b, int row_bytes,
+                         int pixel_bytes) {
+    uint8_t left[MIRROR_CHUNK], right[MIRROR_CHUNK];
+    int half = (row_bytes / pixel_bytes >> 1) * pixel_bytes;
+    int offset, tail, n;
+    for (offset = 0; offset < half; offset += n) {
+        n = half - offset < MIRROR_CHUNK ? half - offset : MIRROR_CHUNK;
+        tail = row_bytes - offset - n;
+        reverse_copy(kernels, a + offset, left, n, pixel_bytes);
+        if (a == b) {
+            reverse_copy(kernels, a + tail, a + offset, n, pixel_bytes);
+        } else {
+            reverse_copy(kernels, a + tail, right, n, pixel_bytes);
+            reverse_copy(kernels, b + tail, a + offset, n, pixel_bytes);
+            reverse_copy(kernels, b + offset, a + tail, n, pixel_bytes);
+            memcpy(b + offset, right, (size_t) n);
+        }
+        memcpy(b + tail, left, (size_t) n);
+    }
+    // the middle pixel of an odd width stays in the middle
+    if (a != b && half * 2 < row_bytes) {
+        memcpy(left, a + half, (size_t) pixel_bytes);
+        memcpy(a + half, b + half, (size_t) pixel_bytes);
+        memcpy(b + half, left, (size_t) pixel_bytes);
+    }
+}
+
+static void swap_rows(uint8_t *a, uint8_t *b, int row_bytes) {
+    uint8_t chunk[MIRROR_CHUNK];
+    int offset, n;
+    for (offset = 0; offset < row_bytes; offset += n) {
+        n = row_bytes - offset < MIRROR_CHUNK ? row_bytes - offset : MIRROR_CHUNK;
+        memcpy(chunk, a + offset, (size_t) n);
+        memcpy(a + offset, b + offset, (size_t) n);
+        memcpy(b + offset, chunk, (size_t) n);
+    }
+}
+
+/**
+ * Band [begin, end) of the row pairs, a pair is the n-th row from the top and the n-th row from
+ * the bottom, so the bands never touch the same rows.
+ */
+static void mirror_band(void *arg, int band, int begin, int end) {
+    const MirrorJob *job = (const MirrorJob *) arg;
+    int i, pair, last, bottom;
+    // rows are swapped through the stack
+    (void) band;
+    for (i = 0; i < job->count; i++) {
+        const MirrorPlane *plane = &job->planes[i];
+        // the last band also takes the middle row of the plane
+        last = end == job->pairs ? (plane->rows + 1) >> 1 : end / plane->row_scale;
+        for (pair = begin / plane->row_scale; pair < last; pair++) {
+            uint8_t *top = plane->data + (ptrdiff_t) pair * plane->row_bytes;
+            bottom = plane->rows - 1 - pair;
+            if (!job->vertical) {
+                reverse_rows(job->kernels, top, top, plane->row_bytes, plane->pixel_bytes);
+                if (bottom != pair) {
+                    uint8_t *row = plane->data + (ptrdiff_t) bottom * plane->row_bytes;
+                    reverse_rows(job->kernels, row, row, plane->row_bytes, plane->pixel_bytes);
+                }
+            } else if (job->horizontal) {
+                reverse_rows(job->kernels, top, plane->data + (ptrdiff_t) bottom * plane->row_bytes,
+                             plane->row_bytes, plane->pixel_bytes);
+            } else if (bottom != pair) {
+                swap_rows(top, plane->data + (ptrdiff_t) bottom * plane->row_bytes,
+                          plane->row_bytes);
+            }
+        }
+    }
+}
+
+static void setup_plane(MirrorPlane *plane, uint8_t *data, int row_bytes, int rows,
+                        int pixel_bytes, int row_scale) {
+    plane->data = data;
+    plane->row_bytes = row_bytes;
+    plane->rows = rows;
+    plane->pixel_bytes = pixel_bytes;
+    plane->row_scale = row_scale;
+}
+
+int yuv_mirror(const YuvKernels *kernels, uint8_t *frame, int format, int width, int height,
+               int horizontal, int vertical) {
+    MirrorJob job;
+    uint8_t *first = frame + width * height;
+    int chroma_width = width >> 1;
+    int chroma_height = height >> 1;
+    if (width <= 0 || height <= 0
+        || (format != YUV_FORMAT_RGBA && ((width | height) & 0x1) != 0)) {
+        return -1;
+    }
+    switch (format) {
+        case YUV_FORMAT_RGBA:
+            setup_plane(&job.planes[0], frame, width * 4, height, 4, 1);
+            job.count = 1;
+            break;
+        case YUV_FORMAT_NV21:
+        case YUV_FORMAT_NV12:
+            setup_plane(&job.planes[0], frame, width, height, 1, 1);
+            setup_plane(&job.planes[1], first, width, chroma_height, 2, 2);
+            job.count = 2;
+            break;
+        case YUV_FORMAT_I420:
+        case YUV_FORMAT_YV12:
+            setup_plane(&job.planes[0], frame, width, height, 1, 1);
+            setup_plane(&job.planes[1], first, chroma_width, chroma_height, 1, 2);
+            setup_plane(&job.planes[2], first + chroma_width * chroma_height, chroma_width,
+                        chroma_height, 1, 2);
+            job.count = 3;
+            break;
+        default:
+            return -1;
+    }
+    if (!horizontal && !vertical) {
+        return 0;
+    }
+    job.kernels = kernels;
+    job.horizontal = horizontal;
+    job.vertical = vertical;
+    job.pairs = (height + 1) >> 1;
+    // bands of an even pair count, so chroma rows are split at the same place as Y rows
+    yuv_workers_run(NULL, mirror_band, &job, job.pairs, 2);
+    return 0;
+}
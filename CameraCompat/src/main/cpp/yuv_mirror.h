@@ -0,0 +1,47 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Mirror a frame in place, e.g. the front camera preview, so a pipeline which only mirrors the
+// frame needn't convert it into a second buffer.
+
+#ifndef RGB_YUV_MIRROR_H
+#define RGB_YUV_MIRROR_H
+
+#include <stdint.h>
+
+#include "yuv_kernels.h"
+
+/**
+ * Mirror a frame stored continuously in one of the YUV_FORMAT_* in place: reverse every row if
+ * {@code horizontal} is not 0, and reverse the row order if {@code vertical} is not 0, both of
+ * them is a 180 degree rotation. Rows are swapped chunk by chunk through the stack, with the
+ * reversing row kernels, and interleaved chroma keeps its order inside each pair.
+ *
+ * @return 0 on success, -1 if the format is unknown, or the size is not positive, or odd for a
+ * YUV 420 format
+ */
+int yuv_mirror(const YuvKernels *kernels, uint8_t *frame, int format, int width, int height,
+               int horizontal, int vertical);
+
+#endif // RGB_YUV_MIRROR_H
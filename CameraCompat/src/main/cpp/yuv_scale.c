@@ -0,0 +1,228 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+#include <stdlib.h>
+
+#include "yuv_convert.h"
+#include "yuv_scale.h"
+#include "yuv_workers.h"
+
+/**
+ * One plane of one rendition. Bilinear planes map each destination column and row to a source
+ * position in 16.16 fixed point, with the pixel centers aligned.
+ */
+typedef struct ScalePlane {
+    const uint8_t *src;
+    int src_row_stride;
+    int src_pixel_stride;
+    int src_width;
+    int src_height;
+    uint8_t *dst;
+    int dst_row_stride;
+    int dst_pixel_stride;
+    int dst_width;
+    int dst_height;
+    // source rows of one plane row, 1 for luma and 2 for chroma
+    int row_scale;
+    // box filter size, 0 for bilinear
+    int box;
+    int *x_map;
+    int *y_map;
+} ScalePlane;
+
+typedef struct ScaleJob {
+    ScalePlane *planes;
+    int count;
+} ScaleJob;
+
+static int box_size(int src, int dst) {
+    if (src == dst * 2) {
+        return 2;
+    }
+    if (src == dst * 4) {
+        return 4;
+    }
+    return 0;
+}
+
+static int *bilinear_map(int src, int dst) {
+    int *map = (int *) malloc(sizeof(int) * dst);
+    int64_t pos;
+    int i;
+    if (map == NULL) {
+        return NULL;
+    }
+    for (i = 0; i < dst; i++) {
+        // (i + 0.5) * src / dst - 0.5
+        pos = (((int64_t) (2 * i + 1) * src << 16) / (2 * dst)) - (1 << 15);
+        map[i] = pos < 0 ? 0 : (int) pos;
+    }
+    return map;
+}
+
+/**
+ * @return the first source row read by destination row {@code row}
+ */
+static int first_src_row(const ScalePlane *plane, int row) {
+    return plane->box != 0 ? row * plane->box : plane->y_map[row] >> 16;
+}
+
+static void box_row(const ScalePlane *plane, int row) {
+    int box = plane->box;
+    int shift = box == 2 ? 2 : 4;
+    const uint8_t *src = plane->src + (ptrdiff_t) row * box * plane->src_row_stride;
+    uint8_t *dst = plane->dst + (ptrdiff_t) row * plane->dst_row_stride;
+    int x, i, j, sum;
+    for (x = 0; x < plane->dst_width; x++) {
+        const uint8_t *s = src + x * box * plane->src_pixel_stride;
+        sum = 0;
+        for (j = 0; j < box; j++) {
+            for (i = 0; i < box; i++) {
+                sum += s[j * plane->src_row_stride + i * plane->src_pixel_stride];
+            }
+        }
+        dst[x * plane->dst_pixel_stride] = (uint8_t) ((sum + (1 << (shift - 1))) >> shift);
+    }
+}
+
+static void bilinear_row(const ScalePlane *plane, int row) {
+    // weights are rounded to 8 bits
+    int y = (plane->y_map[row] + 0x80) >> 8;
+    int y0 = y >> 8;
+    int y1 = y0 + 1 < plane->src_height ? y0 + 1 : y0;
+    int fy = y & 0xff;
+    const uint8_t *top = plane->src + (ptrdiff_t) y0 * plane->src_row_stride;
+    const uint8_t *bottom = plane->src + (ptrdiff_t) y1 * plane->src_row_stride;
+    uint8_t *dst = plane->dst + (ptrdiff_t) row * plane->dst_row_stride;
+    int x, pos, x0, x1, fx, t, b;
+    for (x = 0; x < plane->dst_width; x++) {
+        pos = (plane->x_map[x] + 0x80) >> 8;
+        x0 = pos >> 8;
+        x1 = x0 + 1 < plane->src_width ? x0 + 1 : x0;
+        fx = pos & 0xff;
+        x0 *= plane->src_pixel_stride;
+        x1 *= plane->src_pixel_stride;
+        t = top[x0] * (256 - fx) + top[x1] * fx;
+        b = bottom[x0] * (256 - fx) + bottom[x1] * fx;
+        dst[x * plane->dst_pixel_stride] = (uint8_t) ((t * (256 - fy) + b * fy + (1 << 15)) >> 16);
+    }
+}
+
+/**
+ * Every destination row is produced by the band holding the first source row it reads, so the
+ * bands split the work exactly, and each band mostly reads its own source rows.
+ */
+static void scale_band(void *arg, int band, int begin, int end) {
+    const ScaleJob *job = (const ScaleJob *) arg;
+    int i, row;
+    // no scratch is needed
+    (void) band;
+    for (i = 0; i < job->count; i++) {
+        const ScalePlane *plane = &job->planes[i];
+        row = 0;
+        while (row < plane->dst_height && first_src_row(plane, row) * plane->row_scale < begin) {
+            row++;
+        }
+        while (row < plane->dst_height && first_src_row(plane, row) * plane->row_scale < end) {
+            if (plane->box != 0) {
+                box_row(plane, row);
+            } else {
+                bilinear_row(plane, row);
+            }
+            row++;
+        }
+    }
+}
+
+static int setup_plane(ScalePlane *plane, const uint8_t *src, int src_row_stride,
+                       int src_pixel_stride, int src_width, int src_height, uint8_t *dst,
+                       int dst_row_stride, int dst_pixel_stride, int dst_width, int dst_height,
+                       int row_scale) {
+    plane->src = src;
+    plane->src_row_stride = src_row_stride;
+    plane->src_pixel_stride = src_pixel_stride;
+    plane->src_width = src_width;
+    plane->src_height = src_height;
+    plane->dst = dst;
+    plane->dst_row_stride = dst_row_stride;
+    plane->dst_pixel_stride = dst_pixel_stride;
+    plane->dst_width = dst_width;
+    plane->dst_height = dst_height;
+    plane->row_scale = row_scale;
+    plane->box = box_size(src_width, dst_width);
+    if (plane->box != 0 && plane->box == box_size(src_height, dst_height)) {
+        plane->x_map = NULL;
+        plane->y_map = NULL;
+        return 0;
+    }
+    plane->box = 0;
+    plane->x_map = bilinear_map(src_width, dst_width);
+    plane->y_map = bilinear_map(src_height, dst_height);
+    return plane->x_map != NULL && plane->y_map != NULL ? 0 : -1;
+}
+
+int yuv_scale(const uint8_t *in, int format, int width, int height,
+              const YuvRendition *renditions, int count) {
+    YuvPlanes src, dst;
+    ScaleJob job;
+    int i, ret = 0;
+    if (yuv_planes_of(&src, format, in, width, height) != 0 || count <= 0) {
+        return -1;
+    }
+    for (i = 0; i < count; i++) {
+        if (renditions[i].width <= 0 || renditions[i].height <= 0
+            || renditions[i].width > width || renditions[i].height > height
+            || ((renditions[i].width | renditions[i].height) & 0x1) != 0) {
+            return -1;
+        }
+    }
+    job.planes = (ScalePlane *) calloc((size_t) count * 3, sizeof(ScalePlane));
+    if (job.planes == NULL) {
+        return -1;
+    }
+    job.count = count * 3;
+    for (i = 0; i < count && ret == 0; i++) {
+        const YuvRendition *r = &renditions[i];
+        ScalePlane *planes = &job.planes[i * 3];
+        yuv_planes_of(&dst, format, r->out, r->width, r->height);
+        // the planes are in the writable rendition
+        ret = setup_plane(&planes[0], src.y, src.y_row_stride, 1, width, height,
+                          (uint8_t *) dst.y, dst.y_row_stride, 1, r->width, r->height, 1)
+              | setup_plane(&planes[1], src.cr, src.c_row_stride, src.c_pixel_stride,
+                            width >> 1, height >> 1, (uint8_t *) dst.cr, dst.c_row_stride,
+                            dst.c_pixel_stride, r->width >> 1, r->height >> 1, 2)
+              | setup_plane(&planes[2], src.cb, src.c_row_stride, src.c_pixel_stride,
+                            width >> 1, height >> 1, (uint8_t *) dst.cb, dst.c_row_stride,
+                            dst.c_pixel_stride, r->width >> 1, r->height >> 1, 2);
+    }
+    if (ret == 0) {
+        yuv_workers_run(NULL, scale_band, &job, height, 2);
+    }
+    for (i = 0; i < job.count; i++) {
+        free(job.planes[i].x_map);
+        free(job.planes[i].y_map);
+    }
+    free(job.planes);
+    return ret == 0 ? 0 : -1;
+}
@@ -0,0 +1,51 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// Downscale one YUV 420 frame into several renditions, e.g. the half and quarter size layers of
+// simulcast. All renditions are produced band by band in a single walk over the source rows, so
+// every source row is read from memory once, no matter how many renditions there are.
+
+#ifndef RGB_YUV_SCALE_H
+#define RGB_YUV_SCALE_H
+
+#include <stdint.h>
+
+typedef struct YuvRendition {
+    int width;
+    int height;
+    uint8_t *out;
+} YuvRendition;
+
+/**
+ * Downscale a frame stored continuously in one of the YUV 420 formats into renditions of the
+ * same format. A plane which is exactly 2x or 4x of its rendition is box filtered, any other
+ * ratio is bilinear filtered.
+ *
+ * @return 0 on success, -1 if the format is not a YUV 420 one, or any rendition is larger than
+ * the source, has an odd or non positive size
+ */
+int yuv_scale(const uint8_t *in, int format, int width, int height,
+              const YuvRendition *renditions, int count);
+
+#endif // RGB_YUV_SCALE_H
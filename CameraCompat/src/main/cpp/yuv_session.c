@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// posix_memalign
+#define _POSIX_C_SOURCE 200112L
+
+#include <stdlib.h>
+
+#include "yuv_session.h"
+
+// scratch of every band starts at its own cache line, so bands never share one
+#define SCRATCH_ALIGN 64
+
+struct YuvSession {
+    YuvKernels kernels;
+    YuvTransformPlan plan;
+};
+
+YuvSession *yuv_session_create(const YuvKernels *kernels, int width, int height,
+                               const YuvTransform *transform, int threads) {
+    YuvSession *session = (YuvSession *) calloc(1, sizeof(YuvSession));
+    void *scratch;
+    size_t stride;
+    if (session == NULL) {
+        return NULL;
+    }
+    session->kernels = *kernels;
+    if (yuv_transform_plan(&session->plan, &session->kernels, NULL, width, height,
+                           transform) != 0) {
+        free(session);
+        return NULL;
+    }
+    session->plan.workers = yuv_workers_create(threads);
+    if (session->plan.workers == NULL) {
+        free(session);
+        return NULL;
+    }
+    stride = (yuv_transform_plan_scratch(&session->plan) + SCRATCH_ALIGN - 1)
+             & ~((size_t) SCRATCH_ALIGN - 1);
+    if (posix_memalign(&scratch, SCRATCH_ALIGN,
+                       stride * yuv_workers_get_threads(session->plan.workers)) != 0) {
+        yuv_workers_destroy(session->plan.workers);
+        free(session);
+        return NULL;
+    }
+    session->plan.scratch = (uint8_t *) scratch;
+    session->plan.scratch_stride = stride;
+    return session;
+}
+
+void yuv_session_destroy(YuvSession *session) {
+    if (session == NULL) {
+        return;
+    }
+    yuv_workers_destroy(session->plan.workers);
+    free(session->plan.scratch);
+    free(session);
+}
+
+const YuvTransformPlan *yuv_session_plan(const YuvSession *session) {
+    return &session->plan;
+}
+
+int yuv_session_transform(YuvSession *session, const YuvPlanes *in, const YuvOutput *out,
+                          YuvStats *stats) {
+    return yuv_transform_run(&session->plan, in, out, stats);
+}
+
+int yuv_session_rgba_transform(YuvSession *session, const uint8_t *rgba, const YuvOutput *out,
+                               YuvStats *stats) {
+    return rgba_transform_run(&session->plan, rgba, out, stats);
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// A conversion session of one pipeline: the kernels, the transform and the input size are fixed
+// when it's created, and it owns the worker threads and the scratch memory of every band, so a
+// frame is converted without any checking, resolving or allocation. Frames of one session must
+// be converted one at a time.
+
+#ifndef RGB_YUV_SESSION_H
+#define RGB_YUV_SESSION_H
+
+#include "yuv_convert.h"
+
+typedef struct YuvSession YuvSession;
+
+/**
+ * @param kernels copied into the session, e.g. kernels of the colour matrix at the time
+ * @param threads thread count of the pool of the session, 1 converts on the calling thread only
+ * @return NULL if the transform is invalid, or it's out of memory
+ */
+YuvSession *yuv_session_create(const YuvKernels *kernels, int width, int height,
+                               const YuvTransform *transform, int threads);
+
+/**
+ * Stop the workers and free the session, it must not be converting any frame.
+ */
+void yuv_session_destroy(YuvSession *session);
+
+/**
+ * @return the resolved transform, with the input and output size of the session
+ */
+const YuvTransformPlan *yuv_session_plan(const YuvSession *session);
+
+/**
+ * Transform a YUV 420 frame of the session size.
+ *
+ * @param stats filled with the luma histogram of the frame, or NULL to skip it
+ * @return 0 on success, -1 if the rows don't fit in the strides
+ */
+int yuv_session_transform(YuvSession *session, const YuvPlanes *in, const YuvOutput *out,
+                          YuvStats *stats);
+
+/**
+ * Transform a RGBA frame of the session size.
+ *
+ * @param stats filled with the luma histogram of the frame, or NULL to skip it
+ * @return 0 on success, -1 if the output format is RGBA, or the rows don't fit in the strides
+ */
+int yuv_session_rgba_transform(YuvSession *session, const uint8_t *rgba, const YuvOutput *out,
+                               YuvStats *stats);
+
+#endif // RGB_YUV_SESSION_H
@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+#include <pthread.h>
+#include <stdint.h>
+#include <stdlib.h>
+
+#include "yuv_workers.h"
+
+// bands smaller than this cost more in synchronization than they save
+#define MIN_BAND_ROWS 16
+
+typedef struct WorkerSlot {
+    YuvWorkers *workers;
+    int band;
+} WorkerSlot;
+
+struct YuvWorkers {
+    // only one conversion uses the pool at a time
+    pthread_mutex_t run_lock;
+
+    pthread_mutex_t lock;
+    pthread_cond_t job_cond;
+    pthread_cond_t done_cond;
+    pthread_t threads[YUV_WORKERS_MAX_THREADS - 1];
+    WorkerSlot slots[YUV_WORKERS_MAX_THREADS - 1];
+    int count;
+    int quit;
+    unsigned int generation;
+    // generation when workers are started, so they won't pick up a finished job
+    unsigned int start_generation;
+    int pending;
+
+    YuvBandTask task;
+    void *arg;
+    int rows;
+    int row_align;
+    int bands;
+};
+
+static YuvWorkers sShared = {
+        .run_lock = PTHREAD_MUTEX_INITIALIZER,
+        .lock = PTHREAD_MUTEX_INITIALIZER,
+        .job_cond = PTHREAD_COND_INITIALIZER,
+        .done_cond = PTHREAD_COND_INITIALIZER
+};
+
+static inline int band_begin(int band, int bands, int rows, int row_align) {
+    if (band >= bands) {
+        return rows;
+    }
+    return (int) ((int64_t) rows * band / bands) / row_align * row_align;
+}
+
+static void *worker_loop(void *param) {
+    YuvWorkers *w = ((WorkerSlot *) param)->workers;
+    int band = ((WorkerSlot *) param)->band;
+    unsigned int seen = w->start_generation;
+    YuvBandTask task;
+    void *arg;
+    int begin, end;
+
+    pthread_mutex_lock(&w->lock);
+    while (1) {
+        while (!w->quit && w->generation == seen) {
+            pthread_cond_wait(&w->job_cond, &w->lock);
+        }
+        if (w->quit) {
+            break;
+        }
+        seen = w->generation;
+        if (band < w->bands) {
+            task = w->task;
+            arg = w->arg;
+            begin = band_begin(band, w->bands, w->rows, w->row_align);
+            end = band_begin(band + 1, w->bands, w->rows, w->row_align);
+            pthread_mutex_unlock(&w->lock);
+            task(arg, band, begin, end);
+            pthread_mutex_lock(&w->lock);
+        }
+        if (--w->pending == 0) {
+            pthread_cond_signal(&w->done_cond);
+        }
+    }
+    pthread_mutex_unlock(&w->lock);
+    return NULL;
+}
+
+static void stop_workers(YuvWorkers *w) {
+    int i;
+    pthread_mutex_lock(&w->lock);
+    w->quit = 1;
+    pthread_cond_broadcast(&w->job_cond);
+    pthread_mutex_unlock(&w->lock);
+    for (i = 0; i < w->count; i++) {
+        pthread_join(w->threads[i], NULL);
+    }
+    w->count = 0;
+    w->quit = 0;
+}
+
+static int clamp_threads(int threads) {
+    if (threads < 1) {
+        return 1;
+    }
+    return threads > YUV_WORKERS_MAX_THREADS ? YUV_WORKERS_MAX_THREADS : threads;
+}
+
+/**
+ * Restart the workers if the count changes, the caller holds run_lock.
+ */
+static void start_workers(YuvWorkers *w, int threads) {
+    int i;
+    if (threads - 1 == w->count) {
+        return;
+    }
+    stop_workers(w);
+    w->start_generation = w->generation;
+    for (i = 0; i < threads - 1; i++) {
+        // band 0 is done by the calling thread
+        w->slots[i].workers = w;
+        w->slots[i].band = i + 1;
+        if (pthread_create(&w->threads[i], NULL, worker_loop, &w->slots[i]) != 0) {
+            break;
+        }
+        w->count++;
+    }
+}
+
+YuvWorkers *yuv_workers_create(int threads) {
+    YuvWorkers *w = (YuvWorkers *) calloc(1, sizeof(YuvWorkers));
+    if (w == NULL) {
+        return NULL;
+    }
+    pthread_mutex_init(&w->run_lock, NULL);
+    pthread_mutex_init(&w->lock, NULL);
+    pthread_cond_init(&w->job_cond, NULL);
+    pthread_cond_init(&w->done_cond, NULL);
+    start_workers(w, clamp_threads(threads));
+    return w;
+}
+
+void yuv_workers_destroy(YuvWorkers *workers) {
+    if (workers == NULL || workers == &sShared) {
+        return;
+    }
+    stop_workers(workers);
+    pthread_mutex_destroy(&workers->run_lock);
+    pthread_mutex_destroy(&workers->lock);
+    pthread_cond_destroy(&workers->job_cond);
+    pthread_cond_destroy(&workers->done_cond);
+    free(workers);
+}
+
+int yuv_workers_set_threads(int threads) {
+    pthread_mutex_lock(&sShared.run_lock);
+    start_workers(&sShared, clamp_threads(threads));
+    pthread_mutex_unlock(&sShared.run_lock);
+    return sShared.count + 1;
+}
+
+int yuv_workers_get_threads(const YuvWorkers *workers) {
+    return (workers == NULL ? &sShared : workers)->count + 1;
+}
+
+void yuv_workers_run(YuvWorkers *workers, YuvBandTask task, void *arg, int rows, int row_align) {
+    YuvWorkers *w = workers == NULL ? &sShared : workers;
+    int bands;
+    if (rows < MIN_BAND_ROWS * 2 || pthread_mutex_trylock(&w->run_lock) != 0) {
+        task(arg, 0, 0, rows);
+        return;
+    }
+    if (w->count == 0) {
+        pthread_mutex_unlock(&w->run_lock);
+        task(arg, 0, 0, rows);
+        return;
+    }
+    bands = w->count + 1;
+    if (bands > rows / MIN_BAND_ROWS) {
+        bands = rows / MIN_BAND_ROWS;
+    }
+    if (row_align < 1) {
+        row_align = 1;
+    }
+
+    pthread_mutex_lock(&w->lock);
+    w->task = task;
+    w->arg = arg;
+    w->rows = rows;
+    w->row_align = row_align;
+    w->bands = bands;
+    w->pending = w->count;
+    w->generation++;
+    pthread_cond_broadcast(&w->job_cond);
+    pthread_mutex_unlock(&w->lock);
+
+    task(arg, 0, 0, band_begin(1, bands, rows, row_align));
+
+    pthread_mutex_lock(&w->lock);
+    while (w->pending > 0) {
+        pthread_cond_wait(&w->done_cond, &w->lock);
+    }
+    pthread_mutex_unlock(&w->lock);
+    pthread_mutex_unlock(&w->run_lock);
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+// A small worker pool which splits a conversion into horizontal bands, the calling thread
+// always works on the first band, so a pool of n threads only starts n - 1 workers.
+
+#ifndef RGB_YUV_WORKERS_H
+#define RGB_YUV_WORKERS_H
+
+/**
+ * Convert rows [begin, end) of a frame, {@code band} is the index of the thread doing it, 0 for
+ * the calling thread, so a task could keep scratch memory for each band.
+ */
+typedef void (*YuvBandTask)(void *arg, int band, int begin, int end);
+
+#define YUV_WORKERS_MAX_THREADS 8
+
+typedef struct YuvWorkers YuvWorkers;
+
+/**
+ * Start a pool of its own, e.g. for a YuvSession, the pool shared by every conversion is used
+ * where a NULL pool is passed.
+ *
+ * @return NULL if it's out of memory
+ */
+YuvWorkers *yuv_workers_create(int threads);
+
+/**
+ * Stop the workers and free the pool, it must not be running any task.
+ */
+void yuv_workers_destroy(YuvWorkers *workers);
+
+/**
+ * Change the thread count of the shared pool, 1 disables it. It waits for the running
+ * conversion if there is one.
+ *
+ * @return the thread count actually used
+ */
+int yuv_workers_set_threads(int threads);
+
+/**
+ * @return thread count of the pool, the shared one if {@code workers} is NULL
+ */
+int yuv_workers_get_threads(const YuvWorkers *workers);
+
+/**
+ * Run the task over {@code rows} rows, every band except the last one has a multiple of
+ * {@code row_align} rows. If the pool is disabled, or busy with a conversion from another
+ * thread, the task just runs on the calling thread as band 0.
+ */
+void yuv_workers_run(YuvWorkers *workers, YuvBandTask task, void *arg, int rows, int row_align);
+
+#endif // RGB_YUV_WORKERS_H
@@ -29,6 +29,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.IdRes;
 import android.support.annotation.IntDef;
+import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 import android.support.v4.app.FragmentManager;
 import com.github.piasy.cameracompat.compat.Camera1PreviewFragment;
@@ -40,11 +41,16 @@ import com.github.piasy.cameracompat.compat.events.SwitchCameraEvent;
 import com.github.piasy.cameracompat.compat.events.SwitchFlashEvent;
 import com.github.piasy.cameracompat.compat.events.SwitchMirrorEvent;
 import com.github.piasy.cameracompat.processor.DirectChain;
+import com.github.piasy.cameracompat.processor.FrameBuffer;
+import com.github.piasy.cameracompat.processor.FrameStats;
+import com.github.piasy.cameracompat.processor.FrameTransform;
 import com.github.piasy.cameracompat.processor.GPUImageChain;
 import com.github.piasy.cameracompat.processor.Processor;
 import com.github.piasy.cameracompat.processor.ProcessorChain;
 import com.github.piasy.cameracompat.processor.RgbYuvConverter;
+import com.github.piasy.cameracompat.processor.VideoCrop;
 import com.github.piasy.cameracompat.utils.Profiler;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.greenrobot.eventbus.EventBus;
@@ -57,6 +63,10 @@ public final class CameraCompat {
     public static final String CAMERA_PREVIEW_FRAGMENT = "CameraPreviewFragment";
     public static final int ERR_PERMISSION = 1;
     public static final int ERR_UNKNOWN = 2;
+    /**
+     * max frames could be held by {@link ZeroCopyCaptureCallback} at the same time.
+     */
+    public static final int MAX_HELD_FRAMES = 2;
     private static final int DEFAULT_WIDTH = 640;
     private static final int DEFAULT_HEIGHT = 480;
     private static final int REQUEST_CODE = 1234;
@@ -83,16 +93,23 @@ public final class CameraCompat {
         mEventBus = builder.mEventBus;
         mVideoCaptureCallback = builder.mVideoCaptureCallback;
         mErrorHandler = builder.mErrorHandler;
+        RgbYuvConverter.setColorMatrix(builder.mColorMatrix);
         if (builder.mMetricListener != null) {
             mProfiler = new Profiler(builder.mMetricListener);
         } else {
             mProfiler = null;
         }
         if (builder.mProcessors.isEmpty()) {
-            mProcessorChain = new DirectChain(mIsFrontCamera, mVideoCaptureCallback);
+            mProcessorChain = new DirectChain(mIsFrontCamera, builder.mOutputFormat,
+                    builder.mAccuracy, builder.mVideoCrop, builder.mStrideAlignment,
+                    builder.mSliceHeightAlignment, builder.renditionScales(),
+                    mVideoCaptureCallback);
         } else {
             mProcessorChain = new GPUImageChain(builder.mProcessors, mIsBeautifyOn,
-                    mIsFrontCamera, mVideoCaptureCallback, mProfiler);
+                    builder.mTextureInput, mIsFrontCamera, builder.mOutputFormat,
+                    builder.mAccuracy, builder.mVideoCrop, builder.mStrideAlignment,
+                    builder.mSliceHeightAlignment, builder.renditionScales(),
+                    mVideoCaptureCallback, mProfiler);
         }
     }
 
@@ -212,10 +229,126 @@ public final class CameraCompat {
         @WorkerThread
         void onVideoSizeChanged(int width, int height);
 
+        /**
+         * @param data YUV 420 frame in the format set by {@link Builder#outputFormat(int)},
+         * padded as set by {@link Builder#outputAlignment(int, int)}
+         */
         @WorkerThread
         void onFrameData(final byte[] data, final int width, final int height);
     }
 
+    /**
+     * A {@link VideoCaptureCallback} which could take Camera2 frames without copy: when the camera
+     * outputs semi-planar YUV, and the frame needs no crop, rotation or mirror, the planes of the
+     * camera image are handed over directly, and the image is kept open until the frame is
+     * released. Other frames are still delivered by {@link #onFrameData(byte[], int, int)}, so are
+     * all frames if any rendition is added, or the callback is a {@link StatsCaptureCallback}.
+     */
+    public interface ZeroCopyCaptureCallback extends VideoCaptureCallback {
+        /**
+         * @param y read only Y plane, row n starts at {@code n * yRowStride}
+         * @param chroma read only interleaved chroma, row n starts at {@code n *
+         * chromaRowStride}
+         * @param nv21 {@code true} if Cr comes first in each chroma pair, otherwise it's NV12
+         * @param release run it once the planes are not used anymore, at most {@link
+         * CameraCompat#MAX_HELD_FRAMES} frames could be held, later frames will be copied until
+         * one of them is released
+         */
+        @WorkerThread
+        void onFrameData(ByteBuffer y, int yRowStride, ByteBuffer chroma, int chromaRowStride,
+                boolean nv21, int width, int height, Runnable release);
+    }
+
+    /**
+     * A {@link VideoCaptureCallback} which provides the buffer each frame is converted into, e.g.
+     * the input buffer or image of a MediaCodec encoder, so the frame needn't be copied again.
+     * Frames are still delivered by {@link #onFrameData(byte[], int, int)} when no buffer is
+     * provided, so are all frames if any rendition is added.
+     */
+    public interface BufferCaptureCallback extends VideoCaptureCallback {
+        /**
+         * @return the buffer to convert the next frame into, see {@link FrameBuffer#of(ByteBuffer,
+         * int, int, int, int)} and {@link FrameBuffer#of(android.media.Image)}, or {@code null}
+         * to take the frame by {@link #onFrameData(byte[], int, int)}
+         */
+        @WorkerThread
+        @Nullable
+        FrameBuffer dequeueFrameBuffer(int width, int height);
+
+        /**
+         * will be called once for each buffer provided by {@link #dequeueFrameBuffer(int, int)}.
+         *
+         * @param filled {@code false} if the frame couldn't be converted into the buffer, e.g.
+         * it's too small for the frame, then its content is undefined
+         */
+        @WorkerThread
+        void onFrameData(FrameBuffer buffer, int width, int height, boolean filled);
+    }
+
+    /**
+     * A {@link VideoCaptureCallback} which needs the layout of frames padded by {@link
+     * Builder#outputAlignment(int, int)}, e.g. to configure the encoder.
+     */
+    public interface AlignedCaptureCallback extends VideoCaptureCallback {
+        /**
+         * will be called just after {@link #onVideoSizeChanged(int, int)}.
+         *
+         * @param stride row stride of the Y plane in bytes, also of semi-planar chroma, it's
+         * halved for planar chroma
+         * @param sliceHeight rows of the Y plane, chroma planes follow it
+         */
+        @WorkerThread
+        void onVideoLayoutChanged(int width, int height, int stride, int sliceHeight);
+    }
+
+    /**
+     * A {@link VideoCaptureCallback} which also receives the downscaled renditions added by
+     * {@link Builder#addRendition(float)}, e.g. for simulcast.
+     */
+    public interface RenditionCaptureCallback extends VideoCaptureCallback {
+        /**
+         * will be called after {@link #onFrameData(byte[], int, int)} of the full size frame,
+         * once for each rendition, the data is in the same format as the full size one.
+         *
+         * @param index index of the rendition, in the order they are added
+         */
+        @WorkerThread
+        void onRenditionData(int index, final byte[] data, final int width, final int height);
+    }
+
+    /**
+     * A {@link VideoCaptureCallback} which also receives the luma statistics of every frame, e.g.
+     * for exposure hints or dark scene detection, they are collected while the frame is
+     * converted, so the frame isn't read again.
+     */
+    public interface StatsCaptureCallback extends VideoCaptureCallback {
+        /**
+         * will be called just before the frame is delivered, if it's converted successfully and
+         * its stats are collected, they aren't if the native converter session couldn't be
+         * created.
+         *
+         * @param stats stats of the frame, it's filled again by the next frame
+         */
+        @WorkerThread
+        void onFrameStats(FrameStats stats);
+    }
+
+    /**
+     * A {@link VideoCaptureCallback} which needs to know how late the beautified frames are, e.g.
+     * to timestamp them, they are read back from the GPU asynchronously on GLES 3 devices.
+     */
+    public interface LatencyCaptureCallback extends VideoCaptureCallback {
+        /**
+         * will be called on the GL thread when the beautify filters are initialized, or switched
+         * off.
+         *
+         * @param frames camera frames between the capture of a beautified frame and its {@link
+         * #onFrameData(byte[], int, int)}, 0 if it's read back synchronously, or beautify is off
+         */
+        @WorkerThread
+        void onFrameLatencyChanged(int frames);
+    }
+
     public interface ErrorHandler {
         @WorkerThread
         void onError(@ErrorCode int code);
@@ -229,12 +362,20 @@ public final class CameraCompat {
         private final VideoCaptureCallback mVideoCaptureCallback;
         private final ErrorHandler mErrorHandler;
         private final List<Processor> mProcessors;
+        private final List<Float> mRenditionScales;
         private int mPreviewWidth = DEFAULT_WIDTH;
         private int mPreviewHeight = DEFAULT_HEIGHT;
         private boolean mIsFrontCamera;
         private boolean mIsFlashOpen;
         private boolean mIsBeautifyOn;
         private boolean mIsMirrorEnabled;
+        private boolean mTextureInput;
+        private int mColorMatrix = RgbYuvConverter.COLOR_MATRIX_LEGACY;
+        private int mOutputFormat = FrameTransform.FORMAT_NV21;
+        private int mAccuracy = FrameTransform.ACCURACY_DEFAULT;
+        private VideoCrop mVideoCrop = VideoCrop.DEFAULT;
+        private int mStrideAlignment = 1;
+        private int mSliceHeightAlignment = 1;
         private EventBus mEventBus;
         private Profiler.MetricListener mMetricListener;
 
@@ -242,6 +383,7 @@ public final class CameraCompat {
             mVideoCaptureCallback = videoCaptureCallback;
             mErrorHandler = errorHandler;
             mProcessors = new ArrayList<>();
+            mRenditionScales = new ArrayList<>();
         }
 
         /**
@@ -281,6 +423,104 @@ public final class CameraCompat {
             return this;
         }
 
+        /**
+         * @param textureInput sample the preview of processors straight from the camera
+         * SurfaceTexture as an external OES texture, off by default, the YUV planes of every
+         * frame are uploaded and converted to RGB on the GPU then
+         */
+        public Builder textureInput(boolean textureInput) {
+            mTextureInput = textureInput;
+            return this;
+        }
+
+        /**
+         * @param colorMatrix colour matrix of the conversion between YUV and RGBA, the legacy one
+         * by default
+         */
+        public Builder colorMatrix(@RgbYuvConverter.ColorMatrix int colorMatrix) {
+            mColorMatrix = colorMatrix;
+            return this;
+        }
+
+        /**
+         * @param outputFormat YUV layout of {@link VideoCaptureCallback#onFrameData(byte[], int,
+         * int)}, NV21 by default, RGBA is not supported
+         */
+        public Builder outputFormat(@FrameTransform.OutputFormat int outputFormat) {
+            if (outputFormat == FrameTransform.FORMAT_RGBA) {
+                throw new IllegalArgumentException("RGBA output is not supported");
+            }
+            mOutputFormat = outputFormat;
+            return this;
+        }
+
+        /**
+         * @param accuracy of the colour conversion of {@link
+         * VideoCaptureCallback#onFrameData(byte[], int, int)}, the default one of the colour
+         * matrix by default, fast suits streaming, exact or reference suits image analysis
+         */
+        public Builder accuracy(@FrameTransform.Accuracy int accuracy) {
+            mAccuracy = accuracy;
+            return this;
+        }
+
+        /**
+         * crop the center of the video to the aspect ratio, e.g. 1:1, 9:16 or 4:5, it follows
+         * the orientation of the frames, the aspect ratio of the preview by default.
+         */
+        public Builder videoAspectRatio(int width, int height) {
+            mVideoCrop = VideoCrop.aspectRatio(width, height);
+            return this;
+        }
+
+        /**
+         * crop the region of interest out of the video, in the coordinates of the whole frames
+         * sent to {@link VideoCaptureCallback#onFrameData(byte[], int, int)}.
+         */
+        public Builder regionOfInterest(int x, int y, int width, int height) {
+            mVideoCrop = VideoCrop.region(x, y, width, height);
+            return this;
+        }
+
+        /**
+         * pad the frames of {@link VideoCaptureCallback#onFrameData(byte[], int, int)} for
+         * encoders which need aligned stride and slice height, the layout is reported to {@link
+         * AlignedCaptureCallback}, frames are not padded by default, nor if any rendition is
+         * added.
+         *
+         * @param strideAlignment alignment of the row stride in bytes, a power of 2
+         * @param sliceHeightAlignment alignment of the rows of the Y plane, a power of 2
+         */
+        public Builder outputAlignment(int strideAlignment, int sliceHeightAlignment) {
+            if (Integer.bitCount(strideAlignment) != 1
+                || Integer.bitCount(sliceHeightAlignment) != 1) {
+                throw new IllegalArgumentException(
+                        "Bad alignment: " + strideAlignment + ", " + sliceHeightAlignment);
+            }
+            mStrideAlignment = strideAlignment;
+            mSliceHeightAlignment = sliceHeightAlignment;
+            return this;
+        }
+
+        /**
+         * add a downscaled rendition of the video, which is delivered to {@link
+         * RenditionCaptureCallback#onRenditionData(int, byte[], int, int)}.
+         *
+         * @param scale size of the rendition relative to the video, e.g. 0.5 for half size, 0.5
+         * and 0.25 are the fastest ones
+         */
+        public Builder addRendition(float scale) {
+            if (scale <= 0 || scale > 1) {
+                throw new IllegalArgumentException("Bad rendition scale: " + scale);
+            }
+            if (mRenditionScales.size() == RgbYuvConverter.MAX_RENDITIONS) {
+                throw new IllegalArgumentException(
+                        "At most " + RgbYuvConverter.MAX_RENDITIONS + " renditions");
+            }
+            mRenditionScales.add(scale);
+            return this;
+        }
+
         public Builder eventBus(EventBus eventBus) {
             mEventBus = eventBus;
             return this;
@@ -296,6 +536,14 @@ public final class CameraCompat {
             return this;
         }
 
+        float[] renditionScales() {
+            float[] scales = new float[mRenditionScales.size()];
+            for (int i = 0; i < scales.length; i++) {
+                scales[i] = mRenditionScales.get(i);
+            }
+            return scales;
+        }
+
         public CameraCompat build() {
             if (mEventBus == null) {
                 mEventBus = EventBus.builder().build();
@@ -112,8 +112,9 @@ class Camera2Helper extends CameraHelper {
             mBackgroundThread.start();
             mCamera2Handler = new Handler(mBackgroundThread.getLooper());
             PreviewSize size = findOptSize(mPreviewWidth, mPreviewHeight);
+            // acquireLatestImage needs two, the rest could be held by zero copy consumers
             mImageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
-                    ImageFormat.YUV_420_888, 2);
+                    ImageFormat.YUV_420_888, 2 + CameraCompat.MAX_HELD_FRAMES);
             mImageReader.setOnImageAvailableListener(mPreviewCallback, mCamera2Handler);
             mCameraManager.openCamera(getCurrentCameraId(), mCameraCallback, mCamera2Handler);
         } catch (SecurityException | CameraAccessException | IllegalStateException |
@@ -27,8 +27,6 @@ package com.github.piasy.cameracompat.compat;
 import android.view.Surface;
 import com.github.piasy.cameracompat.CameraCompat;
 import com.github.piasy.cameracompat.compat.events.CameraAccessError;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import jp.co.cyberagent.android.gpuimage.Rotation;
 
@@ -124,28 +122,7 @@ abstract class CameraHelper {
     }
 
     protected PreviewSize findOptSize(int desiredWidth, int desiredHeight) {
-        List<PreviewSize> supportedSize = getSupportedSize();
-        List<PreviewSize> qualifiedSize = new ArrayList<>();
-        for (int i = 0, size = supportedSize.size(); i < size; i++) {
-            PreviewSize option = supportedSize.get(i);
-            if (desiredWidth > desiredHeight) {
-                if (option.getWidth() >= desiredWidth && option.getHeight() >= desiredHeight) {
-                    qualifiedSize.add(option);
-                }
-            } else {
-                if (option.getWidth() >= desiredHeight && option.getHeight() >= desiredWidth) {
-                    qualifiedSize.add(option);
-                }
-            }
-        }
-        if (qualifiedSize.size() > 0) {
-            return Collections.min(qualifiedSize, (lhs, rhs) -> {
-                int delta = lhs.getWidth() * lhs.getHeight() - rhs.getWidth() * rhs.getHeight();
-                return Integer.signum(delta);
-            });
-        } else {
-            return new PreviewSize(desiredWidth, desiredHeight);
-        }
+        return PreviewSize.findOptSize(getSupportedSize(), desiredWidth, desiredHeight);
     }
 
     protected abstract boolean startPreview();
@@ -24,6 +24,10 @@
 
 package com.github.piasy.cameracompat.compat;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Created by Piasy{github.com/Piasy} on 30/11/2016.
  */
@@ -44,4 +48,33 @@ public class PreviewSize {
     public int getHeight() {
         return mHeight;
     }
+
+    /**
+     * the smallest supported size which could cover the desired size, in either orientation, or
+     * the desired size itself if none could.
+     */
+    public static PreviewSize findOptSize(List<PreviewSize> supportedSize, int desiredWidth,
+            int desiredHeight) {
+        List<PreviewSize> qualifiedSize = new ArrayList<>();
+        for (int i = 0, size = supportedSize.size(); i < size; i++) {
+            PreviewSize option = supportedSize.get(i);
+            if (desiredWidth > desiredHeight) {
+                if (option.getWidth() >= desiredWidth && option.getHeight() >= desiredHeight) {
+                    qualifiedSize.add(option);
+                }
+            } else {
+                if (option.getWidth() >= desiredHeight && option.getHeight() >= desiredWidth) {
+                    qualifiedSize.add(option);
+                }
+            }
+        }
+        if (qualifiedSize.size() > 0) {
+            return Collections.min(qualifiedSize, (lhs, rhs) -> {
+                int delta = lhs.getWidth() * lhs.getHeight() - rhs.getWidth() * rhs.getHeight();
+                return Integer.signum(delta);
+            });
+        } else {
+            return new PreviewSize(desiredWidth, desiredHeight);
+        }
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.gpuimage;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import java.nio.FloatBuffer;
+import jp.co.cyberagent.android.gpuimage.GPUImageFilter;
+import jp.co.cyberagent.android.gpuimage.OpenGlUtils;
+
+/**
+ * Samples the camera {@link android.graphics.SurfaceTexture} as a GL_TEXTURE_EXTERNAL_OES
+ * texture with its transform matrix, so the preview needn't be converted and uploaded by the CPU.
+ * The frame is sampled upside down, like a texture uploaded from the camera rows, so it could
+ * replace such a texture with the same texture coordinates.
+ */
+public class ExternalTextureFilter extends GPUImageFilter {
+    private static final String VERTEX_SHADER = ""
+            + "attribute vec4 position;\n"
+            + "attribute vec4 inputTextureCoordinate;\n"
+            + "uniform mat4 textureTransform;\n"
+            + "varying vec2 textureCoordinate;\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    gl_Position = position;\n"
+            + "    textureCoordinate = (textureTransform * inputTextureCoordinate).xy;\n"
+            + "}";
+    private static final String FRAGMENT_SHADER = ""
+            + "#extension GL_OES_EGL_image_external : require\n"
+            + "varying highp vec2 textureCoordinate;\n"
+            + "uniform samplerExternalOES inputImageTexture;\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    gl_FragColor = texture2D(inputImageTexture, textureCoordinate);\n"
+            + "}";
+
+    // t -> 1 - t, applied before the transform of the SurfaceTexture
+    private static final float[] FLIP_VERTICAL = {
+            1, 0, 0, 0, 0, -1, 0, 0, 0, 0, 1, 0, 0, 1, 0, 1,
+    };
+
+    private final float[] mTextureTransform = new float[16];
+    private int mTextureTransformLocation;
+    private int mTextureId = OpenGlUtils.NO_TEXTURE;
+
+    public ExternalTextureFilter() {
+        super(VERTEX_SHADER, FRAGMENT_SHADER);
+        Matrix.setIdentityM(mTextureTransform, 0);
+    }
+
+    /**
+     * create a texture for a SurfaceTexture, it must be called on the GL thread.
+     */
+    public static int createTexture() {
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textures[0]);
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+        return textures[0];
+    }
+
+    @Override
+    public void onInit() {
+        super.onInit();
+        mTextureTransformLocation = GLES20.glGetUniformLocation(getProgram(), "textureTransform");
+    }
+
+    /**
+     * @param transform transform matrix of the latest frame, from
+     * {@link android.graphics.SurfaceTexture#getTransformMatrix(float[])}
+     */
+    public void setTextureTransform(float[] transform) {
+        Matrix.multiplyMM(mTextureTransform, 0, transform, 0, FLIP_VERTICAL, 0);
+    }
+
+    /**
+     * the external texture can't be bound to GL_TEXTURE_2D, so it's bound by
+     * {@link #onDrawArraysPre()} instead of the super class.
+     */
+    @Override
+    public void onDraw(int textureId, FloatBuffer cubeBuffer, FloatBuffer textureBuffer) {
+        mTextureId = textureId;
+        super.onDraw(OpenGlUtils.NO_TEXTURE, cubeBuffer, textureBuffer);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+    }
+
+    @Override
+    protected void onDrawArraysPre() {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        GLES20.glUniform1i(getUniformTexture(), 0);
+        GLES20.glUniformMatrix4fv(mTextureTransformLocation, 1, false, mTextureTransform, 0);
+    }
+}
@@ -26,6 +26,7 @@ package com.github.piasy.cameracompat.gpuimage;
 
 import android.annotation.SuppressLint;
 import android.opengl.GLES20;
+import android.support.annotation.Nullable;
 import com.github.piasy.cameracompat.utils.GLUtil;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -42,15 +43,31 @@ import static jp.co.cyberagent.android.gpuimage.util.TextureRotationUtil.TEXTURE
  * Created by Piasy{github.com/Piasy} on 5/31/16.
  */
 public class GLFilterGroup extends GPUImageFilter {
+    private static final int NO_FRAME_BUFFER = -1;
 
     protected List<GPUImageFilter> mFilters;
     protected List<GPUImageFilter> mMergedFilters;
     private final FloatBuffer mGLCubeBuffer;
     private final FloatBuffer mGLTextureBuffer;
     private final FloatBuffer mGLTextureFlipBuffer;
+    private final YuvPackFilter mYuvPackFilter = new YuvPackFilter();
+    private GPUImageFilter mInputFilter;
     private int[] mFrameBuffers;
     private int[] mFrameBufferTextures;
+    // frame buffer of every output drawn off screen, the input filter's first if it's set
+    private int[] mOutputFrameBuffers;
     private ImageDumpedListener mImageDumpedListener;
+    private YuvDumpedListener mYuvDumpedListener;
+    private int mPackFrameBuffer = NO_FRAME_BUFFER;
+    private int mPackFrameBufferTexture;
+    private int mPackWidth;
+    private int mPackHeight;
+    // reads the dumped image asynchronously on GLES 3, it's sent one frame later
+    private PixelPackReader mPixelPackReader;
+    // the yuv buffer of the pending image, or null if it's RGBA
+    private ByteBuffer mPendingYuv;
+    private int mPendingWidth;
+    private int mPendingHeight;
     private volatile int mImageWidth;
     private volatile int mImageHeight;
     private ByteBuffer mRgbaBuf;
@@ -89,6 +106,24 @@ public class GLFilterGroup extends GPUImageFilter {
         mImageDumpedListener = imageDumpedListener;
     }
 
+    /**
+     * pack the dumped image to YUV on the GPU when the listener sets it up, it's dumped as RGBA
+     * otherwise.
+     */
+    public void setYuvDumpedListener(YuvDumpedListener yuvDumpedListener) {
+        mYuvDumpedListener = yuvDumpedListener;
+    }
+
+    /**
+     * draw the input texture with this filter first, e.g. {@link ExternalTextureFilter} for a
+     * texture which the filters can't sample. It's drawn into a frame buffer with the texture
+     * coordinates of the first filter, which then reads a plain texture. The group inits and
+     * destroys it with its own filters, it must be set before {@link #init()}.
+     */
+    public void setInputFilter(GPUImageFilter inputFilter) {
+        mInputFilter = inputFilter;
+    }
+
     /*
      * (non-Javadoc)
      * @see jp.co.cyberagent.android.gpuimage.GPUImageFilter#onInit()
@@ -96,9 +131,18 @@ public class GLFilterGroup extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
+        if (mInputFilter != null) {
+            mInputFilter.init();
+        }
         for (GPUImageFilter filter : mFilters) {
             filter.init();
         }
+        mYuvPackFilter.init();
+        mPixelPackReader = PixelPackReader.create();
+        if (mImageDumpedListener != null) {
+            mImageDumpedListener.dumpLatencyChanged(
+                    mPixelPackReader != null ? PixelPackReader.LATENCY : 0);
+        }
     }
 
     /*
@@ -108,9 +152,22 @@ public class GLFilterGroup extends GPUImageFilter {
     @Override
     public void onDestroy() {
         destroyFrameBuffers();
+        dropPendingImage();
+        if (mPixelPackReader != null) {
+            mPixelPackReader.release();
+            mPixelPackReader = null;
+            if (mImageDumpedListener != null) {
+                // images are sent as they're drawn if the group is switched off
+                mImageDumpedListener.dumpLatencyChanged(0);
+            }
+        }
+        mYuvPackFilter.destroy();
         for (GPUImageFilter filter : mFilters) {
             filter.destroy();
         }
+        if (mInputFilter != null) {
+            mInputFilter.destroy();
+        }
         super.onDestroy();
     }
 
@@ -134,11 +191,11 @@ public class GLFilterGroup extends GPUImageFilter {
         mFilters.get(size - 1).onOutputSizeChanged(width, height);
 
         if (mMergedFilters.size() > 0) {
-            size = mMergedFilters.size();
-            mFrameBuffers = new int[size - 1];
-            mFrameBufferTextures = new int[size - 1];
+            size = allocateOutputs();
+            mFrameBuffers = new int[size];
+            mFrameBufferTextures = new int[size];
 
-            for (int i = 0; i < size - 1; i++) {
+            for (int i = 0; i < size; i++) {
                 GLES20.glGenFramebuffers(1, mFrameBuffers, i);
                 GLES20.glGenTextures(1, mFrameBufferTextures, i);
                 GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFrameBufferTextures[i]);
@@ -163,6 +220,64 @@ public class GLFilterGroup extends GPUImageFilter {
         }
     }
 
+    /**
+     * assign frame buffers to the outputs, they take turns in two of them, except those sampled
+     * again by a later {@link EarlierOutputFilter}, which keep their own ones.
+     *
+     * @return count of frame buffers needed
+     */
+    private int allocateOutputs() {
+        int outputs = mMergedFilters.size() - 1 + outputOffset();
+        boolean[] retained = new boolean[outputs];
+        int shared = outputs;
+        for (int i = 0; i < mMergedFilters.size(); i++) {
+            int earlier = earlierOutput(i);
+            if (earlier >= 0 && earlier < i - 1 + outputOffset() && !retained[earlier]) {
+                retained[earlier] = true;
+                shared--;
+            }
+        }
+        int size = Math.min(shared, 2);
+        mOutputFrameBuffers = new int[outputs];
+        for (int i = 0, next = 0; i < outputs; i++) {
+            if (retained[i]) {
+                mOutputFrameBuffers[i] = size++;
+            } else {
+                mOutputFrameBuffers[i] = next;
+                next = (next + 1) % 2;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * the input filter draws the first output if it's set.
+     */
+    private int outputOffset() {
+        return mInputFilter != null ? 1 : 0;
+    }
+
+    /**
+     * @return index of the output sampled by the merged filter at {@code index} besides its
+     * input, -1 for the input texture of the group, or -2 if it's not an {@link
+     * EarlierOutputFilter}
+     */
+    private int earlierOutput(int index) {
+        GPUImageFilter filter = mMergedFilters.get(index);
+        if (!(filter instanceof EarlierOutputFilter)) {
+            return -2;
+        }
+        int input = index - 1 + outputOffset();
+        int earlier = input - Math.max(((EarlierOutputFilter) filter).getEarlierOutputDistance(),
+                0);
+        // the input texture may only be sampled by the input filter
+        return Math.max(earlier, outputOffset() - 1);
+    }
+
+    private int outputTexture(int output) {
+        return mFrameBufferTextures[mOutputFrameBuffers[output]];
+    }
+
     /*
      * (non-Javadoc)
      * @see jp.co.cyberagent.android.gpuimage.GPUImageFilter#onDraw(int,
@@ -180,11 +295,28 @@ public class GLFilterGroup extends GPUImageFilter {
         int previousTexture = textureId;
         int currentOutputWidth = mOutputWidth;
         int currentOutputHeight = mOutputHeight;
+        int offset = outputOffset();
+        if (mInputFilter != null) {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffers[mOutputFrameBuffers[0]]);
+            GLES20.glClearColor(0, 0, 0, 0);
+            GLES20.glViewport(0, 0, mImageHeight, mImageWidth);
+            mInputFilter.onDraw(textureId, cubeBuffer, textureBuffer);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            previousTexture = outputTexture(0);
+        }
+        // every pass into a frame buffer flips the image, the last one flips it back if needed
+        int passes = mInputFilter != null ? size + 1 : size;
         for (int i = 0; i < size; i++) {
             GPUImageFilter filter = mMergedFilters.get(i);
             boolean isLast = i == size - 1;
+            int earlier = earlierOutput(i);
+            if (earlier != -2) {
+                ((EarlierOutputFilter) filter).setEarlierOutputTexture(
+                        earlier == -1 ? textureId : outputTexture(earlier));
+            }
             if (!isLast) {
-                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffers[i]);
+                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER,
+                        mFrameBuffers[mOutputFrameBuffers[i + offset]]);
                 GLES20.glClearColor(0, 0, 0, 0);
 
                 mOutputWidth = mImageHeight;
@@ -197,22 +329,22 @@ public class GLFilterGroup extends GPUImageFilter {
                 GLES20.glViewport(-7, -7, mOutputWidth + 14, mOutputHeight + 14);
             }
 
-            if (i == 0) {
+            if (i == 0 && mInputFilter == null) {
                 filter.onDraw(previousTexture, cubeBuffer, textureBuffer);
             } else if (isLast) {
                 filter.onDraw(previousTexture, mGLCubeBuffer,
-                        (size % 2 == 0) ? mGLTextureFlipBuffer : mGLTextureBuffer);
+                        (passes % 2 == 0) ? mGLTextureFlipBuffer : mGLTextureBuffer);
             } else {
                 filter.onDraw(previousTexture, mGLCubeBuffer, mGLTextureBuffer);
             }
             if (i == size - 2 && mOutputWidth * mOutputHeight != 0) {
                 // just before last filter, read data from GPU
-                dumpImage(mOutputWidth, mOutputHeight);
+                dumpImage(outputTexture(i + offset), mOutputWidth, mOutputHeight);
             }
 
             if (!isLast) {
                 GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-                previousTexture = mFrameBufferTextures[i];
+                previousTexture = outputTexture(i + offset);
             }
         }
     }
@@ -226,6 +358,18 @@ public class GLFilterGroup extends GPUImageFilter {
             GLES20.glDeleteFramebuffers(mFrameBuffers.length, mFrameBuffers, 0);
             mFrameBuffers = null;
         }
+        mOutputFrameBuffers = null;
+        destroyPackFrameBuffer();
+        // the pending image is read at the old size, and its pack buffer may be reallocated
+        dropPendingImage();
+    }
+
+    private void destroyPackFrameBuffer() {
+        if (mPackFrameBuffer != NO_FRAME_BUFFER) {
+            GLES20.glDeleteTextures(1, new int[] { mPackFrameBufferTexture }, 0);
+            GLES20.glDeleteFramebuffers(1, new int[] { mPackFrameBuffer }, 0);
+            mPackFrameBuffer = NO_FRAME_BUFFER;
+        }
     }
 
     public void onImageSizeChanged(int imageWidth, int imageHeight) {
@@ -235,16 +379,113 @@ public class GLFilterGroup extends GPUImageFilter {
         onOutputSizeChanged(mOutputWidth, mOutputHeight);
     }
 
-    private void dumpImage(int width, int height) {
+    private void dumpImage(int texture, int width, int height) {
+        if (mPixelPackReader != null) {
+            // the previous image is sent before this one is set up, which may reuse its buffer
+            sendPendingImage();
+        }
+        ByteBuffer yuv = mYuvDumpedListener == null
+                         ? null : mYuvDumpedListener.setUpPack(mYuvPackFilter, width, height);
+        if (yuv != null) {
+            packImage(texture, width, height, yuv);
+            return;
+        }
         if (mImageDumpedListener == null) {
             return;
         }
+        if (mPixelPackReader != null) {
+            mPixelPackReader.read(width, height);
+            setPendingImage(null, width, height);
+            return;
+        }
         mRgbaBuf.position(0);
         GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mRgbaBuf);
         GLUtil.dumpGlError("glReadPixels");
         mImageDumpedListener.imageDumped(mRgbaBuf, width, height);
     }
 
+    private void setPendingImage(ByteBuffer yuv, int width, int height) {
+        mPendingYuv = yuv;
+        mPendingWidth = width;
+        mPendingHeight = height;
+    }
+
+    private void dropPendingImage() {
+        if (mPixelPackReader != null) {
+            mPixelPackReader.drop();
+        }
+        setPendingImage(null, 0, 0);
+    }
+
+    /**
+     * send the image read by {@link #mPixelPackReader} at the previous frame, straight from the
+     * mapped pack buffer if it's RGBA.
+     */
+    private void sendPendingImage() {
+        ByteBuffer pixels = mPixelPackReader.mapPrevious();
+        if (pixels == null) {
+            return;
+        }
+        if (mPendingYuv != null) {
+            mPendingYuv.clear();
+            mPendingYuv.put(pixels);
+            mPendingYuv.position(0);
+            mYuvDumpedListener.yuvDumped(mPendingYuv, mPendingWidth, mPendingHeight);
+        } else {
+            mImageDumpedListener.imageDumped(pixels, mPendingWidth, mPendingHeight);
+        }
+        mPixelPackReader.unmap();
+        setPendingImage(null, 0, 0);
+    }
+
+    /**
+     * draw the image into the pack frame buffer with {@link #mYuvPackFilter}, and read the frame
+     * back, it's 1.5 bytes per pixel, instead of 4 bytes of the RGBA image.
+     */
+    private void packImage(int texture, int width, int height, ByteBuffer yuv) {
+        int packWidth = mYuvPackFilter.getTargetWidth();
+        int packHeight = mYuvPackFilter.getTargetHeight();
+        if (mPackFrameBuffer == NO_FRAME_BUFFER || mPackWidth != packWidth
+            || mPackHeight != packHeight) {
+            destroyPackFrameBuffer();
+            int[] frameBuffer = new int[1];
+            int[] frameBufferTexture = new int[1];
+            GLES20.glGenFramebuffers(1, frameBuffer, 0);
+            GLES20.glGenTextures(1, frameBufferTexture, 0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, frameBufferTexture[0]);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, packWidth, packHeight, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                    GLES20.GL_NEAREST);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                    GLES20.GL_NEAREST);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[0]);
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, frameBufferTexture[0], 0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+            mPackFrameBuffer = frameBuffer[0];
+            mPackFrameBufferTexture = frameBufferTexture[0];
+            mPackWidth = packWidth;
+            mPackHeight = packHeight;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mPackFrameBuffer);
+        GLES20.glViewport(0, 0, packWidth, packHeight);
+        mYuvPackFilter.setInputSize(width, height);
+        mYuvPackFilter.onDraw(texture, mGLCubeBuffer, mGLTextureBuffer);
+        if (mPixelPackReader != null) {
+            mPixelPackReader.read(packWidth, packHeight);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            setPendingImage(yuv, mYuvPackFilter.getWidth(), mYuvPackFilter.getHeight());
+            return;
+        }
+        yuv.position(0);
+        GLES20.glReadPixels(0, 0, packWidth, packHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                yuv);
+        GLUtil.dumpGlError("glReadPixels");
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        mYuvDumpedListener.yuvDumped(yuv, mYuvPackFilter.getWidth(), mYuvPackFilter.getHeight());
+    }
+
     public List<GPUImageFilter> getFilters() {
         return mFilters;
     }
@@ -278,6 +519,57 @@ public class GLFilterGroup extends GPUImageFilter {
     }
 
     public interface ImageDumpedListener {
+        /**
+         * @param rgba pixels of the image, it's only valid during this call
+         */
         void imageDumped(ByteBuffer rgba, int width, int height);
+
+        /**
+         * will be called on the GL thread when the group is initialized.
+         *
+         * @param frames frames between the drawing of an image and its dump, it's 1 when the
+         * image is read back asynchronously on GLES 3, 0 otherwise
+         */
+        void dumpLatencyChanged(int frames);
+    }
+
+    /**
+     * A filter which samples an earlier output of the group besides its input, e.g. to blend the
+     * beautified image with the original one. Only such outputs keep their own frame buffers,
+     * the others share two of them.
+     */
+    public interface EarlierOutputFilter {
+        /**
+         * it's read when the frame buffers are allocated, it must not change after the filter
+         * is added.
+         *
+         * @return passes between the earlier output and the input of this filter, e.g. 1 for the
+         * input of the previous filter, it's clamped to the input of the group
+         */
+        int getEarlierOutputDistance();
+
+        /**
+         * will be called on the GL thread before every draw of this filter.
+         */
+        void setEarlierOutputTexture(int texture);
+    }
+
+    public interface YuvDumpedListener {
+        /**
+         * set up the layout of the image of this size with
+         * {@link YuvPackFilter#setLayout(int, int, int, int, int, int, int, int, boolean)}, it's
+         * called on the GL thread before every dump.
+         *
+         * @return the direct buffer to read the packed frame into, or null to dump the image as
+         * RGBA
+         */
+        @Nullable
+        ByteBuffer setUpPack(YuvPackFilter filter, int width, int height);
+
+        /**
+         * @param yuv the buffer returned by {@link #setUpPack(YuvPackFilter, int, int)}, filled
+         * with the frame
+         */
+        void yuvDumped(ByteBuffer yuv, int width, int height);
     }
 }
@@ -27,9 +27,9 @@ package com.github.piasy.cameracompat.gpuimage;
 import android.graphics.SurfaceTexture;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
+import android.support.annotation.IntDef;
 import com.github.piasy.cameracompat.CameraCompat;
 import com.github.piasy.cameracompat.compat.CameraFrameCallback;
-import com.github.piasy.cameracompat.utils.GLUtil;
 import com.github.piasy.cameracompat.utils.Profiler;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -51,8 +51,21 @@ import static jp.co.cyberagent.android.gpuimage.util.TextureRotationUtil.TEXTURE
  *
  * {@link GLSurfaceView.Renderer} implementation, work both for Camera
  * and Camera2 framework.
+ *
+ * With {@link #INPUT_TEXTURE}, the preview is sampled from the {@link SurfaceTexture} the camera
+ * renders into, the frames passed to {@link #scheduleDrawFrame(int, int, Runnable)} only pace the
+ * drawing then. With {@link #INPUT_YUV}, YUV planes are uploaded and converted to RGB on the GPU.
  */
 public class GLRender implements GLSurfaceView.Renderer {
+    /**
+     * YUV 420 frames, see {@link YuvTextureFilter}.
+     */
+    public static final int INPUT_YUV = 0;
+    /**
+     * the SurfaceTexture, see {@link ExternalTextureFilter}.
+     */
+    public static final int INPUT_TEXTURE = 1;
+
     static final float CUBE[] = {
             -1.0f, -1.0f, 1.0f, -1.0f, -1.0f, 1.0f, 1.0f, 1.0f,
     };
@@ -64,13 +77,18 @@ public class GLRender implements GLSurfaceView.Renderer {
     private final GLFilterGroup mDesiredFilter;
     private final GLFilterGroup mIdleFilterGroup;
     private final VideoSizeChangedListener mVideoSizeChangedListener;
+    // null unless the preview is sampled from the SurfaceTexture
+    private final ExternalTextureFilter mExternalTextureFilter;
+    // null unless YUV frames are uploaded
+    private final YuvTextureFilter mYuvTextureFilter;
+    private final float[] mSurfaceTextureTransform = new float[16];
 
     // profiling field
     private final Profiler mProfiler;
 
     private GLFilterGroup mFilter;
-    private int mGLTextureId = NO_IMAGE;
     private SurfaceTexture mSurfaceTexture = null;
+    private int mSurfaceTextureId = NO_IMAGE;
 
     /**
      * After surface created/changed, {@link #mOutputWidth} and {@link #mOutputHeight} will be
@@ -108,12 +126,22 @@ public class GLRender implements GLSurfaceView.Renderer {
     private boolean mIsPaused = false;
     private boolean mIsDrawing = true;
 
-    public GLRender(final GLFilterGroup filter, boolean enableFilter,
+    /**
+     * @param input how the preview frames are fed
+     */
+    public GLRender(final GLFilterGroup filter, boolean enableFilter, @Input int input,
             VideoSizeChangedListener videoSizeChangedListener, Profiler profiler) {
         mVideoSizeChangedListener = videoSizeChangedListener;
         mProfiler = profiler;
         mIdleFilterGroup = new GLFilterGroup(Collections.singletonList(new GPUImageFilter()));
         mDesiredFilter = filter;
+        // only one group is initialized at a time, they share the input filter
+        mExternalTextureFilter = input == INPUT_TEXTURE ? new ExternalTextureFilter() : null;
+        mYuvTextureFilter = input == INPUT_YUV ? new YuvTextureFilter() : null;
+        GPUImageFilter inputFilter = mExternalTextureFilter != null ? mExternalTextureFilter
+                                                                    : mYuvTextureFilter;
+        mIdleFilterGroup.setInputFilter(inputFilter);
+        mDesiredFilter.setInputFilter(inputFilter);
         mEnableFilter = enableFilter;
         mFilter = enableFilter ? mDesiredFilter : mIdleFilterGroup;
         mRunOnDraw = new LinkedList<>();
@@ -155,7 +183,20 @@ public class GLRender implements GLSurfaceView.Renderer {
             if (!isResumed()) {
                 return;
             }
-            mFilter.onDraw(mGLTextureId, mGLCubeBuffer, mGLTextureBuffer);
+            if (mExternalTextureFilter != null) {
+                if (mSurfaceTexture == null) {
+                    return;
+                }
+                // latch the latest camera frame, and draw it right away
+                mSurfaceTexture.updateTexImage();
+                mSurfaceTexture.getTransformMatrix(mSurfaceTextureTransform);
+                mExternalTextureFilter.setTextureTransform(mSurfaceTextureTransform);
+                mFilter.onDraw(mSurfaceTextureId, mGLCubeBuffer, mGLTextureBuffer);
+                runAll(mRunOnDrawEnd);
+                return;
+            }
+            // the input filter samples its own textures
+            mFilter.onDraw(NO_IMAGE, mGLCubeBuffer, mGLTextureBuffer);
             runAll(mRunOnDrawEnd);
             if (mSurfaceTexture != null) {
                 mSurfaceTexture.updateTexImage();
@@ -172,7 +213,41 @@ public class GLRender implements GLSurfaceView.Renderer {
         }
     }
 
-    public void scheduleDrawFrame(ByteBuffer frame, int width, int height,
+    /**
+     * pace the drawing with {@link #INPUT_TEXTURE}, nothing is uploaded.
+     */
+    public void scheduleDrawFrame(int width, int height, Runnable postProcessedTask) {
+        scheduleDrawFrame(width, height, () -> {
+            // the camera renders into the SurfaceTexture
+        }, postProcessedTask);
+    }
+
+    /**
+     * upload a semi-planar frame with {@link #INPUT_YUV}, see
+     * {@link YuvTextureFilter#uploadSemiPlanar(ByteBuffer, int, ByteBuffer, int, boolean, int,
+     * int)}.
+     */
+    public void scheduleDrawFrame(ByteBuffer y, int yRowStride, ByteBuffer chroma,
+            int chromaRowStride, boolean nv21, int width, int height,
+            Runnable postProcessedTask) {
+        scheduleDrawFrame(width, height,
+                () -> mYuvTextureFilter.uploadSemiPlanar(y, yRowStride, chroma, chromaRowStride,
+                        nv21, width, height), postProcessedTask);
+    }
+
+    /**
+     * upload a planar frame with {@link #INPUT_YUV}, see
+     * {@link YuvTextureFilter#uploadPlanar(ByteBuffer, int, ByteBuffer, ByteBuffer, int, int,
+     * int)}.
+     */
+    public void scheduleDrawFrame(ByteBuffer y, int yRowStride, ByteBuffer cb, ByteBuffer cr,
+            int chromaRowStride, int width, int height, Runnable postProcessedTask) {
+        scheduleDrawFrame(width, height,
+                () -> mYuvTextureFilter.uploadPlanar(y, yRowStride, cb, cr, chromaRowStride,
+                        width, height), postProcessedTask);
+    }
+
+    private void scheduleDrawFrame(int width, int height, Runnable upload,
             Runnable postProcessedTask) {
         runOnDraw(() -> {
             if (isPaused()) {
@@ -190,7 +265,7 @@ public class GLRender implements GLSurfaceView.Renderer {
                 adjustImageScaling();
             }
 
-            mGLTextureId = GLUtil.loadTexture(frame, width, height, mGLTextureId);
+            upload.run();
             postProcessedTask.run();
 
             if (!isPaused()) {
@@ -263,9 +338,14 @@ public class GLRender implements GLSurfaceView.Renderer {
 
     public void setUpSurfaceTexture(final SurfaceInitCallback callback) {
         runOnDraw(() -> {
-            int[] textures = new int[1];
-            GLES20.glGenTextures(1, textures, 0);
-            mSurfaceTexture = new SurfaceTexture(textures[0]);
+            if (mExternalTextureFilter != null) {
+                mSurfaceTextureId = ExternalTextureFilter.createTexture();
+            } else {
+                int[] textures = new int[1];
+                GLES20.glGenTextures(1, textures, 0);
+                mSurfaceTextureId = textures[0];
+            }
+            mSurfaceTexture = new SurfaceTexture(mSurfaceTextureId);
             callback.onSurfaceTextureInitiated(mSurfaceTexture);
         });
     }
@@ -395,4 +475,8 @@ public class GLRender implements GLSurfaceView.Renderer {
     public interface VideoSizeChangedListener {
         void onVideoSizeChanged(int width, int height);
     }
+
+    @IntDef(value = { INPUT_YUV, INPUT_TEXTURE })
+    public @interface Input {
+    }
 }
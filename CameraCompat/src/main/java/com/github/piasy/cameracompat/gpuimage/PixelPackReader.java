@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.gpuimage;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import com.github.piasy.cameracompat.utils.GLUtil;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads pixels of the bound frame buffer into a ring of pixel pack buffers on GLES 3, so
+ * glReadPixels returns without waiting for the GPU to finish the frame, and the pixels are
+ * mapped one frame later, when the GPU has finished them.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+final class PixelPackReader {
+    /**
+     * frames between the read of a frame and its pixels being mapped.
+     */
+    static final int LATENCY = 1;
+
+    // the one being mapped is never the one being read into
+    private final int[] mBuffers = new int[2];
+    private final int[] mSizes = new int[2];
+    private int mIndex;
+    private boolean mPending;
+    private boolean mMapped;
+
+    private PixelPackReader() {
+        GLES20.glGenBuffers(mBuffers.length, mBuffers, 0);
+    }
+
+    /**
+     * it must be called on the GL thread.
+     *
+     * @return a reader if the context is GLES 3 or later, or null
+     */
+    static PixelPackReader create() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return null;
+        }
+        // e.g. "OpenGL ES 3.2 V@269.0", the context is compatible with GLES 3 even if only
+        // GLES 2 is requested
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        if (version == null || !version.startsWith("OpenGL ES ") || version.length() < 11
+            || version.charAt(10) < '3' || version.charAt(10) > '9') {
+            return null;
+        }
+        return new PixelPackReader();
+    }
+
+    /**
+     * map the pixels of the last {@link #read(int, int)}, they must be released by
+     * {@link #unmap()} before the next read.
+     *
+     * @return the pixels, or null if there's no pending read, or it fails to map
+     */
+    ByteBuffer mapPrevious() {
+        if (!mPending) {
+            return null;
+        }
+        mPending = false;
+        int index = (mIndex + mBuffers.length - 1) % mBuffers.length;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[index]);
+        ByteBuffer pixels = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0,
+                mSizes[index], GLES30.GL_MAP_READ_BIT);
+        if (pixels == null) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            return null;
+        }
+        mMapped = true;
+        return pixels;
+    }
+
+    /**
+     * start reading RGBA pixels of the bound frame buffer into the next pack buffer, it returns
+     * without waiting for the GPU.
+     */
+    void read(int width, int height) {
+        int size = width * height * 4;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[mIndex]);
+        if (mSizes[mIndex] != size) {
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            mSizes[mIndex] = size;
+        }
+        GLES30.glReadPixels(0, 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+        GLUtil.dumpGlError("glReadPixels");
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mIndex = (mIndex + 1) % mBuffers.length;
+        mPending = true;
+    }
+
+    /**
+     * forget the last {@link #read(int, int)}, its pixels are never mapped.
+     */
+    void drop() {
+        mPending = false;
+    }
+
+    void unmap() {
+        if (mMapped) {
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            mMapped = false;
+        }
+    }
+
+    void release() {
+        unmap();
+        GLES20.glDeleteBuffers(mBuffers.length, mBuffers, 0);
+    }
+}
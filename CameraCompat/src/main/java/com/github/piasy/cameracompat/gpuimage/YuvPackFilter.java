@@ -0,0 +1,248 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.gpuimage;
+
+import android.opengl.GLES20;
+import com.github.piasy.cameracompat.processor.RgbYuvConverter;
+import jp.co.cyberagent.android.gpuimage.GPUImageFilter;
+
+/**
+ * Packs an RGBA image into a semi-planar YUV 420 frame on the GPU, with the colour matrix of
+ * {@link RgbYuvConverter#colorMatrix()}, so it could be read back at 1.5 bytes per pixel. Each
+ * RGBA texel of the target holds 4 bytes of the frame: 4 Y of a row in the first {@code height}
+ * rows, and 2 Cr/Cb pairs in the next {@code height / 2} rows, so a target of
+ * {@code width / 4 * height * 3 / 2} texels reads back as the frame without padding.
+ *
+ * Every output pixel is sampled from the input pixel which {@link #setLayout(int, int, int, int,
+ * int, int, int, int, boolean)} maps it to, which crops, rotates and flips the image like
+ * {@link com.github.piasy.cameracompat.processor.FrameTransform}. Chroma is sampled at the centre
+ * of the 2x2 pixels, i.e. their average.
+ */
+public class YuvPackFilter extends GPUImageFilter {
+    private static final String FRAGMENT_SHADER = ""
+            + "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+            + "precision highp float;\n"
+            + "#else\n"
+            + "precision mediump float;\n"
+            + "#endif\n"
+            + "uniform sampler2D inputImageTexture;\n"
+            + "uniform vec2 inputSize;\n"
+            + "uniform vec2 origin;\n"
+            + "uniform vec2 stepX;\n"
+            + "uniform vec2 stepY;\n"
+            + "uniform float lumaHeight;\n"
+            + "uniform float crFirst;\n"
+            + "uniform vec3 lumaCoefficients;\n"
+            + "uniform vec3 cbCoefficients;\n"
+            + "uniform vec3 crCoefficients;\n"
+            + "uniform float lumaOffset;\n"
+            + "\n"
+            + "vec3 pixel(vec2 position)\n"
+            + "{\n"
+            + "    return texture2D(inputImageTexture, (position + 0.5) / inputSize).rgb;\n"
+            + "}\n"
+            + "\n"
+            + "float luma(vec2 position)\n"
+            + "{\n"
+            + "    return dot(lumaCoefficients, pixel(position)) + lumaOffset;\n"
+            + "}\n"
+            + "\n"
+            + "vec2 chroma(vec2 position)\n"
+            + "{\n"
+            + "    vec3 rgb = pixel(position);\n"
+            + "    return vec2(dot(cbCoefficients, rgb), dot(crCoefficients, rgb))\n"
+            + "           + 128.0 / 255.0;\n"
+            + "}\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    vec2 texel = floor(gl_FragCoord.xy);\n"
+            + "    if (texel.y < lumaHeight) {\n"
+            + "        vec2 position = origin + texel.x * 4.0 * stepX + texel.y * stepY;\n"
+            + "        gl_FragColor = vec4(luma(position), luma(position + stepX),\n"
+            + "                            luma(position + 2.0 * stepX),\n"
+            + "                            luma(position + 3.0 * stepX));\n"
+            + "    } else {\n"
+            + "        vec2 position = origin + (texel.x * 4.0 + 0.5) * stepX\n"
+            + "                        + ((texel.y - lumaHeight) * 2.0 + 0.5) * stepY;\n"
+            + "        vec2 first = chroma(position);\n"
+            + "        vec2 second = chroma(position + 2.0 * stepX);\n"
+            + "        gl_FragColor = crFirst > 0.5 ? vec4(first.yx, second.yx)\n"
+            + "                                     : vec4(first, second);\n"
+            + "    }\n"
+            + "}";
+
+    private final float[] mLumaCoefficients = new float[3];
+    private final float[] mCbCoefficients = new float[3];
+    private final float[] mCrCoefficients = new float[3];
+    private int mColorMatrixType = -1;
+    private float mLumaOffset;
+    private int mInputWidth;
+    private int mInputHeight;
+    private int mOriginX;
+    private int mOriginY;
+    private int mStepXX;
+    private int mStepXY;
+    private int mStepYX;
+    private int mStepYY;
+    private int mWidth;
+    private int mHeight;
+    private boolean mCrFirst;
+
+    private int mInputSizeLocation;
+    private int mOriginLocation;
+    private int mStepXLocation;
+    private int mStepYLocation;
+    private int mLumaHeightLocation;
+    private int mCrFirstLocation;
+    private int mLumaCoefficientsLocation;
+    private int mCbCoefficientsLocation;
+    private int mCrCoefficientsLocation;
+    private int mLumaOffsetLocation;
+
+    public YuvPackFilter() {
+        super(NO_FILTER_VERTEX_SHADER, FRAGMENT_SHADER);
+    }
+
+    @Override
+    public void onInit() {
+        super.onInit();
+        int program = getProgram();
+        mInputSizeLocation = GLES20.glGetUniformLocation(program, "inputSize");
+        mOriginLocation = GLES20.glGetUniformLocation(program, "origin");
+        mStepXLocation = GLES20.glGetUniformLocation(program, "stepX");
+        mStepYLocation = GLES20.glGetUniformLocation(program, "stepY");
+        mLumaHeightLocation = GLES20.glGetUniformLocation(program, "lumaHeight");
+        mCrFirstLocation = GLES20.glGetUniformLocation(program, "crFirst");
+        mLumaCoefficientsLocation = GLES20.glGetUniformLocation(program, "lumaCoefficients");
+        mCbCoefficientsLocation = GLES20.glGetUniformLocation(program, "cbCoefficients");
+        mCrCoefficientsLocation = GLES20.glGetUniformLocation(program, "crCoefficients");
+        mLumaOffsetLocation = GLES20.glGetUniformLocation(program, "lumaOffset");
+        // the coefficients are set again with the new program
+        mColorMatrixType = -1;
+    }
+
+    /**
+     * map output pixel (x, y) to input pixel {@code (originX + x * stepXX + y * stepYX, originY
+     * + x * stepXY + y * stepYY)}, rows of the input count from its first row in memory, i.e.
+     * the bottom one in GL. It must be called on the GL thread.
+     *
+     * @param width output width, a multiple of 4
+     * @param height output height, even
+     * @param nv21 whether Cr comes first in the chroma plane
+     */
+    public void setLayout(int originX, int originY, int stepXX, int stepXY, int stepYX,
+            int stepYY, int width, int height, boolean nv21) {
+        mOriginX = originX;
+        mOriginY = originY;
+        mStepXX = stepXX;
+        mStepXY = stepXY;
+        mStepYX = stepYX;
+        mStepYY = stepYY;
+        mWidth = width;
+        mHeight = height;
+        mCrFirst = nv21;
+    }
+
+    /**
+     * @return width of the target in texels
+     */
+    public int getTargetWidth() {
+        return mWidth / 4;
+    }
+
+    /**
+     * @return height of the target in texels
+     */
+    public int getTargetHeight() {
+        return mHeight * 3 / 2;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @param inputWidth width of the input texture
+     * @param inputHeight height of the input texture
+     */
+    void setInputSize(int inputWidth, int inputHeight) {
+        mInputWidth = inputWidth;
+        mInputHeight = inputHeight;
+    }
+
+    @Override
+    protected void onDrawArraysPre() {
+        GLES20.glUniform2f(mInputSizeLocation, mInputWidth, mInputHeight);
+        GLES20.glUniform2f(mOriginLocation, mOriginX, mOriginY);
+        GLES20.glUniform2f(mStepXLocation, mStepXX, mStepXY);
+        GLES20.glUniform2f(mStepYLocation, mStepYX, mStepYY);
+        GLES20.glUniform1f(mLumaHeightLocation, mHeight);
+        GLES20.glUniform1f(mCrFirstLocation, mCrFirst ? 1 : 0);
+        int colorMatrix = RgbYuvConverter.colorMatrix();
+        if (colorMatrix != mColorMatrixType) {
+            mColorMatrixType = colorMatrix;
+            mLumaOffset = packMatrix(colorMatrix, mLumaCoefficients, mCbCoefficients,
+                    mCrCoefficients);
+            GLES20.glUniform3fv(mLumaCoefficientsLocation, 1, mLumaCoefficients, 0);
+            GLES20.glUniform3fv(mCbCoefficientsLocation, 1, mCbCoefficients, 0);
+            GLES20.glUniform3fv(mCrCoefficientsLocation, 1, mCrCoefficients, 0);
+            GLES20.glUniform1f(mLumaOffsetLocation, mLumaOffset);
+        }
+    }
+
+    /**
+     * fill the coefficients of Y, Cb and Cr from (R, G, B), all normalized to [0, 1], like
+     * {@link YuvTextureFilter#colorMatrix(int, float[], float[])} does for the other way around.
+     *
+     * @return the offset of Y, the offset of Cb and Cr is 128 / 255
+     */
+    static float packMatrix(@RgbYuvConverter.ColorMatrix int colorMatrix, float[] luma,
+            float[] cb, float[] cr) {
+        boolean bt709 = colorMatrix == RgbYuvConverter.COLOR_MATRIX_BT709_LIMITED
+                        || colorMatrix == RgbYuvConverter.COLOR_MATRIX_BT709_FULL;
+        boolean full = colorMatrix == RgbYuvConverter.COLOR_MATRIX_BT601_FULL
+                       || colorMatrix == RgbYuvConverter.COLOR_MATRIX_BT709_FULL;
+        double kr = bt709 ? 0.2126 : 0.299;
+        double kb = bt709 ? 0.0722 : 0.114;
+        double kg = 1 - kr - kb;
+        double yScale = full ? 1 : 219.0 / 255;
+        double cScale = full ? 1 : 224.0 / 255;
+        luma[0] = (float) (kr * yScale);
+        luma[1] = (float) (kg * yScale);
+        luma[2] = (float) (kb * yScale);
+        cb[0] = (float) (-kr / (2 * (1 - kb)) * cScale);
+        cb[1] = (float) (-kg / (2 * (1 - kb)) * cScale);
+        cb[2] = (float) (0.5 * cScale);
+        cr[0] = (float) (0.5 * cScale);
+        cr[1] = (float) (-kg / (2 * (1 - kr)) * cScale);
+        cr[2] = (float) (-kb / (2 * (1 - kr)) * cScale);
+        return full ? 0 : 16 / 255f;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.gpuimage;
+
+import android.opengl.GLES20;
+import com.github.piasy.cameracompat.processor.RgbYuvConverter;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import jp.co.cyberagent.android.gpuimage.GPUImageFilter;
+import jp.co.cyberagent.android.gpuimage.OpenGlUtils;
+
+/**
+ * Converts a YUV 420 frame to RGB on the GPU, with the colour matrix of
+ * {@link RgbYuvConverter#colorMatrix()}. The Y plane is uploaded as a GL_LUMINANCE texture, and
+ * the interleaved chroma plane as a GL_LUMINANCE_ALPHA one, 1.5 bytes per pixel in total, instead
+ * of 4 bytes of an RGBA frame converted by the CPU. Planar chroma is uploaded as two GL_LUMINANCE
+ * textures. Planes are uploaded with their row stride, the padding is cut by the texture
+ * coordinates, so they're never copied.
+ */
+public class YuvTextureFilter extends GPUImageFilter {
+    private static final String VERTEX_SHADER = ""
+            + "attribute vec4 position;\n"
+            + "attribute vec4 inputTextureCoordinate;\n"
+            + "uniform vec2 lumaScale;\n"
+            + "uniform vec2 chromaScale;\n"
+            + "varying highp vec2 lumaCoordinate;\n"
+            + "varying highp vec2 chromaCoordinate;\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    gl_Position = position;\n"
+            + "    lumaCoordinate = inputTextureCoordinate.xy * lumaScale;\n"
+            + "    chromaCoordinate = inputTextureCoordinate.xy * chromaScale;\n"
+            + "}";
+    private static final String FRAGMENT_SHADER = ""
+            + "precision mediump float;\n"
+            + "varying highp vec2 lumaCoordinate;\n"
+            + "varying highp vec2 chromaCoordinate;\n"
+            + "uniform sampler2D inputImageTexture;\n"
+            + "uniform sampler2D chromaTexture;\n"
+            + "uniform sampler2D crTexture;\n"
+            + "uniform float planar;\n"
+            + "uniform float crFirst;\n"
+            + "uniform mat3 colorMatrix;\n"
+            + "uniform vec3 colorOffset;\n"
+            + "\n"
+            + "void main()\n"
+            + "{\n"
+            + "    vec3 yuv;\n"
+            + "    yuv.x = texture2D(inputImageTexture, lumaCoordinate).r;\n"
+            + "    vec4 chroma = texture2D(chromaTexture, chromaCoordinate);\n"
+            + "    if (planar > 0.5) {\n"
+            + "        yuv.yz = vec2(chroma.r, texture2D(crTexture, chromaCoordinate).r);\n"
+            + "    } else if (crFirst > 0.5) {\n"
+            + "        yuv.yz = chroma.ar;\n"
+            + "    } else {\n"
+            + "        yuv.yz = chroma.ra;\n"
+            + "    }\n"
+            + "    gl_FragColor = vec4(colorMatrix * (yuv - colorOffset), 1.0);\n"
+            + "}";
+
+    private static final int LUMA = 0;
+    // Cb for planar chroma
+    private static final int CHROMA = 1;
+    private static final int CR = 2;
+
+    private final int[] mTextures = {
+            OpenGlUtils.NO_TEXTURE, OpenGlUtils.NO_TEXTURE, OpenGlUtils.NO_TEXTURE
+    };
+    private final int[] mTextureWidths = new int[3];
+    private final int[] mTextureHeights = new int[3];
+    private final int[] mTextureFormats = new int[3];
+    private final float[] mColorMatrix = new float[9];
+    private final float[] mColorOffset = new float[3];
+    private int mColorMatrixType = -1;
+    private float mLumaScale = 1;
+    private float mChromaScale = 1;
+    private boolean mPlanar;
+    private boolean mCrFirst;
+
+    private int mLumaScaleLocation;
+    private int mChromaScaleLocation;
+    private int mChromaTextureLocation;
+    private int mCrTextureLocation;
+    private int mPlanarLocation;
+    private int mCrFirstLocation;
+    private int mColorMatrixLocation;
+    private int mColorOffsetLocation;
+
+    public YuvTextureFilter() {
+        super(VERTEX_SHADER, FRAGMENT_SHADER);
+    }
+
+    @Override
+    public void onInit() {
+        super.onInit();
+        int program = getProgram();
+        mLumaScaleLocation = GLES20.glGetUniformLocation(program, "lumaScale");
+        mChromaScaleLocation = GLES20.glGetUniformLocation(program, "chromaScale");
+        mChromaTextureLocation = GLES20.glGetUniformLocation(program, "chromaTexture");
+        mCrTextureLocation = GLES20.glGetUniformLocation(program, "crTexture");
+        mPlanarLocation = GLES20.glGetUniformLocation(program, "planar");
+        mCrFirstLocation = GLES20.glGetUniformLocation(program, "crFirst");
+        mColorMatrixLocation = GLES20.glGetUniformLocation(program, "colorMatrix");
+        mColorOffsetLocation = GLES20.glGetUniformLocation(program, "colorOffset");
+        // the matrix uniform is set again with the new program
+        mColorMatrixType = -1;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        for (int i = 0; i < mTextures.length; i++) {
+            if (mTextures[i] != OpenGlUtils.NO_TEXTURE) {
+                GLES20.glDeleteTextures(1, mTextures, i);
+                mTextures[i] = OpenGlUtils.NO_TEXTURE;
+            }
+        }
+    }
+
+    /**
+     * upload a semi-planar frame, it must be called on the GL thread. Planes are used from their
+     * start, the last row of each could end right after the image, without the padding.
+     *
+     * @param nv21 whether Cr comes first in the chroma plane
+     */
+    public void uploadSemiPlanar(ByteBuffer y, int yRowStride, ByteBuffer chroma,
+            int chromaRowStride, boolean nv21, int width, int height) {
+        uploadPlane(LUMA, GLES20.GL_LUMINANCE, y, yRowStride, width, height);
+        uploadPlane(CHROMA, GLES20.GL_LUMINANCE_ALPHA, chroma, chromaRowStride, width / 2,
+                height / 2);
+        mLumaScale = (float) width / mTextureWidths[LUMA];
+        mChromaScale = (float) (width / 2) / mTextureWidths[CHROMA];
+        mPlanar = false;
+        mCrFirst = nv21;
+    }
+
+    /**
+     * upload a planar frame, with pixel stride 1 of both chroma planes, it must be called on the
+     * GL thread. Planes are used like {@link #uploadSemiPlanar(ByteBuffer, int, ByteBuffer, int,
+     * boolean, int, int)}.
+     */
+    public void uploadPlanar(ByteBuffer y, int yRowStride, ByteBuffer cb, ByteBuffer cr,
+            int chromaRowStride, int width, int height) {
+        uploadPlane(LUMA, GLES20.GL_LUMINANCE, y, yRowStride, width, height);
+        uploadPlane(CHROMA, GLES20.GL_LUMINANCE, cb, chromaRowStride, width / 2, height / 2);
+        uploadPlane(CR, GLES20.GL_LUMINANCE, cr, chromaRowStride, width / 2, height / 2);
+        mLumaScale = (float) width / mTextureWidths[LUMA];
+        mChromaScale = (float) (width / 2) / mTextureWidths[CHROMA];
+        mPlanar = true;
+    }
+
+    /**
+     * the texture is as wide as the row stride, so all rows but the last one are uploaded at
+     * once, and the last one is uploaded alone, without the padding.
+     */
+    private void uploadPlane(int index, int format, ByteBuffer plane, int rowStride, int width,
+            int height) {
+        int bytesPerPixel = format == GLES20.GL_LUMINANCE_ALPHA ? 2 : 1;
+        int textureWidth = rowStride / bytesPerPixel;
+        if (mTextures[index] == OpenGlUtils.NO_TEXTURE) {
+            GLES20.glGenTextures(1, mTextures, index);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[index]);
+            // chroma is sampled at the nearest pixel, like the conversion of the CPU
+            int filter = index == LUMA ? GLES20.GL_LINEAR : GLES20.GL_NEAREST;
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, filter);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, filter);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                    GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                    GLES20.GL_CLAMP_TO_EDGE);
+            mTextureWidths[index] = 0;
+        } else {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[index]);
+        }
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        if (mTextureWidths[index] != textureWidth || mTextureHeights[index] != height
+            || mTextureFormats[index] != format) {
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, textureWidth, height, 0, format,
+                    GLES20.GL_UNSIGNED_BYTE, null);
+            mTextureWidths[index] = textureWidth;
+            mTextureHeights[index] = height;
+            mTextureFormats[index] = format;
+        }
+        int position = plane.position();
+        plane.position(0);
+        if (height > 1) {
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, textureWidth, height - 1,
+                    format, GLES20.GL_UNSIGNED_BYTE, plane);
+        }
+        plane.position((height - 1) * rowStride);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, height - 1, width, 1, format,
+                GLES20.GL_UNSIGNED_BYTE, plane);
+        plane.position(position);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * the texture id is ignored, the uploaded planes are drawn.
+     */
+    @Override
+    public void onDraw(int textureId, FloatBuffer cubeBuffer, FloatBuffer textureBuffer) {
+        if (mTextures[LUMA] == OpenGlUtils.NO_TEXTURE) {
+            return;
+        }
+        super.onDraw(mTextures[LUMA], cubeBuffer, textureBuffer);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE2);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    }
+
+    @Override
+    protected void onDrawArraysPre() {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[CHROMA]);
+        GLES20.glUniform1i(mChromaTextureLocation, 1);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE2);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mPlanar ? mTextures[CR] : 0);
+        GLES20.glUniform1i(mCrTextureLocation, 2);
+        // GPUImageFilter unbinds the texture of the active unit after drawing
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+
+        GLES20.glUniform2f(mLumaScaleLocation, mLumaScale, 1);
+        GLES20.glUniform2f(mChromaScaleLocation, mChromaScale, 1);
+        GLES20.glUniform1f(mPlanarLocation, mPlanar ? 1 : 0);
+        GLES20.glUniform1f(mCrFirstLocation, mCrFirst ? 1 : 0);
+        int colorMatrix = RgbYuvConverter.colorMatrix();
+        if (colorMatrix != mColorMatrixType) {
+            mColorMatrixType = colorMatrix;
+            colorMatrix(colorMatrix, mColorMatrix, mColorOffset);
+            GLES20.glUniformMatrix3fv(mColorMatrixLocation, 1, false, mColorMatrix, 0);
+            GLES20.glUniform3fv(mColorOffsetLocation, 1, mColorOffset, 0);
+        }
+    }
+
+    /**
+     * fill the column major matrix from (Y, Cb, Cr) to RGB, and the offsets subtracted from
+     * (Y, Cb, Cr) before it, all normalized to [0, 1], like the sampled textures. The legacy
+     * matrix is the bit operation approximation of BT.601 limited range, it's converted exactly.
+     */
+    static void colorMatrix(@RgbYuvConverter.ColorMatrix int colorMatrix, float[] matrix,
+            float[] offset) {
+        boolean bt709 = colorMatrix == RgbYuvConverter.COLOR_MATRIX_BT709_LIMITED
+                        || colorMatrix == RgbYuvConverter.COLOR_MATRIX_BT709_FULL;
+        boolean full = colorMatrix == RgbYuvConverter.COLOR_MATRIX_BT601_FULL
+                       || colorMatrix == RgbYuvConverter.COLOR_MATRIX_BT709_FULL;
+        double kr = bt709 ? 0.2126 : 0.299;
+        double kb = bt709 ? 0.0722 : 0.114;
+        double kg = 1 - kr - kb;
+        double yInv = full ? 1 : 255.0 / 219;
+        double cInv = full ? 1 : 255.0 / 224;
+        // Y column
+        matrix[0] = (float) yInv;
+        matrix[1] = (float) yInv;
+        matrix[2] = (float) yInv;
+        // Cb column
+        matrix[3] = 0;
+        matrix[4] = (float) (-2 * kb * (1 - kb) / kg * cInv);
+        matrix[5] = (float) (2 * (1 - kb) * cInv);
+        // Cr column
+        matrix[6] = (float) (2 * (1 - kr) * cInv);
+        matrix[7] = (float) (-2 * kr * (1 - kr) / kg * cInv);
+        matrix[8] = 0;
+        offset[0] = full ? 0 : 16 / 255f;
+        offset[1] = 128 / 255f;
+        offset[2] = 128 / 255f;
+    }
+}
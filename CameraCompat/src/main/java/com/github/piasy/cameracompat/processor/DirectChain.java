@@ -29,6 +29,7 @@ import android.content.Context;
 import android.graphics.SurfaceTexture;
 import android.media.Image;
 import android.os.Build;
+import android.support.annotation.Nullable;
 import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
@@ -36,6 +37,8 @@ import android.widget.FrameLayout;
 import com.github.piasy.cameracompat.CameraCompat;
 import com.github.piasy.cameracompat.gpuimage.SurfaceInitCallback;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import jp.co.cyberagent.android.gpuimage.Rotation;
 
 /**
@@ -44,6 +47,13 @@ import jp.co.cyberagent.android.gpuimage.Rotation;
 
 public class DirectChain implements ProcessorChain, TextureView.SurfaceTextureListener {
     private final CameraCompat.VideoCaptureCallback mVideoCaptureCallback;
+    private final int mOutputFormat;
+    private final int mAccuracy;
+    private final VideoCrop mVideoCrop;
+    private final Renditions mRenditions;
+    private final FrameAlignment mAlignment;
+    // stats are collected only for a StatsCaptureCallback
+    private final FrameStats mStats;
 
     private TextureView mTextureView;
     private volatile SurfaceInitCallback mPendingNotify = null;
@@ -52,17 +62,37 @@ public class DirectChain implements ProcessorChain, TextureView.SurfaceTextureLi
 
     private int mOutputWidth;
     private int mOutputHeight;
+    private volatile int mFrameWidth;
+    private volatile int mFrameHeight;
     private volatile int mVideoWidth;
     private volatile int mVideoHeight;
 
     private volatile boolean mIsFrontCamera;
     private volatile boolean mEnableMirror;
 
+    private ByteBuffer mInputBuffer;
     private ByteBuffer mGLYuvBuffer;
+    private final FrameBytes mGLYuvBytes = new FrameBytes();
+    private FrameTransform mNormalTransform;
+    private volatile FrameSession mNormalSession;
 
-    public DirectChain(boolean defaultFrontCamera,
+    private final AtomicInteger mHeldImages = new AtomicInteger();
+
+    public DirectChain(boolean defaultFrontCamera, @FrameTransform.OutputFormat int outputFormat,
+            @FrameTransform.Accuracy int accuracy, VideoCrop videoCrop, int strideAlignment,
+            int sliceHeightAlignment, float[] renditionScales,
             CameraCompat.VideoCaptureCallback videoCaptureCallback) {
         mVideoCaptureCallback = videoCaptureCallback;
+        mOutputFormat = outputFormat;
+        mAccuracy = accuracy;
+        mVideoCrop = videoCrop;
+        mRenditions = new Renditions(renditionScales, outputFormat);
+        // renditions are scaled from the unpadded frame
+        mAlignment = mRenditions.isEmpty()
+                     ? new FrameAlignment(strideAlignment, sliceHeightAlignment, outputFormat)
+                     : new FrameAlignment(1, 1, outputFormat);
+        mStats = videoCaptureCallback instanceof CameraCompat.StatsCaptureCallback
+                 ? new FrameStats() : null;
         mIsFrontCamera = defaultFrontCamera;
     }
 
@@ -117,6 +147,11 @@ public class DirectChain implements ProcessorChain, TextureView.SurfaceTextureLi
 
     @Override
     public void tearDown() {
+        FrameSession session = mNormalSession;
+        mNormalSession = null;
+        if (session != null) {
+            session.release();
+        }
     }
 
     @Override
@@ -131,35 +166,39 @@ public class DirectChain implements ProcessorChain, TextureView.SurfaceTextureLi
     @Override
     public void onFrameData(Image image, Runnable postProcessedTask) {
         notifyVideoSizeChanged(image.getWidth(), image.getHeight());
+        if (sendZeroCopyImage(image, postProcessedTask)) {
+            return;
+        }
         sendNormalImage(image);
         postProcessedTask.run();
     }
 
     /**
-     * direct chain won't change frame size, so the size is ignored, but actually they are equal.
+     * direct chain sends the whole frame unless a {@link VideoCrop} is set.
      */
     private void notifyVideoSizeChanged(int width, int height) {
         if (mVideoWidth != 0) {
             return;
         }
-        mVideoWidth = width;
-        mVideoHeight = height;
-        if (mGLYuvBuffer == null) {
-            mGLYuvBuffer = ByteBuffer.allocateDirect(mVideoWidth * mVideoHeight * 3 / 2);
-        }
+        int[] region = mVideoCrop.regionOf(width, height, width, height);
+        mFrameWidth = width;
+        mFrameHeight = height;
+        mVideoWidth = region[2];
+        mVideoHeight = region[3];
         mVideoCaptureCallback.onVideoSizeChanged(mVideoWidth, mVideoHeight);
+        mAlignment.notifyLayout(mVideoCaptureCallback, mVideoWidth, mVideoHeight);
         mTextureView.post(this::adjustImageScaling);
     }
 
     private void adjustImageScaling() {
-        if (mRotation == null || mVideoWidth == 0 || mVideoHeight == 0) {
+        if (mRotation == null || mFrameWidth == 0 || mFrameHeight == 0) {
             return;
         }
-        float videoWidth = mVideoWidth;
-        float videoHeight = mVideoHeight;
+        float videoWidth = mFrameWidth;
+        float videoHeight = mFrameHeight;
         if (mRotation == Rotation.ROTATION_270 || mRotation == Rotation.ROTATION_90) {
-            videoWidth = mVideoHeight;
-            videoHeight = mVideoWidth;
+            videoWidth = mFrameHeight;
+            videoHeight = mFrameWidth;
         }
         float ratioW = mOutputWidth / videoWidth;
         float ratioH = mOutputHeight / videoHeight;
@@ -178,42 +217,220 @@ public class DirectChain implements ProcessorChain, TextureView.SurfaceTextureLi
     }
 
     private void sendNormalImage(int width, int height, byte[] data) {
-        if (mIsFrontCamera && mEnableMirror) {
-            if (mRotation == Rotation.ROTATION_90) {
-                RgbYuvConverter.yuvCropFlip(width, height, data, mVideoHeight,
-                        mGLYuvBuffer.array());
-            } else {
-                RgbYuvConverter.yuvCropRotateC180Flip(width, height, data, mVideoHeight,
-                        mGLYuvBuffer.array());
-            }
-        } else {
-            if (mRotation == Rotation.ROTATION_90) {
-                RgbYuvConverter.yuvCropRotateC180(width, height, data, mVideoHeight,
-                        mGLYuvBuffer.array());
-            } else {
-                RgbYuvConverter.yuvCrop(width, height, data, mVideoHeight, mGLYuvBuffer.array());
-            }
+        if (sendMirroredImage(width, height, data)) {
+            return;
+        }
+        // copy the camera frame into a direct buffer, it's much cheaper than pinning it during
+        // the conversion
+        if (mInputBuffer == null || mInputBuffer.capacity() < data.length) {
+            mInputBuffer = ByteBuffer.allocateDirect(data.length);
         }
-        mVideoCaptureCallback.onFrameData(mGLYuvBuffer.array(), width, mVideoHeight);
+        mInputBuffer.clear();
+        mInputBuffer.put(data);
+        FrameSession session = normalSession(width, height);
+        FrameBuffer buffer = dequeueFrameBuffer(mVideoWidth, mVideoHeight);
+        if (buffer != null) {
+            sendFrameBuffer(buffer, sendStats(session.yuvTransform(mInputBuffer, buffer, mStats)));
+            return;
+        }
+        sendStats(session.yuvTransform(mInputBuffer, yuvFrame(), mStats));
+        sendFrame(mVideoWidth, mVideoHeight);
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     private void sendNormalImage(Image image) {
-        if (mIsFrontCamera && mEnableMirror) {
-            if (mRotation == Rotation.ROTATION_90) {
-                RgbYuvConverter.image2yuvCropFlip(image, mVideoHeight, mGLYuvBuffer.array());
-            } else {
-                RgbYuvConverter.image2yuvCropRotateC180Flip(image, mVideoHeight,
-                        mGLYuvBuffer.array());
+        FrameSession session = normalSession(image.getWidth(), image.getHeight());
+        FrameBuffer buffer = dequeueFrameBuffer(mVideoWidth, mVideoHeight);
+        if (buffer != null) {
+            sendFrameBuffer(buffer, sendStats(session.imageTransform(image, buffer, mStats)));
+            return;
+        }
+        sendStats(session.imageTransform(image, yuvFrame(), mStats));
+        sendFrame(mVideoWidth, mVideoHeight);
+    }
+
+    /**
+     * mirror the camera frame in place and send it as is, if the normal transform only mirrors
+     * the NV21 frame without padding, so it needn't be copied or converted into mGLYuvBuffer.
+     *
+     * @return {@code false} if the frame needs to be converted.
+     */
+    private boolean sendMirroredImage(int width, int height, byte[] data) {
+        // renditions are scaled from a direct buffer, the buffer callback has its own buffer, and
+        // stats are collected by the conversion
+        if (mOutputFormat != FrameTransform.FORMAT_NV21 || !mRenditions.isEmpty()
+            || mStats != null
+            || mVideoCaptureCallback instanceof CameraCompat.BufferCaptureCallback
+            || mAlignment.frameSize(width, height) != data.length) {
+            return false;
+        }
+        FrameTransform transform = normalTransform(width, height);
+        if (!transform.isMirrorOnly(width, height)) {
+            return false;
+        }
+        if (RgbYuvConverter.mirror(width, height, FrameTransform.FORMAT_NV21, data,
+                transform.mirrorsRows(), transform.mirrorsRowOrder()) != 0) {
+            return false;
+        }
+        mVideoCaptureCallback.onFrameData(data, width, height);
+        return true;
+    }
+
+    /**
+     * mGLYuvBuffer is only allocated when a frame is converted into it.
+     *
+     * @return the aligned frame of the video size in mGLYuvBuffer
+     */
+    private FrameBuffer yuvFrame() {
+        if (mGLYuvBuffer == null) {
+            mGLYuvBuffer = ByteBuffer.allocateDirect(
+                    mAlignment.frameSize(mVideoWidth, mVideoHeight));
+        }
+        return mAlignment.frameOf(mGLYuvBuffer, mVideoWidth, mVideoHeight);
+    }
+
+    /**
+     * @return the buffer of {@link CameraCompat.BufferCaptureCallback} to convert the frame into,
+     * or {@code null} to convert it into mGLYuvBuffer
+     */
+    @Nullable
+    private FrameBuffer dequeueFrameBuffer(int width, int height) {
+        // renditions are scaled from the converted frame
+        if (!(mVideoCaptureCallback instanceof CameraCompat.BufferCaptureCallback)
+            || !mRenditions.isEmpty()) {
+            return null;
+        }
+        return ((CameraCompat.BufferCaptureCallback) mVideoCaptureCallback).dequeueFrameBuffer(
+                width, height);
+    }
+
+    private void sendFrameBuffer(FrameBuffer buffer, boolean filled) {
+        ((CameraCompat.BufferCaptureCallback) mVideoCaptureCallback).onFrameData(buffer,
+                mVideoWidth, mVideoHeight, filled);
+    }
+
+    /**
+     * hand the stats of a converted frame to {@link CameraCompat.StatsCaptureCallback}, just
+     * before the frame itself, if they are collected.
+     *
+     * @return whether the frame is converted
+     */
+    private boolean sendStats(int ret) {
+        if (ret == 0 && mStats != null && mStats.isCollected()) {
+            ((CameraCompat.StatsCaptureCallback) mVideoCaptureCallback).onFrameStats(mStats);
+        }
+        return ret == 0;
+    }
+
+    private void sendFrame(int width, int height) {
+        mVideoCaptureCallback.onFrameData(
+                mGLYuvBytes.of(mGLYuvBuffer, mAlignment.frameSize(width, height)), width, height);
+        mRenditions.send(mVideoCaptureCallback, mGLYuvBuffer, width, height);
+    }
+
+    /**
+     * hand the planes of a semi-planar image to {@link CameraCompat.ZeroCopyCaptureCallback}
+     * without copy, the image will be closed when the consumer release it.
+     *
+     * @return {@code false} if the image needs to be copied.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private boolean sendZeroCopyImage(Image image, Runnable postProcessedTask) {
+        // renditions are scaled from the copied frame, and stats are collected by the conversion
+        if (!(mVideoCaptureCallback instanceof CameraCompat.ZeroCopyCaptureCallback)
+            || !mRenditions.isEmpty() || mStats != null) {
+            return false;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        FrameTransform transform = normalTransform(width, height);
+        if (transform.getRotation() != 0 || transform.isFlipHorizontal()
+            || transform.isFlipVertical() || transform.getCropX() != 0 || transform.getCropY() != 0
+            || transform.getCropWidth() != width || transform.getCropHeight() != height) {
+            return false;
+        }
+        // the ImageReader only has room for MAX_HELD_FRAMES more images, see Camera2Helper
+        if (mHeldImages.get() >= CameraCompat.MAX_HELD_FRAMES) {
+            return false;
+        }
+        boolean nv21 = true;
+        ByteBuffer chroma = RgbYuvConverter.nv21Chroma(image);
+        if (chroma == null) {
+            nv21 = false;
+            chroma = RgbYuvConverter.nv12Chroma(image);
+        }
+        if (chroma == null) {
+            return false;
+        }
+        Image.Plane[] planes = image.getPlanes();
+        mHeldImages.incrementAndGet();
+        ((CameraCompat.ZeroCopyCaptureCallback) mVideoCaptureCallback).onFrameData(
+                planes[0].getBuffer().asReadOnlyBuffer(), planes[0].getRowStride(),
+                chroma.asReadOnlyBuffer(), planes[1].getRowStride(), nv21, width, height,
+                new ImageRelease(postProcessedTask));
+        return true;
+    }
+
+    /**
+     * crop the {@link VideoCrop}, rotate 180 degree for ROTATION_90, and mirror front camera if
+     * mirror is enabled.
+     */
+    private FrameTransform normalTransform(int width, int height) {
+        int rotation = mRotation == Rotation.ROTATION_90 ? 180 : 0;
+        boolean flip = mIsFrontCamera && mEnableMirror;
+        int[] crop = mVideoCrop.inputCrop(width, height, rotation, false, flip, width, height);
+        FrameTransform transform = mNormalTransform;
+        if (transform == null || transform.getRotation() != rotation
+            || transform.isFlipVertical() != flip || transform.getCropX() != crop[0]
+            || transform.getCropY() != crop[1] || transform.getCropWidth() != crop[2]
+            || transform.getCropHeight() != crop[3]) {
+            transform = new FrameTransform.Builder()
+                    .crop(crop[0], crop[1], crop[2], crop[3])
+                    .rotation(rotation)
+                    .flipVertical(flip)
+                    .outputFormat(mOutputFormat)
+                    .accuracy(mAccuracy)
+                    .build();
+            mNormalTransform = transform;
+        }
+        return transform;
+    }
+
+    /**
+     * the session of {@link #normalTransform(int, int)}, it's recreated only when the frame size
+     * or the transform changes, and released at {@link #tearDown()}.
+     */
+    private FrameSession normalSession(int width, int height) {
+        FrameTransform transform = normalTransform(width, height);
+        FrameSession session = mNormalSession;
+        if (session == null || !session.matches(width, height, transform)) {
+            if (session != null) {
+                session.release();
             }
-        } else {
-            if (mRotation == Rotation.ROTATION_90) {
-                RgbYuvConverter.image2yuvCropRotateC180(image, mVideoHeight, mGLYuvBuffer.array());
-            } else {
-                RgbYuvConverter.image2yuvCrop(image, mVideoHeight, mGLYuvBuffer.array());
+            session = new FrameSession(width, height, transform);
+            mNormalSession = session;
+        }
+        return session;
+    }
+
+    /**
+     * close the held image once, no matter how many times it's run.
+     */
+    private final class ImageRelease implements Runnable {
+        private final AtomicBoolean mReleased = new AtomicBoolean();
+        private final Runnable mCloseImage;
+
+        ImageRelease(Runnable closeImage) {
+            mCloseImage = closeImage;
+        }
+
+        @Override
+        public void run() {
+            if (mReleased.compareAndSet(false, true)) {
+                mCloseImage.run();
+                mHeldImages.decrementAndGet();
             }
         }
-        mVideoCaptureCallback.onFrameData(mGLYuvBuffer.array(), image.getWidth(), mVideoHeight);
     }
 
     @Override
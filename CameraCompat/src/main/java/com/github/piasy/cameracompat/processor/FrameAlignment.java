@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import com.github.piasy.cameracompat.CameraCompat;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the frames sent to {@link CameraCompat.VideoCaptureCallback#onFrameData(byte[], int,
+ * int)}: rows of the Y plane are padded to the stride, and the Y plane is padded to the slice
+ * height, so the frames could be queued into encoders which need aligned input as is. Chroma
+ * planes follow the Y plane as {@link FrameBuffer#of(ByteBuffer, int, int, int, int)} describes.
+ */
+final class FrameAlignment {
+    private final int mStrideAlignment;
+    private final int mSliceHeightAlignment;
+    private final int mFormat;
+
+    private ByteBuffer mBuffer;
+    private int mWidth;
+    private int mHeight;
+    private FrameBuffer mFrame;
+
+    FrameAlignment(int strideAlignment, int sliceHeightAlignment,
+            @FrameTransform.OutputFormat int format) {
+        mStrideAlignment = strideAlignment;
+        mSliceHeightAlignment = sliceHeightAlignment;
+        mFormat = format;
+    }
+
+    int stride(int width) {
+        return align(width, mStrideAlignment);
+    }
+
+    int sliceHeight(int height) {
+        return align(height, mSliceHeightAlignment);
+    }
+
+    int frameSize(int width, int height) {
+        return stride(width) * sliceHeight(height) * 3 / 2;
+    }
+
+    /**
+     * @return planes of the aligned frame of this size stored in {@code buffer}
+     */
+    FrameBuffer frameOf(ByteBuffer buffer, int width, int height) {
+        if (buffer != mBuffer || width != mWidth || height != mHeight) {
+            mFrame = FrameBuffer.of(buffer, 0, mFormat, stride(width), sliceHeight(height));
+            mBuffer = buffer;
+            mWidth = width;
+            mHeight = height;
+        }
+        return mFrame;
+    }
+
+    /**
+     * report the layout of frames of the new size to {@link CameraCompat.AlignedCaptureCallback}.
+     */
+    void notifyLayout(CameraCompat.VideoCaptureCallback callback, int width, int height) {
+        if (callback instanceof CameraCompat.AlignedCaptureCallback) {
+            ((CameraCompat.AlignedCaptureCallback) callback).onVideoLayoutChanged(width, height,
+                    stride(width), sliceHeight(height));
+        }
+    }
+
+    private static int align(int value, int alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+}
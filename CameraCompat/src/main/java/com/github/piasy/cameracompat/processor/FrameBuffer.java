@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+import android.os.Build;
+import java.nio.ByteBuffer;
+
+/**
+ * Planes of a frame owned by the caller, e.g. the input buffer of MediaCodec, the converter
+ * writes into them directly, so the frame needn't be copied again. Buffers must be direct, the
+ * bytes between rows are left untouched.
+ *
+ * Row n of the Y plane (or of the RGBA pixels) starts at {@code yOffset + n * yRowStride},
+ * chroma row n holds the chroma of rows 2n and 2n + 1, it's planar with pixel stride 1, or
+ * interleaved with pixel stride 2, where Cr and Cb must be adjacent.
+ */
+public final class FrameBuffer {
+    private final ByteBuffer mY;
+    private final ByteBuffer mCr;
+    private final ByteBuffer mCb;
+    private final int mYOffset;
+    private final int mCrOffset;
+    private final int mCbOffset;
+    private final int mYRowStride;
+    private final int mCRowStride;
+    private final int mCPixelStride;
+
+    private FrameBuffer(Builder builder) {
+        mY = builder.mY;
+        mCr = builder.mCr;
+        mCb = builder.mCb;
+        mYOffset = builder.mYOffset;
+        mCrOffset = builder.mCrOffset;
+        mCbOffset = builder.mCbOffset;
+        mYRowStride = builder.mYRowStride;
+        mCRowStride = builder.mCRowStride;
+        mCPixelStride = builder.mCPixelStride;
+    }
+
+    /**
+     * a frame stored continuously from {@code offset}, rows are padded to {@code rowStride}
+     * bytes, and the Y plane is padded to {@code sliceHeight} rows, e.g. MediaCodec input
+     * buffers of COLOR_FormatYUV420SemiPlanar (NV12) or COLOR_FormatYUV420Planar (I420).
+     *
+     * @param rowStride row stride of the Y plane, or of the RGBA pixels, it's halved for planar
+     * chroma
+     */
+    public static FrameBuffer of(ByteBuffer buffer, int offset,
+            @FrameTransform.OutputFormat int format, int rowStride, int sliceHeight) {
+        Builder builder = new Builder().luma(buffer, offset, rowStride);
+        int first = offset + rowStride * sliceHeight;
+        int second = first + (rowStride >> 1) * (sliceHeight >> 1);
+        switch (format) {
+            case FrameTransform.FORMAT_NV21:
+                builder.chroma(buffer, first, buffer, first + 1, rowStride, 2);
+                break;
+            case FrameTransform.FORMAT_NV12:
+                builder.chroma(buffer, first + 1, buffer, first, rowStride, 2);
+                break;
+            case FrameTransform.FORMAT_I420:
+                builder.chroma(buffer, second, buffer, first, rowStride >> 1, 1);
+                break;
+            case FrameTransform.FORMAT_YV12:
+                builder.chroma(buffer, first, buffer, second, rowStride >> 1, 1);
+                break;
+            default:
+                break;
+        }
+        return builder.build();
+    }
+
+    /**
+     * planes of a YUV_420_888 image, e.g. from MediaCodec#getInputImage.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static FrameBuffer of(Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        return new Builder()
+                .luma(planes[0].getBuffer(), 0, planes[0].getRowStride())
+                .chroma(planes[2].getBuffer(), 0, planes[1].getBuffer(), 0,
+                        planes[2].getRowStride(), planes[2].getPixelStride())
+                .build();
+    }
+
+    public ByteBuffer getY() {
+        return mY;
+    }
+
+    /**
+     * @return null for RGBA
+     */
+    public ByteBuffer getCr() {
+        return mCr;
+    }
+
+    /**
+     * @return null for RGBA
+     */
+    public ByteBuffer getCb() {
+        return mCb;
+    }
+
+    public int getYOffset() {
+        return mYOffset;
+    }
+
+    public int getCrOffset() {
+        return mCrOffset;
+    }
+
+    public int getCbOffset() {
+        return mCbOffset;
+    }
+
+    public int getYRowStride() {
+        return mYRowStride;
+    }
+
+    public int getCRowStride() {
+        return mCRowStride;
+    }
+
+    public int getCPixelStride() {
+        return mCPixelStride;
+    }
+
+    public static final class Builder {
+        private ByteBuffer mY;
+        private ByteBuffer mCr;
+        private ByteBuffer mCb;
+        private int mYOffset;
+        private int mCrOffset;
+        private int mCbOffset;
+        private int mYRowStride;
+        private int mCRowStride;
+        private int mCPixelStride;
+
+        /**
+         * the Y plane, or the RGBA pixels.
+         */
+        public Builder luma(ByteBuffer buffer, int offset, int rowStride) {
+            mY = buffer;
+            mYOffset = offset;
+            mYRowStride = rowStride;
+            return this;
+        }
+
+        /**
+         * the chroma planes, not needed for RGBA.
+         */
+        public Builder chroma(ByteBuffer cr, int crOffset, ByteBuffer cb, int cbOffset,
+                int rowStride, int pixelStride) {
+            mCr = cr;
+            mCrOffset = crOffset;
+            mCb = cb;
+            mCbOffset = cbOffset;
+            mCRowStride = rowStride;
+            mCPixelStride = pixelStride;
+            return this;
+        }
+
+        public FrameBuffer build() {
+            if (mY == null || !mY.isDirect() || (mCr != null && !mCr.isDirect())
+                || (mCb != null && !mCb.isDirect())) {
+                throw new IllegalArgumentException("Planes must be direct buffers");
+            }
+            return new FrameBuffer(this);
+        }
+    }
+}
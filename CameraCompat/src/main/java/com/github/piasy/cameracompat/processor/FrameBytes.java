@@ -0,0 +1,58 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The byte[] of a frame converted into a direct buffer, for the callbacks which take a byte[].
+ * The natives write the buffer at its direct address, which is where {@link
+ * ByteBuffer#arrayOffset()} of its backing array starts, and it isn't 0 since Android 7.0, so
+ * the frame is copied to the start of a byte[] of its own then.
+ */
+final class FrameBytes {
+    private byte[] mCopy;
+
+    /**
+     * @return the frame of {@code size} bytes at the start of the array, it's valid until the
+     * next call
+     */
+    byte[] of(ByteBuffer frame, int size) {
+        if (frame.hasArray() && frame.arrayOffset() == 0) {
+            return frame.array();
+        }
+        if (mCopy == null || mCopy.length != size) {
+            mCopy = new byte[size];
+        }
+        if (frame.hasArray()) {
+            System.arraycopy(frame.array(), frame.arrayOffset(), mCopy, 0, size);
+        } else {
+            ByteBuffer all = frame.duplicate();
+            all.clear();
+            all.get(mCopy, 0, size);
+        }
+        return mCopy;
+    }
+}
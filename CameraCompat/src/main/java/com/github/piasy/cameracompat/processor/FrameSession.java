@@ -0,0 +1,236 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts frames of one size with one {@link FrameTransform} over and over. The native session
+ * validates the transform, resolves the kernels and allocates the band scratch once, and owns
+ * its worker threads, so converting a frame neither allocates nor contends with other sessions.
+ * The kernels (and colour matrix) are pinned at creation, and without the native library it
+ * falls back to the stateless {@link RgbYuvConverter} calls. It could also collect the
+ * {@link FrameStats} of a frame while converting it.
+ *
+ * Calls are serialized, and {@link #release()} must be called when it's not needed anymore.
+ */
+public final class FrameSession {
+    private final int mWidth;
+    private final int mHeight;
+    private final FrameTransform mTransform;
+
+    private long mSession;
+    private boolean mReleased;
+
+    public FrameSession(int width, int height, FrameTransform transform) {
+        mWidth = width;
+        mHeight = height;
+        mTransform = transform;
+        if (RgbYuvConverter.isNativeLoaded()) {
+            mSession = RgbYuvConverter.nativeSessionCreate(width, height, transform.getCropX(),
+                    transform.getCropY(), transform.getCropWidth(), transform.getCropHeight(),
+                    transform.getRotation(), transform.isFlipHorizontal(),
+                    transform.isFlipVertical(), transform.getOutputFormat(),
+                    transform.getAccuracy());
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public FrameTransform getTransform() {
+        return mTransform;
+    }
+
+    /**
+     * @return whether frames of this size with this transform could be converted by this
+     * session, the transform is compared by identity, as chains reuse the unchanged transform
+     */
+    public boolean matches(int width, int height, FrameTransform transform) {
+        return mWidth == width && mHeight == height && mTransform == transform;
+    }
+
+    /**
+     * same as {@link RgbYuvConverter#yuvTransform(int, int, ByteBuffer, FrameTransform,
+     * FrameBuffer)} with the size and transform of this session.
+     *
+     * @return 0 on success, -1 on failure, or if the session is released
+     */
+    public int yuvTransform(ByteBuffer yuvIn, FrameBuffer out) {
+        return yuvTransform(yuvIn, out, null);
+    }
+
+    /**
+     * same as {@link #yuvTransform(ByteBuffer, FrameBuffer)}, and collect the stats of the frame
+     * into {@code stats} if it's not null, they are valid only if the frame is converted, and
+     * {@link FrameStats#isCollected()}.
+     */
+    public synchronized int yuvTransform(ByteBuffer yuvIn, FrameBuffer out,
+            @Nullable FrameStats stats) {
+        if (mReleased) {
+            return -1;
+        }
+        int[] histogram = stats == null ? null : stats.mHistogram;
+        int ret;
+        if (mSession != 0) {
+            ret = RgbYuvConverter.nativeSessionYuvTransform(mSession, yuvIn, out.getY(),
+                    out.getCr(), out.getCb(), out.getYOffset(), out.getCrOffset(),
+                    out.getCbOffset(), out.getYRowStride(), out.getCRowStride(),
+                    out.getCPixelStride(), histogram);
+        } else if (!RgbYuvConverter.isNativeLoaded()) {
+            ret = JavaConverter.yuvTransform(mWidth, mHeight, yuvIn, mTransform, out.getY(),
+                    out.getCr(), out.getCb(), out.getYOffset(), out.getCrOffset(),
+                    out.getCbOffset(), out.getYRowStride(), out.getCRowStride(),
+                    out.getCPixelStride(), histogram);
+        } else {
+            return withoutStats(stats,
+                    RgbYuvConverter.yuvTransform(mWidth, mHeight, yuvIn, mTransform, out));
+        }
+        return finish(stats, ret);
+    }
+
+    /**
+     * same as {@link RgbYuvConverter#imageTransform(Image, FrameTransform, FrameBuffer)} with
+     * the transform of this session, the image must be of the size of this session.
+     *
+     * @return 0 on success, -1 on failure, or if the session is released
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public int imageTransform(Image imageIn, FrameBuffer out) {
+        return imageTransform(imageIn, out, null);
+    }
+
+    /**
+     * same as {@link #imageTransform(Image, FrameBuffer)}, and collect the stats of the frame
+     * into {@code stats} if it's not null, they are valid only if the frame is converted, and
+     * {@link FrameStats#isCollected()}.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public synchronized int imageTransform(Image imageIn, FrameBuffer out,
+            @Nullable FrameStats stats) {
+        if (mReleased || imageIn.getWidth() != mWidth || imageIn.getHeight() != mHeight) {
+            return -1;
+        }
+        if (mSession == 0 && RgbYuvConverter.isNativeLoaded()) {
+            return withoutStats(stats, RgbYuvConverter.imageTransform(imageIn, mTransform, out));
+        }
+        int[] histogram = stats == null ? null : stats.mHistogram;
+        Image.Plane[] planes = imageIn.getPlanes();
+        int ret;
+        if (mSession != 0) {
+            ret = RgbYuvConverter.nativeSessionImageTransform(mSession, planes[0].getBuffer(),
+                    planes[2].getBuffer(), planes[1].getBuffer(), planes[0].getRowStride(),
+                    planes[2].getRowStride(), planes[2].getPixelStride(),
+                    planes[1].getPixelStride(), out.getY(), out.getCr(), out.getCb(),
+                    out.getYOffset(), out.getCrOffset(), out.getCbOffset(), out.getYRowStride(),
+                    out.getCRowStride(), out.getCPixelStride(), histogram);
+        } else {
+            ret = JavaConverter.imageTransform(mWidth, mHeight, planes[0].getBuffer(),
+                    planes[2].getBuffer(), planes[1].getBuffer(), planes[0].getRowStride(),
+                    planes[2].getRowStride(), planes[2].getPixelStride(),
+                    planes[1].getPixelStride(), mTransform, out.getY(), out.getCr(),
+                    out.getCb(), out.getYOffset(), out.getCrOffset(), out.getCbOffset(),
+                    out.getYRowStride(), out.getCRowStride(), out.getCPixelStride(), histogram);
+        }
+        return finish(stats, ret);
+    }
+
+    /**
+     * same as {@link RgbYuvConverter#rgbaTransform(int, int, ByteBuffer, FrameTransform,
+     * FrameBuffer)} with the size and transform of this session.
+     *
+     * @return 0 on success, -1 on failure, or if the session is released
+     */
+    public int rgbaTransform(ByteBuffer rgbaIn, FrameBuffer yuvOut) {
+        return rgbaTransform(rgbaIn, yuvOut, null);
+    }
+
+    /**
+     * same as {@link #rgbaTransform(ByteBuffer, FrameBuffer)}, and collect the stats of the
+     * frame into {@code stats} if it's not null, they are valid only if the frame is converted,
+     * and {@link FrameStats#isCollected()}.
+     */
+    public synchronized int rgbaTransform(ByteBuffer rgbaIn, FrameBuffer yuvOut,
+            @Nullable FrameStats stats) {
+        if (mReleased) {
+            return -1;
+        }
+        int[] histogram = stats == null ? null : stats.mHistogram;
+        int ret;
+        if (mSession != 0) {
+            ret = RgbYuvConverter.nativeSessionRgbaTransform(mSession, rgbaIn, yuvOut.getY(),
+                    yuvOut.getCr(), yuvOut.getCb(), yuvOut.getYOffset(), yuvOut.getCrOffset(),
+                    yuvOut.getCbOffset(), yuvOut.getYRowStride(), yuvOut.getCRowStride(),
+                    yuvOut.getCPixelStride(), histogram);
+        } else if (!RgbYuvConverter.isNativeLoaded()) {
+            ret = JavaConverter.rgbaTransform(mWidth, mHeight, rgbaIn, mTransform, yuvOut.getY(),
+                    yuvOut.getCr(), yuvOut.getCb(), yuvOut.getYOffset(), yuvOut.getCrOffset(),
+                    yuvOut.getCbOffset(), yuvOut.getYRowStride(), yuvOut.getCRowStride(),
+                    yuvOut.getCPixelStride(), histogram);
+        } else {
+            return withoutStats(stats,
+                    RgbYuvConverter.rgbaTransform(mWidth, mHeight, rgbaIn, mTransform, yuvOut));
+        }
+        return finish(stats, ret);
+    }
+
+    /**
+     * the stateless natives don't collect stats, it's only used if the session couldn't be
+     * created, and then the stats are left empty and marked as not collected.
+     */
+    private static int withoutStats(@Nullable FrameStats stats, int ret) {
+        if (stats != null) {
+            stats.clear();
+        }
+        return ret;
+    }
+
+    private static int finish(@Nullable FrameStats stats, int ret) {
+        if (stats != null && ret == 0) {
+            stats.update();
+        }
+        return ret;
+    }
+
+    /**
+     * free the scratch and stop the worker threads, later calls fail.
+     */
+    public synchronized void release() {
+        if (mSession != 0) {
+            RgbYuvConverter.nativeSessionRelease(mSession);
+            mSession = 0;
+        }
+        mReleased = true;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import java.util.Arrays;
+
+/**
+ * Luma statistics of a frame, e.g. for exposure hints or dark scene detection, collected by a
+ * {@link FrameSession} while it converts the frame, so the frame isn't read again. The output
+ * pixels (x, y) with both x and y even are counted, one sample for each 2x2 block, which is
+ * plenty for the brightness and contrast of a frame.
+ *
+ * A stats object is filled again by every frame, it's not thread safe.
+ */
+public final class FrameStats {
+    public static final int BINS = 256;
+
+    final int[] mHistogram = new int[BINS];
+
+    private int mCount;
+    private int mMin;
+    private int mMax;
+    private float mMean;
+    private float mVariance;
+    private boolean mCollected;
+
+    /**
+     * @return count of samples of each luma value, it's filled again by the next frame
+     */
+    public int[] getHistogram() {
+        return mHistogram;
+    }
+
+    /**
+     * @return whether the stats are collected from the last converted frame, they aren't if the
+     * converter couldn't collect them, e.g. without a native session, and then they are empty
+     */
+    public boolean isCollected() {
+        return mCollected;
+    }
+
+    /**
+     * @return number of samples, 0 if the stats of the frame couldn't be collected
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the darkest sample, or 0 if there is none
+     */
+    public int getMin() {
+        return mMin;
+    }
+
+    /**
+     * @return the brightest sample, or 0 if there is none
+     */
+    public int getMax() {
+        return mMax;
+    }
+
+    public float getMean() {
+        return mMean;
+    }
+
+    public float getVariance() {
+        return mVariance;
+    }
+
+    /**
+     * @return RMS contrast, the standard deviation of the samples
+     */
+    public float getContrast() {
+        return (float) Math.sqrt(mVariance);
+    }
+
+    /**
+     * derive the summary from the histogram filled by the converter.
+     */
+    void update() {
+        long count = 0;
+        long sum = 0;
+        long squareSum = 0;
+        int min = -1;
+        int max = 0;
+        for (int i = 0; i < BINS; i++) {
+            long n = mHistogram[i];
+            if (n == 0) {
+                continue;
+            }
+            if (min < 0) {
+                min = i;
+            }
+            max = i;
+            count += n;
+            sum += n * i;
+            squareSum += n * i * i;
+        }
+        mCount = (int) count;
+        mCollected = true;
+        mMin = Math.max(min, 0);
+        mMax = max;
+        if (count == 0) {
+            mMean = 0;
+            mVariance = 0;
+            return;
+        }
+        double mean = (double) sum / count;
+        mMean = (float) mean;
+        mVariance = (float) Math.max((double) squareSum / count - mean * mean, 0);
+    }
+
+    /**
+     * drop the stats of the last frame, when the stats of a frame couldn't be collected.
+     */
+    void clear() {
+        Arrays.fill(mHistogram, 0);
+        update();
+        mCollected = false;
+    }
+}
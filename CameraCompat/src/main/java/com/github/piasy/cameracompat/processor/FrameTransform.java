@@ -0,0 +1,238 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import android.support.annotation.IntDef;
+
+/**
+ * Describe a fused crop, rotate, flip and convert pass of {@link RgbYuvConverter}: crop the
+ * rectangle out of the input, rotate it clockwise, then mirror the rotated result.
+ *
+ * Crop offset and size must be even, the crop is the whole input by default.
+ */
+public final class FrameTransform {
+    /**
+     * Y plane, then interleaved chroma with Cr comes first.
+     */
+    public static final int FORMAT_NV21 = 0;
+    public static final int FORMAT_RGBA = 1;
+    /**
+     * Y plane, then interleaved chroma with Cb comes first.
+     */
+    public static final int FORMAT_NV12 = 2;
+    /**
+     * Y plane, then Cb plane, then Cr plane.
+     */
+    public static final int FORMAT_I420 = 3;
+    /**
+     * Y plane, then Cr plane, then Cb plane.
+     */
+    public static final int FORMAT_YV12 = 4;
+
+    /**
+     * the accuracy of the colour matrix set by {@link RgbYuvConverter#setColorMatrix(int)}: fast
+     * for {@link RgbYuvConverter#COLOR_MATRIX_LEGACY}, exact for the others.
+     */
+    public static final int ACCURACY_DEFAULT = 0;
+    /**
+     * the bit operation approximation of BT.601 limited range, whatever the colour matrix is,
+     * it's the only one with SIMD kernels.
+     */
+    public static final int ACCURACY_FAST = 1;
+    /**
+     * fixed point lookup tables of the colour matrix, BT.601 limited range for legacy.
+     */
+    public static final int ACCURACY_EXACT = 2;
+    /**
+     * double precision math of the colour matrix, BT.601 limited range for legacy, it's the
+     * slowest one, and could differ by one from the pure Java converter.
+     */
+    public static final int ACCURACY_REFERENCE = 3;
+
+    private final int mCropX;
+    private final int mCropY;
+    private final int mCropWidth;
+    private final int mCropHeight;
+    private final int mRotation;
+    private final boolean mFlipHorizontal;
+    private final boolean mFlipVertical;
+    private final int mOutputFormat;
+    private final int mAccuracy;
+
+    private FrameTransform(Builder builder) {
+        mCropX = builder.mCropX;
+        mCropY = builder.mCropY;
+        mCropWidth = builder.mCropWidth;
+        mCropHeight = builder.mCropHeight;
+        mRotation = builder.mRotation;
+        mFlipHorizontal = builder.mFlipHorizontal;
+        mFlipVertical = builder.mFlipVertical;
+        mOutputFormat = builder.mOutputFormat;
+        mAccuracy = builder.mAccuracy;
+    }
+
+    public int getCropX() {
+        return mCropX;
+    }
+
+    public int getCropY() {
+        return mCropY;
+    }
+
+    /**
+     * @return crop width, 0 means the whole input
+     */
+    public int getCropWidth() {
+        return mCropWidth;
+    }
+
+    /**
+     * @return crop height, 0 means the whole input
+     */
+    public int getCropHeight() {
+        return mCropHeight;
+    }
+
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public boolean isFlipHorizontal() {
+        return mFlipHorizontal;
+    }
+
+    public boolean isFlipVertical() {
+        return mFlipVertical;
+    }
+
+    /**
+     * @return whether the transform keeps the whole frame of this size, and only mirrors it or
+     * rotates it by 180 degree, so a frame already in the output format could be mirrored in
+     * place by {@link RgbYuvConverter#mirror(int, int, int, byte[], boolean, boolean)}, with
+     * {@link #mirrorsRows()} and {@link #mirrorsRowOrder()}, instead of converted into a second
+     * buffer
+     */
+    public boolean isMirrorOnly(int width, int height) {
+        return (mRotation == 0 || mRotation == 180) && mCropX == 0 && mCropY == 0
+               && (mCropWidth == 0 || mCropWidth == width)
+               && (mCropHeight == 0 || mCropHeight == height);
+    }
+
+    /**
+     * @return whether the in-place mirror of {@link #isMirrorOnly(int, int)} reverses every row
+     */
+    public boolean mirrorsRows() {
+        return mFlipHorizontal != (mRotation == 180);
+    }
+
+    /**
+     * @return whether the in-place mirror of {@link #isMirrorOnly(int, int)} reverses the row
+     * order
+     */
+    public boolean mirrorsRowOrder() {
+        return mFlipVertical != (mRotation == 180);
+    }
+
+    @OutputFormat
+    public int getOutputFormat() {
+        return mOutputFormat;
+    }
+
+    @Accuracy
+    public int getAccuracy() {
+        return mAccuracy;
+    }
+
+    public static final class Builder {
+        private int mCropX;
+        private int mCropY;
+        private int mCropWidth;
+        private int mCropHeight;
+        private int mRotation;
+        private boolean mFlipHorizontal;
+        private boolean mFlipVertical;
+        private int mOutputFormat = FORMAT_NV21;
+        private int mAccuracy = ACCURACY_DEFAULT;
+
+        public Builder crop(int x, int y, int width, int height) {
+            mCropX = x;
+            mCropY = y;
+            mCropWidth = width;
+            mCropHeight = height;
+            return this;
+        }
+
+        /**
+         * @param rotation clockwise rotation in degree, 0, 90, 180 or 270
+         */
+        public Builder rotation(int rotation) {
+            if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+                throw new IllegalArgumentException("Bad rotation: " + rotation);
+            }
+            mRotation = rotation;
+            return this;
+        }
+
+        public Builder flipHorizontal(boolean flipHorizontal) {
+            mFlipHorizontal = flipHorizontal;
+            return this;
+        }
+
+        public Builder flipVertical(boolean flipVertical) {
+            mFlipVertical = flipVertical;
+            return this;
+        }
+
+        /**
+         * @param outputFormat {@link #FORMAT_NV21} by default, {@link #FORMAT_RGBA} is only
+         * supported when the input is YUV
+         */
+        public Builder outputFormat(@OutputFormat int outputFormat) {
+            mOutputFormat = outputFormat;
+            return this;
+        }
+
+        /**
+         * @param accuracy of the colour conversion, {@link #ACCURACY_DEFAULT} by default, it
+         * makes no difference when the input and output are both YUV
+         */
+        public Builder accuracy(@Accuracy int accuracy) {
+            mAccuracy = accuracy;
+            return this;
+        }
+
+        public FrameTransform build() {
+            return new FrameTransform(this);
+        }
+    }
+
+    @IntDef(value = { FORMAT_NV21, FORMAT_RGBA, FORMAT_NV12, FORMAT_I420, FORMAT_YV12 })
+    public @interface OutputFormat {
+    }
+
+    @IntDef(value = { ACCURACY_DEFAULT, ACCURACY_FAST, ACCURACY_EXACT, ACCURACY_REFERENCE })
+    public @interface Accuracy {
+    }
+}
@@ -30,6 +30,7 @@ import android.graphics.PixelFormat;
 import android.media.Image;
 import android.opengl.GLSurfaceView;
 import android.os.Build;
+import android.support.annotation.Nullable;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
@@ -37,6 +38,7 @@ import com.github.piasy.cameracompat.CameraCompat;
 import com.github.piasy.cameracompat.gpuimage.GLFilterGroup;
 import com.github.piasy.cameracompat.gpuimage.GLRender;
 import com.github.piasy.cameracompat.gpuimage.SurfaceInitCallback;
+import com.github.piasy.cameracompat.gpuimage.YuvPackFilter;
 import com.github.piasy.cameracompat.utils.GLUtil;
 import com.github.piasy.cameracompat.utils.Profiler;
 import java.nio.ByteBuffer;
@@ -51,26 +53,59 @@ import jp.co.cyberagent.android.gpuimage.Rotation;
  */
 
 public class GPUImageChain implements ProcessorChain, GLFilterGroup.ImageDumpedListener,
-        GLRender.VideoSizeChangedListener {
+        GLFilterGroup.YuvDumpedListener, GLRender.VideoSizeChangedListener {
     private final List<Processor> mProcessors;
     private final CameraCompat.VideoCaptureCallback mVideoCaptureCallback;
+    private final int mOutputFormat;
+    private final int mAccuracy;
+    private final VideoCrop mVideoCrop;
+    private final Renditions mRenditions;
+    private final FrameAlignment mAlignment;
+    // stats are collected only for a StatsCaptureCallback, all frames are sent from the GL thread
+    private final FrameStats mStats;
     private final boolean mDefaultFilterEnabled;
+    private final boolean mTextureInput;
     private final Profiler mProfiler;
 
     private GLSurfaceView mGLSurfaceView;
     private GLRender mGLRender;
     private volatile boolean mIsFrontCamera;
     private volatile boolean mEnableMirror;
+    private volatile int mFrameHeight;
 
-    private ByteBuffer mGLRgbaBuffer;
+    private ByteBuffer mGLInputBuffer;
+    private ByteBuffer mGLInputChroma;
+    private int mGLInputChromaOffset;
     private ByteBuffer mGLYuvBuffer;
+    private final FrameBytes mGLYuvBytes = new FrameBytes();
+    private FrameTransform mBeautifyTransform;
+    private FrameTransform mNormalTransform;
+    private FrameTransform mPackTransform;
+    private FrameTransform mBeautifyMappingTransform;
+    private int[] mBeautifyMapping;
+    private volatile FrameSession mBeautifySession;
+    private volatile FrameSession mNormalSession;
 
     public GPUImageChain(List<Processor> processors, boolean defaultEnableFilter,
-            boolean defaultFrontCamera, CameraCompat.VideoCaptureCallback videoCaptureCallback,
-            Profiler profiler) {
+            boolean textureInput, boolean defaultFrontCamera,
+            @FrameTransform.OutputFormat int outputFormat,
+            @FrameTransform.Accuracy int accuracy, VideoCrop videoCrop, int strideAlignment,
+            int sliceHeightAlignment, float[] renditionScales,
+            CameraCompat.VideoCaptureCallback videoCaptureCallback, Profiler profiler) {
         mProcessors = Collections.unmodifiableList(new ArrayList<>(processors));
         mVideoCaptureCallback = videoCaptureCallback;
+        mOutputFormat = outputFormat;
+        mAccuracy = accuracy;
+        mVideoCrop = videoCrop;
+        mRenditions = new Renditions(renditionScales, outputFormat);
+        // renditions are scaled from the unpadded frame
+        mAlignment = mRenditions.isEmpty()
+                     ? new FrameAlignment(strideAlignment, sliceHeightAlignment, outputFormat)
+                     : new FrameAlignment(1, 1, outputFormat);
+        mStats = videoCaptureCallback instanceof CameraCompat.StatsCaptureCallback
+                 ? new FrameStats() : null;
         mDefaultFilterEnabled = defaultEnableFilter;
+        mTextureInput = textureInput;
         mIsFrontCamera = defaultFrontCamera;
         mProfiler = profiler;
     }
@@ -101,7 +136,9 @@ public class GPUImageChain implements ProcessorChain, GLFilterGroup.ImageDumpedL
         filters.add(new GPUImageFilter());
         GLFilterGroup filterGroup = new GLFilterGroup(filters);
         filterGroup.setImageDumpedListener(this);
-        mGLRender = new GLRender(filterGroup, mDefaultFilterEnabled, this, mProfiler);
+        filterGroup.setYuvDumpedListener(this);
+        mGLRender = new GLRender(filterGroup, mDefaultFilterEnabled,
+                mTextureInput ? GLRender.INPUT_TEXTURE : GLRender.INPUT_YUV, this, mProfiler);
 
         if (GLUtil.isSupportOpenGLES2(context)) {
             mGLSurfaceView.setEGLContextClientVersion(2);
@@ -146,6 +183,16 @@ public class GPUImageChain implements ProcessorChain, GLFilterGroup.ImageDumpedL
         for (Processor processor : mProcessors) {
             processor.tearDown();
         }
+        FrameSession beautifySession = mBeautifySession;
+        FrameSession normalSession = mNormalSession;
+        mBeautifySession = null;
+        mNormalSession = null;
+        if (beautifySession != null) {
+            beautifySession.release();
+        }
+        if (normalSession != null) {
+            normalSession.release();
+        }
     }
 
     public synchronized void switchBeautify() {
@@ -155,24 +202,45 @@ public class GPUImageChain implements ProcessorChain, GLFilterGroup.ImageDumpedL
     @Override
     public void onFrameData(byte[] data, int width, int height,
             Runnable postProcessedTask) {
-        if (mGLRgbaBuffer == null) {
-            mGLRgbaBuffer = ByteBuffer.allocateDirect(width * height * 4);
-        }
-        if (mGLYuvBuffer == null) {
-            // 16 bytes alignment
-            int bufHeight = (width * mGLRender.getFrameWidth() / mGLRender.getFrameHeight())
-                            & 0xfffffff0;
-            mGLYuvBuffer = ByteBuffer.allocateDirect(width * bufHeight * 3 / 2);
-        }
+        mFrameHeight = height;
         if (!mGLRender.isBusyDrawing()) {
-            RgbYuvConverter.yuv2rgba(width, height, data, mGLRgbaBuffer.array());
-            mGLRender.scheduleDrawFrame(mGLRgbaBuffer, width, height, () -> {
-                if (!mGLRender.isEnableFilter() && !mGLRender.isPaused()) {
-                    sendNormalImage(width, height, data);
-                }
-                postProcessedTask.run();
-            });
+            if (mTextureInput) {
+                // the camera texture is drawn, the frame is only copied if it's sent as it is,
+                // it's not returned to the camera until postProcessedTask
+                mGLRender.scheduleDrawFrame(width, height, () -> {
+                    if (!mGLRender.isEnableFilter() && !mGLRender.isPaused()) {
+                        sendNormalImage(width, height, inputBuffer(data));
+                    }
+                    postProcessedTask.run();
+                });
+                return;
+            }
+            ByteBuffer input = inputBuffer(data);
+            // frames of Camera are NV21
+            mGLRender.scheduleDrawFrame(input, width, inputChroma(width * height), width, true,
+                    width, height, () -> {
+                        if (!mGLRender.isEnableFilter() && !mGLRender.isPaused()) {
+                            sendNormalImage(width, height, input);
+                        }
+                        postProcessedTask.run();
+                    });
+        }
+    }
+
+    /**
+     * copy the camera frame into a direct buffer, it's much cheaper than pinning it during the
+     * conversions.
+     *
+     * @return mGLInputBuffer holding the frame
+     */
+    private ByteBuffer inputBuffer(byte[] data) {
+        if (mGLInputBuffer == null || mGLInputBuffer.capacity() < data.length) {
+            mGLInputBuffer = ByteBuffer.allocateDirect(data.length);
+            mGLInputChroma = null;
         }
+        mGLInputBuffer.clear();
+        mGLInputBuffer.put(data);
+        return mGLInputBuffer;
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
@@ -180,94 +248,323 @@ public class GPUImageChain implements ProcessorChain, GLFilterGroup.ImageDumpedL
     public void onFrameData(final Image image, final Runnable postProcessedTask) {
         final int width = image.getWidth();
         final int height = image.getHeight();
-        if (mGLRgbaBuffer == null) {
-            mGLRgbaBuffer = ByteBuffer.allocateDirect(width * height * 4);
-        }
-        if (mGLYuvBuffer == null) {
-            // 16 bytes alignment
-            int bufHeight = (width * mGLRender.getFrameWidth() / mGLRender.getFrameHeight())
-                            & 0xfffffff0;
-            mGLYuvBuffer = ByteBuffer.allocateDirect(width * bufHeight * 3 / 2);
-        }
+        mFrameHeight = height;
         if (!mGLRender.isBusyDrawing()) {
-            RgbYuvConverter.image2rgba(image, mGLRgbaBuffer.array());
-            mGLRender.scheduleDrawFrame(mGLRgbaBuffer, width, height, () -> {
+            Runnable drawn = () -> {
                 if (!mGLRender.isEnableFilter() && !mGLRender.isPaused()) {
                     sendNormalImage(image);
                 }
                 postProcessedTask.run();
-            });
+            };
+            if (mTextureInput) {
+                mGLRender.scheduleDrawFrame(width, height, drawn);
+            } else {
+                scheduleDrawImage(image, drawn);
+            }
         } else {
             postProcessedTask.run();
         }
     }
 
+    /**
+     * upload the planes of the image as they are, unless the chroma planes are neither
+     * interleaved nor planar, they're packed as NV21 then.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void scheduleDrawImage(Image image, Runnable drawn) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane[] planes = image.getPlanes();
+        ByteBuffer y = planes[0].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        boolean nv21 = true;
+        ByteBuffer chroma = RgbYuvConverter.nv21Chroma(image);
+        if (chroma == null) {
+            nv21 = false;
+            chroma = RgbYuvConverter.nv12Chroma(image);
+        }
+        if (chroma != null) {
+            mGLRender.scheduleDrawFrame(y, yRowStride, chroma, planes[1].getRowStride(), nv21,
+                    width, height, drawn);
+        } else if (planes[1].getPixelStride() == 1 && planes[2].getPixelStride() == 1
+                   && planes[1].getRowStride() == planes[2].getRowStride()) {
+            mGLRender.scheduleDrawFrame(y, yRowStride, planes[1].getBuffer(),
+                    planes[2].getBuffer(), planes[1].getRowStride(), width, height, drawn);
+        } else {
+            int size = width * height * 3 / 2;
+            if (mGLInputBuffer == null || mGLInputBuffer.capacity() < size) {
+                mGLInputBuffer = ByteBuffer.allocateDirect(size);
+                mGLInputChroma = null;
+            }
+            RgbYuvConverter.imageTransform(image, packTransform(width, height), mGLInputBuffer);
+            mGLRender.scheduleDrawFrame(mGLInputBuffer, width, inputChroma(width * height),
+                    width, true, width, height, drawn);
+        }
+    }
+
+    /**
+     * @return the chroma plane of the NV21 frame in mGLInputBuffer
+     */
+    private ByteBuffer inputChroma(int offset) {
+        if (mGLInputChroma == null || mGLInputChromaOffset != offset) {
+            ByteBuffer input = mGLInputBuffer.duplicate();
+            input.clear();
+            input.position(offset);
+            mGLInputChroma = input.slice();
+            mGLInputChromaOffset = offset;
+        }
+        return mGLInputChroma;
+    }
+
+    private FrameTransform packTransform(int width, int height) {
+        FrameTransform transform = mPackTransform;
+        if (transform == null || transform.getCropWidth() != width
+            || transform.getCropHeight() != height) {
+            transform = new FrameTransform.Builder()
+                    .crop(0, 0, width, height)
+                    .build();
+            mPackTransform = transform;
+        }
+        return transform;
+    }
+
     @Override
     public void imageDumped(ByteBuffer rgba, int width, int height) {
         sendBeautifyImage(rgba, width, height);
     }
 
+    @Override
+    public void dumpLatencyChanged(int frames) {
+        if (mVideoCaptureCallback instanceof CameraCompat.LatencyCaptureCallback) {
+            ((CameraCompat.LatencyCaptureCallback) mVideoCaptureCallback).onFrameLatencyChanged(
+                    frames);
+        }
+    }
+
+    /**
+     * the beautified image is packed by the GPU if it's sent as a semi-planar frame without
+     * padding, and neither exact conversion nor stats are needed, they're done by the CPU.
+     */
+    @Override
+    public ByteBuffer setUpPack(YuvPackFilter filter, int width, int height) {
+        if ((mOutputFormat != FrameTransform.FORMAT_NV21
+             && mOutputFormat != FrameTransform.FORMAT_NV12)
+            || mAccuracy == FrameTransform.ACCURACY_EXACT
+            || mAccuracy == FrameTransform.ACCURACY_REFERENCE || mStats != null
+            || (mVideoCaptureCallback instanceof CameraCompat.BufferCaptureCallback
+                && mRenditions.isEmpty())) {
+            return null;
+        }
+        FrameTransform transform = beautifyTransform(width, height);
+        if (transform != mBeautifyMappingTransform) {
+            // the crop of the cached transform is always inside the image of this size
+            mBeautifyMapping = JavaConverter.resolve(transform, width, height);
+            mBeautifyMappingTransform = transform;
+        }
+        int[] mapping = mBeautifyMapping;
+        if (mapping == null) {
+            return null;
+        }
+        int outputWidth = mapping[JavaConverter.OUTPUT_WIDTH];
+        int outputHeight = mapping[JavaConverter.OUTPUT_HEIGHT];
+        if ((outputWidth & 0x3) != 0 || mAlignment.stride(outputWidth) != outputWidth
+            || mAlignment.sliceHeight(outputHeight) != outputHeight) {
+            return null;
+        }
+        filter.setLayout(mapping[JavaConverter.COL], mapping[JavaConverter.ROW],
+                mapping[JavaConverter.U_COL], mapping[JavaConverter.U_ROW],
+                mapping[JavaConverter.V_COL], mapping[JavaConverter.V_ROW], outputWidth,
+                outputHeight, mOutputFormat == FrameTransform.FORMAT_NV21);
+        yuvFrame(outputWidth, outputHeight);
+        return mGLYuvBuffer;
+    }
+
+    @Override
+    public void yuvDumped(ByteBuffer yuv, int width, int height) {
+        sendFrame(width, height);
+    }
+
     private void sendBeautifyImage(ByteBuffer rgba, int width, int height) {
-        if (mIsFrontCamera) {
-            if (mEnableMirror) {
-                RgbYuvConverter.rgba2yuvRotateC90(width, height, rgba.array(),
-                        mGLYuvBuffer.array());
-            } else {
-                RgbYuvConverter.rgba2yuvRotateC90Flip(width, height, rgba.array(),
-                        mGLYuvBuffer.array());
-            }
-        } else {
-            RgbYuvConverter.rgba2yuvRotateC90(width, height, rgba.array(), mGLYuvBuffer.array());
+        FrameSession session = beautifySession(width, height);
+        FrameTransform transform = session.getTransform();
+        FrameBuffer buffer = dequeueFrameBuffer(transform.getCropHeight(),
+                transform.getCropWidth());
+        if (buffer != null) {
+            sendFrameBuffer(buffer, transform.getCropHeight(), transform.getCropWidth(),
+                    sendStats(session.rgbaTransform(rgba, buffer, mStats)));
+            return;
         }
-        mVideoCaptureCallback.onFrameData(mGLYuvBuffer.array(), height, width);
+        sendStats(session.rgbaTransform(rgba,
+                yuvFrame(transform.getCropHeight(), transform.getCropWidth()), mStats));
+        sendFrame(transform.getCropHeight(), transform.getCropWidth());
     }
 
-    private void sendNormalImage(int width, int height, byte[] data) {
-        if (mIsFrontCamera && mEnableMirror) {
-            if (mGLRender.getRotation() == Rotation.ROTATION_90) {
-                RgbYuvConverter.yuvCropFlip(width, height, data, mGLRender.getVideoHeight(),
-                        mGLYuvBuffer.array());
-            } else {
-                RgbYuvConverter.yuvCropRotateC180Flip(width, height, data,
-                        mGLRender.getVideoHeight(), mGLYuvBuffer.array());
-            }
-        } else {
-            if (mGLRender.getRotation() == Rotation.ROTATION_90) {
-                RgbYuvConverter.yuvCropRotateC180(width, height, data, mGLRender.getVideoHeight(),
-                        mGLYuvBuffer.array());
-            } else {
-                RgbYuvConverter.yuvCrop(width, height, data, mGLRender.getVideoHeight(),
-                        mGLYuvBuffer.array());
-            }
+    private void sendNormalImage(int width, int height, ByteBuffer data) {
+        FrameSession session = normalSession(width, height);
+        FrameTransform transform = session.getTransform();
+        FrameBuffer buffer = dequeueFrameBuffer(transform.getCropWidth(),
+                transform.getCropHeight());
+        if (buffer != null) {
+            sendFrameBuffer(buffer, transform.getCropWidth(), transform.getCropHeight(),
+                    sendStats(session.yuvTransform(data, buffer, mStats)));
+            return;
         }
-        mVideoCaptureCallback.onFrameData(mGLYuvBuffer.array(), width, mGLRender.getVideoHeight());
+        sendStats(session.yuvTransform(data,
+                yuvFrame(transform.getCropWidth(), transform.getCropHeight()), mStats));
+        sendFrame(transform.getCropWidth(), transform.getCropHeight());
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     private void sendNormalImage(Image image) {
-        if (mIsFrontCamera && mEnableMirror) {
-            if (mGLRender.getRotation() == Rotation.ROTATION_90) {
-                RgbYuvConverter.image2yuvCropFlip(image, mGLRender.getVideoHeight(),
-                        mGLYuvBuffer.array());
-            } else {
-                RgbYuvConverter.image2yuvCropRotateC180Flip(image, mGLRender.getVideoHeight(),
-                        mGLYuvBuffer.array());
+        FrameSession session = normalSession(image.getWidth(), image.getHeight());
+        FrameTransform transform = session.getTransform();
+        FrameBuffer buffer = dequeueFrameBuffer(transform.getCropWidth(),
+                transform.getCropHeight());
+        if (buffer != null) {
+            sendFrameBuffer(buffer, transform.getCropWidth(), transform.getCropHeight(),
+                    sendStats(session.imageTransform(image, buffer, mStats)));
+            return;
+        }
+        sendStats(session.imageTransform(image,
+                yuvFrame(transform.getCropWidth(), transform.getCropHeight()), mStats));
+        sendFrame(transform.getCropWidth(), transform.getCropHeight());
+    }
+
+    /**
+     * the output size changes with the crop, and they're all sent from the GL thread.
+     *
+     * @return the aligned frame of this size in mGLYuvBuffer
+     */
+    private FrameBuffer yuvFrame(int width, int height) {
+        int size = mAlignment.frameSize(width, height);
+        if (mGLYuvBuffer == null || mGLYuvBuffer.capacity() < size) {
+            mGLYuvBuffer = ByteBuffer.allocateDirect(size);
+        }
+        return mAlignment.frameOf(mGLYuvBuffer, width, height);
+    }
+
+    /**
+     * hand the stats of a converted frame to {@link CameraCompat.StatsCaptureCallback}, just
+     * before the frame itself, if they are collected.
+     *
+     * @return whether the frame is converted
+     */
+    private boolean sendStats(int ret) {
+        if (ret == 0 && mStats != null && mStats.isCollected()) {
+            ((CameraCompat.StatsCaptureCallback) mVideoCaptureCallback).onFrameStats(mStats);
+        }
+        return ret == 0;
+    }
+
+    private void sendFrame(int width, int height) {
+        mVideoCaptureCallback.onFrameData(
+                mGLYuvBytes.of(mGLYuvBuffer, mAlignment.frameSize(width, height)), width, height);
+        mRenditions.send(mVideoCaptureCallback, mGLYuvBuffer, width, height);
+    }
+
+    /**
+     * @return the buffer of {@link CameraCompat.BufferCaptureCallback} to convert the frame into,
+     * or {@code null} to convert it into mGLYuvBuffer
+     */
+    @Nullable
+    private FrameBuffer dequeueFrameBuffer(int width, int height) {
+        // renditions are scaled from the converted frame
+        if (!(mVideoCaptureCallback instanceof CameraCompat.BufferCaptureCallback)
+            || !mRenditions.isEmpty()) {
+            return null;
+        }
+        return ((CameraCompat.BufferCaptureCallback) mVideoCaptureCallback).dequeueFrameBuffer(
+                width, height);
+    }
+
+    private void sendFrameBuffer(FrameBuffer buffer, int width, int height, boolean filled) {
+        ((CameraCompat.BufferCaptureCallback) mVideoCaptureCallback).onFrameData(buffer, width,
+                height, filled);
+    }
+
+    /**
+     * the sessions are recreated only when the frame size or the transform changes, and released
+     * at {@link #tearDown()}.
+     */
+    private FrameSession beautifySession(int width, int height) {
+        FrameTransform transform = beautifyTransform(width, height);
+        FrameSession session = mBeautifySession;
+        if (session == null || !session.matches(width, height, transform)) {
+            if (session != null) {
+                session.release();
             }
-        } else {
-            if (mGLRender.getRotation() == Rotation.ROTATION_90) {
-                RgbYuvConverter.image2yuvCropRotateC180(image, mGLRender.getVideoHeight(),
-                        mGLYuvBuffer.array());
-            } else {
-                RgbYuvConverter.image2yuvCrop(image, mGLRender.getVideoHeight(),
-                        mGLYuvBuffer.array());
+            session = new FrameSession(width, height, transform);
+            mBeautifySession = session;
+        }
+        return session;
+    }
+
+    private FrameSession normalSession(int width, int height) {
+        FrameTransform transform = normalTransform(width, height, mGLRender.getVideoHeight());
+        FrameSession session = mNormalSession;
+        if (session == null || !session.matches(width, height, transform)) {
+            if (session != null) {
+                session.release();
             }
+            session = new FrameSession(width, height, transform);
+            mNormalSession = session;
+        }
+        return session;
+    }
+
+    /**
+     * crop the {@link VideoCrop} of the portrait image, rotate the dumped image to portrait, and
+     * flip front camera's image unless mirror is enabled.
+     */
+    private FrameTransform beautifyTransform(int width, int height) {
+        boolean flip = mIsFrontCamera && !mEnableMirror;
+        int[] crop = mVideoCrop.inputCrop(width, height, 90, false, flip, height, width);
+        FrameTransform transform = mBeautifyTransform;
+        if (transform == null || transform.isFlipVertical() != flip
+            || transform.getCropX() != crop[0] || transform.getCropY() != crop[1]
+            || transform.getCropWidth() != crop[2] || transform.getCropHeight() != crop[3]) {
+            transform = new FrameTransform.Builder()
+                    .crop(crop[0], crop[1], crop[2], crop[3])
+                    .rotation(90)
+                    .flipVertical(flip)
+                    .outputFormat(mOutputFormat)
+                    .accuracy(mAccuracy)
+                    .build();
+            mBeautifyTransform = transform;
+        }
+        return transform;
+    }
+
+    /**
+     * crop the {@link VideoCrop}, the center {@code outputHeight} rows by default, rotate 180
+     * degree for ROTATION_90, and mirror front camera if mirror is enabled.
+     */
+    private FrameTransform normalTransform(int width, int height, int outputHeight) {
+        int rotation = mGLRender.getRotation() == Rotation.ROTATION_90 ? 180 : 0;
+        boolean flip = mIsFrontCamera && mEnableMirror;
+        int[] crop = mVideoCrop.inputCrop(width, height, rotation, false, flip, width,
+                outputHeight);
+        FrameTransform transform = mNormalTransform;
+        if (transform == null || transform.getRotation() != rotation
+            || transform.isFlipVertical() != flip || transform.getCropX() != crop[0]
+            || transform.getCropY() != crop[1] || transform.getCropWidth() != crop[2]
+            || transform.getCropHeight() != crop[3]) {
+            transform = new FrameTransform.Builder()
+                    .crop(crop[0], crop[1], crop[2], crop[3])
+                    .rotation(rotation)
+                    .flipVertical(flip)
+                    .outputFormat(mOutputFormat)
+                    .accuracy(mAccuracy)
+                    .build();
+            mNormalTransform = transform;
         }
-        mVideoCaptureCallback.onFrameData(mGLYuvBuffer.array(), image.getWidth(),
-                mGLRender.getVideoHeight());
+        return transform;
     }
 
     @Override
     public void onVideoSizeChanged(int width, int height) {
-        mVideoCaptureCallback.onVideoSizeChanged(width, height);
+        int[] region = mVideoCrop.regionOf(width, mFrameHeight, width, height);
+        mVideoCaptureCallback.onVideoSizeChanged(region[2], region[3]);
+        mAlignment.notifyLayout(mVideoCaptureCallback, region[2], region[3]);
     }
 }
@@ -0,0 +1,1351 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pure Java version of every conversion in rgb-yuv-converter-library, used when the native
+ * library can't be loaded, e.g. on the host JVM. It produces byte for byte the same output as
+ * the native scalar kernels, see cpp/yuv_kernels_c.c, cpp/yuv_matrix.c, cpp/yuv_convert.c and
+ * cpp/yuv_scale.c.
+ *
+ * Inner loops only do int arithmetic with running indices, so the JIT could hoist the bound
+ * checks, and frames could be split into bands converted by a fork join pool.
+ */
+final class JavaConverter {
+    private static final int MAX_THREADS = 8;
+
+    // same values as RgbYuvConverter.COLOR_MATRIX_* and MAX_RENDITIONS, not referenced so this
+    // class builds without the android framework, see the benchmark module
+    private static final int MATRIX_LEGACY = 0;
+    private static final int MATRIX_BT601_LIMITED = 1;
+    private static final int MATRIX_BT601_FULL = 2;
+    private static final int MATRIX_BT709_LIMITED = 3;
+    private static final int MATRIX_BT709_FULL = 4;
+    private static final int MAX_RENDITIONS = 8;
+    private static final int STATS_BINS = 256;
+
+    // same values as FrameTransform.ACCURACY_*
+    private static final int ACCURACY_FAST = 1;
+    private static final int ACCURACY_EXACT = 2;
+    private static final int ACCURACY_REFERENCE = 3;
+
+    private static final int[][] sMatrices = new int[MATRIX_BT709_FULL + 1][];
+    private static final double[][] sReferenceMatrices = new double[MATRIX_BT709_FULL + 1][];
+
+    // lookup tables of one matrix, 256 entries each, see YuvMatrix in cpp/yuv_matrix.h
+    private static final int LUT_Y = 0;
+    private static final int R_CR = 256;
+    private static final int G_CB = 512;
+    private static final int G_CR = 768;
+    private static final int B_CB = 1024;
+    private static final int Y_R = 1280;
+    private static final int Y_G = 1536;
+    private static final int Y_B = 1792;
+    private static final int CB_R = 2048;
+    private static final int CB_G = 2304;
+    private static final int CB_B = 2560;
+    private static final int CR_R = 2816;
+    private static final int CR_G = 3072;
+    private static final int CR_B = 3328;
+
+    // coefficients of the reference accuracy, see YuvFloatMatrix in cpp/yuv_matrix.c
+    private static final int F_Y_OFFSET = 0;
+    private static final int F_Y_INV = 1;
+    private static final int F_C_INV = 2;
+    private static final int F_R_CR = 3;
+    private static final int F_G_CB = 4;
+    private static final int F_G_CR = 5;
+    private static final int F_B_CB = 6;
+    private static final int F_Y_R = 7;
+    private static final int F_Y_G = 8;
+    private static final int F_Y_B = 9;
+    private static final int F_CB_R = 10;
+    private static final int F_CB_G = 11;
+    private static final int F_CB_B = 12;
+    private static final int F_CR_R = 13;
+    private static final int F_CR_G = 14;
+    private static final int F_CR_B = 15;
+
+    // resolved transform, output pixel (x, y) comes from input pixel
+    // (COL + x * U_COL + y * V_COL, ROW + x * U_ROW + y * V_ROW)
+    static final int OUTPUT_WIDTH = 0;
+    static final int OUTPUT_HEIGHT = 1;
+    static final int COL = 2;
+    static final int ROW = 3;
+    static final int U_COL = 4;
+    static final int U_ROW = 5;
+    static final int V_COL = 6;
+    static final int V_ROW = 7;
+
+    private static volatile int sColorMatrix = MATRIX_LEGACY;
+    private static volatile int sThreadCount = 1;
+    private static volatile ForkJoinPool sPool;
+
+    static {
+        for (int i = MATRIX_BT601_LIMITED; i < sMatrices.length; i++) {
+            sMatrices[i] = buildMatrix(i);
+            sReferenceMatrices[i] = buildReferenceMatrix(i);
+        }
+    }
+
+    private JavaConverter() {
+        // no instance
+    }
+
+    static String kernelName() {
+        return "java";
+    }
+
+    static synchronized int setThreadCount(int threadCount) {
+        int threads = Math.max(1, Math.min(threadCount, MAX_THREADS));
+        if (threads == sThreadCount) {
+            return threads;
+        }
+        ForkJoinPool old = sPool;
+        sPool = null;
+        if (old != null) {
+            old.shutdown();
+        }
+        if (threads > 1) {
+            try {
+                sPool = new ForkJoinPool(threads - 1);
+            } catch (NoClassDefFoundError e) {
+                // ForkJoinPool is only available since Lollipop
+                threads = 1;
+            }
+        }
+        sThreadCount = threads;
+        return threads;
+    }
+
+    static int setColorMatrix(int colorMatrix) {
+        if (colorMatrix < MATRIX_LEGACY || colorMatrix >= sMatrices.length) {
+            return -1;
+        }
+        sColorMatrix = colorMatrix;
+        return 0;
+    }
+
+    static int yuv2rgba(int width, int height, ByteBuffer yuvIn, ByteBuffer rgbaOut) {
+        Bytes yuv = Bytes.read(yuvIn, (long) width * height * 3 / 2);
+        Bytes rgba = Bytes.write(rgbaOut, (long) width * height * 4);
+        if (yuv == null || rgba == null) {
+            return -1;
+        }
+        Planes planes = Planes.of(yuv, FrameTransform.FORMAT_NV21, width, height);
+        FrameTransform whole = new FrameTransform.Builder()
+                .outputFormat(FrameTransform.FORMAT_RGBA)
+                .build();
+        int ret = transform(planes, width, height, whole, rgba, null);
+        rgba.commit(rgbaOut);
+        return ret;
+    }
+
+    static int image2rgba(int width, int height, ByteBuffer Y, ByteBuffer Cr, ByteBuffer Cb,
+            int YRowStride, int CRowStride, int CrPixelStride, int CbPixelStride,
+            ByteBuffer rgbaOut) {
+        FrameTransform whole = new FrameTransform.Builder()
+                .outputFormat(FrameTransform.FORMAT_RGBA)
+                .build();
+        return imageTransform(width, height, Y, Cr, Cb, YRowStride, CRowStride, CrPixelStride,
+                CbPixelStride, whole, rgbaOut);
+    }
+
+    static int yuvTransform(int width, int height, ByteBuffer yuvIn, FrameTransform transform,
+            ByteBuffer out) {
+        return yuvTransform(width, height, yuvIn, transform, out, null);
+    }
+
+    /**
+     * @param histogram filled with the luma histogram of the frame like yuv_transform_run in
+     * cpp/yuv_convert.c, or null to skip it
+     */
+    static int yuvTransform(int width, int height, ByteBuffer yuvIn, FrameTransform transform,
+            ByteBuffer out, int[] histogram) {
+        long size = outputSize(transform, width, height);
+        Bytes yuv = Bytes.read(yuvIn, (long) width * height * 3 / 2);
+        Bytes output = size < 0 ? null : Bytes.write(out, size);
+        if (yuv == null || output == null) {
+            return -1;
+        }
+        int ret = transform(Planes.of(yuv, FrameTransform.FORMAT_NV21, width, height), width,
+                height, transform, output, histogram);
+        output.commit(out);
+        return ret;
+    }
+
+    static int imageTransform(int width, int height, ByteBuffer Y, ByteBuffer Cr, ByteBuffer Cb,
+            int YRowStride, int CRowStride, int CrPixelStride, int CbPixelStride,
+            FrameTransform transform, ByteBuffer out) {
+        return imageTransform(width, height, Y, Cr, Cb, YRowStride, CRowStride, CrPixelStride,
+                CbPixelStride, transform, out, null);
+    }
+
+    static int imageTransform(int width, int height, ByteBuffer Y, ByteBuffer Cr, ByteBuffer Cb,
+            int YRowStride, int CRowStride, int CrPixelStride, int CbPixelStride,
+            FrameTransform transform, ByteBuffer out, int[] histogram) {
+        long size = outputSize(transform, width, height);
+        // the last row of a plane could be shorter than its row stride
+        long cSize = (long) ((height >> 1) - 1) * CRowStride
+                     + (long) ((width >> 1) - 1) * CrPixelStride + 1;
+        if (size < 0 || CrPixelStride != CbPixelStride || YRowStride < width
+            || CRowStride < (width >> 1) * CrPixelStride) {
+            return -1;
+        }
+        Bytes y = Bytes.read(Y, (long) (height - 1) * YRowStride + width);
+        Bytes cr = Bytes.read(Cr, cSize);
+        Bytes cb = Bytes.read(Cb, cSize);
+        Bytes output = Bytes.write(out, size);
+        if (y == null || cr == null || cb == null || output == null) {
+            return -1;
+        }
+        Planes planes = new Planes(y.mArray, y.mOffset, YRowStride, cr.mArray, cr.mOffset,
+                cb.mArray, cb.mOffset, CRowStride, CrPixelStride);
+        int ret = transform(planes, width, height, transform, output, histogram);
+        output.commit(out);
+        return ret;
+    }
+
+    static int rgbaTransform(int width, int height, ByteBuffer rgbaIn, FrameTransform transform,
+            ByteBuffer yuvOut) {
+        return rgbaTransform(width, height, rgbaIn, transform, yuvOut, null);
+    }
+
+    static int rgbaTransform(int width, int height, ByteBuffer rgbaIn, FrameTransform transform,
+            ByteBuffer yuvOut, int[] histogram) {
+        long size = outputSize(transform, width, height);
+        Bytes rgba = Bytes.read(rgbaIn, (long) width * height * 4);
+        Bytes yuv = size < 0 ? null : Bytes.write(yuvOut, size);
+        if (rgba == null || yuv == null) {
+            return -1;
+        }
+        int ret = rgbaTransform(rgba, width, height, transform, yuv, histogram);
+        yuv.commit(yuvOut);
+        return ret;
+    }
+
+    /**
+     * same as yuvTransformInto in cpp/RgbYuvEncoder.c, but convert into a temporary frame, and
+     * copy it into the planes.
+     */
+    static int yuvTransform(int width, int height, ByteBuffer yuvIn, FrameTransform transform,
+            ByteBuffer YOut, ByteBuffer CrOut, ByteBuffer CbOut, int YOffset, int CrOffset,
+            int CbOffset, int YRowStride, int CRowStride, int CPixelStride, int[] histogram) {
+        long size = outputSize(transform, width, height);
+        if (size < 0) {
+            return -1;
+        }
+        ByteBuffer frame = ByteBuffer.allocate((int) size);
+        if (yuvTransform(width, height, yuvIn, transform, frame, histogram) != 0) {
+            return -1;
+        }
+        return scatter(frame.array(), transform, width, height, YOut, CrOut, CbOut, YOffset,
+                CrOffset, CbOffset, YRowStride, CRowStride, CPixelStride);
+    }
+
+    static int imageTransform(int width, int height, ByteBuffer Y, ByteBuffer Cr, ByteBuffer Cb,
+            int YRowStride, int CRowStride, int CrPixelStride, int CbPixelStride,
+            FrameTransform transform, ByteBuffer YOut, ByteBuffer CrOut, ByteBuffer CbOut,
+            int YOffset, int CrOffset, int CbOffset, int YOutRowStride, int COutRowStride,
+            int COutPixelStride, int[] histogram) {
+        long size = outputSize(transform, width, height);
+        if (size < 0) {
+            return -1;
+        }
+        ByteBuffer frame = ByteBuffer.allocate((int) size);
+        if (imageTransform(width, height, Y, Cr, Cb, YRowStride, CRowStride, CrPixelStride,
+                CbPixelStride, transform, frame, histogram) != 0) {
+            return -1;
+        }
+        return scatter(frame.array(), transform, width, height, YOut, CrOut, CbOut, YOffset,
+                CrOffset, CbOffset, YOutRowStride, COutRowStride, COutPixelStride);
+    }
+
+    static int rgbaTransform(int width, int height, ByteBuffer rgbaIn, FrameTransform transform,
+            ByteBuffer YOut, ByteBuffer CrOut, ByteBuffer CbOut, int YOffset, int CrOffset,
+            int CbOffset, int YRowStride, int CRowStride, int CPixelStride, int[] histogram) {
+        long size = outputSize(transform, width, height);
+        if (size < 0 || transform.getOutputFormat() == FrameTransform.FORMAT_RGBA) {
+            return -1;
+        }
+        ByteBuffer frame = ByteBuffer.allocate((int) size);
+        if (rgbaTransform(width, height, rgbaIn, transform, frame, histogram) != 0) {
+            return -1;
+        }
+        return scatter(frame.array(), transform, width, height, YOut, CrOut, CbOut, YOffset,
+                CrOffset, CbOffset, YRowStride, CRowStride, CPixelStride);
+    }
+
+    static int yuvScale(int width, int height, int format, ByteBuffer yuvIn, int[] sizes,
+            ByteBuffer[] outs) {
+        int count = outs.length;
+        Bytes yuv = Bytes.read(yuvIn, (long) width * height * 3 / 2);
+        if (yuv == null || count <= 0 || count > MAX_RENDITIONS
+            || sizes.length != count * 2) {
+            return -1;
+        }
+        Bytes[] renditions = new Bytes[count];
+        for (int i = 0; i < count; i++) {
+            int w = sizes[i * 2];
+            int h = sizes[i * 2 + 1];
+            renditions[i] = outs[i] == null ? null : Bytes.write(outs[i], (long) w * h * 3 / 2);
+            if (renditions[i] == null) {
+                return -1;
+            }
+        }
+        int ret = scale(yuv, format, width, height, sizes, renditions);
+        for (int i = 0; i < count; i++) {
+            renditions[i].commit(outs[i]);
+        }
+        return ret;
+    }
+
+    static int mirror(int width, int height, int format, ByteBuffer frame, boolean horizontal,
+            boolean vertical) {
+        long size = format == FrameTransform.FORMAT_RGBA ? (long) width * height * 4
+                                                         : (long) width * height * 3 / 2;
+        // the copy of a direct buffer is written back by commit
+        Bytes bytes = frame == null || frame.isReadOnly() ? null : Bytes.read(frame, size);
+        if (bytes == null) {
+            return -1;
+        }
+        int ret = mirror(bytes, format, width, height, horizontal, vertical);
+        bytes.commit(frame);
+        return ret;
+    }
+
+    /**
+     * same as the native rgba2yuv, including its off channel extraction: {@code >} is used where
+     * {@code >>} is meant, so R and G are always 0 or 1.
+     */
+    static int rgba2yuv(int width, int height, int[] rgba, byte[] yuv) {
+        int outputWidth = height;
+        int outputHeight = width;
+        int size = outputWidth * outputHeight;
+        for (int y = 0; y < outputHeight; y++) {
+            int yIndex = y * outputWidth;
+            int cIndex = size + (y >> 1) * outputWidth;
+            for (int x = 0; x < outputWidth; x++) {
+                int value = rgba[outputHeight * (outputWidth - 1 - x) + y];
+                int R = (value & 0x00FF0000) > 16 ? 1 : 0;
+                int G = (value & 0x0000FF00) > 8 ? 1 : 0;
+                int B = value & 0x000000FF;
+                yuv[yIndex + x] = (byte) ((R >> 2) + (R >> 7) + (G >> 1) + (G >> 8) + (B >> 4)
+                                          + (B >> 5) + (B >> 8) + 16);
+                if ((y & 0x1) == 0 && (x & 0x1) == 0) {
+                    yuv[cIndex + x] = (byte) ((R >> 1) - (R >> 4) - (G >> 2) - (G >> 3) + (G >> 7)
+                                              - (B >> 4) - (B >> 7) + 128);
+                    yuv[cIndex + x + 1] = (byte) (-(R >> 3) - (R >> 6) - (R >> 7) - (G >> 2)
+                                                  - (G >> 5) - (G >> 7) + (B >> 1) - (B >> 4)
+                                                  + 128);
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * copy a continuous output frame into the planes of a buffer of the caller, with the same
+     * checks as bufferOutput in cpp/RgbYuvEncoder.c and check_output in cpp/yuv_convert.c,
+     * nothing is written if any of them fails. Only the samples are written, the padding
+     * between them is left untouched.
+     */
+    private static int scatter(byte[] frame, FrameTransform transform, int width, int height,
+            ByteBuffer YOut, ByteBuffer CrOut, ByteBuffer CbOut, int YOffset, int CrOffset,
+            int CbOffset, int YRowStride, int CRowStride, int CPixelStride) {
+        int[] mapping = resolve(transform, width, height);
+        int format = transform.getOutputFormat();
+        int outputWidth = mapping[OUTPUT_WIDTH];
+        int outputHeight = mapping[OUTPUT_HEIGHT];
+        int rowBytes = format == FrameTransform.FORMAT_RGBA ? outputWidth * 4 : outputWidth;
+        if (YOffset < 0 || YRowStride < rowBytes
+            || !writable(YOut, YOffset + (long) (outputHeight - 1) * YRowStride + rowBytes)) {
+            return -1;
+        }
+        Planes planes = Planes.of(new Bytes(frame, 0, false), format, outputWidth, outputHeight);
+        int cWidth = outputWidth >> 1;
+        int cHeight = outputHeight >> 1;
+        // the chroma samples of a row are written together if Cr and Cb are interleaved in the
+        // same buffer
+        boolean interleaved = CPixelStride == 2 && CrOut == CbOut;
+        if (planes != null) {
+            long cSize = (long) (cHeight - 1) * CRowStride + (long) (cWidth - 1) * CPixelStride
+                         + 1;
+            if (CrOffset < 0 || CbOffset < 0 || (CPixelStride != 1 && CPixelStride != 2)
+                || CRowStride < cWidth * CPixelStride
+                || !writable(CrOut, CrOffset + cSize) || !writable(CbOut, CbOffset + cSize)
+                || (interleaved && Math.abs(CrOffset - CbOffset) != 1)) {
+                return -1;
+            }
+        }
+
+        ByteBuffer y = YOut.duplicate();
+        for (int row = 0; row < outputHeight; row++) {
+            y.clear();
+            y.position(YOffset + row * YRowStride);
+            y.put(frame, row * rowBytes, rowBytes);
+        }
+        if (planes == null) {
+            return 0;
+        }
+        ByteBuffer cr = CrOut.duplicate();
+        ByteBuffer cb = CbOut.duplicate();
+        byte[] pairs = interleaved ? new byte[cWidth * 2] : null;
+        int first = Math.min(CrOffset, CbOffset);
+        for (int row = 0; row < cHeight; row++) {
+            int crIndex = planes.mCrOffset + row * planes.mCRowStride;
+            int cbIndex = planes.mCbOffset + row * planes.mCRowStride;
+            int step = planes.mCPixelStride;
+            if (interleaved) {
+                // a row of pairs ends right at the last sample of the second plane
+                for (int col = 0; col < cWidth; col++) {
+                    pairs[col * 2 + CrOffset - first] = frame[crIndex + col * step];
+                    pairs[col * 2 + CbOffset - first] = frame[cbIndex + col * step];
+                }
+                cr.clear();
+                cr.position(first + row * CRowStride);
+                cr.put(pairs);
+            } else if (CPixelStride == 1 && step == 1) {
+                cr.clear();
+                cr.position(CrOffset + row * CRowStride);
+                cr.put(frame, crIndex, cWidth);
+                cb.clear();
+                cb.position(CbOffset + row * CRowStride);
+                cb.put(frame, cbIndex, cWidth);
+            } else {
+                for (int col = 0; col < cWidth; col++) {
+                    cr.put(CrOffset + row * CRowStride + col * CPixelStride,
+                            frame[crIndex + col * step]);
+                    cb.put(CbOffset + row * CRowStride + col * CPixelStride,
+                            frame[cbIndex + col * step]);
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static boolean writable(ByteBuffer buffer, long size) {
+        return buffer != null && !buffer.isReadOnly() && buffer.capacity() >= size;
+    }
+
+    private static int[] buildMatrix(int type) {
+        boolean bt601 = type == MATRIX_BT601_LIMITED
+                        || type == MATRIX_BT601_FULL;
+        boolean limited = type == MATRIX_BT601_LIMITED
+                          || type == MATRIX_BT709_LIMITED;
+        double kr = bt601 ? 0.299 : 0.2126;
+        double kb = bt601 ? 0.114 : 0.0722;
+        double kg = 1 - kr - kb;
+        double yScale = limited ? 219.0 / 255 : 1;
+        double cScale = limited ? 224.0 / 255 : 1;
+        int yOffset = limited ? 16 : 0;
+        int[] m = new int[256 * 14];
+        for (int i = 0; i < 256; i++) {
+            double y = (i - yOffset) / yScale;
+            double c = (i - 128) / cScale;
+            m[LUT_Y + i] = fixed(y) + (1 << 15);
+            m[R_CR + i] = fixed(2 * (1 - kr) * c);
+            m[G_CB + i] = fixed(-2 * kb * (1 - kb) / kg * c);
+            m[G_CR + i] = fixed(-2 * kr * (1 - kr) / kg * c);
+            m[B_CB + i] = fixed(2 * (1 - kb) * c);
+
+            m[Y_R + i] = fixed(kr * yScale * i) + ((yOffset << 16) + (1 << 15));
+            m[Y_G + i] = fixed(kg * yScale * i);
+            m[Y_B + i] = fixed(kb * yScale * i);
+            m[CB_R + i] = fixed(-kr / (2 * (1 - kb)) * cScale * i) + ((128 << 16) + (1 << 15));
+            m[CB_G + i] = fixed(-kg / (2 * (1 - kb)) * cScale * i);
+            m[CB_B + i] = fixed(0.5 * cScale * i);
+            m[CR_R + i] = fixed(0.5 * cScale * i) + ((128 << 16) + (1 << 15));
+            m[CR_G + i] = fixed(-kg / (2 * (1 - kr)) * cScale * i);
+            m[CR_B + i] = fixed(-kb / (2 * (1 - kr)) * cScale * i);
+        }
+        return m;
+    }
+
+    private static int fixed(double v) {
+        v *= 65536;
+        return (int) (v >= 0 ? v + 0.5 : v - 0.5);
+    }
+
+    private static double[] buildReferenceMatrix(int type) {
+        boolean bt601 = type == MATRIX_BT601_LIMITED || type == MATRIX_BT601_FULL;
+        boolean limited = type == MATRIX_BT601_LIMITED || type == MATRIX_BT709_LIMITED;
+        double kr = bt601 ? 0.299 : 0.2126;
+        double kb = bt601 ? 0.114 : 0.0722;
+        double kg = 1 - kr - kb;
+        double yScale = limited ? 219.0 / 255 : 1;
+        double cScale = limited ? 224.0 / 255 : 1;
+        double[] f = new double[16];
+        f[F_Y_OFFSET] = limited ? 16 : 0;
+        f[F_Y_INV] = 1 / yScale;
+        f[F_C_INV] = 1 / cScale;
+        f[F_R_CR] = 2 * (1 - kr);
+        f[F_G_CB] = -2 * kb * (1 - kb) / kg;
+        f[F_G_CR] = -2 * kr * (1 - kr) / kg;
+        f[F_B_CB] = 2 * (1 - kb);
+        f[F_Y_R] = kr * yScale;
+        f[F_Y_G] = kg * yScale;
+        f[F_Y_B] = kb * yScale;
+        f[F_CB_R] = -kr / (2 * (1 - kb)) * cScale;
+        f[F_CB_G] = -kg / (2 * (1 - kb)) * cScale;
+        f[F_CB_B] = 0.5 * cScale;
+        f[F_CR_R] = 0.5 * cScale;
+        f[F_CR_G] = -kg / (2 * (1 - kr)) * cScale;
+        f[F_CR_B] = -kb / (2 * (1 - kr)) * cScale;
+        return f;
+    }
+
+    /**
+     * @return lookup tables of the accuracy, null for the legacy bit operations
+     */
+    private static int[] lutOf(int accuracy, int colorMatrix) {
+        switch (accuracy) {
+            case ACCURACY_FAST:
+                return null;
+            case ACCURACY_EXACT:
+            case ACCURACY_REFERENCE:
+                return sMatrices[colorMatrix == MATRIX_LEGACY ? MATRIX_BT601_LIMITED : colorMatrix];
+            default:
+                return sMatrices[colorMatrix];
+        }
+    }
+
+    /**
+     * @return coefficients of the reference accuracy, null for the others
+     */
+    private static double[] referenceOf(int accuracy, int colorMatrix) {
+        if (accuracy != ACCURACY_REFERENCE) {
+            return null;
+        }
+        return sReferenceMatrices[colorMatrix == MATRIX_LEGACY ? MATRIX_BT601_LIMITED
+                                                               : colorMatrix];
+    }
+
+    private static int round(double v) {
+        return v <= 0 ? 0 : (v >= 255 ? 255 : (int) (v + 0.5));
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    /**
+     * convert {@code width} pixels, pixel x takes luma {@code y[yIndex + x * yStep]}, and chroma
+     * {@code cr[crIndex + (x / 2) * cStep]}, {@code cb[cbIndex + (x / 2) * cStep]}.
+     */
+    private static void yuvToRgbaRow(int[] m, double[] f, byte[] y, int yIndex, int yStep,
+            byte[] cr, int crIndex, byte[] cb, int cbIndex, int cStep, byte[] rgba, int rgbaIndex,
+            int width) {
+        if (f != null) {
+            yuvToRgbaRowReference(f, y, yIndex, yStep, cr, crIndex, cb, cbIndex, cStep, rgba,
+                    rgbaIndex, width);
+            return;
+        }
+        int R = 0;
+        int G = 0;
+        int B = 0;
+        int Cr = 0;
+        int Cb = 0;
+        for (int x = 0; x < width; x++) {
+            if (m == null) {
+                int Y = y[yIndex];
+                if (Y < 0) {
+                    Y += 255;
+                }
+                if ((x & 0x1) == 0) {
+                    Cr = cr[crIndex];
+                    Cr = Cr < 0 ? Cr + 127 : Cr - 128;
+                    Cb = cb[cbIndex];
+                    Cb = Cb < 0 ? Cb + 127 : Cb - 128;
+                    crIndex += cStep;
+                    cbIndex += cStep;
+                }
+                Y = Y + (Y >> 3) + (Y >> 5);
+                R = Y + Cr + (Cr >> 1) + (Cr >> 4) + (Cr >> 5);
+                G = Y - (Cb >> 1) + (Cb >> 3) - Cr + (Cr >> 3) + (Cr >> 4);
+                B = Y + (Cb << 1);
+            } else {
+                if ((x & 0x1) == 0) {
+                    Cr = cr[crIndex] & 0xFF;
+                    Cb = cb[cbIndex] & 0xFF;
+                    crIndex += cStep;
+                    cbIndex += cStep;
+                }
+                int Y = m[LUT_Y + (y[yIndex] & 0xFF)];
+                R = (Y + m[R_CR + Cr]) >> 16;
+                G = (Y + m[G_CB + Cb] + m[G_CR + Cr]) >> 16;
+                B = (Y + m[B_CB + Cb]) >> 16;
+            }
+            rgba[rgbaIndex] = (byte) clamp(R);
+            rgba[rgbaIndex + 1] = (byte) clamp(G);
+            rgba[rgbaIndex + 2] = (byte) clamp(B);
+            rgba[rgbaIndex + 3] = (byte) 0xFF;
+            yIndex += yStep;
+            rgbaIndex += 4;
+        }
+    }
+
+    /**
+     * convert {@code width} pixels, each one {@code pixelStep} bytes after the previous one, into
+     * luma at {@code out[yIndex + x]}, and chroma of the even pixels at
+     * {@code out[crIndex + (x / 2) * cStep]} and {@code out[cbIndex + (x / 2) * cStep]} if
+     * {@code withChroma}.
+     */
+    private static void rgbaToYuvRow(int[] m, double[] f, byte[] rgba, int rgbaIndex,
+            int pixelStep, byte[] out, int yIndex, boolean withChroma, int crIndex, int cbIndex,
+            int cStep, int width) {
+        if (f != null) {
+            rgbaToYuvRowReference(f, rgba, rgbaIndex, pixelStep, out, yIndex, withChroma, crIndex,
+                    cbIndex, cStep, width);
+            return;
+        }
+        for (int x = 0; x < width; x++) {
+            int R = rgba[rgbaIndex] & 0xFF;
+            int G = rgba[rgbaIndex + 1] & 0xFF;
+            int B = rgba[rgbaIndex + 2] & 0xFF;
+            boolean chroma = withChroma && (x & 0x1) == 0;
+            if (m == null) {
+                out[yIndex + x] = (byte) ((R >> 2) + (R >> 7) + (G >> 1) + (G >> 8) + (B >> 4)
+                                          + (B >> 5) + (B >> 8) + 16);
+                if (chroma) {
+                    out[crIndex] = (byte) ((R >> 1) - (R >> 4) - (G >> 2) - (G >> 3) + (G >> 7)
+                                           - (B >> 4) - (B >> 7) + 128);
+                    out[cbIndex] = (byte) (-(R >> 3) - (R >> 6) - (R >> 7) - (G >> 2) - (G >> 5)
+                                           - (G >> 7) + (B >> 1) - (B >> 4) + 128);
+                }
+            } else {
+                out[yIndex + x] = (byte) clamp((m[Y_R + R] + m[Y_G + G] + m[Y_B + B]) >> 16);
+                if (chroma) {
+                    out[crIndex] = (byte) clamp((m[CR_R + R] + m[CR_G + G] + m[CR_B + B]) >> 16);
+                    out[cbIndex] = (byte) clamp((m[CB_R + R] + m[CB_G + G] + m[CB_B + B]) >> 16);
+                }
+            }
+            if (chroma) {
+                crIndex += cStep;
+                cbIndex += cStep;
+            }
+            rgbaIndex += pixelStep;
+        }
+    }
+
+    private static void yuvToRgbaRowReference(double[] f, byte[] y, int yIndex, int yStep,
+            byte[] cr, int crIndex, byte[] cb, int cbIndex, int cStep, byte[] rgba, int rgbaIndex,
+            int width) {
+        double R = 0;
+        double G = 0;
+        double B = 0;
+        for (int x = 0; x < width; x++) {
+            if ((x & 0x1) == 0) {
+                double Cr = ((cr[crIndex] & 0xFF) - 128) * f[F_C_INV];
+                double Cb = ((cb[cbIndex] & 0xFF) - 128) * f[F_C_INV];
+                R = f[F_R_CR] * Cr;
+                G = f[F_G_CB] * Cb + f[F_G_CR] * Cr;
+                B = f[F_B_CB] * Cb;
+                crIndex += cStep;
+                cbIndex += cStep;
+            }
+            double Y = ((y[yIndex] & 0xFF) - f[F_Y_OFFSET]) * f[F_Y_INV];
+            rgba[rgbaIndex] = (byte) round(Y + R);
+            rgba[rgbaIndex + 1] = (byte) round(Y + G);
+            rgba[rgbaIndex + 2] = (byte) round(Y + B);
+            rgba[rgbaIndex + 3] = (byte) 0xFF;
+            yIndex += yStep;
+            rgbaIndex += 4;
+        }
+    }
+
+    private static void rgbaToYuvRowReference(double[] f, byte[] rgba, int rgbaIndex,
+            int pixelStep, byte[] out, int yIndex, boolean withChroma, int crIndex, int cbIndex,
+            int cStep, int width) {
+        for (int x = 0; x < width; x++) {
+            int R = rgba[rgbaIndex] & 0xFF;
+            int G = rgba[rgbaIndex + 1] & 0xFF;
+            int B = rgba[rgbaIndex + 2] & 0xFF;
+            out[yIndex + x] = (byte) round(f[F_Y_R] * R + f[F_Y_G] * G + f[F_Y_B] * B
+                                           + f[F_Y_OFFSET]);
+            if (withChroma && (x & 0x1) == 0) {
+                out[crIndex] = (byte) round(f[F_CR_R] * R + f[F_CR_G] * G + f[F_CR_B] * B + 128);
+                out[cbIndex] = (byte) round(f[F_CB_R] * R + f[F_CB_G] * G + f[F_CB_B] * B + 128);
+                crIndex += cStep;
+                cbIndex += cStep;
+            }
+            rgbaIndex += pixelStep;
+        }
+    }
+
+    /**
+     * @return output size of the transform in bytes, or -1 if it's invalid
+     */
+    private static long outputSize(FrameTransform transform, int width, int height) {
+        int[] mapping = resolve(transform, width, height);
+        if (mapping == null) {
+            return -1;
+        }
+        return transform.getOutputFormat() == FrameTransform.FORMAT_RGBA
+               ? (long) mapping[OUTPUT_WIDTH] * mapping[OUTPUT_HEIGHT] * 4
+               : (long) mapping[OUTPUT_WIDTH] * mapping[OUTPUT_HEIGHT] * 3 / 2;
+    }
+
+    /**
+     * fill the default crop, check it, and get the mapping from output to input, the same as
+     * resolve_transform in cpp/yuv_convert.c.
+     *
+     * @return null if the transform is invalid
+     */
+    static int[] resolve(FrameTransform transform, int width, int height) {
+        int cropX = transform.getCropX();
+        int cropY = transform.getCropY();
+        int cropWidth = transform.getCropWidth();
+        int cropHeight = transform.getCropHeight();
+        if (cropWidth == 0 && cropHeight == 0) {
+            cropWidth = width - cropX;
+            cropHeight = height - cropY;
+        }
+        if (cropX < 0 || cropY < 0 || cropWidth <= 0 || cropHeight <= 0
+            || cropX + cropWidth > width || cropY + cropHeight > height
+            || ((cropX | cropY | cropWidth | cropHeight) & 0x1) != 0) {
+            return null;
+        }
+        int rotation = transform.getRotation();
+        boolean transpose = rotation == 90 || rotation == 270;
+        int[] mapping = new int[8];
+        mapping[OUTPUT_WIDTH] = transpose ? cropHeight : cropWidth;
+        mapping[OUTPUT_HEIGHT] = transpose ? cropWidth : cropHeight;
+        int[] origin = mapPixel(transform, cropX, cropY, cropWidth, cropHeight, mapping, 0, 0);
+        int[] right = mapPixel(transform, cropX, cropY, cropWidth, cropHeight, mapping, 1, 0);
+        int[] down = mapPixel(transform, cropX, cropY, cropWidth, cropHeight, mapping, 0, 1);
+        mapping[COL] = origin[0];
+        mapping[ROW] = origin[1];
+        mapping[U_COL] = right[0] - origin[0];
+        mapping[U_ROW] = right[1] - origin[1];
+        mapping[V_COL] = down[0] - origin[0];
+        mapping[V_ROW] = down[1] - origin[1];
+        return mapping;
+    }
+
+    private static int[] mapPixel(FrameTransform transform, int cropX, int cropY, int cropWidth,
+            int cropHeight, int[] mapping, int x, int y) {
+        if (transform.isFlipHorizontal()) {
+            x = mapping[OUTPUT_WIDTH] - 1 - x;
+        }
+        if (transform.isFlipVertical()) {
+            y = mapping[OUTPUT_HEIGHT] - 1 - y;
+        }
+        int col;
+        int row;
+        switch (transform.getRotation()) {
+            case 90:
+                col = y;
+                row = cropHeight - 1 - x;
+                break;
+            case 180:
+                col = cropWidth - 1 - x;
+                row = cropHeight - 1 - y;
+                break;
+            case 270:
+                col = cropWidth - 1 - y;
+                row = x;
+                break;
+            default:
+                col = x;
+                row = y;
+                break;
+        }
+        return new int[] { col + cropX, row + cropY };
+    }
+
+    private static int transform(final Planes in, int width, int height,
+            FrameTransform transform, final Bytes out, final int[] histogram) {
+        final int[] m = resolve(transform, width, height);
+        if (m == null) {
+            return -1;
+        }
+        clearStats(histogram);
+        final int outputWidth = m[OUTPUT_WIDTH];
+        final int format = transform.getOutputFormat();
+        final Planes outPlanes = format == FrameTransform.FORMAT_RGBA
+                                 ? null : Planes.of(out, format, outputWidth, m[OUTPUT_HEIGHT]);
+        if (format != FrameTransform.FORMAT_RGBA && outPlanes == null) {
+            return -1;
+        }
+        final int colorMatrix = sColorMatrix;
+        final int[] matrix = lutOf(transform.getAccuracy(), colorMatrix);
+        final double[] reference = referenceOf(transform.getAccuracy(), colorMatrix);
+        // step between two adjacent output pixels, and two adjacent output chroma samples
+        final int yStep = m[U_COL] + m[U_ROW] * in.mYRowStride;
+        final int cStep = m[U_COL] * in.mCPixelStride + m[U_ROW] * in.mCRowStride;
+        final int pairs = outputWidth >> 1;
+        runBands((begin, end) -> {
+            int[] counts = histogram == null ? null : new int[STATS_BINS];
+            for (int y = begin; y < end; y++) {
+                int col = m[COL] + y * m[V_COL];
+                int row = m[ROW] + y * m[V_ROW];
+                int yIndex = in.mYOffset + row * in.mYRowStride + col;
+                // output rows 2n and 2n + 1 share the chroma of the same input 2x2 blocks
+                int cOffset = (row >> 1) * in.mCRowStride + (col >> 1) * in.mCPixelStride;
+                int crIndex = in.mCrOffset + cOffset;
+                int cbIndex = in.mCbOffset + cOffset;
+                if (outPlanes == null) {
+                    yuvToRgbaRow(matrix, reference, in.mY, yIndex, yStep, in.mCr, crIndex, in.mCb,
+                            cbIndex, cStep, out.mArray, out.mOffset + y * outputWidth * 4,
+                            outputWidth);
+                    if (counts != null && (y & 0x1) == 0) {
+                        // luma of the output pixels
+                        sampleLuma(counts, in.mY, yIndex, yStep, outputWidth);
+                    }
+                    continue;
+                }
+                byte[] src = in.mY;
+                byte[] dst = out.mArray;
+                int dstIndex = outPlanes.mYOffset + y * outputWidth;
+                for (int x = 0; x < outputWidth; x++) {
+                    dst[dstIndex + x] = src[yIndex];
+                    yIndex += yStep;
+                }
+                if ((y & 0x1) != 0) {
+                    continue;
+                }
+                if (counts != null) {
+                    sampleLuma(counts, dst, dstIndex, 1, outputWidth);
+                }
+                int c = (y >> 1) * outPlanes.mCRowStride;
+                int outCr = outPlanes.mCrOffset + c;
+                int outCb = outPlanes.mCbOffset + c;
+                for (int i = 0; i < pairs; i++) {
+                    dst[outCr] = in.mCr[crIndex];
+                    dst[outCb] = in.mCb[cbIndex];
+                    outCr += outPlanes.mCPixelStride;
+                    outCb += outPlanes.mCPixelStride;
+                    crIndex += cStep;
+                    cbIndex += cStep;
+                }
+            }
+            mergeStats(histogram, counts);
+        }, m[OUTPUT_HEIGHT]);
+        return 0;
+    }
+
+    private static int rgbaTransform(final Bytes rgba, final int width, int height,
+            FrameTransform transform, final Bytes out, final int[] histogram) {
+        final int[] m = resolve(transform, width, height);
+        if (m == null) {
+            return -1;
+        }
+        clearStats(histogram);
+        final int outputWidth = m[OUTPUT_WIDTH];
+        final Planes outPlanes = Planes.of(out, transform.getOutputFormat(), outputWidth,
+                m[OUTPUT_HEIGHT]);
+        if (outPlanes == null) {
+            return -1;
+        }
+        final int colorMatrix = sColorMatrix;
+        final int[] matrix = lutOf(transform.getAccuracy(), colorMatrix);
+        final double[] reference = referenceOf(transform.getAccuracy(), colorMatrix);
+        final int pixelStep = (m[U_COL] + m[U_ROW] * width) * 4;
+        runBands((begin, end) -> {
+            int[] counts = histogram == null ? null : new int[STATS_BINS];
+            for (int y = begin; y < end; y++) {
+                int col = m[COL] + y * m[V_COL];
+                int row = m[ROW] + y * m[V_ROW];
+                int c = (y >> 1) * outPlanes.mCRowStride;
+                rgbaToYuvRow(matrix, reference, rgba.mArray,
+                        rgba.mOffset + (row * width + col) * 4, pixelStep, out.mArray,
+                        outPlanes.mYOffset + y * outputWidth, (y & 0x1) == 0,
+                        outPlanes.mCrOffset + c, outPlanes.mCbOffset + c, outPlanes.mCPixelStride,
+                        outputWidth);
+                if (counts != null && (y & 0x1) == 0) {
+                    sampleLuma(counts, out.mArray, outPlanes.mYOffset + y * outputWidth, 1,
+                            outputWidth);
+                }
+            }
+            mergeStats(histogram, counts);
+        }, m[OUTPUT_HEIGHT]);
+        return 0;
+    }
+
+    /**
+     * count the even pixels of an output row, its luma is {@code step} apart from {@code index}.
+     */
+    private static void sampleLuma(int[] counts, byte[] luma, int index, int step, int width) {
+        for (int x = 0; x < width; x += 2) {
+            counts[luma[index + x * step] & 0xFF]++;
+        }
+    }
+
+    private static void clearStats(int[] histogram) {
+        if (histogram != null) {
+            Arrays.fill(histogram, 0, STATS_BINS, 0);
+        }
+    }
+
+    /**
+     * add the counts of a band, bands count separately, and merge when they finish.
+     */
+    private static void mergeStats(int[] histogram, int[] counts) {
+        if (histogram == null) {
+            return;
+        }
+        synchronized (histogram) {
+            for (int i = 0; i < STATS_BINS; i++) {
+                histogram[i] += counts[i];
+            }
+        }
+    }
+
+    private static int scale(Bytes in, int format, int width, int height, int[] sizes,
+            Bytes[] outs) {
+        Planes src = Planes.of(in, format, width, height);
+        if (src == null) {
+            return -1;
+        }
+        for (int i = 0; i < outs.length; i++) {
+            int w = sizes[i * 2];
+            int h = sizes[i * 2 + 1];
+            if (w <= 0 || h <= 0 || w > width || h > height || ((w | h) & 0x1) != 0) {
+                return -1;
+            }
+        }
+        final ScalePlane[] planes = new ScalePlane[outs.length * 3];
+        for (int i = 0; i < outs.length; i++) {
+            int w = sizes[i * 2];
+            int h = sizes[i * 2 + 1];
+            Planes dst = Planes.of(outs[i], format, w, h);
+            planes[i * 3] = new ScalePlane(src.mY, src.mYOffset, src.mYRowStride, 1, width,
+                    height, dst.mY, dst.mYOffset, dst.mYRowStride, 1, w, h, 1);
+            planes[i * 3 + 1] = new ScalePlane(src.mCr, src.mCrOffset, src.mCRowStride,
+                    src.mCPixelStride, width >> 1, height >> 1, dst.mCr, dst.mCrOffset,
+                    dst.mCRowStride, dst.mCPixelStride, w >> 1, h >> 1, 2);
+            planes[i * 3 + 2] = new ScalePlane(src.mCb, src.mCbOffset, src.mCRowStride,
+                    src.mCPixelStride, width >> 1, height >> 1, dst.mCb, dst.mCbOffset,
+                    dst.mCRowStride, dst.mCPixelStride, w >> 1, h >> 1, 2);
+        }
+        // every destination row is produced by the band holding the first source row it reads
+        runBands((begin, end) -> {
+            for (ScalePlane plane : planes) {
+                int row = 0;
+                while (row < plane.mDstHeight && plane.firstSrcRow(row) * plane.mRowScale < begin) {
+                    row++;
+                }
+                while (row < plane.mDstHeight && plane.firstSrcRow(row) * plane.mRowScale < end) {
+                    plane.scaleRow(row);
+                    row++;
+                }
+            }
+        }, height);
+        return 0;
+    }
+
+    /**
+     * the same as yuv_mirror in cpp/yuv_mirror.c, pairs of the n-th row from the top and the
+     * n-th row from the bottom are split into bands.
+     */
+    private static int mirror(Bytes frame, int format, int width, int height,
+            final boolean horizontal, final boolean vertical) {
+        if (width <= 0 || height <= 0
+            || (format != FrameTransform.FORMAT_RGBA && ((width | height) & 0x1) != 0)) {
+            return -1;
+        }
+        byte[] a = frame.mArray;
+        int first = frame.mOffset + width * height;
+        int chromaSize = (width >> 1) * (height >> 1);
+        final MirrorPlane[] planes;
+        switch (format) {
+            case FrameTransform.FORMAT_RGBA:
+                planes = new MirrorPlane[] {
+                        new MirrorPlane(a, frame.mOffset, width * 4, height, 4, 1)
+                };
+                break;
+            case FrameTransform.FORMAT_NV21:
+            case FrameTransform.FORMAT_NV12:
+                planes = new MirrorPlane[] {
+                        new MirrorPlane(a, frame.mOffset, width, height, 1, 1),
+                        new MirrorPlane(a, first, width, height >> 1, 2, 2)
+                };
+                break;
+            case FrameTransform.FORMAT_I420:
+            case FrameTransform.FORMAT_YV12:
+                planes = new MirrorPlane[] {
+                        new MirrorPlane(a, frame.mOffset, width, height, 1, 1),
+                        new MirrorPlane(a, first, width >> 1, height >> 1, 1, 2),
+                        new MirrorPlane(a, first + chromaSize, width >> 1, height >> 1, 1, 2)
+                };
+                break;
+            default:
+                return -1;
+        }
+        if (!horizontal && !vertical) {
+            return 0;
+        }
+        final int pairs = (height + 1) >> 1;
+        runBands((begin, end) -> {
+            for (MirrorPlane plane : planes) {
+                // the last band also takes the middle row of the plane
+                int last = end == pairs ? (plane.mRows + 1) >> 1 : end / plane.mRowScale;
+                for (int pair = begin / plane.mRowScale; pair < last; pair++) {
+                    plane.mirrorPair(pair, horizontal, vertical);
+                }
+            }
+        }, pairs);
+        return 0;
+    }
+
+    private interface BandTask {
+        /**
+         * convert rows [begin, end).
+         */
+        void run(int begin, int end);
+    }
+
+    /**
+     * split the rows into bands of even rows, the calling thread converts the first band.
+     */
+    private static void runBands(final BandTask task, int rows) {
+        ForkJoinPool pool = sPool;
+        int threads = sThreadCount;
+        if (pool == null || threads <= 1 || rows < threads * 2) {
+            task.run(0, rows);
+            return;
+        }
+        final int band = ((rows + threads - 1) / threads + 1) & ~0x1;
+        RecursiveAction[] others = new RecursiveAction[threads - 1];
+        int count = 0;
+        for (int begin = band; begin < rows; begin += band) {
+            final int from = begin;
+            final int to = Math.min(begin + band, rows);
+            others[count++] = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    task.run(from, to);
+                }
+            };
+            pool.execute(others[count - 1]);
+        }
+        task.run(0, Math.min(band, rows));
+        for (int i = 0; i < count; i++) {
+            others[i].join();
+        }
+    }
+
+    /**
+     * a byte range backed by a heap array, either the array of a buffer, or a copy of it.
+     */
+    private static final class Bytes {
+        final byte[] mArray;
+        final int mOffset;
+        private final boolean mCopied;
+
+        private Bytes(byte[] array, int offset, boolean copied) {
+            mArray = array;
+            mOffset = offset;
+            mCopied = copied;
+        }
+
+        /**
+         * @return null if the buffer is null or has less than {@code size} bytes
+         */
+        static Bytes read(ByteBuffer buffer, long size) {
+            if (buffer == null || buffer.capacity() < size) {
+                return null;
+            }
+            if (buffer.hasArray()) {
+                return new Bytes(buffer.array(), buffer.arrayOffset(), false);
+            }
+            byte[] copy = new byte[buffer.capacity()];
+            ByteBuffer all = buffer.duplicate();
+            all.clear();
+            all.get(copy);
+            return new Bytes(copy, 0, true);
+        }
+
+        /**
+         * @return null if the buffer is null, read only, or has less than {@code size} bytes
+         */
+        static Bytes write(ByteBuffer buffer, long size) {
+            if (buffer == null || buffer.isReadOnly() || buffer.capacity() < size) {
+                return null;
+            }
+            if (buffer.hasArray()) {
+                return new Bytes(buffer.array(), buffer.arrayOffset(), false);
+            }
+            return new Bytes(new byte[(int) size], 0, true);
+        }
+
+        /**
+         * copy the converted bytes into the buffer, if they are not written into it directly.
+         */
+        void commit(ByteBuffer buffer) {
+            if (mCopied) {
+                ByteBuffer all = buffer.duplicate();
+                all.clear();
+                all.put(mArray);
+            }
+        }
+    }
+
+    /**
+     * the same as YuvPlanes in cpp/yuv_convert.h.
+     */
+    private static final class Planes {
+        final byte[] mY;
+        final int mYOffset;
+        final int mYRowStride;
+        final byte[] mCr;
+        final int mCrOffset;
+        final byte[] mCb;
+        final int mCbOffset;
+        final int mCRowStride;
+        final int mCPixelStride;
+
+        Planes(byte[] y, int yOffset, int yRowStride, byte[] cr, int crOffset, byte[] cb,
+                int cbOffset, int cRowStride, int cPixelStride) {
+            mY = y;
+            mYOffset = yOffset;
+            mYRowStride = yRowStride;
+            mCr = cr;
+            mCrOffset = crOffset;
+            mCb = cb;
+            mCbOffset = cbOffset;
+            mCRowStride = cRowStride;
+            mCPixelStride = cPixelStride;
+        }
+
+        /**
+         * planes of a frame stored continuously in a YUV 420 format, null for other formats.
+         */
+        static Planes of(Bytes frame, int format, int width, int height) {
+            int first = frame.mOffset + width * height;
+            int second = first + (width >> 1) * (height >> 1);
+            switch (format) {
+                case FrameTransform.FORMAT_NV21:
+                    return new Planes(frame.mArray, frame.mOffset, width, frame.mArray, first,
+                            frame.mArray, first + 1, width, 2);
+                case FrameTransform.FORMAT_NV12:
+                    return new Planes(frame.mArray, frame.mOffset, width, frame.mArray, first + 1,
+                            frame.mArray, first, width, 2);
+                case FrameTransform.FORMAT_I420:
+                    return new Planes(frame.mArray, frame.mOffset, width, frame.mArray, second,
+                            frame.mArray, first, width >> 1, 1);
+                case FrameTransform.FORMAT_YV12:
+                    return new Planes(frame.mArray, frame.mOffset, width, frame.mArray, first,
+                            frame.mArray, second, width >> 1, 1);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * one plane of a frame mirrored in place, the same as MirrorPlane in cpp/yuv_mirror.c.
+     */
+    private static final class MirrorPlane {
+        final int mRows;
+        final int mRowScale;
+        private final byte[] mData;
+        private final int mOffset;
+        private final int mRowBytes;
+        // 1 for Y and planar chroma, 2 for interleaved chroma, 4 for RGBA
+        private final int mPixelBytes;
+
+        MirrorPlane(byte[] data, int offset, int rowBytes, int rows, int pixelBytes,
+                int rowScale) {
+            mData = data;
+            mOffset = offset;
+            mRowBytes = rowBytes;
+            mRows = rows;
+            mPixelBytes = pixelBytes;
+            mRowScale = rowScale;
+        }
+
+        /**
+         * mirror the n-th row from the top and the n-th row from the bottom, they could be the
+         * same row.
+         */
+        void mirrorPair(int pair, boolean horizontal, boolean vertical) {
+            int top = mOffset + pair * mRowBytes;
+            int bottom = mOffset + (mRows - 1 - pair) * mRowBytes;
+            if (!vertical) {
+                reverseRows(top, top);
+                if (bottom != top) {
+                    reverseRows(bottom, bottom);
+                }
+            } else if (horizontal) {
+                reverseRows(top, bottom);
+            } else if (bottom != top) {
+                for (int i = 0; i < mRowBytes; i++) {
+                    swap(top + i, bottom + i);
+                }
+            }
+        }
+
+        /**
+         * row {@code a} becomes row {@code b} reversed, and row {@code b} becomes row {@code a}
+         * reversed, pixel n of one row is swapped with pixel {@code count - 1 - n} of the other.
+         */
+        private void reverseRows(int a, int b) {
+            int count = mRowBytes / mPixelBytes;
+            int swaps = a == b ? count >> 1 : count;
+            for (int i = 0; i < swaps; i++) {
+                int p = a + i * mPixelBytes;
+                int q = b + (count - 1 - i) * mPixelBytes;
+                for (int k = 0; k < mPixelBytes; k++) {
+                    swap(p + k, q + k);
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            byte t = mData[i];
+            mData[i] = mData[j];
+            mData[j] = t;
+        }
+    }
+
+    /**
+     * one plane of one rendition, the same as ScalePlane in cpp/yuv_scale.c.
+     */
+    private static final class ScalePlane {
+        final int mDstHeight;
+        final int mRowScale;
+        private final byte[] mSrc;
+        private final int mSrcOffset;
+        private final int mSrcRowStride;
+        private final int mSrcPixelStride;
+        private final int mSrcWidth;
+        private final int mSrcHeight;
+        private final byte[] mDst;
+        private final int mDstOffset;
+        private final int mDstRowStride;
+        private final int mDstPixelStride;
+        private final int mDstWidth;
+        // box filter size, 0 for bilinear
+        private final int mBox;
+        private final int[] mXMap;
+        private final int[] mYMap;
+
+        ScalePlane(byte[] src, int srcOffset, int srcRowStride, int srcPixelStride, int srcWidth,
+                int srcHeight, byte[] dst, int dstOffset, int dstRowStride, int dstPixelStride,
+                int dstWidth, int dstHeight, int rowScale) {
+            mSrc = src;
+            mSrcOffset = srcOffset;
+            mSrcRowStride = srcRowStride;
+            mSrcPixelStride = srcPixelStride;
+            mSrcWidth = srcWidth;
+            mSrcHeight = srcHeight;
+            mDst = dst;
+            mDstOffset = dstOffset;
+            mDstRowStride = dstRowStride;
+            mDstPixelStride = dstPixelStride;
+            mDstWidth = dstWidth;
+            mDstHeight = dstHeight;
+            mRowScale = rowScale;
+            int box = boxSize(srcWidth, dstWidth);
+            if (box != 0 && box == boxSize(srcHeight, dstHeight)) {
+                mBox = box;
+                mXMap = null;
+                mYMap = null;
+            } else {
+                mBox = 0;
+                mXMap = bilinearMap(srcWidth, dstWidth);
+                mYMap = bilinearMap(srcHeight, dstHeight);
+            }
+        }
+
+        private static int boxSize(int src, int dst) {
+            if (src == dst * 2) {
+                return 2;
+            }
+            if (src == dst * 4) {
+                return 4;
+            }
+            return 0;
+        }
+
+        private static int[] bilinearMap(int src, int dst) {
+            int[] map = new int[dst];
+            for (int i = 0; i < dst; i++) {
+                // (i + 0.5) * src / dst - 0.5
+                long pos = (((long) (2 * i + 1) * src << 16) / (2 * dst)) - (1 << 15);
+                map[i] = pos < 0 ? 0 : (int) pos;
+            }
+            return map;
+        }
+
+        int firstSrcRow(int row) {
+            return mBox != 0 ? row * mBox : mYMap[row] >> 16;
+        }
+
+        void scaleRow(int row) {
+            if (mBox != 0) {
+                boxRow(row);
+            } else {
+                bilinearRow(row);
+            }
+        }
+
+        private void boxRow(int row) {
+            int shift = mBox == 2 ? 2 : 4;
+            int src = mSrcOffset + row * mBox * mSrcRowStride;
+            int dst = mDstOffset + row * mDstRowStride;
+            for (int x = 0; x < mDstWidth; x++) {
+                int s = src + x * mBox * mSrcPixelStride;
+                int sum = 0;
+                for (int j = 0; j < mBox; j++) {
+                    for (int i = 0; i < mBox; i++) {
+                        sum += mSrc[s + j * mSrcRowStride + i * mSrcPixelStride] & 0xFF;
+                    }
+                }
+                mDst[dst + x * mDstPixelStride] = (byte) ((sum + (1 << (shift - 1))) >> shift);
+            }
+        }
+
+        private void bilinearRow(int row) {
+            // weights are rounded to 8 bits
+            int y = (mYMap[row] + 0x80) >> 8;
+            int y0 = y >> 8;
+            int y1 = y0 + 1 < mSrcHeight ? y0 + 1 : y0;
+            int fy = y & 0xff;
+            int top = mSrcOffset + y0 * mSrcRowStride;
+            int bottom = mSrcOffset + y1 * mSrcRowStride;
+            int dst = mDstOffset + row * mDstRowStride;
+            for (int x = 0; x < mDstWidth; x++) {
+                int pos = (mXMap[x] + 0x80) >> 8;
+                int x0 = pos >> 8;
+                int x1 = x0 + 1 < mSrcWidth ? x0 + 1 : x0;
+                int fx = pos & 0xff;
+                x0 *= mSrcPixelStride;
+                x1 *= mSrcPixelStride;
+                int t = (mSrc[top + x0] & 0xFF) * (256 - fx) + (mSrc[top + x1] & 0xFF) * fx;
+                int b = (mSrc[bottom + x0] & 0xFF) * (256 - fx) + (mSrc[bottom + x1] & 0xFF) * fx;
+                mDst[dst + x * mDstPixelStride] = (byte) ((t * (256 - fy) + b * fy + (1 << 15))
+                                                          >> 16);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import com.github.piasy.cameracompat.CameraCompat;
+import java.nio.ByteBuffer;
+
+/**
+ * Downscaled copies of the captured frames, for {@link CameraCompat.RenditionCaptureCallback}.
+ */
+final class Renditions {
+    private final float[] mScales;
+    private final int mFormat;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mSizes;
+    private ByteBuffer[] mBuffers;
+    private FrameBytes[] mBytes;
+
+    Renditions(float[] scales, @FrameTransform.OutputFormat int format) {
+        mScales = scales.clone();
+        mFormat = format;
+    }
+
+    boolean isEmpty() {
+        return mScales.length == 0;
+    }
+
+    /**
+     * scale the full size frame into every rendition in one pass, and send them to the callback
+     * in the order they are added.
+     */
+    void send(CameraCompat.VideoCaptureCallback callback, ByteBuffer frame, int width,
+            int height) {
+        if (isEmpty() || !(callback instanceof CameraCompat.RenditionCaptureCallback)) {
+            return;
+        }
+        if (width != mWidth || height != mHeight) {
+            allocate(width, height);
+        }
+        if (RgbYuvConverter.yuvScale(width, height, mFormat, frame, mSizes, mBuffers) != 0) {
+            return;
+        }
+        CameraCompat.RenditionCaptureCallback renditionCallback
+                = (CameraCompat.RenditionCaptureCallback) callback;
+        for (int i = 0; i < mScales.length; i++) {
+            int scaledWidth = mSizes[i * 2];
+            int scaledHeight = mSizes[i * 2 + 1];
+            renditionCallback.onRenditionData(i,
+                    mBytes[i].of(mBuffers[i], scaledWidth * scaledHeight * 3 / 2), scaledWidth,
+                    scaledHeight);
+        }
+    }
+
+    private void allocate(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mSizes = new int[mScales.length * 2];
+        mBuffers = new ByteBuffer[mScales.length];
+        mBytes = new FrameBytes[mScales.length];
+        for (int i = 0; i < mScales.length; i++) {
+            // YUV 420 needs even size
+            mSizes[i * 2] = Math.max(2, Math.round(width * mScales[i]) & ~0x1);
+            mSizes[i * 2 + 1] = Math.max(2, Math.round(height * mScales[i]) & ~0x1);
+            mBuffers[i] = ByteBuffer.allocateDirect(mSizes[i * 2] * mSizes[i * 2 + 1] * 3 / 2);
+            mBytes[i] = new FrameBytes();
+        }
+    }
+}
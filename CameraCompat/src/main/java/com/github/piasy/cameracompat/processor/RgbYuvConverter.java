@@ -28,6 +28,7 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.media.Image;
 import android.os.Build;
+import android.support.annotation.IntDef;
 import com.getkeepsafe.relinker.ReLinker;
 import java.nio.ByteBuffer;
 
@@ -95,120 +96,546 @@ import java.nio.ByteBuffer;
  */
 public class RgbYuvConverter {
 
+    /**
+     * the bit operation approximation of BT.601 limited range above, it's the fastest one with
+     * SIMD kernels, but also the least accurate one.
+     */
+    public static final int COLOR_MATRIX_LEGACY = 0;
+    public static final int COLOR_MATRIX_BT601_LIMITED = 1;
+    public static final int COLOR_MATRIX_BT601_FULL = 2;
+    public static final int COLOR_MATRIX_BT709_LIMITED = 3;
+    public static final int COLOR_MATRIX_BT709_FULL = 4;
+
+    /**
+     * max renditions of {@link #yuvScale(int, int, int, ByteBuffer, int[], ByteBuffer[])}.
+     */
+    public static final int MAX_RENDITIONS = 8;
+
+    private static volatile boolean sNativeLoaded;
+    private static volatile int sColorMatrix = COLOR_MATRIX_LEGACY;
+
+    /**
+     * load the native library, the fastest kernels (NEON, SSE2, AVX2, or the scalar reference)
+     * supported by current cpu are picked at this time. If it fails, or it's never called, e.g.
+     * on the host JVM, all conversions fall back to a pure Java version, which is slower, but
+     * produces the same output as the native scalar kernels.
+     */
     public static void loadLibrary(Context context) {
-        ReLinker.loadLibrary(context, "rgb-yuv-converter-library");
+        try {
+            ReLinker.loadLibrary(context, "rgb-yuv-converter-library");
+            sNativeLoaded = true;
+        } catch (UnsatisfiedLinkError | RuntimeException e) {
+            sNativeLoaded = false;
+        }
+    }
+
+    static boolean isNativeLoaded() {
+        return sNativeLoaded;
     }
 
-    public static native int yuv2rgba(int width, int height, byte[] yuvIn, byte[] rgbaOut);
+    /**
+     * @return name of the kernels picked at {@link #loadLibrary(Context)}, e.g. "neon", or
+     * "java" for the pure Java fallback.
+     */
+    public static String kernelName() {
+        return sNativeLoaded ? nativeKernelName() : JavaConverter.kernelName();
+    }
+
+    /**
+     * split every conversion into horizontal bands, and convert them on {@code threadCount}
+     * threads, including the calling thread. 1 (the default) disables the worker pool.
+     *
+     * @return the thread count actually used, it's at most 8
+     */
+    public static int setThreadCount(int threadCount) {
+        return sNativeLoaded ? nativeSetThreadCount(threadCount)
+                             : JavaConverter.setThreadCount(threadCount);
+    }
+
+    /**
+     * select the colour matrix of all conversions, BT.601 and BT.709 are done with fixed point
+     * lookup tables, with error at most 1, in limited (16~235) or full (0~255) range.
+     *
+     * @return 0 on success, -1 if the colour matrix is unknown
+     */
+    public static int setColorMatrix(@ColorMatrix int colorMatrix) {
+        int ret = sNativeLoaded ? nativeSetColorMatrix(colorMatrix)
+                                : JavaConverter.setColorMatrix(colorMatrix);
+        if (ret == 0) {
+            sColorMatrix = colorMatrix;
+        }
+        return ret;
+    }
+
+    /**
+     * @return the colour matrix selected by {@link #setColorMatrix(int)}, the legacy one by
+     * default
+     */
+    @ColorMatrix
+    public static int colorMatrix() {
+        return sColorMatrix;
+    }
+
+    public static int yuv2rgba(int width, int height, byte[] yuvIn, byte[] rgbaOut) {
+        if (!sNativeLoaded) {
+            return JavaConverter.yuv2rgba(width, height, ByteBuffer.wrap(yuvIn),
+                    ByteBuffer.wrap(rgbaOut));
+        }
+        return nativeYuv2rgba(width, height, yuvIn, rgbaOut);
+    }
+
+    /**
+     * same as {@link #yuv2rgba(int, int, byte[], byte[])}, but work on direct buffers, so no heap
+     * array is pinned during the conversion. Buffers are used from their start, position and
+     * limit are ignored.
+     *
+     * @return 0 on success, -1 if any buffer is not direct or too small
+     */
+    public static int yuv2rgba(int width, int height, ByteBuffer yuvIn, ByteBuffer rgbaOut) {
+        if (!sNativeLoaded) {
+            return JavaConverter.yuv2rgba(width, height, yuvIn, rgbaOut);
+        }
+        return yuv2rgbaDirect(width, height, yuvIn, rgbaOut);
+    }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public static int image2rgba(Image image, byte[] rgbaOut) {
         Image.Plane[] planes = image.getPlanes();
         ByteBuffer Y = planes[0].getBuffer();
+        int YRowStride = planes[0].getRowStride();
         ByteBuffer Cr = planes[2].getBuffer();
+        int CRowStride = planes[2].getRowStride();
         int CrPixelStride = planes[2].getPixelStride();
         ByteBuffer Cb = planes[1].getBuffer();
         int CbPixelStride = planes[1].getPixelStride();
-        return image2rgba(image.getWidth(), image.getHeight(), Y, Cr, Cb, CrPixelStride,
-                CbPixelStride, rgbaOut);
+        if (!sNativeLoaded) {
+            return JavaConverter.image2rgba(image.getWidth(), image.getHeight(), Y, Cr, Cb,
+                    YRowStride, CRowStride, CrPixelStride, CbPixelStride,
+                    ByteBuffer.wrap(rgbaOut));
+        }
+        return image2rgba(image.getWidth(), image.getHeight(), Y, Cr, Cb, YRowStride,
+                CRowStride, CrPixelStride, CbPixelStride, rgbaOut);
     }
 
+    /**
+     * same as {@link #image2rgba(Image, byte[])}, but write into a direct buffer.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static int image2rgba(Image image, ByteBuffer rgbaOut) {
+        Image.Plane[] planes = image.getPlanes();
+        ByteBuffer Y = planes[0].getBuffer();
+        int YRowStride = planes[0].getRowStride();
+        ByteBuffer Cr = planes[2].getBuffer();
+        int CRowStride = planes[2].getRowStride();
+        int CrPixelStride = planes[2].getPixelStride();
+        ByteBuffer Cb = planes[1].getBuffer();
+        int CbPixelStride = planes[1].getPixelStride();
+        if (!sNativeLoaded) {
+            return JavaConverter.image2rgba(image.getWidth(), image.getHeight(), Y, Cr, Cb,
+                    YRowStride, CRowStride, CrPixelStride, CbPixelStride, rgbaOut);
+        }
+        return image2rgbaDirect(image.getWidth(), image.getHeight(), Y, Cr, Cb, YRowStride,
+                CRowStride, CrPixelStride, CbPixelStride, rgbaOut);
+    }
+
+    private static native String nativeKernelName();
+
+    private static native int nativeSetThreadCount(int threadCount);
+
+    private static native int nativeSetColorMatrix(int colorMatrix);
+
+    private static native int nativeYuv2rgba(int width, int height, byte[] yuvIn, byte[] rgbaOut);
+
     private static native int image2rgba(int width, int height, ByteBuffer Y, ByteBuffer Cr,
-            ByteBuffer Cb, int CrPixelStride, int CbPixelStride, byte[] rgbaOut);
+            ByteBuffer Cb, int YRowStride, int CRowStride, int CrPixelStride, int CbPixelStride,
+            byte[] rgbaOut);
+
+    private static native int yuv2rgbaDirect(int width, int height, ByteBuffer yuvIn,
+            ByteBuffer rgbaOut);
+
+    private static native int image2rgbaDirect(int width, int height, ByteBuffer Y, ByteBuffer Cr,
+            ByteBuffer Cb, int YRowStride, int CRowStride, int CrPixelStride, int CbPixelStride,
+            ByteBuffer rgbaOut);
 
     /**
-     * rotate 90 degree in counter clockwise and change to yuv
+     * @return a direct buffer aliasing the chroma planes of the image as one NV21 (Cr comes
+     * first) plane, or null if they are not laid out like that, or the native library is not
+     * loaded. It's only valid until the image is closed.
      */
-    public static native int rgba2yuv(int width, int height, int[] rgbaIn, byte[] yuvOut);
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static ByteBuffer nv21Chroma(Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        return interleavedChroma(planes[2], planes[1], image.getWidth(), image.getHeight());
+    }
 
     /**
-     * rotate 90 degree in counter clockwise and change to yuv
+     * @return a direct buffer aliasing the chroma planes of the image as one NV12 (Cb comes
+     * first) plane, or null if they are not laid out like that, or the native library is not
+     * loaded. It's only valid until the image is closed.
      */
-    public static native int rgba2yuvRotateC90(int width, int height, byte[] rgbaIn, byte[] yuvOut);
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static ByteBuffer nv12Chroma(Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        return interleavedChroma(planes[1], planes[2], image.getWidth(), image.getHeight());
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static ByteBuffer interleavedChroma(Image.Plane first, Image.Plane second, int width,
+            int height) {
+        if (!sNativeLoaded || first.getPixelStride() != 2 || second.getPixelStride() != 2
+            || first.getRowStride() != second.getRowStride()) {
+            return null;
+        }
+        return interleavedChroma(first.getBuffer(), second.getBuffer(),
+                ((height >> 1) - 1) * first.getRowStride() + width);
+    }
+
+    private static native ByteBuffer interleavedChroma(ByteBuffer first, ByteBuffer second,
+            int size);
 
     /**
-     * rotate 90 degree in counter clockwise and change to yuv
+     * downscale a YUV 420 frame into several renditions of the same format, all in one pass over
+     * the frame. Planes of exact 2x or 4x are box filtered, other ratios are bilinear filtered.
+     *
+     * @param format any {@link FrameTransform.OutputFormat} except RGBA
+     * @param sizes width and height of each rendition, {@code [w0, h0, w1, h1, ...]}, they must
+     * be even and not larger than the frame
+     * @param outs direct buffers of the renditions, at most {@link #MAX_RENDITIONS}
+     * @return 0 on success, -1 if any size is invalid, or any buffer is not direct or too small
      */
-    public static native int rgba2yuvRotateC90Flip(int width, int height, byte[] rgbaIn,
-            byte[] yuvOut);
+    public static int yuvScale(int width, int height, @FrameTransform.OutputFormat int format,
+            ByteBuffer yuvIn, int[] sizes, ByteBuffer[] outs) {
+        if (!sNativeLoaded) {
+            return JavaConverter.yuvScale(width, height, format, yuvIn, sizes, outs);
+        }
+        return nativeYuvScale(width, height, format, yuvIn, sizes, outs);
+    }
+
+    private static native int nativeYuvScale(int width, int height, int format, ByteBuffer yuvIn,
+            int[] sizes, ByteBuffer[] outs);
 
     /**
-     * rotate 180 degree in counter clockwise
+     * mirror a frame in place, e.g. when {@link FrameTransform#isMirrorOnly(int, int)}, so it
+     * needn't be converted into a second buffer. Rows are reversed if {@code horizontal}, and the
+     * row order is reversed if {@code vertical}, both of them is a 180 degree rotation.
+     *
+     * @param format any {@link FrameTransform.OutputFormat}
+     * @return 0 on success, -1 if the size is invalid, or the frame is too small
      */
-    public static native int yuvCropRotateC180(int width, int height, byte[] yuvIn,
-            int outputHeight, byte[] yuvOut);
+    public static int mirror(int width, int height, @FrameTransform.OutputFormat int format,
+            byte[] frame, boolean horizontal, boolean vertical) {
+        if (!sNativeLoaded) {
+            return JavaConverter.mirror(width, height, format, ByteBuffer.wrap(frame), horizontal,
+                    vertical);
+        }
+        return nativeMirror(width, height, format, frame, horizontal, vertical);
+    }
 
-    public static native int yuvCrop(int width, int height, byte[] yuvIn,
-            int outputHeight, byte[] yuvOut);
+    /**
+     * same as {@link #mirror(int, int, int, byte[], boolean, boolean)}, with a direct buffer.
+     */
+    public static int mirror(int width, int height, @FrameTransform.OutputFormat int format,
+            ByteBuffer frame, boolean horizontal, boolean vertical) {
+        if (!sNativeLoaded) {
+            return JavaConverter.mirror(width, height, format, frame, horizontal, vertical);
+        }
+        return mirrorDirect(width, height, format, frame, horizontal, vertical);
+    }
 
-    public static native int yuvCropRotateC180Flip(int width, int height, byte[] yuvIn,
-            int outputHeight, byte[] yuvOut);
+    private static native int nativeMirror(int width, int height, int format, byte[] frame,
+            boolean horizontal, boolean vertical);
 
-    public static native int yuvCropFlip(int width, int height, byte[] yuvIn,
-            int outputHeight, byte[] yuvOut);
+    private static native int mirrorDirect(int width, int height, int format, ByteBuffer frame,
+            boolean horizontal, boolean vertical);
 
     /**
-     * rotate 180 degree in counter clockwise and change to yuv
+     * rotate 90 degree in counter clockwise and change to yuv
      */
-    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    public static int image2yuvCropRotateC180(Image imageIn, int outputHeight, byte[] yuvOut) {
-        Image.Plane[] planes = imageIn.getPlanes();
-        ByteBuffer Y = planes[0].getBuffer();
-        ByteBuffer Cr = planes[2].getBuffer();
-        int CrPixelStride = planes[2].getPixelStride();
-        ByteBuffer Cb = planes[1].getBuffer();
-        int CbPixelStride = planes[1].getPixelStride();
-        return image2yuvCropRotateC180(imageIn.getWidth(), imageIn.getHeight(), Y, Cr, Cb,
-                CrPixelStride, CbPixelStride, outputHeight, yuvOut);
+    public static int rgba2yuv(int width, int height, int[] rgbaIn, byte[] yuvOut) {
+        if (!sNativeLoaded) {
+            return JavaConverter.rgba2yuv(width, height, rgbaIn, yuvOut);
+        }
+        return nativeRgba2yuv(width, height, rgbaIn, yuvOut);
     }
 
+    private static native int nativeRgba2yuv(int width, int height, int[] rgbaIn, byte[] yuvOut);
+
+    /**
+     * crop, rotate, flip a NV21 frame, and change it to {@link FrameTransform#getOutputFormat()},
+     * all in one pass.
+     *
+     * @return 0 on success, -1 if the transform is invalid or {@code out} is too small
+     */
+    public static int yuvTransform(int width, int height, byte[] yuvIn, FrameTransform transform,
+            byte[] out) {
+        if (!sNativeLoaded) {
+            return JavaConverter.yuvTransform(width, height, ByteBuffer.wrap(yuvIn), transform,
+                    ByteBuffer.wrap(out));
+        }
+        return yuvTransform(width, height, yuvIn, transform.getCropX(), transform.getCropY(),
+                transform.getCropWidth(), transform.getCropHeight(), transform.getRotation(),
+                transform.isFlipHorizontal(), transform.isFlipVertical(),
+                transform.getOutputFormat(), transform.getAccuracy(), out);
+    }
+
+    /**
+     * same as {@link #yuvTransform(int, int, byte[], FrameTransform, byte[])}, but read from the
+     * planes of a YUV_420_888 image.
+     */
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    public static int image2yuvCrop(Image imageIn, int outputHeight, byte[] yuvOut) {
+    public static int imageTransform(Image imageIn, FrameTransform transform, byte[] out) {
         Image.Plane[] planes = imageIn.getPlanes();
         ByteBuffer Y = planes[0].getBuffer();
+        int YRowStride = planes[0].getRowStride();
         ByteBuffer Cr = planes[2].getBuffer();
+        int CRowStride = planes[2].getRowStride();
         int CrPixelStride = planes[2].getPixelStride();
         ByteBuffer Cb = planes[1].getBuffer();
         int CbPixelStride = planes[1].getPixelStride();
-        return image2yuvCrop(imageIn.getWidth(), imageIn.getHeight(), Y, Cr, Cb, CrPixelStride,
-                CbPixelStride, outputHeight, yuvOut);
+        if (!sNativeLoaded) {
+            return JavaConverter.imageTransform(imageIn.getWidth(), imageIn.getHeight(), Y, Cr, Cb,
+                    YRowStride, CRowStride, CrPixelStride, CbPixelStride, transform,
+                    ByteBuffer.wrap(out));
+        }
+        return imageTransform(imageIn.getWidth(), imageIn.getHeight(), Y, Cr, Cb, YRowStride,
+                CRowStride, CrPixelStride, CbPixelStride, transform.getCropX(),
+                transform.getCropY(), transform.getCropWidth(), transform.getCropHeight(),
+                transform.getRotation(), transform.isFlipHorizontal(), transform.isFlipVertical(),
+                transform.getOutputFormat(), transform.getAccuracy(), out);
+    }
+
+    /**
+     * crop, rotate, flip a RGBA frame, and change it to {@link
+     * FrameTransform#getOutputFormat()}, all in one pass, the format must not be RGBA.
+     *
+     * @return 0 on success, -1 if the transform is invalid or {@code yuvOut} is too small
+     */
+    public static int rgbaTransform(int width, int height, byte[] rgbaIn,
+            FrameTransform transform, byte[] yuvOut) {
+        if (!sNativeLoaded) {
+            return JavaConverter.rgbaTransform(width, height, ByteBuffer.wrap(rgbaIn), transform,
+                    ByteBuffer.wrap(yuvOut));
+        }
+        return rgbaTransform(width, height, rgbaIn, transform.getCropX(), transform.getCropY(),
+                transform.getCropWidth(), transform.getCropHeight(), transform.getRotation(),
+                transform.isFlipHorizontal(), transform.isFlipVertical(),
+                transform.getOutputFormat(), transform.getAccuracy(), yuvOut);
+    }
+
+    /**
+     * same as {@link #yuvTransform(int, int, byte[], FrameTransform, byte[])}, but work on direct
+     * buffers, so no heap array is pinned during the conversion. Buffers are used from their
+     * start, position and limit are ignored.
+     *
+     * @return 0 on success, -1 if the transform is invalid, or any buffer is not direct or too
+     * small
+     */
+    public static int yuvTransform(int width, int height, ByteBuffer yuvIn,
+            FrameTransform transform, ByteBuffer out) {
+        if (!sNativeLoaded) {
+            return JavaConverter.yuvTransform(width, height, yuvIn, transform, out);
+        }
+        return yuvTransformDirect(width, height, yuvIn, transform.getCropX(),
+                transform.getCropY(), transform.getCropWidth(), transform.getCropHeight(),
+                transform.getRotation(), transform.isFlipHorizontal(),
+                transform.isFlipVertical(), transform.getOutputFormat(), transform.getAccuracy(),
+                out);
     }
 
+    /**
+     * same as {@link #imageTransform(Image, FrameTransform, byte[])}, but write into a direct
+     * buffer.
+     */
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    public static int image2yuvCropRotateC180Flip(Image imageIn, int outputHeight, byte[] yuvOut) {
+    public static int imageTransform(Image imageIn, FrameTransform transform, ByteBuffer out) {
         Image.Plane[] planes = imageIn.getPlanes();
         ByteBuffer Y = planes[0].getBuffer();
+        int YRowStride = planes[0].getRowStride();
         ByteBuffer Cr = planes[2].getBuffer();
+        int CRowStride = planes[2].getRowStride();
         int CrPixelStride = planes[2].getPixelStride();
         ByteBuffer Cb = planes[1].getBuffer();
         int CbPixelStride = planes[1].getPixelStride();
-        return image2yuvCropRotateC180Flip(imageIn.getWidth(), imageIn.getHeight(), Y, Cr, Cb,
-                CrPixelStride, CbPixelStride, outputHeight, yuvOut);
+        if (!sNativeLoaded) {
+            return JavaConverter.imageTransform(imageIn.getWidth(), imageIn.getHeight(), Y, Cr, Cb,
+                    YRowStride, CRowStride, CrPixelStride, CbPixelStride, transform, out);
+        }
+        return imageTransformDirect(imageIn.getWidth(), imageIn.getHeight(), Y, Cr, Cb,
+                YRowStride, CRowStride, CrPixelStride, CbPixelStride, transform.getCropX(),
+                transform.getCropY(), transform.getCropWidth(), transform.getCropHeight(),
+                transform.getRotation(), transform.isFlipHorizontal(), transform.isFlipVertical(),
+                transform.getOutputFormat(), transform.getAccuracy(), out);
+    }
+
+    /**
+     * same as {@link #rgbaTransform(int, int, byte[], FrameTransform, byte[])}, but work on
+     * direct buffers.
+     */
+    public static int rgbaTransform(int width, int height, ByteBuffer rgbaIn,
+            FrameTransform transform, ByteBuffer yuvOut) {
+        if (!sNativeLoaded) {
+            return JavaConverter.rgbaTransform(width, height, rgbaIn, transform, yuvOut);
+        }
+        return rgbaTransformDirect(width, height, rgbaIn, transform.getCropX(),
+                transform.getCropY(), transform.getCropWidth(), transform.getCropHeight(),
+                transform.getRotation(), transform.isFlipHorizontal(),
+                transform.isFlipVertical(), transform.getOutputFormat(), transform.getAccuracy(),
+                yuvOut);
     }
 
+    /**
+     * same as {@link #yuvTransform(int, int, ByteBuffer, FrameTransform, ByteBuffer)}, but write
+     * into the planes of a buffer of the caller, e.g. the input buffer of an encoder, so the
+     * frame needn't be copied again. The pure Java fallback still converts into a temporary
+     * frame and copies it.
+     *
+     * @return 0 on success, -1 if the transform is invalid, or any plane doesn't fit in its
+     * buffer
+     */
+    public static int yuvTransform(int width, int height, ByteBuffer yuvIn,
+            FrameTransform transform, FrameBuffer out) {
+        if (!sNativeLoaded) {
+            return JavaConverter.yuvTransform(width, height, yuvIn, transform, out.getY(),
+                    out.getCr(), out.getCb(), out.getYOffset(), out.getCrOffset(),
+                    out.getCbOffset(), out.getYRowStride(), out.getCRowStride(),
+                    out.getCPixelStride(), null);
+        }
+        return yuvTransformInto(width, height, yuvIn, transform.getCropX(), transform.getCropY(),
+                transform.getCropWidth(), transform.getCropHeight(), transform.getRotation(),
+                transform.isFlipHorizontal(), transform.isFlipVertical(),
+                transform.getOutputFormat(), transform.getAccuracy(), out.getY(), out.getCr(),
+                out.getCb(), out.getYOffset(), out.getCrOffset(), out.getCbOffset(),
+                out.getYRowStride(), out.getCRowStride(), out.getCPixelStride());
+    }
+
+    /**
+     * same as {@link #imageTransform(Image, FrameTransform, ByteBuffer)}, but write into the
+     * planes of a buffer of the caller.
+     */
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    public static int image2yuvCropFlip(Image imageIn, int outputHeight, byte[] yuvOut) {
+    public static int imageTransform(Image imageIn, FrameTransform transform, FrameBuffer out) {
         Image.Plane[] planes = imageIn.getPlanes();
         ByteBuffer Y = planes[0].getBuffer();
+        int YRowStride = planes[0].getRowStride();
         ByteBuffer Cr = planes[2].getBuffer();
+        int CRowStride = planes[2].getRowStride();
         int CrPixelStride = planes[2].getPixelStride();
         ByteBuffer Cb = planes[1].getBuffer();
         int CbPixelStride = planes[1].getPixelStride();
-        return image2yuvCropFlip(imageIn.getWidth(), imageIn.getHeight(), Y, Cr, Cb, CrPixelStride,
-                CbPixelStride, outputHeight, yuvOut);
+        if (!sNativeLoaded) {
+            return JavaConverter.imageTransform(imageIn.getWidth(), imageIn.getHeight(), Y, Cr, Cb,
+                    YRowStride, CRowStride, CrPixelStride, CbPixelStride, transform, out.getY(),
+                    out.getCr(), out.getCb(), out.getYOffset(), out.getCrOffset(),
+                    out.getCbOffset(), out.getYRowStride(), out.getCRowStride(),
+                    out.getCPixelStride(), null);
+        }
+        return imageTransformInto(imageIn.getWidth(), imageIn.getHeight(), Y, Cr, Cb,
+                YRowStride, CRowStride, CrPixelStride, CbPixelStride, transform.getCropX(),
+                transform.getCropY(), transform.getCropWidth(), transform.getCropHeight(),
+                transform.getRotation(), transform.isFlipHorizontal(), transform.isFlipVertical(),
+                transform.getOutputFormat(), transform.getAccuracy(), out.getY(), out.getCr(),
+                out.getCb(), out.getYOffset(), out.getCrOffset(), out.getCbOffset(),
+                out.getYRowStride(), out.getCRowStride(), out.getCPixelStride());
+    }
+
+    /**
+     * same as {@link #rgbaTransform(int, int, ByteBuffer, FrameTransform, ByteBuffer)}, but write
+     * into the planes of a buffer of the caller.
+     */
+    public static int rgbaTransform(int width, int height, ByteBuffer rgbaIn,
+            FrameTransform transform, FrameBuffer yuvOut) {
+        if (!sNativeLoaded) {
+            return JavaConverter.rgbaTransform(width, height, rgbaIn, transform, yuvOut.getY(),
+                    yuvOut.getCr(), yuvOut.getCb(), yuvOut.getYOffset(), yuvOut.getCrOffset(),
+                    yuvOut.getCbOffset(), yuvOut.getYRowStride(), yuvOut.getCRowStride(),
+                    yuvOut.getCPixelStride(), null);
+        }
+        return rgbaTransformInto(width, height, rgbaIn, transform.getCropX(),
+                transform.getCropY(), transform.getCropWidth(), transform.getCropHeight(),
+                transform.getRotation(), transform.isFlipHorizontal(),
+                transform.isFlipVertical(), transform.getOutputFormat(), transform.getAccuracy(),
+                yuvOut.getY(), yuvOut.getCr(), yuvOut.getCb(), yuvOut.getYOffset(),
+                yuvOut.getCrOffset(), yuvOut.getCbOffset(), yuvOut.getYRowStride(),
+                yuvOut.getCRowStride(), yuvOut.getCPixelStride());
     }
 
-    private static native int image2yuvCropRotateC180(int width, int height, ByteBuffer Y,
-            ByteBuffer Cr, ByteBuffer Cb, int CrPixelStride, int CbPixelStride, int outputWidth,
-            byte[] yuvOut);
+    private static native int yuvTransform(int width, int height, byte[] yuvIn, int cropX,
+            int cropY, int cropWidth, int cropHeight, int rotation, boolean flipHorizontal,
+            boolean flipVertical, int outputFormat, int accuracy, byte[] out);
+
+    private static native int imageTransform(int width, int height, ByteBuffer Y, ByteBuffer Cr,
+            ByteBuffer Cb, int YRowStride, int CRowStride, int CrPixelStride, int CbPixelStride,
+            int cropX, int cropY, int cropWidth, int cropHeight, int rotation,
+            boolean flipHorizontal, boolean flipVertical, int outputFormat, int accuracy,
+            byte[] out);
+
+    private static native int rgbaTransform(int width, int height, byte[] rgbaIn, int cropX,
+            int cropY, int cropWidth, int cropHeight, int rotation, boolean flipHorizontal,
+            boolean flipVertical, int outputFormat, int accuracy, byte[] yuvOut);
+
+    private static native int yuvTransformDirect(int width, int height, ByteBuffer yuvIn,
+            int cropX, int cropY, int cropWidth, int cropHeight, int rotation,
+            boolean flipHorizontal, boolean flipVertical, int outputFormat, int accuracy,
+            ByteBuffer out);
 
-    private static native int image2yuvCrop(int width, int height, ByteBuffer Y, ByteBuffer Cr,
-            ByteBuffer Cb, int CrPixelStride, int CbPixelStride, int outputWidth, byte[] yuvOut);
+    private static native int imageTransformDirect(int width, int height, ByteBuffer Y,
+            ByteBuffer Cr, ByteBuffer Cb, int YRowStride, int CRowStride, int CrPixelStride,
+            int CbPixelStride, int cropX, int cropY, int cropWidth, int cropHeight, int rotation,
+            boolean flipHorizontal, boolean flipVertical, int outputFormat, int accuracy,
+            ByteBuffer out);
 
-    private static native int image2yuvCropRotateC180Flip(int width, int height, ByteBuffer Y,
-            ByteBuffer Cr, ByteBuffer Cb, int CrPixelStride, int CbPixelStride, int outputWidth,
-            byte[] yuvOut);
+    private static native int rgbaTransformDirect(int width, int height, ByteBuffer rgbaIn,
+            int cropX, int cropY, int cropWidth, int cropHeight, int rotation,
+            boolean flipHorizontal, boolean flipVertical, int outputFormat, int accuracy,
+            ByteBuffer yuvOut);
 
-    private static native int image2yuvCropFlip(int width, int height, ByteBuffer Y, ByteBuffer Cr,
-            ByteBuffer Cb, int CrPixelStride, int CbPixelStride, int outputWidth, byte[] yuvOut);
+    private static native int yuvTransformInto(int width, int height, ByteBuffer yuvIn,
+            int cropX, int cropY, int cropWidth, int cropHeight, int rotation,
+            boolean flipHorizontal, boolean flipVertical, int outputFormat, int accuracy,
+            ByteBuffer YOut, ByteBuffer CrOut, ByteBuffer CbOut, int YOffset, int CrOffset,
+            int CbOffset, int YRowStride, int CRowStride, int CPixelStride);
+
+    private static native int imageTransformInto(int width, int height, ByteBuffer Y,
+            ByteBuffer Cr, ByteBuffer Cb, int YRowStride, int CRowStride, int CrPixelStride,
+            int CbPixelStride, int cropX, int cropY, int cropWidth, int cropHeight, int rotation,
+            boolean flipHorizontal, boolean flipVertical, int outputFormat, int accuracy,
+            ByteBuffer YOut, ByteBuffer CrOut, ByteBuffer CbOut, int YOffset, int CrOffset,
+            int CbOffset, int YOutRowStride, int COutRowStride, int COutPixelStride);
+
+    private static native int rgbaTransformInto(int width, int height, ByteBuffer rgbaIn,
+            int cropX, int cropY, int cropWidth, int cropHeight, int rotation,
+            boolean flipHorizontal, boolean flipVertical, int outputFormat, int accuracy,
+            ByteBuffer YOut, ByteBuffer CrOut, ByteBuffer CbOut, int YOffset, int CrOffset,
+            int CbOffset, int YRowStride, int CRowStride, int CPixelStride);
+
+    /**
+     * natives of {@link FrameSession}, the handle is 0 if the transform is invalid, the luma
+     * histogram of a frame is stored into {@code histogram} if it's not null.
+     */
+    static native long nativeSessionCreate(int width, int height, int cropX, int cropY,
+            int cropWidth, int cropHeight, int rotation, boolean flipHorizontal,
+            boolean flipVertical, int outputFormat, int accuracy);
+
+    static native void nativeSessionRelease(long session);
+
+    static native int nativeSessionYuvTransform(long session, ByteBuffer yuvIn, ByteBuffer YOut,
+            ByteBuffer CrOut, ByteBuffer CbOut, int YOffset, int CrOffset, int CbOffset,
+            int YRowStride, int CRowStride, int CPixelStride, int[] histogram);
+
+    static native int nativeSessionImageTransform(long session, ByteBuffer Y, ByteBuffer Cr,
+            ByteBuffer Cb, int YRowStride, int CRowStride, int CrPixelStride, int CbPixelStride,
+            ByteBuffer YOut, ByteBuffer CrOut, ByteBuffer CbOut, int YOffset, int CrOffset,
+            int CbOffset, int YOutRowStride, int COutRowStride, int COutPixelStride,
+            int[] histogram);
+
+    static native int nativeSessionRgbaTransform(long session, ByteBuffer rgbaIn,
+            ByteBuffer YOut, ByteBuffer CrOut, ByteBuffer CbOut, int YOffset, int CrOffset,
+            int CbOffset, int YRowStride, int CRowStride, int CPixelStride, int[] histogram);
+
+    @IntDef(value = {
+            COLOR_MATRIX_LEGACY, COLOR_MATRIX_BT601_LIMITED, COLOR_MATRIX_BT601_FULL,
+            COLOR_MATRIX_BT709_LIMITED, COLOR_MATRIX_BT709_FULL
+    })
+    public @interface ColorMatrix {
+    }
 }
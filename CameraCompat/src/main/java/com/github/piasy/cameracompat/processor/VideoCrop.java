@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import com.github.piasy.cameracompat.CameraCompat;
+
+/**
+ * The part of the frames sent to {@link CameraCompat.VideoCaptureCallback}, it's cropped in the
+ * conversion pass, so pixels outside of it are never read.
+ *
+ * Both the aspect ratio and the region are in the orientation of the sent frames, the region is
+ * clamped to the frame, and aligned to 2 pixels.
+ */
+public final class VideoCrop {
+    /**
+     * the size the processor chain decides, e.g. the aspect ratio of the preview.
+     */
+    public static final VideoCrop DEFAULT = new VideoCrop(0, 0, 0, 0, 0);
+
+    private static final int MODE_DEFAULT = 0;
+    private static final int MODE_ASPECT_RATIO = 1;
+    private static final int MODE_REGION = 2;
+
+    private final int mMode;
+    private final int mX;
+    private final int mY;
+    private final int mWidth;
+    private final int mHeight;
+
+    private VideoCrop(int mode, int x, int y, int width, int height) {
+        mMode = mode;
+        mX = x;
+        mY = y;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * the largest center part with the aspect ratio, the ratio follows the orientation of the
+     * frame, e.g. 9:16 is 16:9 for landscape frames.
+     */
+    public static VideoCrop aspectRatio(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Bad aspect ratio: " + width + ":" + height);
+        }
+        return new VideoCrop(MODE_ASPECT_RATIO, 0, 0, width, height);
+    }
+
+    /**
+     * an explicit region of interest.
+     */
+    public static VideoCrop region(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width < 2 || height < 2) {
+            throw new IllegalArgumentException(
+                    "Bad region: " + x + ", " + y + ", " + width + "x" + height);
+        }
+        return new VideoCrop(MODE_REGION, x, y, width, height);
+    }
+
+    /**
+     * @return {x, y, width, height} of the crop in a frame of {@code frameWidth * frameHeight},
+     * the center {@code defaultWidth * defaultHeight} for {@link #DEFAULT}
+     */
+    int[] regionOf(int frameWidth, int frameHeight, int defaultWidth, int defaultHeight) {
+        int width;
+        int height;
+        switch (mMode) {
+            case MODE_ASPECT_RATIO:
+                int longSide = Math.max(mWidth, mHeight);
+                int shortSide = Math.min(mWidth, mHeight);
+                int ratioWidth = frameWidth >= frameHeight ? longSide : shortSide;
+                int ratioHeight = frameWidth >= frameHeight ? shortSide : longSide;
+                width = frameWidth;
+                height = (int) ((long) frameWidth * ratioHeight / ratioWidth);
+                if (height > frameHeight) {
+                    height = frameHeight;
+                    width = (int) ((long) frameHeight * ratioWidth / ratioHeight);
+                }
+                break;
+            case MODE_REGION:
+                int x = Math.min(mX & ~0x1, frameWidth - 2);
+                int y = Math.min(mY & ~0x1, frameHeight - 2);
+                width = Math.max((Math.min(mX + mWidth, frameWidth) & ~0x1) - x, 2);
+                height = Math.max((Math.min(mY + mHeight, frameHeight) & ~0x1) - y, 2);
+                return new int[] { x, y, width, height };
+            default:
+                width = Math.min(defaultWidth, frameWidth);
+                height = Math.min(defaultHeight, frameHeight);
+                break;
+        }
+        width = Math.max(width & ~0x1, 2);
+        height = Math.max(height & ~0x1, 2);
+        return new int[] {
+                ((frameWidth - width) >> 1) & ~0x1, ((frameHeight - height) >> 1) & ~0x1, width,
+                height
+        };
+    }
+
+    /**
+     * map the crop in the sent frames back to the input of the transform, to crop it before the
+     * rotation and flip.
+     *
+     * @param defaultWidth width of the {@link #DEFAULT} crop, in the orientation of the sent
+     * frames
+     * @return {x, y, width, height} of the crop in the input
+     */
+    int[] inputCrop(int width, int height, int rotation, boolean flipHorizontal,
+            boolean flipVertical, int defaultWidth, int defaultHeight) {
+        boolean swap = rotation == 90 || rotation == 270;
+        int outputWidth = swap ? height : width;
+        int outputHeight = swap ? width : height;
+        int[] region = regionOf(outputWidth, outputHeight, defaultWidth, defaultHeight);
+        int[] first = mapPixel(region[0], region[1], width, height, outputWidth, outputHeight,
+                rotation, flipHorizontal, flipVertical);
+        int[] last = mapPixel(region[0] + region[2] - 1, region[1] + region[3] - 1, width,
+                height, outputWidth, outputHeight, rotation, flipHorizontal, flipVertical);
+        int x = Math.min(first[0], last[0]);
+        int y = Math.min(first[1], last[1]);
+        return new int[] {
+                x, y, Math.max(first[0], last[0]) - x + 1, Math.max(first[1], last[1]) - y + 1
+        };
+    }
+
+    /**
+     * same as map_pixel in yuv_convert.c, without crop.
+     */
+    private static int[] mapPixel(int x, int y, int width, int height, int outputWidth,
+            int outputHeight, int rotation, boolean flipHorizontal, boolean flipVertical) {
+        if (flipHorizontal) {
+            x = outputWidth - 1 - x;
+        }
+        if (flipVertical) {
+            y = outputHeight - 1 - y;
+        }
+        switch (rotation) {
+            case 90:
+                return new int[] { y, height - 1 - x };
+            case 180:
+                return new int[] { width - 1 - x, height - 1 - y };
+            case 270:
+                return new int[] { width - 1 - y, x };
+            default:
+                return new int[] { x, y };
+        }
+    }
+}
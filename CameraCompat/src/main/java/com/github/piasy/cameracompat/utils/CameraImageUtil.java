@@ -54,47 +54,25 @@ public class CameraImageUtil {
         byte[] data = new byte[width * height * ImageFormat.getBitsPerPixel(format) / 8];
         byte[] rowData = new byte[planes[0].getRowStride()];
         int channelOffset = 0;
-        int outputStride = 1;
         for (int i = 0; i < planes.length; i++) {
             switch (i) {
                 case 0:
                     channelOffset = 0;
-                    outputStride = 1;
                     break;
                 case 1:
                     channelOffset = width * height;
-                    outputStride = 1;
                     break;
                 case 2:
                     channelOffset = (int) (width * height * 1.25);
-                    outputStride = 1;
                     break;
             }
             ByteBuffer buffer = planes[i].getBuffer();
             int rowStride = planes[i].getRowStride();
             int pixelStride = planes[i].getPixelStride();
             int shift = (i == 0) ? 0 : 1;
-            int w = width >> shift;
-            int h = height >> shift;
             buffer.position(rowStride * (crop.top >> shift) + pixelStride * (crop.left >> shift));
-            for (int row = 0; row < h; row++) {
-                int length;
-                if (pixelStride == 1) {
-                    length = w;
-                    buffer.get(data, channelOffset, length);
-                    channelOffset += length;
-                } else {
-                    length = (w - 1) * pixelStride + 1;
-                    buffer.get(rowData, 0, length);
-                    for (int col = 0; col < w; col++) {
-                        data[channelOffset] = rowData[col * pixelStride];
-                        channelOffset += outputStride;
-                    }
-                }
-                if (row < h - 1) {
-                    buffer.position(buffer.position() + rowStride - length);
-                }
-            }
+            PlanePacker.pack(buffer, rowStride, pixelStride, width >> shift, height >> shift, data,
+                    channelOffset, rowData);
         }
         return data;
     }
@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Plane packing of {@link CameraImageUtil#getDataFromImage}, free of android.media.Image so the
+ * benchmark module could run it on the host JVM.
+ */
+public final class PlanePacker {
+    private PlanePacker() {
+        // no instance
+    }
+
+    /**
+     * copy {@code h} rows of {@code w} pixels from {@code buffer}'s current position into
+     * {@code data}, dropping the row padding and the pixel stride.
+     *
+     * @param rowData scratch of at least one row, only used when {@code pixelStride != 1}
+     * @return offset in {@code data} right after the packed plane
+     */
+    public static int pack(ByteBuffer buffer, int rowStride, int pixelStride, int w, int h,
+            byte[] data, int offset, byte[] rowData) {
+        for (int row = 0; row < h; row++) {
+            int length;
+            if (pixelStride == 1) {
+                length = w;
+                buffer.get(data, offset, length);
+                offset += length;
+            } else {
+                length = (w - 1) * pixelStride + 1;
+                buffer.get(rowData, 0, length);
+                for (int col = 0; col < w; col++) {
+                    data[offset] = rowData[col * pixelStride];
+                    offset++;
+                }
+            }
+            if (row < h - 1) {
+                buffer.position(buffer.position() + rowStride - length);
+            }
+        }
+        return offset;
+    }
+}
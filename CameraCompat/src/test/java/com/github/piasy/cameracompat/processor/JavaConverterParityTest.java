@@ -0,0 +1,263 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * {@link JavaConverter} should convert byte for byte the same as the native converter, whose
+ * output hashes are checked into yuv_parity.txt and checked by cpp/bench/yuv_parity.c, the
+ * inputs and the order of the outputs are the same as there.
+ */
+public class JavaConverterParityTest {
+    // odd chroma width, so every loop has a tail
+    private static final int WIDTH = 70;
+    private static final int HEIGHT = 38;
+    private static final int Y_ROW_STRIDE = WIDTH + 8;
+    private static final int C_ROW_STRIDE = WIDTH / 2 + 4;
+    // renditions of it are exactly 2x and 4x smaller, which are box filtered
+    private static final int SCALE_WIDTH = 72;
+    private static final int SCALE_HEIGHT = 40;
+    private static final int FORMAT_COUNT = 5;
+    private static final int MATRIX_COUNT = 5;
+    private static final int ACCURACY_COUNT = 4;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final String[] INPUT_NAMES = { "nv21", "image", "rgba" };
+    private static final String[] MATRIX_NAMES = {
+            "legacy", "bt601_limited", "bt601_full", "bt709_limited", "bt709_full"
+    };
+    private static final String[] ACCURACY_NAMES = { "default", "fast", "exact", "reference" };
+
+    private final int mPixels = WIDTH * HEIGHT;
+    private final ByteBuffer mNv21 = ByteBuffer.wrap(fill(mPixels * 3 / 2, 0x12345678));
+    private final ByteBuffer mRgba = ByteBuffer.wrap(fill(mPixels * 4, 0x9e3779b9));
+    private final ByteBuffer mScaleIn = ByteBuffer.wrap(
+            fill(SCALE_WIDTH * SCALE_HEIGHT * 3 / 2, 0x2545f491));
+    private final ByteBuffer mImageY = ByteBuffer.allocate(Y_ROW_STRIDE * HEIGHT);
+    private final ByteBuffer mImageCr = ByteBuffer.allocate(C_ROW_STRIDE * HEIGHT / 2);
+    private final ByteBuffer mImageCb = ByteBuffer.allocate(C_ROW_STRIDE * HEIGHT / 2);
+    private Map<String, Long> mGolden;
+
+    @Before
+    public void setUp() throws IOException {
+        mGolden = loadGolden();
+        // the planes of the NV21 frame as a planar image, padding bytes are never read
+        byte[] nv21 = mNv21.array();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < Y_ROW_STRIDE; x++) {
+                mImageY.put(y * Y_ROW_STRIDE + x, x < WIDTH ? nv21[y * WIDTH + x] : (byte) 0xEE);
+            }
+        }
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < C_ROW_STRIDE; x++) {
+                int index = mPixels + y * WIDTH + x * 2;
+                mImageCr.put(y * C_ROW_STRIDE + x, x < WIDTH / 2 ? nv21[index] : (byte) 0xEE);
+                mImageCb.put(y * C_ROW_STRIDE + x, x < WIDTH / 2 ? nv21[index + 1] : (byte) 0xEE);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        JavaConverter.setColorMatrix(0);
+        JavaConverter.setThreadCount(1);
+    }
+
+    @Test
+    public void transformsMatchNative() {
+        checkTransforms();
+    }
+
+    @Test
+    public void bandsMatchNative() {
+        JavaConverter.setThreadCount(3);
+        checkTransforms();
+    }
+
+    @Test
+    public void scaleMatchesNative() {
+        long hash = FNV_OFFSET;
+        int[] sizes = {
+                SCALE_WIDTH / 2, SCALE_HEIGHT / 2, SCALE_WIDTH / 4, SCALE_HEIGHT / 4, 46, 26
+        };
+        ByteBuffer[] outs = new ByteBuffer[3];
+        for (int format = 0; format < FORMAT_COUNT; format++) {
+            if (format == FrameTransform.FORMAT_RGBA) {
+                continue;
+            }
+            for (int i = 0; i < outs.length; i++) {
+                outs[i] = ByteBuffer.allocate(sizes[i * 2] * sizes[i * 2 + 1] * 3 / 2);
+            }
+            assertEquals(0, JavaConverter.yuvScale(SCALE_WIDTH, SCALE_HEIGHT, format, mScaleIn,
+                    sizes, outs));
+            for (ByteBuffer out : outs) {
+                hash = fnv1a(hash, out.array(), out.capacity());
+            }
+        }
+        assertGolden("scale", hash);
+    }
+
+    @Test
+    public void mirrorMatchesNative() {
+        long hash = FNV_OFFSET;
+        for (int format = 0; format < FORMAT_COUNT; format++) {
+            // bit 0 mirrors horizontally, bit 1 vertically
+            for (int flip = 1; flip < 4; flip++) {
+                byte[] frame = format == FrameTransform.FORMAT_RGBA ? mRgba.array().clone()
+                                                                    : mNv21.array().clone();
+                assertEquals(0, JavaConverter.mirror(WIDTH, HEIGHT, format,
+                        ByteBuffer.wrap(frame), (flip & 0x1) != 0, (flip >> 1) != 0));
+                hash = fnv1a(hash, frame, frame.length);
+            }
+        }
+        assertGolden("mirror", hash);
+    }
+
+    private void checkTransforms() {
+        for (int input = 0; input < INPUT_NAMES.length; input++) {
+            for (int matrix = 0; matrix < MATRIX_COUNT; matrix++) {
+                assertEquals(0, JavaConverter.setColorMatrix(matrix));
+                for (int accuracy = 0; accuracy < ACCURACY_COUNT; accuracy++) {
+                    assertGolden(INPUT_NAMES[input] + "/" + MATRIX_NAMES[matrix] + "/"
+                                 + ACCURACY_NAMES[accuracy], hashTransforms(input, accuracy));
+                }
+            }
+        }
+    }
+
+    /**
+     * hash the output of every transform of one input, in the same order as yuv_parity.c.
+     */
+    private long hashTransforms(int input, int accuracy) {
+        long hash = FNV_OFFSET;
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (int flip = 0; flip < 4; flip++) {
+                for (int crop = 0; crop < 2; crop++) {
+                    for (int format = 0; format < FORMAT_COUNT; format++) {
+                        if (input == 2 && format == FrameTransform.FORMAT_RGBA) {
+                            continue;
+                        }
+                        FrameTransform.Builder builder = new FrameTransform.Builder()
+                                .rotation(rotation)
+                                .flipHorizontal((flip & 0x1) != 0)
+                                .flipVertical((flip >> 1) != 0)
+                                .outputFormat(format)
+                                .accuracy(accuracy);
+                        if (crop != 0) {
+                            builder.crop(2, 4, WIDTH - 6, HEIGHT - 8);
+                        }
+                        ByteBuffer out = ByteBuffer.allocate(outputSize(crop, format));
+                        if (transform(input, builder.build(), out) != 0) {
+                            // the native converter fails on the same transforms
+                            continue;
+                        }
+                        hash = fnv1a(hash, out.array(), out.capacity());
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    private int transform(int input, FrameTransform transform, ByteBuffer out) {
+        switch (input) {
+            case 0:
+                return JavaConverter.yuvTransform(WIDTH, HEIGHT, mNv21, transform, out);
+            case 1:
+                return JavaConverter.imageTransform(WIDTH, HEIGHT, mImageY, mImageCr, mImageCb,
+                        Y_ROW_STRIDE, C_ROW_STRIDE, 1, 1, transform, out);
+            default:
+                return JavaConverter.rgbaTransform(WIDTH, HEIGHT, mRgba, transform, out);
+        }
+    }
+
+    /**
+     * rotation only swaps the size.
+     */
+    private static int outputSize(int crop, int format) {
+        int size = crop != 0 ? (WIDTH - 6) * (HEIGHT - 8) : WIDTH * HEIGHT;
+        return format == FrameTransform.FORMAT_RGBA ? size * 4 : size * 3 / 2;
+    }
+
+    private void assertGolden(String name, long hash) {
+        Long golden = mGolden.get(name);
+        assertNotNull(name + ": no golden value", golden);
+        assertEquals(name + String.format(": hash %016x, golden %016x", hash, golden),
+                golden.longValue(), hash);
+    }
+
+    private static Map<String, Long> loadGolden() throws IOException {
+        Map<String, Long> golden = new HashMap<>();
+        InputStream stream = JavaConverterParityTest.class.getClassLoader()
+                .getResourceAsStream("yuv_parity.txt");
+        assertNotNull("yuv_parity.txt not found", stream);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                if (line.startsWith("#") || fields.length != 2) {
+                    continue;
+                }
+                golden.put(fields[0], Long.parseUnsignedLong(fields[1], 16));
+            }
+        } finally {
+            reader.close();
+        }
+        return golden;
+    }
+
+    private static long fnv1a(long hash, byte[] data, int size) {
+        for (int i = 0; i < size; i++) {
+            hash = (hash ^ (data[i] & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * bytes of the same linear congruential generator as yuv_parity.c.
+     */
+    private static byte[] fill(int size, int seed) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            seed = seed * 1664525 + 1013904223;
+            data[i] = (byte) (seed >>> 24);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat;
+
+import java.util.Random;
+
+/**
+ * frame sizes and content shared by the benchmarks.
+ */
+public final class Frames {
+    /**
+     * values of the {@code resolution} param of every benchmark.
+     */
+    public static final String P480 = "480p";
+    public static final String P720 = "720p";
+    public static final String P1080 = "1080p";
+
+    private Frames() {
+        // no instance
+    }
+
+    /**
+     * landscape size of a camera frame, {width, height}.
+     */
+    public static int[] size(String resolution) {
+        switch (resolution) {
+            case P480:
+                return new int[] { 640, 480 };
+            case P720:
+                return new int[] { 1280, 720 };
+            case P1080:
+                return new int[] { 1920, 1080 };
+            default:
+                throw new IllegalArgumentException("unknown resolution " + resolution);
+        }
+    }
+
+    /**
+     * random content, the same for every run so results are comparable.
+     */
+    public static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
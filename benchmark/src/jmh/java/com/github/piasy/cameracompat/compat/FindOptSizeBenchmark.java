@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.compat;
+
+import com.github.piasy.cameracompat.Frames;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link PreviewSize#findOptSize} against the preview sizes of a typical Camera2 device, asked
+ * for the portrait size the demo app uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FindOptSizeBenchmark {
+    private static final int[][] SUPPORTED_SIZES = {
+            { 4032, 3024 }, { 4000, 3000 }, { 3840, 2160 }, { 3264, 2448 }, { 2592, 1944 },
+            { 2048, 1536 }, { 1920, 1440 }, { 1920, 1080 }, { 1600, 1200 }, { 1440, 1080 },
+            { 1280, 960 }, { 1280, 768 }, { 1280, 720 }, { 1024, 768 }, { 800, 600 },
+            { 800, 480 }, { 720, 480 }, { 640, 480 }, { 640, 360 }, { 352, 288 }, { 320, 240 },
+            { 176, 144 },
+    };
+
+    @Param({ Frames.P480, Frames.P720, Frames.P1080 })
+    public String resolution;
+
+    private List<PreviewSize> mSupportedSize;
+    private int mDesiredWidth;
+    private int mDesiredHeight;
+
+    @Setup
+    public void setUp() {
+        mSupportedSize = new ArrayList<>();
+        for (int[] size : SUPPORTED_SIZES) {
+            mSupportedSize.add(new PreviewSize(size[0], size[1]));
+        }
+        int[] size = Frames.size(resolution);
+        mDesiredWidth = size[1];
+        mDesiredHeight = size[0];
+    }
+
+    @Benchmark
+    public PreviewSize findOptSize() {
+        return PreviewSize.findOptSize(mSupportedSize, mDesiredWidth, mDesiredHeight);
+    }
+}
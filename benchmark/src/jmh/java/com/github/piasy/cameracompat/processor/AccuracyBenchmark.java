@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import com.github.piasy.cameracompat.Frames;
+import java.nio.ByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * cost of the accuracy tiers on the pure Java converter, the PSNR of each tier is in
+ * wiki/Accuracy.md.
+ */
+@State(Scope.Thread)
+public class AccuracyBenchmark {
+    @Param({ Frames.P480, Frames.P720, Frames.P1080 })
+    public String resolution;
+
+    @Param({ "fast", "exact", "reference" })
+    public String accuracy;
+
+    private int mWidth;
+    private int mHeight;
+    private ByteBuffer mYuv;
+    private ByteBuffer mRgba;
+    private ByteBuffer mRgbaOutput;
+    private ByteBuffer mYuvOutput;
+    private FrameTransform mToRgba;
+    private FrameTransform mToYuv;
+
+    @Setup
+    public void setUp() {
+        int[] size = Frames.size(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        JavaConverter.setThreadCount(1);
+        mYuv = ByteBuffer.wrap(Frames.random(mWidth * mHeight * 3 / 2));
+        mRgba = ByteBuffer.wrap(Frames.random(mWidth * mHeight * 4));
+        mRgbaOutput = ByteBuffer.allocate(mWidth * mHeight * 4);
+        mYuvOutput = ByteBuffer.allocate(mWidth * mHeight * 3 / 2);
+        int tier = "fast".equals(accuracy) ? FrameTransform.ACCURACY_FAST
+                : "exact".equals(accuracy) ? FrameTransform.ACCURACY_EXACT
+                        : FrameTransform.ACCURACY_REFERENCE;
+        mToRgba = new FrameTransform.Builder()
+                .outputFormat(FrameTransform.FORMAT_RGBA)
+                .accuracy(tier)
+                .build();
+        mToYuv = new FrameTransform.Builder()
+                .accuracy(tier)
+                .build();
+    }
+
+    @Benchmark
+    public ByteBuffer yuv2rgba() {
+        JavaConverter.yuvTransform(mWidth, mHeight, mYuv, mToRgba, mRgbaOutput);
+        return mRgbaOutput;
+    }
+
+    @Benchmark
+    public ByteBuffer rgba2yuv() {
+        JavaConverter.rgbaTransform(mWidth, mHeight, mRgba, mToYuv, mYuvOutput);
+        return mYuvOutput;
+    }
+}
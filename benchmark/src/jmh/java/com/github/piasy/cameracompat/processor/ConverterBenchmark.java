@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.processor;
+
+import com.github.piasy.cameracompat.Frames;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * conversions done for every camera frame, on the pure Java converter.
+ */
+@State(Scope.Thread)
+public class ConverterBenchmark {
+    @Param({ Frames.P480, Frames.P720, Frames.P1080 })
+    public String resolution;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private int mWidth;
+    private int mHeight;
+    private ByteBuffer mYuv;
+    private ByteBuffer mRgba;
+    private int[] mRgbaPixels;
+    private ByteBuffer mOutput;
+    private FrameTransform mCropRotate;
+
+    @Setup
+    public void setUp() {
+        int[] size = Frames.size(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        JavaConverter.setThreadCount(threads);
+        mYuv = ByteBuffer.wrap(Frames.random(mWidth * mHeight * 3 / 2));
+        mRgba = ByteBuffer.allocate(mWidth * mHeight * 4);
+        mRgbaPixels = new int[mWidth * mHeight];
+        Random random = new Random(mRgbaPixels.length);
+        for (int i = 0; i < mRgbaPixels.length; i++) {
+            mRgbaPixels[i] = random.nextInt();
+        }
+        mOutput = ByteBuffer.allocate(mWidth * mHeight * 3 / 2);
+        // the portrait 4:3 preview GPUImageChain sends, from the center of the frame
+        int cropWidth = (mHeight * 3 / 4) & ~0x1;
+        mCropRotate = new FrameTransform.Builder()
+                .crop(((mWidth - cropWidth) >> 1) & ~0x1, 0, cropWidth, mHeight)
+                .rotation(90)
+                .build();
+    }
+
+    @Benchmark
+    public ByteBuffer yuv2rgba() {
+        JavaConverter.yuv2rgba(mWidth, mHeight, mYuv, mRgba);
+        return mRgba;
+    }
+
+    @Benchmark
+    public ByteBuffer rgba2yuv() {
+        JavaConverter.rgba2yuv(mWidth, mHeight, mRgbaPixels, mOutput.array());
+        return mOutput;
+    }
+
+    @Benchmark
+    public ByteBuffer cropRotate() {
+        JavaConverter.yuvTransform(mWidth, mHeight, mYuv, mCropRotate, mOutput);
+        return mOutput;
+    }
+}
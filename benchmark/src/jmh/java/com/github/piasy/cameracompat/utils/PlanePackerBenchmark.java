@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.cameracompat.utils;
+
+import com.github.piasy.cameracompat.Frames;
+import java.nio.ByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link CameraImageUtil#getDataFromImage} packing of a YUV_420_888 image into I420, with the
+ * plane layout Camera2 gives: padded rows, and interleaved chroma planes of pixel stride 2.
+ */
+@State(Scope.Thread)
+public class PlanePackerBenchmark {
+    private static final int ROW_PADDING = 64;
+
+    @Param({ Frames.P480, Frames.P720, Frames.P1080 })
+    public String resolution;
+
+    private int mWidth;
+    private int mHeight;
+    private int mYRowStride;
+    private int mCRowStride;
+    private ByteBuffer mY;
+    private ByteBuffer mCb;
+    private ByteBuffer mCr;
+    private byte[] mData;
+    private byte[] mRowData;
+
+    @Setup
+    public void setUp() {
+        int[] size = Frames.size(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        mYRowStride = mWidth + ROW_PADDING;
+        mCRowStride = mWidth + ROW_PADDING;
+        ByteBuffer chroma = ByteBuffer.wrap(Frames.random(mCRowStride * (mHeight >> 1)));
+        mY = ByteBuffer.wrap(Frames.random(mYRowStride * mHeight));
+        mCb = chroma.duplicate();
+        chroma.position(1);
+        mCr = chroma.slice();
+        mData = new byte[mWidth * mHeight * 3 / 2];
+        mRowData = new byte[mYRowStride];
+    }
+
+    @Benchmark
+    public byte[] pack() {
+        int size = mWidth * mHeight;
+        mY.position(0);
+        PlanePacker.pack(mY, mYRowStride, 1, mWidth, mHeight, mData, 0, mRowData);
+        mCb.position(0);
+        PlanePacker.pack(mCb, mCRowStride, 2, mWidth >> 1, mHeight >> 1, mData, size, mRowData);
+        mCr.position(0);
+        PlanePacker.pack(mCr, mCRowStride, 2, mWidth >> 1, mHeight >> 1, mData, size * 5 / 4,
+                mRowData);
+        return mData;
+    }
+}